@@ -0,0 +1,108 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.BackfillLoader;
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backfilling a sketch from a CSV file of timestamp,key lines: reading lines and offering each key as a String,
+ * against BackfillLoader parsing and hashing in place from the mapped file, on one thread and split into ranges on
+ * the common pool. Only faster in parallel with more than one processor.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BackfillBenchmark {
+
+    @Param({"RING_BUFFER"})
+    public StorageType storage;
+
+    @Param({"12"})
+    public int b;
+
+    @Param({"1000000"})
+    public long windowSize;
+
+    @Param({"2000000"})
+    public int events;
+
+    private SlidingHyperLogLog.Builder _builder;
+    private Path _file;
+    private BackfillLoader _loader;
+    private BackfillLoader _parallelLoader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _builder = Sketches.builder(storage, b, windowSize);
+        _file = Files.createTempFile("backfill-benchmark", ".csv");
+
+        EventStream stream = new EventStream(Distribution.UNIFORM, 42);
+        try (BufferedWriter writer = Files.newBufferedWriter(_file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < events; i++) {
+                int pos = stream.next();
+                writer.write(Long.toString(stream.timestamp(pos)));
+                writer.write(",user-");
+                writer.write(Long.toString(stream.value(pos)));
+                writer.write('\n');
+            }
+        }
+
+        _loader = new BackfillLoader.Builder().setSketchBuilder(_builder).build();
+        _parallelLoader = new BackfillLoader.Builder()
+                .setSketchBuilder(_builder)
+                .setParallelism(Math.max(2, Runtime.getRuntime().availableProcessors()))
+                .setExecutor(ForkJoinPool.commonPool())
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(_file);
+    }
+
+    @Benchmark
+    public SlidingHyperLogLog offerStrings() throws IOException {
+        SlidingHyperLogLog shll = _builder.build();
+        try (BufferedReader reader = Files.newBufferedReader(_file, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int comma = line.indexOf(',');
+                shll.offer(Long.parseLong(line.substring(0, comma)), line.substring(comma + 1));
+            }
+        }
+        return shll;
+    }
+
+    @Benchmark
+    public SlidingHyperLogLog load() throws IOException {
+        return _loader.load(_file);
+    }
+
+    @Benchmark
+    public SlidingHyperLogLog loadParallel() throws IOException {
+        return _parallelLoader.load(_file);
+    }
+}
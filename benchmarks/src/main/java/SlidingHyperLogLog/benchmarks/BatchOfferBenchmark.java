@@ -0,0 +1,94 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offering a batch of events one at a time against offerBatch. Scores are per batch, so compare scalar and batch at
+ * the same batch size. A batch of 65536 gives each of the 4096 registers at b=12 a run of 16 entries, applied in one
+ * pass, while a batch of 4096 mostly gives runs of one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchOfferBenchmark {
+
+    @Param({"RING_BUFFER", "MONOTONIC_DEQUE", "FLAT_STORE"})
+    public StorageType storage;
+
+    @Param({"8", "12", "16"})
+    public int b;
+
+    @Param({"UNIFORM", "ZIPFIAN"})
+    public Distribution distribution;
+
+    @Param({"4096", "65536"})
+    public int batchSize;
+
+    private EventStream _events;
+    private SlidingHyperLogLog _shll;
+
+    private long[] _ts;
+    private long[] _values;
+    private String[] _strings;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(distribution, 42);
+        _shll = Sketches.builder(storage, b, 1_000_000).build();
+        _ts = new long[batchSize];
+        _values = new long[batchSize];
+        _strings = new String[batchSize];
+    }
+
+    private void nextBatch() {
+        for (int i = 0; i < batchSize; i++) {
+            int pos = _events.next();
+            _ts[i] = _events.timestamp(pos);
+            _values[i] = _events.value(pos);
+            _strings[i] = _events.string(pos);
+        }
+    }
+
+    @Benchmark
+    public void scalarLong() {
+        nextBatch();
+        for (int i = 0; i < batchSize; i++)
+            _shll.offer(_ts[i], _values[i]);
+    }
+
+    @Benchmark
+    public void batchLong() {
+        nextBatch();
+        _shll.offerBatch(_ts, _values, 0, batchSize);
+    }
+
+    @Benchmark
+    public void scalarString() {
+        nextBatch();
+        for (int i = 0; i < batchSize; i++)
+            _shll.offer(_ts[i], _strings[i]);
+    }
+
+    @Benchmark
+    public void batchString() {
+        nextBatch();
+        _shll.offerBatch(_ts, _strings, 0, batchSize);
+    }
+}
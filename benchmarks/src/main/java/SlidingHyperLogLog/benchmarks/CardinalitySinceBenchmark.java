@@ -0,0 +1,84 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries against a sketch that has already seen a full cycle of events
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CardinalitySinceBenchmark {
+
+    @Param
+    public StorageType storage;
+
+    @Param({"4", "8", "10", "12", "14", "16", "18"})
+    public int b;
+
+    @Param({"10000", "1000000"})
+    public long windowSize;
+
+    @Param
+    public Distribution distribution;
+
+    private SlidingHyperLogLog _shll;
+    private long _now;
+    private long[] _fourHorizons;
+    private long[] _sixtyHorizons;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EventStream events = new EventStream(distribution, 42);
+        _shll = Sketches.builder(storage, b, windowSize).build();
+
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = events.next();
+            _shll.offer(events.timestamp(pos), events.value(pos));
+        }
+        _now = events.now();
+
+        // As for the last 1, 5, 15 and 60 minutes of an hour window, and a sparkline of the window
+        _fourHorizons = new long[]{_now - windowSize / 60, _now - windowSize / 12, _now - windowSize / 4, _now - windowSize};
+        _sixtyHorizons = new long[60];
+        for (int i = 0; i < _sixtyHorizons.length; i++)
+            _sixtyHorizons[i] = _now - windowSize + i * (windowSize / 60);
+    }
+
+    @Benchmark
+    public long wholeWindow() {
+        return _shll.cardinalitySince(_now - windowSize);
+    }
+
+    @Benchmark
+    public long tenthOfWindow() {
+        return _shll.cardinalitySince(_now - windowSize / 10);
+    }
+
+    @Benchmark
+    public long[] fourHorizons() {
+        return _shll.cardinalitiesSince(_fourHorizons);
+    }
+
+    @Benchmark
+    public long[] sixtyHorizons() {
+        return _shll.cardinalitiesSince(_sixtyHorizons);
+    }
+}
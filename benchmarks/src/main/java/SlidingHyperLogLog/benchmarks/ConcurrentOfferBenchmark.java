@@ -0,0 +1,109 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many threads offering into one shared sketch. SYNCHRONIZED guards a plain sketch with a single lock, as callers
+ * had to before; STRIPED uses a sketch built with a concurrency level.
+ *
+ * Every thread replays its own event stream, with timestamps taken from the wall clock so that offers from all
+ * threads stay near-ordered.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentOfferBenchmark {
+
+    public enum Locking { SYNCHRONIZED, STRIPED }
+
+    @State(Scope.Benchmark)
+    public static class SharedSketch {
+
+        @Param
+        public Locking locking;
+
+        @Param({"12", "16"})
+        public int b;
+
+        private SlidingHyperLogLog _shll;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SlidingHyperLogLog.Builder builder = Sketches.builder(StorageType.RING_BUFFER, b, 60_000);
+            if (locking == Locking.STRIPED)
+                builder.setConcurrencyLevel(Runtime.getRuntime().availableProcessors());
+            _shll = builder.build();
+        }
+
+        void offer(long timestamp, long value) {
+            if (locking == Locking.SYNCHRONIZED) {
+                synchronized (this) {
+                    _shll.offer(timestamp, value);
+                }
+            }
+            else {
+                _shll.offer(timestamp, value);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadEvents {
+
+        private static final AtomicLong SEEDS = new AtomicLong(42);
+
+        private EventStream _events;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            _events = new EventStream(Distribution.UNIFORM, SEEDS.getAndIncrement());
+        }
+    }
+
+    private static void offer(SharedSketch sketch, ThreadEvents events) {
+        int pos = events._events.next();
+        sketch.offer(System.currentTimeMillis(), events._events.value(pos));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void oneThread(SharedSketch sketch, ThreadEvents events) {
+        offer(sketch, events);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void twoThreads(SharedSketch sketch, ThreadEvents events) {
+        offer(sketch, events);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void fourThreads(SharedSketch sketch, ThreadEvents events) {
+        offer(sketch, events);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void allThreads(SharedSketch sketch, ThreadEvents events) {
+        offer(sketch, events);
+    }
+}
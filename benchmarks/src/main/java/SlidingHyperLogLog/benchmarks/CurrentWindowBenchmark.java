@@ -0,0 +1,64 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dashboard polling the current window: some offers, then a query for the window ending at the newest event,
+ * with and without the cardinality cache. Scores include the offers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CurrentWindowBenchmark {
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    @Param({"12", "16"})
+    public int b;
+
+    @Param({"0", "100", "10000"})
+    public int offersPerQuery;
+
+    private static final long WINDOW_SIZE = 100_000;
+
+    private EventStream _events;
+    private SlidingHyperLogLog _shll;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(Distribution.UNIFORM, 42);
+        _shll = Sketches.builder(StorageType.RING_BUFFER, b, WINDOW_SIZE).setCardinalityCache(cached).build();
+
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = _events.next();
+            _shll.offer(_events.timestamp(pos), _events.value(pos));
+        }
+    }
+
+    @Benchmark
+    public long offersThenQuery() {
+        for (int i = 0; i < offersPerQuery; i++) {
+            int pos = _events.next();
+            _shll.offer(_events.timestamp(pos), _events.value(pos));
+        }
+        return _shll.cardinalitySince(_events.now() - WINDOW_SIZE);
+    }
+}
@@ -0,0 +1,71 @@
+package SlidingHyperLogLog.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Input distributions fed to the sketches. Each produces one cycle of events: non-decreasing timestamps
+ * starting at 0, and the values offered at those timestamps.
+ */
+public enum Distribution {
+
+    // Like CardinalityTests: one event per tick, values cycling through 0..cardinality-1
+    SAWTOOTH {
+        @Override
+        void fill(long[] ts, long[] values, long cardinality, Random random) {
+            for (int i = 0; i < ts.length; i++) {
+                ts[i] = i;
+                values[i] = i % cardinality;
+            }
+        }
+    },
+
+    // One event per tick, values drawn uniformly from 0..cardinality-1
+    UNIFORM {
+        @Override
+        void fill(long[] ts, long[] values, long cardinality, Random random) {
+            for (int i = 0; i < ts.length; i++) {
+                ts[i] = i;
+                values[i] = (long) (random.nextDouble() * cardinality);
+            }
+        }
+    },
+
+    // One event per tick, values drawn from a Zipf distribution (s = 1) over 0..cardinality-1
+    ZIPFIAN {
+        @Override
+        void fill(long[] ts, long[] values, long cardinality, Random random) {
+            int n = (int) cardinality;
+            double[] cdf = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1.0 / (k + 1);
+                cdf[k] = total;
+            }
+
+            for (int i = 0; i < ts.length; i++) {
+                ts[i] = i;
+                int pos = java.util.Arrays.binarySearch(cdf, random.nextDouble() * total);
+                values[i] = pos >= 0 ? pos : Math.min(-pos - 1, n - 1);
+            }
+        }
+    },
+
+    // Uniform values, but timestamps arrive in bursts of up to 1000 events sharing a tick, separated by quiet gaps
+    BURSTY {
+        @Override
+        void fill(long[] ts, long[] values, long cardinality, Random random) {
+            long t = 0;
+            int i = 0;
+            while (i < ts.length) {
+                int burst = 1 + random.nextInt(1000);
+                for (int j = 0; j < burst && i < ts.length; j++, i++) {
+                    ts[i] = t;
+                    values[i] = (long) (random.nextDouble() * cardinality);
+                }
+                t += 1 + random.nextInt(2 * burst);
+            }
+        }
+    };
+
+    abstract void fill(long[] ts, long[] values, long cardinality, Random random);
+}
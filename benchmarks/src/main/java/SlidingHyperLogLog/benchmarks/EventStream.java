@@ -0,0 +1,81 @@
+package SlidingHyperLogLog.benchmarks;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * A pre-generated cycle of events, replayed endlessly with timestamps shifted forward on every lap so that the
+ * sketches always see non-decreasing time.
+ *
+ * Not thread safe
+ */
+final class EventStream {
+
+    static final int EVENTS_PER_CYCLE = 1 << 20;
+    static final long CARDINALITY = 100_000L;
+
+    private final long[] _ts = new long[EVENTS_PER_CYCLE];
+    private final long[] _values = new long[EVENTS_PER_CYCLE];
+    private final String[] _strings = new String[EVENTS_PER_CYCLE];
+    private final byte[][] _bytes = new byte[EVENTS_PER_CYCLE][];
+    private final int[] _hashes = new int[EVENTS_PER_CYCLE];
+    private final long _cycleLength;
+
+    private long _offset;
+    private int _pos;
+
+    EventStream(Distribution distribution, long seed) {
+        distribution.fill(_ts, _values, CARDINALITY, new Random(seed));
+
+        HashFunction hashFunction = Hashing.murmur3_32(1729);
+        for (int i = 0; i < EVENTS_PER_CYCLE; i++) {
+            _strings[i] = "user-" + _values[i];
+            _bytes[i] = _strings[i].getBytes(StandardCharsets.UTF_8);
+            _hashes[i] = hashFunction.hashLong(_values[i]).asInt();
+        }
+
+        _cycleLength = _ts[EVENTS_PER_CYCLE - 1] + 1;
+    }
+
+    /**
+     * Moves to the next event, returning its index into the value arrays
+     */
+    int next() {
+        // The next lap's offset only applies from its first event
+        if (_pos == EVENTS_PER_CYCLE) {
+            _pos = 0;
+            _offset += _cycleLength;
+        }
+        return _pos++;
+    }
+
+    long timestamp(int pos) {
+        return _offset + _ts[pos];
+    }
+
+    long value(int pos) {
+        return _values[pos];
+    }
+
+    String string(int pos) {
+        return _strings[pos];
+    }
+
+    byte[] bytes(int pos) {
+        return _bytes[pos];
+    }
+
+    int hash(int pos) {
+        return _hashes[pos];
+    }
+
+    /**
+     * Timestamp of the most recently returned event
+     */
+    long now() {
+        return _pos == 0 ? _offset - 1 : _offset + _ts[_pos - 1];
+    }
+}
@@ -0,0 +1,94 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.JournaledSketch;
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Ingest through a JournaledSketch, forcing the journal to disk every syncInterval records, against the same sketch
+ * without a journal, which is a syncInterval of 0. Checkpoints are every 2^22 records, as by default, so their cost
+ * is included. The journal is in a temporary directory, so pass -Djava.io.tmpdir to measure a particular disk.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalBenchmark {
+
+    @Param({"RING_BUFFER"})
+    public StorageType storage;
+
+    @Param({"12"})
+    public int b;
+
+    @Param({"1000000"})
+    public long windowSize;
+
+    @Param({"0", "1024", "16384", "262144"})
+    public int syncInterval;
+
+    private EventStream _events;
+    private SlidingHyperLogLog _shll;
+    private Path _directory;
+    private JournaledSketch _journaled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _events = new EventStream(Distribution.UNIFORM, 42);
+        SlidingHyperLogLog.Builder builder = Sketches.builder(storage, b, windowSize);
+        if (syncInterval == 0) {
+            _shll = builder.build();
+            return;
+        }
+
+        _directory = Files.createTempDirectory("journal-benchmark");
+        _journaled = new JournaledSketch.Builder()
+                .setSketchBuilder(builder)
+                .setSyncInterval(syncInterval)
+                .open(_directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (_journaled == null)
+            return;
+        _journaled.close();
+        delete(_directory);
+    }
+
+    @Benchmark
+    public void offerLong() {
+        int pos = _events.next();
+        if (_journaled == null)
+            _shll.offer(_events.timestamp(pos), _events.value(pos));
+        else
+            _journaled.offer(_events.timestamp(pos), _events.value(pos));
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
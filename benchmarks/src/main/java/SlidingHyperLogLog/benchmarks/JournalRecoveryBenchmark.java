@@ -0,0 +1,108 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.JournaledSketch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to reopen a JournaledSketch after a crash: reading the checkpoint and replaying the journal since, against
+ * replaying the tail of a journal with no checkpoint. history events are checkpointed, then tail more are journaled.
+ * With checkpoint false the whole history and tail are journaled, and recovery replays all of them. Each
+ * invocation recovers from a fresh copy of the files, as recovery writes a checkpoint of its own.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalRecoveryBenchmark {
+
+    @Param({"RING_BUFFER"})
+    public StorageType storage;
+
+    @Param({"12"})
+    public int b;
+
+    @Param({"1000000"})
+    public long windowSize;
+
+    @Param({"2000000"})
+    public int history;
+
+    @Param({"0", "100000", "1000000"})
+    public int tail;
+
+    @Param({"true", "false"})
+    public boolean checkpoint;
+
+    private JournaledSketch.Builder _builder;
+    private Path _saved;
+    private Path _directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        _builder = new JournaledSketch.Builder()
+                .setSketchBuilder(Sketches.builder(storage, b, windowSize))
+                .setCheckpointInterval(Integer.MAX_VALUE);
+
+        _saved = Files.createTempDirectory("journal-recovery-benchmark");
+        EventStream events = new EventStream(Distribution.UNIFORM, 42);
+        JournaledSketch journaled = _builder.open(_saved);
+        for (int i = 0; i < history; i++) {
+            int pos = events.next();
+            journaled.offer(events.timestamp(pos), events.value(pos));
+        }
+        if (checkpoint)
+            journaled.checkpoint();
+        for (int i = 0; i < tail; i++) {
+            int pos = events.next();
+            journaled.offer(events.timestamp(pos), events.value(pos));
+        }
+        journaled.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void copyFiles() throws IOException {
+        _directory = Files.createTempDirectory("journal-recovery-benchmark");
+        try (Stream<Path> files = Files.list(_saved)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.copy(file, _directory.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteCopy() throws IOException {
+        JournalBenchmark.delete(_directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        JournalBenchmark.delete(_saved);
+    }
+
+    @Benchmark
+    public int recover() throws IOException {
+        try (JournaledSketch journaled = _builder.open(_directory)) {
+            return journaled.replayed();
+        }
+    }
+}
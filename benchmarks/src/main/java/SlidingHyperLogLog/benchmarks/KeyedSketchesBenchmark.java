@@ -0,0 +1,86 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.MappedSketchStore;
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One small sketch per key, as for per-customer or per-page counts: a HashMap of sketches on the heap against a
+ * MappedSketchStore in direct memory. Run with -prof gc to compare allocation and GC time as well.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyedSketchesBenchmark {
+
+    private static final int B = 6;
+    private static final long WINDOW_SIZE = 1_000_000;
+
+    @Param({"10000", "100000"})
+    public int keys;
+
+    private EventStream _events;
+    private Map<Long, SlidingHyperLogLog> _heapSketches;
+    private MappedSketchStore _store;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(Distribution.UNIFORM, 42);
+        _heapSketches = new HashMap<>();
+        _store = new MappedSketchStore.Builder()
+                .setSketchBuilder(Sketches.builder(StorageType.RING_BUFFER, B, WINDOW_SIZE))
+                .allocateDirect();
+
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = _events.next();
+            heapOffer(pos);
+            _store.offer(key(pos), _events.timestamp(pos), _events.value(pos));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        _store.close();
+    }
+
+    // Spread events over the keys independently of their values
+    private long key(int pos) {
+        return (pos * 2654435761L) % keys;
+    }
+
+    private void heapOffer(int pos) {
+        _heapSketches.computeIfAbsent(key(pos), k -> Sketches.builder(StorageType.RING_BUFFER, B, WINDOW_SIZE).build())
+                .offer(_events.timestamp(pos), _events.value(pos));
+    }
+
+    @Benchmark
+    public void heap() {
+        heapOffer(_events.next());
+    }
+
+    @Benchmark
+    public void mapped() {
+        int pos = _events.next();
+        _store.offer(key(pos), _events.timestamp(pos), _events.value(pos));
+    }
+}
@@ -0,0 +1,68 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest with every tenth offer late by up to lateness, through a sketch allowing that lateness. A lateness of 0 is
+ * the same events in order through a sketch taking offers as they come, for comparison. COMPACT has no in place
+ * insertion, so shows LPFM.offerLate's merging fallback.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LateOfferBenchmark {
+
+    @Param({"RING_BUFFER", "MONOTONIC_DEQUE", "COMPACT"})
+    public StorageType storage;
+
+    @Param({"12"})
+    public int b;
+
+    @Param({"1000000"})
+    public long windowSize;
+
+    @Param({"0", "1000", "100000"})
+    public long lateness;
+
+    @Param({"UNIFORM"})
+    public Distribution distribution;
+
+    private EventStream _events;
+    private long[] _delays;
+    private SlidingHyperLogLog _shll;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(distribution, 42);
+        _shll = Sketches.builder(storage, b, windowSize).setAllowedLateness(lateness).build();
+
+        _delays = new long[EventStream.EVENTS_PER_CYCLE];
+        Random r = new Random(7);
+        for (int i = 0; lateness > 0 && i < _delays.length; i++)
+            _delays[i] = r.nextInt(10) == 0 ? (long) (r.nextDouble() * lateness) : 0;
+    }
+
+    @Benchmark
+    public void offerLong() {
+        int pos = _events.next();
+        _shll.offer(_events.timestamp(pos) - _delays[pos], _events.value(pos));
+    }
+}
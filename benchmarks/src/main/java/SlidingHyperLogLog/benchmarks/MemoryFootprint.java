@@ -0,0 +1,57 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+
+/**
+ * Retained heap per sketch for each StorageType, measured as the change in used heap after a full GC, against the
+ * sketch's own estimate (sizeInBytes) and the size of the same sketch serialized.
+ *
+ * Run with: java -cp target/benchmarks.jar SlidingHyperLogLog.benchmarks.MemoryFootprint
+ */
+public class MemoryFootprint {
+
+    private static final int SKETCHES = 10;
+    private static final long WINDOW_SIZE = 1_000_000L;
+
+    public static void main(String[] args) {
+
+        System.out.printf("%-16s %4s %-10s %16s %16s %16s%n", "storage", "b", "input", "bytes/sketch", "estimated", "serialized");
+
+        for (Distribution distribution : new Distribution[]{Distribution.UNIFORM, Distribution.BURSTY}) {
+            EventStream events = new EventStream(distribution, 42);
+
+            for (int b = 4; b <= 16; b += 4) {
+                for (StorageType storage : StorageType.values()) {
+                    SlidingHyperLogLog[] sketches = new SlidingHyperLogLog[SKETCHES];
+                    long bytesPerSketch = bytesPerSketch(storage, b, events, sketches);
+                    System.out.printf("%-16s %4d %-10s %16d %16d %16d%n", storage, b, distribution, bytesPerSketch, sketches[0].sizeInBytes(), sketches[0].serializedSize());
+                }
+            }
+        }
+    }
+
+    static long bytesPerSketch(StorageType storage, int b, EventStream events, SlidingHyperLogLog[] sketches) {
+
+        long before = usedHeap();
+
+        for (int s = 0; s < SKETCHES; s++) {
+            sketches[s] = Sketches.builder(storage, b, WINDOW_SIZE).build();
+            for (int i = 0; i < EventStream.EVENTS_PER_CYCLE / 4; i++) {
+                int pos = events.next();
+                sketches[s].offer(events.timestamp(pos), events.value(pos));
+            }
+        }
+
+        long after = usedHeap();
+        if (sketches[SKETCHES - 1].cardinalitySince(0) < 0)
+            throw new AssertionError();
+        return (after - before) / SKETCHES;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,63 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Folding shard sketches into a global one, as an aggregation node would. Each shard sees its own slice of the
+ * values over the same stretch of time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MergeBenchmark {
+
+    private static final int SHARDS = 16;
+    private static final long WINDOW_SIZE = 1_000_000;
+
+    @Param({"RING_BUFFER", "MONOTONIC_DEQUE", "FLAT_STORE", "SPARSE_THEN_FLAT"})
+    public StorageType storage;
+
+    @Param({"10", "14"})
+    public int b;
+
+    private SlidingHyperLogLog[] _shards;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _shards = new SlidingHyperLogLog[SHARDS];
+        for (int i = 0; i < SHARDS; i++)
+            _shards[i] = Sketches.builder(storage, b, WINDOW_SIZE).build();
+
+        EventStream events = new EventStream(Distribution.UNIFORM, 42);
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = events.next();
+            long value = events.value(pos);
+            _shards[(int) Math.floorMod(value, (long) SHARDS)].offer(events.timestamp(pos), value);
+        }
+    }
+
+    /**
+     * Shard sketches folded per second is this score times the shard count
+     */
+    @Benchmark
+    public SlidingHyperLogLog union() {
+        return SlidingHyperLogLog.union(_shards);
+    }
+}
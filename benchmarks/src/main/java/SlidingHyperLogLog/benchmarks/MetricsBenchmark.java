@@ -0,0 +1,86 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import jdk.jfr.Recording;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of metrics: OFF has no metrics sample interval, SAMPLED times one offer in 1024 and every query, and
+ * SAMPLED_JFR also commits flight recorder events to a running recording. Queries are against a sketch that has
+ * already seen a full cycle of events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    @Param({"OFF", "SAMPLED", "SAMPLED_JFR"})
+    public String metrics;
+
+    @Param({"12"})
+    public int b;
+
+    @Param({"1000000"})
+    public long windowSize;
+
+    private EventStream _events;
+    private SlidingHyperLogLog _shll;
+    private long _now;
+    private Recording _recording;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(Distribution.UNIFORM, 42);
+        SlidingHyperLogLog.Builder builder = Sketches.builder(StorageType.RING_BUFFER, b, windowSize);
+        if (!metrics.equals("OFF"))
+            builder.setMetricsSampleInterval(1024);
+        if (metrics.equals("SAMPLED_JFR")) {
+            builder.setFlightRecorderEvents(true);
+            _recording = new Recording();
+            _recording.enable("SlidingHyperLogLog.Offer").withoutThreshold();
+            _recording.enable("SlidingHyperLogLog.Query").withoutThreshold();
+            _recording.start();
+        }
+        _shll = builder.build();
+
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = _events.next();
+            _shll.offer(_events.timestamp(pos), _events.value(pos));
+        }
+        _now = _events.now();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (_recording != null)
+            _recording.close();
+    }
+
+    @Benchmark
+    public void offerLong() {
+        int pos = _events.next();
+        _shll.offer(_events.timestamp(pos), _events.value(pos));
+    }
+
+    @Benchmark
+    public long wholeWindow() {
+        return _shll.cardinalitySince(_now - windowSize);
+    }
+}
@@ -0,0 +1,113 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * cardinalitiesSince, which visits each register once for every horizon, against a cardinalitySince per horizon.
+ *
+ * main runs both for 4 horizons and more, and fails unless cardinalitiesSince is faster for every storage and b.
+ *
+ * Run with: java -cp target/benchmarks.jar SlidingHyperLogLog.benchmarks.MultiHorizonBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MultiHorizonBenchmark {
+
+    @Param({"RING_BUFFER", "MONOTONIC_DEQUE", "FLAT_STORE", "COMPACT_STORE"})
+    public StorageType storage;
+
+    @Param({"12", "16"})
+    public int b;
+
+    @Param({"2", "4", "8", "12", "16", "60"})
+    public int horizons;
+
+    private static final long WINDOW_SIZE = 1_000_000;
+
+    private SlidingHyperLogLog _shll;
+    private long[] _tMins;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _shll = Sketches.builder(storage, b, WINDOW_SIZE).build();
+
+        EventStream events = new EventStream(Distribution.UNIFORM, 42);
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = events.next();
+            _shll.offer(events.timestamp(pos), events.value(pos));
+        }
+        long now = events.now();
+
+        // Evenly spread over the window, the oldest being the whole window
+        _tMins = new long[horizons];
+        for (int i = 0; i < horizons; i++)
+            _tMins[i] = now - WINDOW_SIZE + i * (WINDOW_SIZE / horizons);
+    }
+
+    @Benchmark
+    public long[] cardinalitiesSince() {
+        return _shll.cardinalitiesSince(_tMins);
+    }
+
+    @Benchmark
+    public long[] queryPerHorizon() {
+        long[] cardinalities = new long[_tMins.length];
+        for (int i = 0; i < _tMins.length; i++)
+            cardinalities[i] = _shll.cardinalitySince(_tMins[i]);
+        return cardinalities;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MultiHorizonBenchmark.class.getName())
+                .param("horizons", "4", "8", "60")
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        // Average microseconds of each method, by storage, b and horizons
+        Map<String, Double> walks = new HashMap<>();
+        Map<String, Double> queries = new HashMap<>();
+        for (RunResult result : results) {
+            String params = result.getParams().getParam("storage") + ", b = " + result.getParams().getParam("b")
+                    + ", " + result.getParams().getParam("horizons") + " horizons";
+            double score = result.getPrimaryResult().getScore();
+            if (result.getParams().getBenchmark().endsWith("cardinalitiesSince"))
+                walks.put(params, score);
+            else
+                queries.put(params, score);
+        }
+
+        for (Map.Entry<String, Double> walk : walks.entrySet()) {
+            double query = queries.get(walk.getKey());
+            if (walk.getValue() >= query)
+                throw new IllegalStateException("cardinalitiesSince takes " + walk.getValue() + "us against " + query + "us for a query per horizon, with " + walk.getKey());
+        }
+        System.out.println("cardinalitiesSince beat a query per horizon in all " + walks.size() + " settings");
+    }
+}
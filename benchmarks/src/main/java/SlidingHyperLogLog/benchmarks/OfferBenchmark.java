@@ -0,0 +1,74 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-element ingest. Run with -prof gc for allocation rates; SampleTime mode reports p99.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class OfferBenchmark {
+
+    @Param
+    public StorageType storage;
+
+    @Param({"4", "8", "12", "16"})
+    public int b;
+
+    @Param({"10000", "1000000"})
+    public long windowSize;
+
+    @Param
+    public Distribution distribution;
+
+    private EventStream _events;
+    private SlidingHyperLogLog _shll;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _events = new EventStream(distribution, 42);
+        _shll = Sketches.builder(storage, b, windowSize).build();
+    }
+
+    @Benchmark
+    public void offerLong() {
+        int pos = _events.next();
+        _shll.offer(_events.timestamp(pos), _events.value(pos));
+    }
+
+    @Benchmark
+    public void offerString() {
+        int pos = _events.next();
+        _shll.offer(_events.timestamp(pos), _events.string(pos));
+    }
+
+    @Benchmark
+    public void offerBytes() {
+        int pos = _events.next();
+        _shll.offer(_events.timestamp(pos), _events.bytes(pos));
+    }
+
+    @Benchmark
+    public void offerHashed() {
+        int pos = _events.next();
+        _shll.offerHashed(_events.timestamp(pos), _events.hash(pos));
+    }
+}
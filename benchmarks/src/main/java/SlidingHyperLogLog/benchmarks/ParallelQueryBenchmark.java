@@ -0,0 +1,64 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-window queries against large sketches, on the calling thread alone or split across the common ForkJoinPool
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelQueryBenchmark {
+
+    @Param({"RING_BUFFER", "FLAT_STORE", "TIME_BUCKETS_60"})
+    public StorageType storage;
+
+    @Param({"14", "16", "18", "20"})
+    public int b;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private static final long WINDOW_SIZE = 1_000_000;
+
+    private SlidingHyperLogLog _shll;
+    private long _now;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SlidingHyperLogLog.Builder builder = Sketches.builder(storage, b, WINDOW_SIZE);
+        if (parallel)
+            builder.setQueryExecutor(ForkJoinPool.commonPool());
+        _shll = builder.build();
+
+        EventStream events = new EventStream(Distribution.UNIFORM, 42);
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = events.next();
+            _shll.offer(events.timestamp(pos), events.value(pos));
+        }
+        _now = events.now();
+    }
+
+    @Benchmark
+    public long wholeWindow() {
+        return _shll.cardinalitySince(_now - WINDOW_SIZE);
+    }
+}
@@ -0,0 +1,66 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing a sketch to a reused buffer, and reading it back. Serialized size against retained heap is
+ * reported by MemoryFootprint.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+    @Param({"RING_BUFFER", "FLAT_STORE"})
+    public StorageType storage;
+
+    @Param({"10", "14"})
+    public int b;
+
+    private SlidingHyperLogLog _shll;
+    private ByteBuffer _buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        _shll = Sketches.builder(storage, b, 1_000_000).build();
+        EventStream events = new EventStream(Distribution.UNIFORM, 42);
+        for (int i = 0; i < EventStream.EVENTS_PER_CYCLE; i++) {
+            int pos = events.next();
+            _shll.offer(events.timestamp(pos), events.value(pos));
+        }
+
+        _buffer = ByteBuffer.allocateDirect(_shll.serializedSize());
+        _shll.writeTo(_buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer writeTo() {
+        _buffer.clear();
+        _shll.writeTo(_buffer);
+        return _buffer;
+    }
+
+    @Benchmark
+    public SlidingHyperLogLog readFrom() {
+        _buffer.clear();
+        return SlidingHyperLogLog.readFrom(_buffer, storage.configure(new SlidingHyperLogLog.Builder()));
+    }
+}
@@ -0,0 +1,22 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+
+final class Sketches {
+
+    private Sketches() {
+    }
+
+    /**
+     * The Builder derives b from the rsd, so pick an rsd that lands exactly on the requested b
+     */
+    static double rsdForB(int b) {
+        return 0.999 * 1.106 / Math.sqrt(1 << b);
+    }
+
+    static SlidingHyperLogLog.Builder builder(StorageType storage, int b, long windowSize) {
+        return storage.configure(new SlidingHyperLogLog.Builder())
+                .setRsd(rsdForB(b))
+                .setWindowSize(windowSize);
+    }
+}
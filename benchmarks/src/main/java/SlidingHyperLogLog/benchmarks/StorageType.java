@@ -0,0 +1,80 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.BasicListLPFMFactory;
+import SlidingHyperLogLog.BoundedLPFMFactory;
+import SlidingHyperLogLog.CompactLPFMFactory;
+import SlidingHyperLogLog.CompactLPFMStoreFactory;
+import SlidingHyperLogLog.FlatLPFMStoreFactory;
+import SlidingHyperLogLog.InlineLPFMFactory;
+import SlidingHyperLogLog.MonotonicDequeLPFMFactory;
+import SlidingHyperLogLog.RingBufferLPFMFactory;
+import SlidingHyperLogLog.SlidingHyperLogLog;
+
+/**
+ * The register storage under benchmark: an LPFM implementation, or a whole-sketch LPFMStore
+ */
+public enum StorageType {
+
+    RING_BUFFER {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new RingBufferLPFMFactory());
+        }
+    },
+    MONOTONIC_DEQUE {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new MonotonicDequeLPFMFactory());
+        }
+    },
+    BASIC_LIST {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new BasicListLPFMFactory());
+        }
+    },
+    COMPACT {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new CompactLPFMFactory());
+        }
+    },
+    INLINE {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new InlineLPFMFactory());
+        }
+    },
+    BOUNDED_8 {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmFactory(new BoundedLPFMFactory(8));
+        }
+    },
+    TIME_BUCKETS_60 {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setTimeBuckets(60);
+        }
+    },
+    FLAT_STORE {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmStoreFactory(new FlatLPFMStoreFactory());
+        }
+    },
+    COMPACT_STORE {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmStoreFactory(new CompactLPFMStoreFactory());
+        }
+    },
+    SPARSE_THEN_FLAT {
+        @Override
+        SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder) {
+            return builder.setLpfmStoreFactory(new FlatLPFMStoreFactory()).setSparse(true);
+        }
+    };
+
+    abstract SlidingHyperLogLog.Builder configure(SlidingHyperLogLog.Builder builder);
+}
@@ -0,0 +1,48 @@
+package SlidingHyperLogLog.benchmarks;
+
+import SlidingHyperLogLog.SlidingHyperLogLog;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Bytes allocated by the first million offers to a new sketch for each StorageType, as registers' lists are first
+ * built up, and the sketch's estimated size (sizeInBytes) after them. Counted for this thread by the JVM, so the
+ * figures include garbage that a heap measurement misses.
+ *
+ * Run with: java -cp target/benchmarks.jar SlidingHyperLogLog.benchmarks.WarmUpAllocation
+ */
+public class WarmUpAllocation {
+
+    private static final int OFFERS = 1_000_000;
+    private static final long WINDOW_SIZE = 1_000_000L;
+
+    public static void main(String[] args) {
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        System.out.printf("%-16s %4s %-10s %16s %16s %16s%n", "storage", "b", "input", "allocated", "bytes/offer", "estimated");
+
+        for (Distribution distribution : new Distribution[]{Distribution.UNIFORM, Distribution.BURSTY}) {
+            for (int b = 4; b <= 16; b += 4) {
+                for (StorageType storage : StorageType.values()) {
+                    // Once to compile the offer path, then measured on the same events
+                    for (int run = 0; run < 2; run++) {
+                        EventStream events = new EventStream(distribution, 42);
+                        long before = threads.getThreadAllocatedBytes(thread);
+
+                        SlidingHyperLogLog sketch = Sketches.builder(storage, b, WINDOW_SIZE).build();
+                        for (int i = 0; i < OFFERS; i++) {
+                            int pos = events.next();
+                            sketch.offer(events.timestamp(pos), events.value(pos));
+                        }
+
+                        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+                        if (run == 1)
+                            System.out.printf("%-16s %4d %-10s %16d %16.2f %16d%n", storage, b, distribution, allocated, (double) allocated / OFFERS, sketch.sizeInBytes());
+                    }
+                }
+            }
+        }
+    }
+}
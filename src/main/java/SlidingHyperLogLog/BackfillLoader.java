@@ -0,0 +1,400 @@
+package SlidingHyperLogLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads a sketch from a file of events, such as hours of history to backfill a new sketch with. The file is mapped
+ * into memory and each event's timestamp and key are read where they lie, with no String or array per event, and the
+ * key hashed straight from the mapped bytes.
+ *
+ * A delimited file has an event per line, '\n' or "\r\n" terminated, with fields separated by a single-byte
+ * delimiter. The timestamp field is a decimal long. Empty lines are skipped. A binary file has fixed-size records
+ * with an 8-byte timestamp and a fixed-length key at given offsets. Keys are hashed as offer(long, byte[]) hashes
+ * their bytes, so a UTF-8 key gets the same hash as offer(long, String) gives the key when the default charset is
+ * UTF-8.
+ *
+ * With a parallelism above 1 the file is split into that many ranges, on line or record boundaries. The calling
+ * thread loads the first into the sketch returned, the executor loads the others into sketches of their own, and
+ * those are merged in. Events should be in timestamp order, at least within each range. Files over 1GB are split
+ * into ranges of at most that even without an executor, as one mapping is limited to 2GB.
+ *
+ * A loader may be used by several threads at once
+ */
+public class BackfillLoader {
+
+    public enum Format {
+        DELIMITED,
+        BINARY
+    }
+
+    // Largest range mapped at once, plus the rest of its last line
+    static final long MAX_RANGE = 1 << 30;
+
+    // '\n' in every byte of a long
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+
+    private final SlidingHyperLogLog.Builder _sketchBuilder;
+    private final boolean _hash64;
+    private final Format _format;
+    private final byte _delimiter;
+    // The delimiter in every byte of a long
+    private final long _delimiters;
+    private final int _timestampField;
+    private final int _keyField;
+    private final int _headerLines;
+    private final int _recordSize;
+    private final int _timestampOffset;
+    private final int _keyOffset;
+    private final int _keyLength;
+    private final ByteOrder _byteOrder;
+    private final int _parallelism;
+    private final Executor _executor;
+
+    private BackfillLoader(Builder builder) {
+        _sketchBuilder = builder._sketchBuilder;
+        _hash64 = builder._sketchBuilder.use64BitHash();
+        _format = builder._format;
+        _delimiter = builder._delimiter;
+        _delimiters = 0x0101010101010101L * (builder._delimiter & 0xFF);
+        _timestampField = builder._timestampField;
+        _keyField = builder._keyField;
+        _headerLines = builder._headerLines;
+        _recordSize = builder._recordSize;
+        _timestampOffset = builder._timestampOffset;
+        _keyOffset = builder._keyOffset;
+        _keyLength = builder._keyLength;
+        _byteOrder = builder._byteOrder;
+        _parallelism = builder._parallelism;
+        _executor = builder._executor;
+    }
+
+    /**
+     * A new sketch, built by the sketch builder, holding every event in the file. Throws IllegalArgumentException if
+     * the file is malformed, naming the byte offset of the first problem found.
+     */
+    public SlidingHyperLogLog load(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = _format == Format.BINARY ? binaryRanges(channel.size()) : delimitedRanges(channel);
+
+            // As for parallel queries, the calling thread takes the first range and the executor the rest
+            List<CompletableFuture<SlidingHyperLogLog>> futures = new ArrayList<>();
+            SlidingHyperLogLog sketch = _sketchBuilder.build();
+            int ranges = bounds.length - 1;
+            for (int i = 1; i < ranges && _executor != null; i++) {
+                long start = bounds[i];
+                long end = bounds[i + 1];
+                futures.add(CompletableFuture.supplyAsync(() -> loadRange(channel, start, end, _sketchBuilder.build()), _executor));
+            }
+
+            try {
+                loadRange(channel, bounds[0], bounds[1], sketch);
+                for (int i = 1; i < ranges && _executor == null; i++)
+                    loadRange(channel, bounds[i], bounds[i + 1], sketch);
+                for (CompletableFuture<SlidingHyperLogLog> future : futures)
+                    sketch.merge(future.join());
+            }
+            catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException)
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw e;
+            }
+            return sketch;
+        }
+    }
+
+    // Range boundaries: parallelism ranges, or more of at most MAX_RANGE, of whole records
+    private long[] binaryRanges(long size) {
+        if (size % _recordSize != 0)
+            throw new IllegalArgumentException("File size " + size + " is not a multiple of the record size " + _recordSize);
+
+        long records = size / _recordSize;
+        int ranges = rangeCount(size);
+        long[] bounds = new long[ranges + 1];
+        for (int i = 0; i <= ranges; i++)
+            bounds[i] = records * i / ranges * _recordSize;
+        return bounds;
+    }
+
+    // Range boundaries after the header lines: parallelism ranges, or more of at most MAX_RANGE, each moved on to the
+    // start of a line
+    private long[] delimitedRanges(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        for (int i = 0; i < _headerLines; i++)
+            start = nextLineStart(channel, start + 1);
+
+        int ranges = rangeCount(size - start);
+        long[] bounds = new long[ranges + 1];
+        bounds[0] = start;
+        for (int i = 1; i < ranges; i++)
+            bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, start + (size - start) * i / ranges));
+        bounds[ranges] = size;
+        return bounds;
+    }
+
+    private int rangeCount(long bytes) {
+        return (int) Math.max(_parallelism, (bytes + MAX_RANGE - 1) / MAX_RANGE);
+    }
+
+    // Start of the first line starting at or after pos
+    private static long nextLineStart(FileChannel channel, long pos) throws IOException {
+        if (pos == 0)
+            return 0;
+
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long offset = pos - 1;
+        while (channel.read(buffer, offset) > 0) {
+            buffer.flip();
+            for (int i = 0; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n')
+                    return offset + i + 1;
+            }
+            offset += buffer.limit();
+            buffer.clear();
+        }
+        return channel.size();
+    }
+
+    private SlidingHyperLogLog loadRange(FileChannel channel, long start, long end, SlidingHyperLogLog sketch) {
+        if (start == end)
+            return sketch;
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            if (_format == Format.BINARY)
+                loadBinary(buffer.order(_byteOrder), sketch);
+            else
+                loadDelimited(buffer.order(ByteOrder.LITTLE_ENDIAN), start, sketch);
+            return sketch;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void loadBinary(ByteBuffer buffer, SlidingHyperLogLog sketch) {
+        int end = buffer.limit();
+        for (int pos = 0; pos < end; pos += _recordSize)
+            offer(sketch, buffer.getLong(pos + _timestampOffset), buffer, pos + _keyOffset, _keyLength);
+    }
+
+    private void loadDelimited(ByteBuffer buffer, long fileOffset, SlidingHyperLogLog sketch) {
+
+        int end = buffer.limit();
+        int lineStart = 0;
+        while (lineStart < end) {
+
+            // Find the two fields, then the end of the line
+            int field = 0;
+            int fieldStart = lineStart;
+            int tStart = -1, tEnd = -1, keyStart = -1, keyEnd = -1;
+            int pos = lineStart;
+            for (;; pos++) {
+                pos = nextSeparator(buffer, pos, end);
+                byte c = pos < end ? buffer.get(pos) : (byte) '\n';
+
+                // A field ending the line does not include a '\r' before the '\n'
+                int fieldEnd = c == '\n' && pos > fieldStart && buffer.get(pos - 1) == '\r' ? pos - 1 : pos;
+                if (field == _timestampField) {
+                    tStart = fieldStart;
+                    tEnd = fieldEnd;
+                }
+                if (field == _keyField) {
+                    keyStart = fieldStart;
+                    keyEnd = fieldEnd;
+                }
+                if (c == '\n')
+                    break;
+                field++;
+                fieldStart = pos + 1;
+            }
+
+            boolean empty = pos == lineStart || (pos == lineStart + 1 && buffer.get(lineStart) == '\r');
+            if (!empty) {
+                if (tStart < 0 || keyStart < 0)
+                    throw new IllegalArgumentException("Line at byte " + (fileOffset + lineStart) + " has too few fields");
+                offer(sketch, parseTimestamp(buffer, tStart, tEnd, fileOffset), buffer, keyStart, keyEnd - keyStart);
+            }
+            lineStart = pos + 1;
+        }
+    }
+
+    // First position from pos of the delimiter or a '\n', or end. Tests eight bytes at a time, read little-endian so
+    // that the lowest byte flagged by zeroBytes is the first match, as a borrow only flags bytes above a zero byte.
+    private int nextSeparator(ByteBuffer buffer, int pos, int end) {
+        for (; pos + Long.BYTES <= end; pos += Long.BYTES) {
+            long word = buffer.getLong(pos);
+            long found = zeroBytes(word ^ _delimiters) | zeroBytes(word ^ NEWLINES);
+            if (found != 0)
+                return pos + (Long.numberOfTrailingZeros(found) >>> 3);
+        }
+        for (; pos < end; pos++) {
+            byte c = buffer.get(pos);
+            if (c == _delimiter || c == '\n')
+                return pos;
+        }
+        return end;
+    }
+
+    // The top bit of each zero byte of v set, and possibly of bytes above a zero byte
+    private static long zeroBytes(long v) {
+        return (v - 0x0101010101010101L) & ~v & 0x8080808080808080L;
+    }
+
+    private static long parseTimestamp(ByteBuffer buffer, int start, int end, long fileOffset) {
+        boolean negative = start < end && buffer.get(start) == '-';
+        int pos = negative ? start + 1 : start;
+        if (pos == end)
+            throw new IllegalArgumentException("Malformed timestamp at byte " + (fileOffset + start));
+
+        long t = 0;
+        for (; pos < end; pos++) {
+            int digit = buffer.get(pos) - '0';
+            if (digit < 0 || digit > 9)
+                throw new IllegalArgumentException("Malformed timestamp at byte " + (fileOffset + start));
+            t = t * 10 + digit;
+        }
+        return negative ? -t : t;
+    }
+
+    private void offer(SlidingHyperLogLog sketch, long t, ByteBuffer buffer, int keyStart, int keyLength) {
+        if (_hash64)
+            sketch.offerHashed(t, Murmur3.hash64Bytes(buffer, keyStart, keyLength, SlidingHyperLogLog.HASH_SEED));
+        else
+            sketch.offerHashed(t, Murmur3.hashBytes(buffer, keyStart, keyLength, SlidingHyperLogLog.HASH_SEED));
+    }
+
+
+    public static class Builder
+    {
+        private SlidingHyperLogLog.Builder _sketchBuilder;
+        private Format _format = Format.DELIMITED;
+        private byte _delimiter = ',';
+        private int _timestampField = 0;
+        private int _keyField = 1;
+        private int _headerLines = 0;
+        private int _recordSize = 0;
+        private int _timestampOffset = 0;
+        private int _keyOffset = 0;
+        private int _keyLength = 0;
+        private ByteOrder _byteOrder = ByteOrder.BIG_ENDIAN;
+        private int _parallelism = 1;
+        private Executor _executor = null;
+
+        /**
+         * Settings of the sketch loaded, and of those loaded in parallel and merged into it
+         */
+        public BackfillLoader.Builder setSketchBuilder(SlidingHyperLogLog.Builder sketchBuilder) {
+            _sketchBuilder = sketchBuilder;
+            return this;
+        }
+
+        public BackfillLoader.Builder setFormat(Format format) {
+            _format = format;
+            return this;
+        }
+
+        /**
+         * Separator of a delimited file's fields. Must be ASCII, and not a line ending.
+         */
+        public BackfillLoader.Builder setDelimiter(char delimiter) {
+            if (delimiter > 127 || delimiter == '\n' || delimiter == '\r')
+                throw new IllegalArgumentException("delimiter must be ASCII, and not a line ending");
+
+            _delimiter = (byte) delimiter;
+            return this;
+        }
+
+        /**
+         * Positions, from 0, of a delimited file's timestamp and key fields
+         */
+        public BackfillLoader.Builder setFields(int timestampField, int keyField) {
+            if (timestampField < 0 || keyField < 0 || timestampField == keyField)
+                throw new IllegalArgumentException("Fields must be >= 0 and different");
+
+            _timestampField = timestampField;
+            _keyField = keyField;
+            return this;
+        }
+
+        /**
+         * Lines at the start of a delimited file to skip, such as a line of column names
+         */
+        public BackfillLoader.Builder setHeaderLines(int headerLines) {
+            if (headerLines < 0)
+                throw new IllegalArgumentException("headerLines must be >= 0");
+
+            _headerLines = headerLines;
+            return this;
+        }
+
+        /**
+         * Layout of a binary file's records: recordSize bytes each, with an 8-byte timestamp at timestampOffset and
+         * a key of keyLength bytes at keyOffset
+         */
+        public BackfillLoader.Builder setRecordLayout(int recordSize, int timestampOffset, int keyOffset, int keyLength) {
+            if (timestampOffset < 0 || timestampOffset + Long.BYTES > recordSize || keyOffset < 0 || keyLength <= 0 || keyOffset + keyLength > recordSize)
+                throw new IllegalArgumentException("Timestamp and key must lie within the record");
+
+            _recordSize = recordSize;
+            _timestampOffset = timestampOffset;
+            _keyOffset = keyOffset;
+            _keyLength = keyLength;
+            return this;
+        }
+
+        /**
+         * Byte order of a binary file's timestamps. Big-endian by default.
+         */
+        public BackfillLoader.Builder setByteOrder(ByteOrder byteOrder) {
+            _byteOrder = byteOrder;
+            return this;
+        }
+
+        /**
+         * Ranges to split the file into, all but the first loaded on the executor
+         */
+        public BackfillLoader.Builder setParallelism(int parallelism) {
+            if (parallelism <= 0)
+                throw new IllegalArgumentException("parallelism must be > 0");
+
+            _parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Where ranges after the first are loaded, such as ForkJoinPool.commonPool(). Without one, every range is
+         * loaded on the calling thread.
+         */
+        public BackfillLoader.Builder setExecutor(Executor executor) {
+            _executor = executor;
+            return this;
+        }
+
+        public BackfillLoader build() {
+            if (_sketchBuilder == null)
+                throw new IllegalArgumentException("Please set a sketch builder");
+            if (_format == Format.BINARY && _recordSize == 0)
+                throw new IllegalArgumentException("Please set a record layout for a binary file");
+            _sketchBuilder.checkSettings();
+            return new BackfillLoader(this);
+        }
+    }
+}
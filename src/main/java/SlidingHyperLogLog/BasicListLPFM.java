@@ -31,6 +31,26 @@ public class BasicListLPFM implements LPFM {
         LFPMs.add(Pair.of(timestamp, R));
     }
 
+    @Override
+    public void offerLate(long timestamp, int R) {
+
+        long newest = LFPMs.isEmpty() ? Long.MIN_VALUE : LFPMs.get(LFPMs.size() - 1).getLeft();
+        if (timestamp >= newest) {
+            offer(timestamp, R);
+            return;
+        }
+        if (timestamp < newest - windowSize)
+            return;
+        if (LFPMs.stream().anyMatch(p -> p.getLeft() >= timestamp && p.getRight() >= R))
+            return;
+
+        LFPMs.removeIf(p -> p.getLeft() <= timestamp && p.getRight() <= R);
+        int pos = 0;
+        while (LFPMs.get(pos).getLeft() < timestamp)
+            pos++;
+        LFPMs.add(pos, Pair.of(timestamp, R));
+    }
+
     @Override
     public int getMaxSince(long tMin) {
 
@@ -41,4 +61,38 @@ public class BasicListLPFM implements LPFM {
                 .orElse(0);
     }
 
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+
+        LFPMs.forEach(p -> consumer.accept(p.getLeft(), p.getRight()));
+    }
+
+    @Override
+    public void merge(LPFMEntries other) {
+
+        // Replaying every entry in timestamp order leaves just those which would have survived
+        List<Pair<Long, Integer>> entries = Lists.newArrayList(LFPMs);
+        other.forEachEntry((t, R) -> entries.add(Pair.of(t, R)));
+        entries.sort(Comparator.comparing(Pair::getLeft));
+
+        LFPMs.clear();
+        entries.forEach(p -> offer(p.getLeft(), p.getRight()));
+    }
+
+    @Override
+    public int expire(long now) {
+
+        int size = LFPMs.size();
+        LFPMs.removeIf(p -> p.getLeft() < now - windowSize);
+        return size - LFPMs.size();
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // The LinkedList, and per entry its node, the Pair and the boxed Long. Boxed Rs are small enough to be cached.
+        long list = HeapSize.object(3 * Integer.BYTES + 2 * HeapSize.REFERENCE);
+        long entry = HeapSize.object(3 * HeapSize.REFERENCE) + HeapSize.object(2 * HeapSize.REFERENCE) + HeapSize.object(Long.BYTES);
+        return HeapSize.object(Long.BYTES + HeapSize.REFERENCE) + list + LFPMs.size() * entry;
+    }
+
 }
@@ -0,0 +1,57 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * Arrays a batch offer works in: the registers and ranks of the hashed batch, and the same entries grouped by
+ * register. One per thread, shared by every sketch the thread offers batches to, so no sketch retains any, and
+ * sketches with a concurrency level can take batches from several threads. Batches longer than MAX_RETAINED get
+ * arrays of their own, so that one huge batch does not pin them.
+ *
+ * Not thread safe
+ */
+final class BatchScratch {
+
+    static final int MAX_RETAINED = 1 << 16;
+
+    private static final ThreadLocal<BatchScratch> SCRATCH = ThreadLocal.withInitial(BatchScratch::new);
+
+    int[] _registers = new int[0];
+    int[] _ranks = new int[0];
+
+    int[] _starts = new int[0];
+    int[] _groupedRegisters = new int[0];
+    int[] _groupedRanks = new int[0];
+    long[] _groupedTs = new long[0];
+
+    private BatchScratch() {
+    }
+
+    /**
+     * The calling thread's scratch, with room to hash a batch of len
+     */
+    static BatchScratch forBatch(int len) {
+        BatchScratch scratch = len <= MAX_RETAINED ? SCRATCH.get() : new BatchScratch();
+        if (scratch._registers.length < len) {
+            scratch._registers = new int[len];
+            scratch._ranks = new int[len];
+        }
+        return scratch;
+    }
+
+    /**
+     * Makes room to group a batch of len over registerCount registers, with every start zeroed
+     */
+    void ensureGrouping(int len, int registerCount) {
+        if (_starts.length < registerCount + 1)
+            _starts = new int[registerCount + 1];
+        else
+            Arrays.fill(_starts, 0, registerCount + 1, 0);
+
+        if (_groupedRegisters.length < len) {
+            _groupedRegisters = new int[len];
+            _groupedRanks = new int[len];
+            _groupedTs = new long[len];
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package SlidingHyperLogLog;
+
+public class BoundedLPFMFactory implements LPFMFactory<BoundedLPFM> {
+
+    private final int _capacity;
+
+    /**
+     * Lists of at most capacity entries each. See BoundedLPFM for which are dropped when a list is full.
+     */
+    public BoundedLPFMFactory(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0");
+
+        _capacity = capacity;
+    }
+
+    @Override
+    public BoundedLPFM buildLPFM(long windowSize) {
+        return new BoundedLPFM(windowSize, _capacity);
+    }
+
+    /**
+     * Most heap one list can ever retain (see SlidingHyperLogLog.sizeInBytes()), so a sketch of 2^b registers
+     * retains at most its size when new plus 2^b times this
+     */
+    public long maxSizeInBytes() {
+        return BoundedLPFM.maxSizeInBytes(_capacity);
+    }
+}
@@ -0,0 +1,214 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * Approximate storage which quantises time into fixed buckets and keeps, per register, only the largest R offered
+ * in each of the newest bucketCount buckets, so memory is bucketCount bytes per register whatever the traffic.
+ *
+ * Buckets are windowSize / (bucketCount - 1) long, rounded up, so the bucketCount buckets up to the newest always
+ * cover the whole window, the oldest being partly outside it. Each register's buckets are a ring of bytes, all in one
+ * array, and a bucket is cleared for every register when the newest offer moves time past it. Offers are O(1),
+ * amortised over the clearing, and queries O(bucketCount) per register.
+ *
+ * Queries round tMin down to the start of its bucket, so count everything offered in that bucket, and within the
+ * window answer exactly as unbounded lists would for that rounded tMin. Entries are reported at the last timestamp
+ * of their bucket, so merging and serialising keep them in the same bucket, and they answer every tMin rounded into
+ * it. Offers older than the oldest bucket are ignored.
+ *
+ * Not thread safe
+ */
+public class BucketedLPFMStore implements LPFMStore {
+
+    private final int _registerCount;
+    private final int _bucketCount;
+    private final long _bucketWidth;
+
+    // bucketCount Rs per register. Bucket b of a register is at register * bucketCount + floorMod(b, bucketCount).
+    private final byte[] _maxRs;
+
+    // Newest bucket offered to, so the oldest held is _newestBucket - bucketCount + 1
+    private long _newestBucket = Long.MIN_VALUE;
+
+    // Buckets with an entry, newest first, for forEachEntry
+    private final int[] _kept;
+
+    BucketedLPFMStore(int registerCount, long windowSize, int bucketCount) {
+        if (!fits(registerCount, bucketCount))
+            throw new IllegalArgumentException(tooManyBuckets(registerCount, bucketCount));
+
+        _registerCount = registerCount;
+        _bucketCount = bucketCount;
+        _bucketWidth = (windowSize + bucketCount - 2) / (bucketCount - 1);
+        _maxRs = new byte[registerCount * bucketCount];
+        _kept = new int[bucketCount];
+    }
+
+    // Whether registerCount * bucketCount Rs fit in one array
+    static boolean fits(int registerCount, int bucketCount) {
+        return (long) registerCount * bucketCount <= Integer.MAX_VALUE;
+    }
+
+    static String tooManyBuckets(int registerCount, int bucketCount) {
+        return "timeBuckets is " + bucketCount + ". With " + registerCount + " registers it must be <= "
+                + Integer.MAX_VALUE / registerCount + ", so that one byte per bucket per register fits in an array.";
+    }
+
+    /**
+     * Length of time each bucket covers
+     */
+    public long bucketWidth() {
+        return _bucketWidth;
+    }
+
+    private int position(int register, long bucket) {
+        return register * _bucketCount + (int) Math.floorMod(bucket, (long) _bucketCount);
+    }
+
+    // Moves the newest bucket on, clearing every register's buckets which it reuses. Returns the number of entries
+    // cleared.
+    private int advanceTo(long bucket) {
+
+        if (_newestBucket == Long.MIN_VALUE) {
+            _newestBucket = bucket;
+            return 0;
+        }
+
+        int cleared = 0;
+        if (bucket - _newestBucket >= _bucketCount) {
+            for (byte R : _maxRs)
+                if (R != 0)
+                    cleared++;
+            Arrays.fill(_maxRs, (byte) 0);
+        }
+        else {
+            for (long reused = _newestBucket + 1; reused <= bucket; reused++) {
+                for (int pos = position(0, reused); pos < _maxRs.length; pos += _bucketCount) {
+                    if (_maxRs[pos] != 0) {
+                        _maxRs[pos] = 0;
+                        cleared++;
+                    }
+                }
+            }
+        }
+        _newestBucket = bucket;
+        return cleared;
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+
+        long bucket = Math.floorDiv(timestamp, _bucketWidth);
+        if (bucket > _newestBucket)
+            advanceTo(bucket);
+        else if (bucket <= _newestBucket - _bucketCount)
+            return;
+
+        int pos = position(register, bucket);
+        if (R > _maxRs[pos])
+            _maxRs[pos] = (byte) R;
+    }
+
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        for (int i = 0; i < len; i++)
+            offer(registers[i], ts[tsOffset + i], Rs[i]);
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+
+        if (_newestBucket == Long.MIN_VALUE)
+            return 0;
+
+        long first = Math.max(Math.floorDiv(tMin, _bucketWidth), _newestBucket - _bucketCount + 1);
+        int max = 0;
+        for (long bucket = first; bucket <= _newestBucket; bucket++)
+            max = Math.max(max, _maxRs[position(register, bucket)]);
+        return max;
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+
+        if (_newestBucket == Long.MIN_VALUE) {
+            histogram[0] += to - from;
+            return;
+        }
+
+        // Every register reads the same run of bucket columns
+        long first = Math.max(Math.floorDiv(tMin, _bucketWidth), _newestBucket - _bucketCount + 1);
+        int count = (int) Math.max(0, _newestBucket - first + 1);
+        int start = (int) Math.floorMod(first, (long) _bucketCount);
+        for (int register = from, base = from * _bucketCount; register < to; register++, base += _bucketCount)
+            histogram[maxOf(base, start, count)]++;
+    }
+
+    // Largest R of the register whose buckets start at base, in count columns from start, in two parts where they
+    // wrap round the ring
+    private int maxOf(int base, int start, int count) {
+        int end = Math.min(start + count, _bucketCount);
+        int wrapped = count - (end - start);
+        int max = 0;
+        for (int pos = base + start; pos < base + end; pos++)
+            max = Math.max(max, _maxRs[pos]);
+        for (int pos = base; pos < base + wrapped; pos++)
+            max = Math.max(max, _maxRs[pos]);
+        return max;
+    }
+
+    @Override
+    public int registerCount() {
+        return _registerCount;
+    }
+
+    /**
+     * Each bucket with a larger R than every newer bucket, at the bucket's last timestamp
+     */
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+
+        if (_newestBucket == Long.MIN_VALUE)
+            return;
+
+        // Newest first, keeping each bucket with a larger R than every newer one
+        int keptCount = 0;
+        int max = 0;
+        for (int age = 0; age < _bucketCount; age++) {
+            int R = _maxRs[position(register, _newestBucket - age)];
+            if (R > max) {
+                _kept[keptCount++] = age;
+                max = R;
+            }
+        }
+
+        for (int i = keptCount - 1; i >= 0; i--) {
+            long bucket = _newestBucket - _kept[i];
+            consumer.accept((bucket + 1) * _bucketWidth - 1, _maxRs[position(register, bucket)]);
+        }
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+        for (int register = 0; register < _registerCount; register++) {
+            int currentRegister = register;
+            other.forEachEntry(register, (timestamp, R) -> offer(currentRegister, timestamp, R));
+        }
+    }
+
+    /**
+     * Moves time on to now, clearing the buckets left behind. Memory stays the same.
+     */
+    @Override
+    public int expire(long now) {
+        long bucket = Math.floorDiv(now, _bucketWidth);
+        return bucket > _newestBucket ? advanceTo(bucket) : 0;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Register and bucket counts, bucket width, newest bucket and two array references
+        return HeapSize.object(2 * Integer.BYTES + 2 * Long.BYTES + 2 * HeapSize.REFERENCE) + HeapSize.of(_maxRs) + HeapSize.of(_kept);
+    }
+
+}
@@ -0,0 +1,21 @@
+package SlidingHyperLogLog;
+
+public class BucketedLPFMStoreFactory implements LPFMStoreFactory<BucketedLPFMStore> {
+
+    private final int _bucketCount;
+
+    /**
+     * Stores keeping one R per register for each of bucketCount buckets of time. See BucketedLPFMStore.
+     */
+    public BucketedLPFMStoreFactory(int bucketCount) {
+        if (bucketCount < 2)
+            throw new IllegalArgumentException("bucketCount is " + bucketCount + ". It must be >= 2.");
+
+        _bucketCount = bucketCount;
+    }
+
+    @Override
+    public BucketedLPFMStore buildStore(int registerCount, long windowSize) {
+        return new BucketedLPFMStore(registerCount, windowSize, _bucketCount);
+    }
+}
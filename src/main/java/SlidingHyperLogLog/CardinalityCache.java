@@ -0,0 +1,262 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every register's maximum R since a tMin, and the histogram of those maxima, up to date as registers are
+ * offered to and their maxima expire. Queries for the same or a later tMin than the last then cost O(registers
+ * changed) rather than a getMaxSince for every register.
+ *
+ * Offers update the cache directly: an R at least the register's current maximum becomes the new maximum. When
+ * tMin advances, a min-heap of the timestamps of each register's maximum gives the registers whose maximum has
+ * expired, which are looked up again in the store. A query for an earlier tMin than the cache's cannot be answered
+ * from it, and goes to the store as it would without the cache, leaving the cache as it is.
+ *
+ * Not thread safe
+ */
+final class CardinalityCache implements LPFMEntries.EntryConsumer {
+
+    private final LPFMStore _store;
+    private final long _windowSize;
+
+    // Per register, the largest R with timestamp >= _tMin, and that entry's timestamp
+    private final byte[] _max;
+    private final long[] _maxTs;
+    private final int[]  _histogram;
+    private long _tMin;
+    private boolean _valid = false;
+
+    // Registers to look up again before the next query, each listed once
+    private final boolean[] _dirty;
+    private final int[] _dirtyRegisters;
+    private int _dirtyCount;
+
+    // Min-heap of (timestamp, register) of each register's maximum. Entries for maxima since replaced are stale,
+    // and skipped when popped.
+    private long[] _heapTs;
+    private int[]  _heapRegisters;
+    private int _heapSize;
+
+    // Result of find()
+    private long _findTMin;
+    private boolean _found;
+    private int  _foundR;
+    private long _foundTs;
+
+    CardinalityCache(LPFMStore store, long windowSize, int histogramLength) {
+        int registerCount = store.registerCount();
+        _store = store;
+        _windowSize = windowSize;
+        _max = new byte[registerCount];
+        _maxTs = new long[registerCount];
+        _histogram = new int[histogramLength];
+        _dirty = new boolean[registerCount];
+        _dirtyRegisters = new int[registerCount];
+        _heapTs = new long[registerCount];
+        _heapRegisters = new int[registerCount];
+    }
+
+    /**
+     * Drops everything, for when the store changes other than by offers
+     */
+    void invalidate() {
+        _valid = false;
+    }
+
+    /**
+     * Updates the cache after the store dropped its entries older than tMin. Maxima at or after tMin are unaffected,
+     * and registers whose maximum was dropped are looked up again before the next query. The cache's tMin stays as it
+     * is, so queries between it and tMin, which the store now answers as since tMin, still come to the cache.
+     */
+    void expired(long tMin) {
+        if (_valid && _tMin < tMin)
+            markExpired(tMin);
+    }
+
+    /**
+     * Updates the cache after an offer to the store, whose registers only drop entries by pruning and expiry. A
+     * BoundedLPFM can drop the maximum to make room, which the cache would not see.
+     */
+    void offered(int register, long timestamp, int R) {
+
+        if (!_valid || _dirty[register])
+            return;
+
+        if (timestamp < _tMin) {
+            markDirty(register);
+        }
+        else if (R >= _max[register]) {
+            // The store has pruned every entry with an R no larger, so this is now the oldest entry since tMin
+            set(register, R, timestamp);
+        }
+        else if (_maxTs[register] < timestamp - _windowSize) {
+            // The store has expired the maximum
+            markDirty(register);
+        }
+    }
+
+    /**
+     * Whether histogramSince can answer for this tMin: any tMin while the cache is empty, and otherwise the same tMin
+     * as the last query or a later one
+     */
+    boolean answers(long tMin) {
+        return !_valid || tMin >= _tMin;
+    }
+
+    /**
+     * Histogram of the maximum R since tMin over all registers, for a tMin the cache answers. Owned by the cache, so
+     * must not be changed.
+     */
+    int[] histogramSince(long tMin) {
+
+        if (!_valid) {
+            rebuild(tMin);
+            return _histogram;
+        }
+
+        markExpired(tMin);
+        _tMin = tMin;
+
+        for (int i = 0; i < _dirtyCount; i++) {
+            int register = _dirtyRegisters[i];
+            _dirty[register] = false;
+            find(register, tMin);
+            set(register, _foundR, _foundTs);
+        }
+        _dirtyCount = 0;
+
+        return _histogram;
+    }
+
+    long sizeInBytes() {
+        // Store and array references, window size, tMin, counts and flags, and the result of find()
+        return HeapSize.object(8 * HeapSize.REFERENCE + 4 * Long.BYTES + 3 * Integer.BYTES + 2)
+                + HeapSize.of(_max) + HeapSize.of(_maxTs) + HeapSize.of(_histogram) + HeapSize.of(_dirty)
+                + HeapSize.of(_dirtyRegisters) + HeapSize.of(_heapTs) + HeapSize.of(_heapRegisters);
+    }
+
+    private void rebuild(long tMin) {
+
+        Arrays.fill(_histogram, 0);
+        _heapSize = 0;
+        for (int i = 0; i < _dirtyCount; i++)
+            _dirty[_dirtyRegisters[i]] = false;
+        _dirtyCount = 0;
+
+        for (int register = 0; register < _max.length; register++) {
+            find(register, tMin);
+            _max[register] = (byte) _foundR;
+            _maxTs[register] = _foundTs;
+            _histogram[_foundR]++;
+        }
+        heapify();
+
+        _tMin = tMin;
+        _valid = true;
+    }
+
+    // Marks dirty every register whose maximum is older than tMin
+    private void markExpired(long tMin) {
+        while (_heapSize > 0 && _heapTs[0] < tMin) {
+            int register = _heapRegisters[0];
+            long timestamp = _heapTs[0];
+            pop();
+            if (_maxTs[register] == timestamp && _max[register] != 0 && !_dirty[register])
+                markDirty(register);
+        }
+    }
+
+    private void markDirty(int register) {
+        _dirty[register] = true;
+        _dirtyRegisters[_dirtyCount++] = register;
+    }
+
+    private void set(int register, int R, long timestamp) {
+        _histogram[_max[register]]--;
+        _histogram[R]++;
+        _max[register] = (byte) R;
+        _maxTs[register] = timestamp;
+        if (R != 0)
+            push(timestamp, register);
+    }
+
+    // Finds the register's first entry with timestamp >= tMin, which has its largest R since then
+    private void find(int register, long tMin) {
+        _findTMin = tMin;
+        _found = false;
+        _foundR = 0;
+        _foundTs = 0;
+        _store.forEachEntry(register, this);
+    }
+
+    @Override
+    public void accept(long timestamp, int R) {
+        if (!_found && timestamp >= _findTMin) {
+            _found = true;
+            _foundR = R;
+            _foundTs = timestamp;
+        }
+    }
+
+    private void push(long timestamp, int register) {
+
+        // Too many stale entries, so start again from the current maxima
+        if (_heapSize == _heapTs.length) {
+            heapify();
+            if (_heapSize * 2 > _heapTs.length) {
+                _heapTs = Arrays.copyOf(_heapTs, _heapTs.length * 2);
+                _heapRegisters = Arrays.copyOf(_heapRegisters, _heapRegisters.length * 2);
+            }
+        }
+
+        int pos = _heapSize++;
+        while (pos > 0) {
+            int parent = (pos - 1) >>> 1;
+            if (_heapTs[parent] <= timestamp)
+                break;
+            _heapTs[pos] = _heapTs[parent];
+            _heapRegisters[pos] = _heapRegisters[parent];
+            pos = parent;
+        }
+        _heapTs[pos] = timestamp;
+        _heapRegisters[pos] = register;
+    }
+
+    private void pop() {
+        _heapSize--;
+        if (_heapSize > 0)
+            siftDown(0, _heapTs[_heapSize], _heapRegisters[_heapSize]);
+    }
+
+    private void siftDown(int pos, long timestamp, int register) {
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= _heapSize)
+                break;
+            if (child + 1 < _heapSize && _heapTs[child + 1] < _heapTs[child])
+                child++;
+            if (_heapTs[child] >= timestamp)
+                break;
+            _heapTs[pos] = _heapTs[child];
+            _heapRegisters[pos] = _heapRegisters[child];
+            pos = child;
+        }
+        _heapTs[pos] = timestamp;
+        _heapRegisters[pos] = register;
+    }
+
+    // Replaces the heap with one entry for every register with a maximum
+    private void heapify() {
+        _heapSize = 0;
+        for (int register = 0; register < _max.length; register++) {
+            if (_max[register] != 0) {
+                _heapTs[_heapSize] = _maxTs[register];
+                _heapRegisters[_heapSize] = register;
+                _heapSize++;
+            }
+        }
+        for (int pos = (_heapSize >>> 1) - 1; pos >= 0; pos--)
+            siftDown(pos, _heapTs[pos], _heapRegisters[pos]);
+    }
+
+}
@@ -0,0 +1,108 @@
+package SlidingHyperLogLog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Fixed-size slots in chunks of memory off the Java heap: direct ByteBuffers, or regions of a file mapped into
+ * memory. Chunks hold a power of 2 number of slots, none spanning two chunks, and are added as slots are needed, so
+ * slots never move. A single mapping is limited to 2GB, but a chunked buffer is not.
+ *
+ * Slots are little-endian, and zero until written.
+ *
+ * Not thread safe
+ */
+final class ChunkedBuffer {
+
+    private final int _slotSize;
+    private final int _slotsPerChunkShift;
+    private final int _chunkBytes;
+
+    // Where chunks are mapped from, or null for direct ByteBuffers
+    private final FileChannel _channel;
+    private final long _fileOffset;
+
+    private ByteBuffer[] _chunks = new ByteBuffer[1];
+    private int _chunkCount;
+
+    /**
+     * Slots of slotSize bytes, in chunks of at most chunkSize bytes unless one slot is larger. A channel's chunks
+     * follow one another from fileOffset.
+     */
+    ChunkedBuffer(int slotSize, int chunkSize, FileChannel channel, long fileOffset) {
+        int slotsPerChunk = Integer.highestOneBit(Math.max(1, chunkSize / slotSize));
+        _slotSize = slotSize;
+        _slotsPerChunkShift = Integer.numberOfTrailingZeros(slotsPerChunk);
+        _chunkBytes = slotsPerChunk * slotSize;
+        _channel = channel;
+        _fileOffset = fileOffset;
+    }
+
+    /**
+     * The chunk holding a slot
+     */
+    ByteBuffer chunk(int slot) {
+        return _chunks[slot >>> _slotsPerChunkShift];
+    }
+
+    /**
+     * Position of a slot within its chunk
+     */
+    int offset(int slot) {
+        return (slot & ((1 << _slotsPerChunkShift) - 1)) * _slotSize;
+    }
+
+    /**
+     * Adds chunks, or maps those already in the file, until there are at least this many slots
+     */
+    void ensureCapacity(int slots) {
+        int chunks = (int) (((long) slots + (1 << _slotsPerChunkShift) - 1) >>> _slotsPerChunkShift);
+        if (chunks > _chunks.length)
+            _chunks = Arrays.copyOf(_chunks, Math.max(chunks, _chunks.length << 1));
+
+        try {
+            while (_chunkCount < chunks) {
+                ByteBuffer chunk = _channel == null
+                        ? ByteBuffer.allocateDirect(_chunkBytes)
+                        : _channel.map(FileChannel.MapMode.READ_WRITE, _fileOffset + (long) _chunkCount * _chunkBytes, _chunkBytes);
+                _chunks[_chunkCount++] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Bytes of memory or file mapped
+     */
+    long capacityBytes() {
+        return (long) _chunkCount * _chunkBytes;
+    }
+
+    /**
+     * Writes changes to mapped chunks back to the file
+     */
+    void force() {
+        if (_channel == null)
+            return;
+        for (int i = 0; i < _chunkCount; i++)
+            ((MappedByteBuffer) _chunks[i]).force();
+    }
+
+    /**
+     * Writes changes to the mapped chunks holding slots from fromSlot to toSlot, exclusive, back to the file
+     */
+    void force(int fromSlot, int toSlot) {
+        if (_channel == null || fromSlot >= toSlot)
+            return;
+        for (int i = fromSlot >>> _slotsPerChunkShift; i <= (toSlot - 1) >>> _slotsPerChunkShift; i++)
+            ((MappedByteBuffer) _chunks[i]).force();
+    }
+
+}
@@ -0,0 +1,322 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * List of possible future maxima packed into one byte array: the low 32 bits of each entry's timestamp, then its R
+ * in a byte, five bytes an entry against twelve in RingBufferLPFM, and one array header rather than two.
+ *
+ * This falls short of half the heap of RingBufferLPFM: each register keeps its own object and array header, which
+ * are a larger share of five-byte entries than of twelve-byte ones. A sketch of CardinalityTests' stream takes about
+ * 1.98x less heap at b = 13, and 1.47x less at b = 18, where registers hold fewer entries. An empty register only
+ * saves the second array reference, 40 bytes against 32. CompactLPFMStore keeps the same encoding in shared arenas,
+ * with no per-register headers, and does halve the heap.
+ *
+ * Entries are kept as in MonotonicDequeLPFM: ascending timestamps, strictly descending Rs, oldest first. Every entry
+ * is within the window of the newest timestamp offered, which is kept whole, so an entry's timestamp is that less the
+ * difference of their low 32 bits, as long as the window is less than 2^31. The base moves with each offer without
+ * rewriting any entry. Offers more than a window older than the newest are ignored.
+ *
+ * The entries sit in a segment of the array, like a register's in FlatLPFMStore: popped from the head by moving its
+ * start, and slid back to the start of the array when the tail reaches the end, before the array is doubled.
+ *
+ * Rs are stored as bytes, so must be at most 127. Rank values from a sketch always are.
+ *
+ * Not thread safe
+ */
+public class CompactLPFM implements LPFM {
+
+    private final int _windowSize;
+
+    // Newest timestamp offered, which every entry is within the window of
+    private long _newest;
+
+    // Low 32 bits of each timestamp, big-endian, for capacity entries, then their Rs. Null until the first offer.
+    private byte[] _entries = null;
+
+    // Position of the oldest entry, and number of live entries. Unsigned.
+    private byte _start;
+    private byte _size;
+
+    CompactLPFM(long windowSize) {
+        _windowSize = (int) windowSize;
+    }
+
+    @Override
+    public void offer(long timestamp, int R) {
+
+        // Special-case lazy initialization on first offer
+        if (null == _entries)
+            _entries = new byte[5];
+
+        int start = _start & 0xFF;
+        int size = _size & 0xFF;
+        if (size > 0 && timestamp < _newest - _windowSize)
+            return;
+
+        // Drop entries from the tail which are no longer a PFM (possible future maximum)
+        size = pruneTail(_entries, start, size, R);
+
+        // Drop entries from the head which are outside the window
+        int expired = countExpired(_entries, _newest, start, size, timestamp - _windowSize);
+        start += expired;
+        size -= expired;
+
+        if (size == 0) {
+            start = 0;
+            _newest = timestamp;
+        }
+        else {
+            _newest = Math.max(_newest, timestamp);
+        }
+
+        if (start + size == capacity(_entries)) {
+            _entries = makeRoom(_entries, start, size);
+            start = 0;
+        }
+
+        set(_entries, start + size, timestamp, R);
+        _start = (byte) start;
+        _size = (byte) (size + 1);
+    }
+
+    /**
+     * Inserts an entry older than the newest in place, as MonotonicDequeLPFM does. Offers no older than the newest
+     * are offers.
+     */
+    @Override
+    public void offerLate(long timestamp, int R) {
+
+        int start = _start & 0xFF;
+        int size = _size & 0xFF;
+        if (size == 0 || timestamp >= _newest) {
+            offer(timestamp, R);
+            return;
+        }
+        if (timestamp < _newest - _windowSize || dominated(_entries, _newest, start, size, timestamp, R))
+            return;
+
+        if (start + size == capacity(_entries)) {
+            _entries = makeRoom(_entries, start, size);
+            start = 0;
+        }
+        _start = (byte) start;
+        _size = (byte) insert(_entries, _newest, start, size, timestamp, R);
+    }
+
+    @Override
+    public int getMaxSince(long tMin) {
+        return _entries == null ? 0 : maxSince(_entries, _newest, _start & 0xFF, _size & 0xFF, tMin);
+    }
+
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+        if (_entries != null)
+            forEachEntry(_entries, _newest, _start & 0xFF, _size & 0xFF, consumer);
+    }
+
+    @Override
+    public void merge(LPFMEntries other) {
+
+        EntryList theirs = new EntryList();
+        other.forEachEntry(theirs);
+        if (theirs._size == 0)
+            return;
+
+        EntryList own = new EntryList();
+        forEachEntry(own);
+        EntryList union = new EntryList();
+        union.setToUnion(own, theirs, _windowSize);
+
+        _entries = encode(union);
+        _newest = own._size == 0 ? union._ts[union._size - 1] : Math.max(_newest, union._ts[union._size - 1]);
+        _start = 0;
+        _size = (byte) union._size;
+    }
+
+    @Override
+    public int expire(long now) {
+
+        int start = _start & 0xFF;
+        int size = _size & 0xFF;
+        int expired = size == 0 ? 0 : countExpired(_entries, _newest, start, size, now - _windowSize);
+
+        int live = size - expired;
+        if (live == 0) {
+            // Back to the state before the first offer
+            _entries = null;
+            _start = 0;
+            _size = 0;
+        }
+        else if (live <= capacity(_entries) >> 2) {
+            _entries = moveTo(_entries, start + expired, live, EntryList.ceilingPowerOf2(live));
+            _start = 0;
+            _size = (byte) live;
+        }
+        else {
+            _start = (byte) (start + expired);
+            _size = (byte) live;
+        }
+        return expired;
+    }
+
+    @Override
+    public int entryCount() {
+        return _size & 0xFF;
+    }
+
+    @Override
+    public int entryCapacity() {
+        return _entries == null ? 0 : capacity(_entries);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, newest timestamp, array reference, start and size
+        return HeapSize.object(Integer.BYTES + Long.BYTES + HeapSize.REFERENCE + 2) + HeapSize.of(_entries);
+    }
+
+    @Override
+    public String toString() {
+        EntryList entries = new EntryList();
+        forEachEntry(entries);
+        return String.format("_ts=%s, _rs=%s, _newest=%d", Arrays.toString(Arrays.copyOf(entries._ts, entries._size)),
+                Arrays.toString(Arrays.copyOf(entries._rs, entries._size)), _newest);
+    }
+
+    // The encoding of the entries array, shared with InlineLPFM once it spills. Positions are of entries, and
+    // timestamps are decoded against the newest timestamp offered.
+
+    static int capacity(byte[] entries) {
+        return entries.length / 5;
+    }
+
+    static int low(byte[] entries, int pos) {
+        int i = pos << 2;
+        return entries[i] << 24 | (entries[i + 1] & 0xFF) << 16 | (entries[i + 2] & 0xFF) << 8 | entries[i + 3] & 0xFF;
+    }
+
+    static int r(byte[] entries, int pos) {
+        return entries[(capacity(entries) << 2) + pos];
+    }
+
+    // The timestamp within the window of newest with these low 32 bits
+    static long timestamp(long newest, int low) {
+        return newest - (((int) newest - low) & 0xFFFFFFFFL);
+    }
+
+    static void set(byte[] entries, int pos, long timestamp, int R) {
+        int i = pos << 2;
+        entries[i] = (byte) (timestamp >>> 24);
+        entries[i + 1] = (byte) (timestamp >>> 16);
+        entries[i + 2] = (byte) (timestamp >>> 8);
+        entries[i + 3] = (byte) timestamp;
+        entries[(capacity(entries) << 2) + pos] = (byte) R;
+    }
+
+    // A new array of the smallest power of 2 capacity holding these entries from the start
+    static byte[] encode(EntryList list) {
+        byte[] entries = new byte[EntryList.ceilingPowerOf2(list._size) * 5];
+        for (int i = 0; i < list._size; i++)
+            set(entries, i, list._ts[i], list._rs[i]);
+        return entries;
+    }
+
+    // Copies count entries from start to the start of a new array of this capacity
+    static byte[] moveTo(byte[] entries, int start, int count, int newCapacity) {
+        int capacity = capacity(entries);
+        byte[] newEntries = new byte[newCapacity * 5];
+        System.arraycopy(entries, start << 2, newEntries, 0, count << 2);
+        System.arraycopy(entries, (capacity << 2) + start, newEntries, newCapacity << 2, count);
+        return newEntries;
+    }
+
+    // For entries up to the end of the array, slides them back to its start, or doubles it if they already are.
+    // Returns the array the entries are now at the start of, with room for one more.
+    static byte[] makeRoom(byte[] entries, int start, int size) {
+        int capacity = capacity(entries);
+        if (start == 0)
+            return moveTo(entries, 0, size, capacity << 1);
+
+        System.arraycopy(entries, start << 2, entries, 0, size << 2);
+        System.arraycopy(entries, (capacity << 2) + start, entries, capacity << 2, size);
+        return entries;
+    }
+
+    // Number of entries left from the tail once those with an R no larger than this are dropped
+    static int pruneTail(byte[] entries, int start, int size, int R) {
+        int rsStart = capacity(entries) << 2;
+        while (size > 0 && entries[rsStart + start + size - 1] <= R)
+            size--;
+        return size;
+    }
+
+    // Number of entries from the head with timestamp < tMin
+    static int countExpired(byte[] entries, long newest, int start, int size, long tMin) {
+        int expired = 0;
+        while (expired < size && timestamp(newest, low(entries, start + expired)) < tMin)
+            expired++;
+        return expired;
+    }
+
+    // Position of the first entry with timestamp >= tMin, or start + size if there is none
+    static int firstSince(byte[] entries, long newest, int start, int size, long tMin) {
+        int lo = start;
+        int hi = start + size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamp(newest, low(entries, mid)) < tMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    static int maxSince(byte[] entries, long newest, int start, int size, long tMin) {
+
+        // The first entry with timestamp >= tMin. Being the oldest in range it has the largest R.
+        int first = firstSince(entries, newest, start, size, tMin);
+        return first == start + size ? 0 : r(entries, first);
+    }
+
+    // Whether an entry at or after the timestamp, which there must be, has an R at least this large. The first such
+    // entry, being the oldest, has their largest R.
+    static boolean dominated(byte[] entries, long newest, int start, int size, long timestamp, int R) {
+        return r(entries, firstSince(entries, newest, start, size, timestamp)) >= R;
+    }
+
+    // Inserts an entry older than the newest, which is not dominated, in timestamp order: drops the entries before it
+    // with an R no larger, and one at the same timestamp, whose R is smaller. There must be room after the last entry
+    // for one more. Returns the new number of entries.
+    static int insert(byte[] entries, long newest, int start, int size, long timestamp, int R) {
+
+        int capacity = capacity(entries);
+        int end = start + size;
+        int next = firstSince(entries, newest, start, size, timestamp);
+
+        // Keep the entries before keepTo and from keepFrom
+        int keepFrom = timestamp(newest, low(entries, next)) == timestamp ? next + 1 : next;
+        int keepTo = next;
+        int rsStart = capacity << 2;
+        while (keepTo > start && entries[rsStart + keepTo - 1] <= R)
+            keepTo--;
+
+        // Move the newer entries to just after the new one
+        int shift = keepTo + 1 - keepFrom;
+        if (shift != 0) {
+            System.arraycopy(entries, keepFrom << 2, entries, (keepFrom + shift) << 2, (end - keepFrom) << 2);
+            System.arraycopy(entries, rsStart + keepFrom, entries, rsStart + keepFrom + shift, end - keepFrom);
+        }
+
+        set(entries, keepTo, timestamp, R);
+        return size + shift;
+    }
+
+    static void forEachEntry(byte[] entries, long newest, int start, int size, EntryConsumer consumer) {
+        int rsStart = capacity(entries) << 2;
+        for (int pos = start; pos < start + size; pos++)
+            consumer.accept(timestamp(newest, low(entries, pos)), entries[rsStart + pos]);
+    }
+
+}
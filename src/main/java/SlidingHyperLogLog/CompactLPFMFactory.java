@@ -0,0 +1,15 @@
+package SlidingHyperLogLog;
+
+public class CompactLPFMFactory implements LPFMFactory<CompactLPFM> {
+
+    /**
+     * Windows must be less than 2^31, as CompactLPFM keeps only the low 32 bits of each timestamp
+     */
+    @Override
+    public CompactLPFM buildLPFM(long windowSize) {
+        if (windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("windowSize is " + windowSize + ". It must be < 2^31 for CompactLPFM.");
+
+        return new CompactLPFM(windowSize);
+    }
+}
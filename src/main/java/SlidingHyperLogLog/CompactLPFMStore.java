@@ -0,0 +1,334 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * FlatLPFMStore with CompactLPFM's encoding: every register's entries in shared arenas of the low 32 bits of each
+ * timestamp and a byte of R, five bytes an entry, with no object or array header per register.
+ *
+ * The store keeps the newest timestamp offered to any register whole, and entries' timestamps are decoded against it
+ * as in CompactLPFM. That needs every entry to be less than 2^32 older, so entries more than 2^31 older are swept
+ * out each time the newest has moved on 2^30, and offers more than 2^31 older are ignored. Windows must be less than
+ * 2^31, so only entries no window can reach are dropped. Otherwise entries are kept exactly as in FlatLPFMStore.
+ *
+ * Segments grow and move as in FlatLPFMStore, but the arenas are compacted once more than a quarter of them, rather
+ * than half, is abandoned segments, trading more copying for less heap.
+ *
+ * A register costs 7 bytes before its entries, against 44 for an empty RingBufferLPFM and its reference. On
+ * CardinalityTests' stream a sketch takes 2.49x less heap than with RingBufferLPFM at b = 6, 4.39x at b = 13 and
+ * 6.51x at b = 18, where most registers hold no more than one entry.
+ *
+ * Rs are stored as bytes, so must be at most 127. Rank values from a sketch always are.
+ *
+ * Not thread safe
+ */
+public class CompactLPFMStore implements LPFMStore {
+
+    private static final int INITIAL_ARENA_SIZE = 16;
+    private static final long MAX_AGE = 1L << 31;
+    private static final long SWEEP_INTERVAL = 1L << 30;
+
+    private final int _windowSize;
+
+    // Newest timestamp offered to any register, which every entry is less than 2^32 older than, and what it was when
+    // entries were last swept. Long.MIN_VALUE until the first offer.
+    private long _newest = Long.MIN_VALUE;
+    private long _sweptAt = Long.MIN_VALUE;
+
+    // Per register: where its segment starts in the arenas, encoded segment capacity (see capacity()),
+    // and the position of its oldest entry and entry count within the segment. Start and size are unsigned.
+    private final int[]  _offset;
+    private final byte[] _capacityCode;
+    private final byte[] _start;
+    private final byte[] _size;
+
+    // Low 32 bits of each timestamp, and Rs
+    private int[]  _lows;
+    private byte[] _rs;
+
+    // Arena slots in use, and how many of those belong to abandoned segments
+    private int _arenaEnd;
+    private int _garbage;
+
+    CompactLPFMStore(int registerCount, long windowSize) {
+        _windowSize = (int) windowSize;
+        _offset = new int[registerCount];
+        _capacityCode = new byte[registerCount];
+        _start = new byte[registerCount];
+        _size = new byte[registerCount];
+        _lows = new int[INITIAL_ARENA_SIZE];
+        _rs = new byte[INITIAL_ARENA_SIZE];
+    }
+
+    // Code 0 means no segment yet, otherwise capacity is 2^(code - 1)
+    private int capacity(int register) {
+        return (1 << _capacityCode[register]) >>> 1;
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+
+        if (timestamp > _newest) {
+            if (_newest == Long.MIN_VALUE)
+                _sweptAt = timestamp;
+            _newest = timestamp;
+            if (_newest - _sweptAt > SWEEP_INTERVAL)
+                sweep();
+        }
+        else if (_newest - timestamp > MAX_AGE) {
+            return;
+        }
+
+        int offset = _offset[register];
+        int start = _start[register] & 0xFF;
+        int size = _size[register] & 0xFF;
+
+        // Drop entries from the tail which are no longer a PFM (possible future maximum)
+        while (size > 0 && _rs[offset + start + size - 1] <= R)
+            size--;
+
+        // Drop entries from the head which are outside the window
+        long tMin = timestamp - _windowSize;
+        while (size > 0 && timestamp(offset + start) < tMin) {
+            start++;
+            size--;
+        }
+
+        if (size == 0)
+            start = 0;
+
+        if (start + size == capacity(register)) {
+            if (start > 0) {
+                // Slide the entries back to the start of the segment
+                System.arraycopy(_lows, offset + start, _lows, offset, size);
+                System.arraycopy(_rs, offset + start, _rs, offset, size);
+            }
+            else {
+                _start[register] = 0;
+                _size[register] = (byte) size;
+                relocate(register, size + 1);
+                offset = _offset[register];
+            }
+            start = 0;
+        }
+
+        _lows[offset + start + size] = (int) timestamp;
+        _rs[offset + start + size] = (byte) R;
+
+        _start[register] = (byte) start;
+        _size[register] = (byte) (size + 1);
+    }
+
+    private long timestamp(int pos) {
+        return CompactLPFM.timestamp(_newest, _lows[pos]);
+    }
+
+    // Drops the entries more than 2^31 older than the newest, so that those left stay less than 2^32 older until the
+    // newest moves on another 2^30
+    private void sweep() {
+        dropBefore(_newest - MAX_AGE);
+        _sweptAt = _newest;
+    }
+
+    // Drops every register's entries with timestamp < tMin, and shrinks segments once what is left is at most a
+    // quarter of their capacity. Returns the number dropped.
+    private int dropBefore(long tMin) {
+        int dropped = 0;
+        boolean shrunk = false;
+
+        for (int register = 0; register < _offset.length; register++) {
+            int offset = _offset[register];
+            int start = _start[register] & 0xFF;
+            int size = _size[register] & 0xFF;
+
+            int live = size;
+            while (live > 0 && timestamp(offset + start) < tMin) {
+                start++;
+                live--;
+            }
+            dropped += size - live;
+            _start[register] = (byte) (live == 0 ? 0 : start);
+            _size[register] = (byte) live;
+
+            int capacity = capacity(register);
+            if (capacity > 0 && live <= capacity >> 2) {
+                _capacityCode[register] = (byte) (live == 0 ? 0 : Integer.numberOfTrailingZeros(EntryList.ceilingPowerOf2(live)) + 1);
+                shrunk = true;
+            }
+        }
+
+        if (shrunk || _garbage > _arenaEnd >> 1)
+            compact();
+        return dropped;
+    }
+
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        for (int i = 0; i < len; i++)
+            offer(registers[i], ts[tsOffset + i], Rs[i]);
+    }
+
+    // Moves a register's entries into a new segment, at least twice the size and of at least minCapacity, at the end
+    // of the arenas, compacting them first if a quarter is abandoned segments
+    private void relocate(int register, int minCapacity) {
+
+        int oldCapacity = capacity(register);
+        int newCapacity = Math.max(oldCapacity == 0 ? 1 : oldCapacity << 1, EntryList.ceilingPowerOf2(minCapacity));
+
+        if (_arenaEnd + newCapacity > _lows.length) {
+            if (_garbage > _arenaEnd >> 2)
+                compact();
+            if (_arenaEnd + newCapacity > _lows.length) {
+                int newLen = Math.max(_arenaEnd + newCapacity, _lows.length + (_lows.length >> 1));
+                _lows = Arrays.copyOf(_lows, newLen);
+                _rs = Arrays.copyOf(_rs, newLen);
+            }
+        }
+
+        int oldOffset = _offset[register];
+        int start = _start[register] & 0xFF;
+        int size = _size[register] & 0xFF;
+
+        System.arraycopy(_lows, oldOffset + start, _lows, _arenaEnd, size);
+        System.arraycopy(_rs, oldOffset + start, _rs, _arenaEnd, size);
+
+        _offset[register] = _arenaEnd;
+        _capacityCode[register] = (byte) (Integer.numberOfTrailingZeros(newCapacity) + 1);
+        _start[register] = 0;
+        _arenaEnd += newCapacity;
+        _garbage += oldCapacity;
+    }
+
+    // Rewrites the arenas with only the live segments, in register order
+    private void compact() {
+
+        int liveCapacity = 0;
+        for (int register = 0; register < _offset.length; register++)
+            liveCapacity += capacity(register);
+        int newLen = Math.max(INITIAL_ARENA_SIZE, liveCapacity + (liveCapacity >> 1));
+        int[] newLows = new int[newLen];
+        byte[] newRs = new byte[newLen];
+
+        int destPos = 0;
+        for (int register = 0; register < _offset.length; register++) {
+            int capacity = capacity(register);
+            if (capacity == 0) {
+                // Registers with no segment have no entries, but their offset must still be inside the arenas
+                _offset[register] = 0;
+                _start[register] = 0;
+                continue;
+            }
+
+            int sourcePos = _offset[register] + (_start[register] & 0xFF);
+            int size = _size[register] & 0xFF;
+            System.arraycopy(_lows, sourcePos, newLows, destPos, size);
+            System.arraycopy(_rs, sourcePos, newRs, destPos, size);
+
+            _offset[register] = destPos;
+            _start[register] = 0;
+            destPos += capacity;
+        }
+
+        _lows = newLows;
+        _rs = newRs;
+        _arenaEnd = destPos;
+        _garbage = 0;
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+
+        // Find the first entry with timestamp >= tMin. Being the oldest in range it has the largest R
+        int first = _offset[register] + (_start[register] & 0xFF);
+        int end = first + (_size[register] & 0xFF);
+
+        int lo = first;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamp(mid) < tMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo == end ? 0 : _rs[lo];
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+        for (int register = from; register < to; register++)
+            histogram[getMaxSince(register, tMin)]++;
+    }
+
+    @Override
+    public int registerCount() {
+        return _offset.length;
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+
+        int first = _offset[register] + (_start[register] & 0xFF);
+        int end = first + (_size[register] & 0xFF);
+        for (int i = first; i < end; i++)
+            consumer.accept(timestamp(i), _rs[i]);
+    }
+
+    @Override
+    public void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+        for (int register = from; register < to; register++) {
+            int first = _offset[register] + (_start[register] & 0xFF);
+            int end = first + (_size[register] & 0xFF);
+
+            // The first entry at or after each tMin, being the oldest in range, has the largest R
+            for (int i = 0; i < sortedTMins.length; i++) {
+                while (first < end && timestamp(first) < sortedTMins[i])
+                    first++;
+                histograms[i][first == end ? 0 : _rs[first]]++;
+            }
+        }
+    }
+
+    /**
+     * Drops expired entries from every register, and shrinks segments as FlatLPFMStore.expire does
+     */
+    @Override
+    public int expire(long now) {
+        return dropBefore(now - _windowSize);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, newest and swept at timestamps, six array references, arena end and garbage
+        return HeapSize.object(Integer.BYTES + 2 * Long.BYTES + 6 * HeapSize.REFERENCE + 2 * Integer.BYTES)
+                + HeapSize.of(_offset) + HeapSize.of(_capacityCode) + HeapSize.of(_start)
+                + HeapSize.of(_size) + HeapSize.of(_lows) + HeapSize.of(_rs);
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+
+        EntryList own = new EntryList();
+        EntryList theirs = new EntryList();
+        EntryList union = new EntryList();
+
+        for (int register = 0; register < _offset.length; register++) {
+            theirs.clear();
+            other.forEachEntry(register, theirs);
+            if (theirs._size == 0)
+                continue;
+
+            own.clear();
+            forEachEntry(register, own);
+            union.setToUnion(own, theirs, _windowSize);
+
+            // Empty the register and offer the union back in order, as FlatLPFMStore.merge does
+            _start[register] = 0;
+            _size[register] = 0;
+            for (int i = 0; i < union._size; i++)
+                offer(register, union._ts[i], union._rs[i]);
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package SlidingHyperLogLog;
+
+public class CompactLPFMStoreFactory implements LPFMStoreFactory<CompactLPFMStore> {
+
+    /**
+     * Windows must be less than 2^31, as CompactLPFMStore keeps only the low 32 bits of each timestamp
+     */
+    @Override
+    public CompactLPFMStore buildStore(int registerCount, long windowSize) {
+        if (windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("windowSize is " + windowSize + ". It must be < 2^31 for CompactLPFMStore.");
+
+        return new CompactLPFMStore(registerCount, windowSize);
+    }
+}
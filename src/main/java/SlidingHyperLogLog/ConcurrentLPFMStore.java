@@ -0,0 +1,186 @@
+package SlidingHyperLogLog;
+
+/**
+ * One LPFM object per register, guarded by striped locks so that many threads can offer at once.
+ *
+ * Registers are split into stripes of contiguous ranges, each with its own lock, so offers to different stripes
+ * never contend. Reads take the same locks, so a query sees every register in a consistent state, although not
+ * all registers as of the same instant.
+ *
+ * Offers to a register should still arrive in (near) timestamp order, as the LPFMs assume. Concurrent producers
+ * reading a shared clock may be out of order by the time between reading the clock and offering, which can
+ * only affect queries for tMin within that time of the newest offer.
+ *
+ * Thread safe
+ */
+public class ConcurrentLPFMStore implements LPFMStore {
+
+    private static final int STRIPES_PER_THREAD = 16;
+
+    private final LPFM[] _lpfms;
+    private final Object[] _locks;
+    private final int _stripeShift;
+
+    ConcurrentLPFMStore(int registerCount, long windowSize, LPFMFactory<?> lpfmFactory, int concurrencyLevel) {
+        _lpfms = new LPFM[registerCount];
+        for (int i = 0; i < registerCount; i++) {
+            _lpfms[i] = lpfmFactory.buildLPFM(windowSize);
+        }
+
+        // 16 stripes per thread keeps collisions between threads rare. Must be a power of 2, at most the register count.
+        int threads = concurrencyLevel <= 1 ? 1 : Integer.highestOneBit(concurrencyLevel - 1) << 1;
+        int stripes = Math.min(registerCount, threads * STRIPES_PER_THREAD);
+        _locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            _locks[i] = new Object();
+        }
+        _stripeShift = Integer.numberOfTrailingZeros(registerCount) - Integer.numberOfTrailingZeros(stripes);
+    }
+
+    private Object lockFor(int register) {
+        return _locks[register >>> _stripeShift];
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+        synchronized (lockFor(register)) {
+            _lpfms[register].offer(timestamp, R);
+        }
+    }
+
+    /**
+     * Takes each stripe's lock once for every run of entries in that stripe, so batches grouped by register need
+     * only one lock per stripe, and hands each run of entries to the same register to its LPFM's offerRun
+     */
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        int i = 0;
+        while (i < len) {
+            Object lock = lockFor(registers[i]);
+            synchronized (lock) {
+                do {
+                    int register = registers[i];
+                    int end = i + 1;
+                    while (end < len && registers[end] == register)
+                        end++;
+                    _lpfms[register].offerRun(Rs, ts, tsOffset, i, end);
+                    i = end;
+                } while (i < len && lockFor(registers[i]) == lock);
+            }
+        }
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+        synchronized (lockFor(register)) {
+            return _lpfms[register].getMaxSince(tMin);
+        }
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+        // One lock per stripe rather than per register
+        int register = from;
+        while (register < to) {
+            int end = Math.min(to, ((register >>> _stripeShift) + 1) << _stripeShift);
+            synchronized (lockFor(register)) {
+                for (; register < end; register++)
+                    histogram[_lpfms[register].getMaxSince(tMin)]++;
+            }
+        }
+    }
+
+    @Override
+    public void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+        // One lock per stripe rather than per register
+        int register = from;
+        while (register < to) {
+            int end = Math.min(to, ((register >>> _stripeShift) + 1) << _stripeShift);
+            synchronized (lockFor(register)) {
+                for (; register < end; register++)
+                    _lpfms[register].countMaxSince(sortedTMins, histograms);
+            }
+        }
+    }
+
+    @Override
+    public int registerCount() {
+        return _lpfms.length;
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+        synchronized (lockFor(register)) {
+            _lpfms[register].forEachEntry(consumer);
+        }
+    }
+
+    /**
+     * Each register of the other store is copied out before taking this store's lock, so merging two concurrent
+     * stores into each other at once cannot deadlock
+     */
+    @Override
+    public void merge(LPFMStore other) {
+
+        EntryList entries = new EntryList();
+        for (int i = 0; i < _lpfms.length; i++) {
+            entries.clear();
+            other.forEachEntry(i, entries);
+            if (entries._size == 0)
+                continue;
+
+            synchronized (lockFor(i)) {
+                _lpfms[i].merge(entries);
+            }
+        }
+    }
+
+    @Override
+    public int expire(long now) {
+        int expired = 0;
+        for (int register = 0; register < _lpfms.length; register++) {
+            synchronized (lockFor(register)) {
+                expired += _lpfms[register].expire(now);
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public int entryCount(int register) {
+        synchronized (lockFor(register)) {
+            return _lpfms[register].entryCount();
+        }
+    }
+
+    @Override
+    public int entryCapacity(int register) {
+        synchronized (lockFor(register)) {
+            return _lpfms[register].entryCapacity();
+        }
+    }
+
+    @Override
+    public int resizes(int register) {
+        synchronized (lockFor(register)) {
+            return _lpfms[register].resizes();
+        }
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = HeapSize.object(2 * HeapSize.REFERENCE + Integer.BYTES)
+                + HeapSize.array(_lpfms.length, HeapSize.REFERENCE)
+                + HeapSize.array(_locks.length, HeapSize.REFERENCE) + _locks.length * HeapSize.object(0);
+        for (int register = 0; register < _lpfms.length; register++) {
+            synchronized (lockFor(register)) {
+                size += _lpfms[register].sizeInBytes();
+            }
+        }
+        return size;
+    }
+
+    int stripeCount() {
+        return _locks.length;
+    }
+}
@@ -0,0 +1,20 @@
+package SlidingHyperLogLog;
+
+public class ConcurrentLPFMStoreFactory implements LPFMStoreFactory<ConcurrentLPFMStore> {
+
+    private final LPFMFactory<?> _lpfmFactory;
+    private final int _concurrencyLevel;
+
+    /**
+     * @param concurrencyLevel the number of threads expected to offer at once
+     */
+    public ConcurrentLPFMStoreFactory(LPFMFactory<?> lpfmFactory, int concurrencyLevel) {
+        _lpfmFactory = lpfmFactory;
+        _concurrencyLevel = concurrencyLevel;
+    }
+
+    @Override
+    public ConcurrentLPFMStore buildStore(int registerCount, long windowSize) {
+        return new ConcurrentLPFMStore(registerCount, windowSize, _lpfmFactory, _concurrencyLevel);
+    }
+}
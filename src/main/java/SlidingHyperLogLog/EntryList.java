@@ -0,0 +1,118 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * A reusable list of entries, used to carry entries between LPFMs and stores while merging.
+ *
+ * Not thread safe
+ */
+final class EntryList implements LPFMEntries, LPFMEntries.EntryConsumer {
+
+    long[] _ts = new long[8];
+    int[]  _rs = new  int[8];
+    int _size;
+
+    void clear() {
+        _size = 0;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > _ts.length) {
+            int newLen = Math.max(capacity, _ts.length << 1);
+            _ts = Arrays.copyOf(_ts, newLen);
+            _rs = Arrays.copyOf(_rs, newLen);
+        }
+    }
+
+    @Override
+    public void accept(long timestamp, int R) {
+        ensureCapacity(_size + 1);
+        _ts[_size] = timestamp;
+        _rs[_size] = R;
+        _size++;
+    }
+
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+        for (int i = 0; i < _size; i++)
+            consumer.accept(_ts[i], _rs[i]);
+    }
+
+    /**
+     * Sets this to the union of two lists, which must not be this
+     */
+    void setToUnion(EntryList a, EntryList b, long windowSize) {
+        ensureCapacity(a._size + b._size);
+        int count = union(a._ts, a._rs, 0, a._size, b._ts, b._rs, 0, b._size, windowSize, _ts, _rs);
+        System.arraycopy(_ts, _ts.length - count, _ts, 0, count);
+        System.arraycopy(_rs, _rs.length - count, _rs, 0, count);
+        _size = count;
+    }
+
+    /**
+     * Merges two lists of possible future maxima, each a circular buffer of entries with ascending timestamps and
+     * strictly descending Rs, into the entries that would remain had every offer been made to one list.
+     *
+     * Walks both lists from their newest entries, keeping each entry with a larger R than every newer one, and
+     * stopping at the first outside the window of the newest. The result is written to the end of the destination
+     * arrays, which must have room for both lists, and the number of entries written is returned.
+     */
+    static int union(long[] aTs, int[] aRs, int aFirst, int aSize,
+                     long[] bTs, int[] bRs, int bFirst, int bSize,
+                     long windowSize, long[] destTs, int[] destRs) {
+
+        int aPos = aSize - 1;
+        int bPos = bSize - 1;
+        int dest = destTs.length;
+
+        long tMin = Long.MIN_VALUE;
+        int maxR = Integer.MIN_VALUE;
+
+        while (aPos >= 0 || bPos >= 0) {
+
+            int a = aPos >= 0 ? wrap(aFirst + aPos, aTs.length) : -1;
+            int b = bPos >= 0 ? wrap(bFirst + bPos, bTs.length) : -1;
+
+            // Take the newer entry, or for equal timestamps the larger R, which makes the other redundant
+            long timestamp;
+            int R;
+            if (b < 0 || (a >= 0 && (aTs[a] > bTs[b] || (aTs[a] == bTs[b] && aRs[a] >= bRs[b])))) {
+                timestamp = aTs[a];
+                R = aRs[a];
+                aPos--;
+            }
+            else {
+                timestamp = bTs[b];
+                R = bRs[b];
+                bPos--;
+            }
+
+            if (dest == destTs.length)
+                tMin = timestamp - windowSize;
+            else if (timestamp < tMin)
+                break;
+
+            if (R > maxR) {
+                dest--;
+                destTs[dest] = timestamp;
+                destRs[dest] = R;
+                maxR = R;
+            }
+        }
+
+        return destTs.length - dest;
+    }
+
+    private static int wrap(int pos, int length) {
+        return pos >= length ? pos - length : pos;
+    }
+
+    /**
+     * Smallest power of 2 that is at least n
+     */
+    static int ceilingPowerOf2(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+}
@@ -0,0 +1,13 @@
+package SlidingHyperLogLog;
+
+/**
+ * Hook for metrics on SlidingHyperLogLog.expire(now). Called on the thread calling expire, so should be quick.
+ */
+public interface ExpiryListener {
+
+    /**
+     * Called once per expire, with the number of entries dropped and the bytes of heap reclaimed
+     */
+    void expired(int entries, long bytesReclaimed);
+
+}
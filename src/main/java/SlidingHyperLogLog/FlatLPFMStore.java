@@ -0,0 +1,368 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * Keeps every register's list of possible future maxima in two shared primitive arenas, instead of one LPFM object
+ * (and pair of arrays) per register.
+ *
+ * Each register owns a power-of-2 sized segment of the arenas. Within a segment, entries behave as in
+ * MonotonicDequeLPFM: ascending timestamps, strictly descending Rs. When a segment is full it is moved to the end
+ * of the arenas at twice the size, and the arenas are compacted once more than half of them is abandoned segments.
+ *
+ * Rs are stored as bytes, so must be at most 127. Rank values from a sketch always are.
+ *
+ * Not thread safe
+ */
+public class FlatLPFMStore implements LPFMStore {
+
+    private static final int INITIAL_ARENA_SIZE = 16;
+
+    private final long _windowSize;
+
+    // Per register: where its segment starts in the arenas, encoded segment capacity (see capacity()),
+    // and the position of its oldest entry and entry count within the segment. Start and size are unsigned.
+    private final int[]  _offset;
+    private final byte[] _capacityCode;
+    private final byte[] _start;
+    private final byte[] _size;
+
+    private long[] _ts;
+    private byte[] _rs;
+
+    // Arena slots in use, and how many of those belong to abandoned segments
+    private int _arenaEnd;
+    private int _garbage;
+
+    FlatLPFMStore(int registerCount, long windowSize) {
+        _windowSize = windowSize;
+        _offset = new int[registerCount];
+        _capacityCode = new byte[registerCount];
+        _start = new byte[registerCount];
+        _size = new byte[registerCount];
+        _ts = new long[INITIAL_ARENA_SIZE];
+        _rs = new byte[INITIAL_ARENA_SIZE];
+    }
+
+    // Code 0 means no segment yet, otherwise capacity is 2^(code - 1)
+    private int capacity(int register) {
+        return (1 << _capacityCode[register]) >>> 1;
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+
+        int offset = _offset[register];
+        int start = _start[register] & 0xFF;
+        int size = _size[register] & 0xFF;
+
+        // Drop entries from the tail which are no longer a PFM (possible future maximum)
+        while (size > 0 && _rs[offset + start + size - 1] <= R)
+            size--;
+
+        // Drop entries from the head which are outside the window
+        long tMin = timestamp - _windowSize;
+        while (size > 0 && _ts[offset + start] < tMin) {
+            start++;
+            size--;
+        }
+
+        if (size == 0)
+            start = 0;
+
+        if (start + size == capacity(register)) {
+            if (start > 0) {
+                // Slide the entries back to the start of the segment
+                System.arraycopy(_ts, offset + start, _ts, offset, size);
+                System.arraycopy(_rs, offset + start, _rs, offset, size);
+            }
+            else {
+                _start[register] = 0;
+                _size[register] = (byte) size;
+                relocate(register, size + 1);
+                offset = _offset[register];
+            }
+            start = 0;
+        }
+
+        _ts[offset + start + size] = timestamp;
+        _rs[offset + start + size] = (byte) R;
+
+        _start[register] = (byte) start;
+        _size[register] = (byte) (size + 1);
+    }
+
+    /**
+     * Applies each run of entries to the same register in one pass, as LPFM.offerRun does
+     */
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        int i = 0;
+        while (i < len) {
+            int register = registers[i];
+            int end = i + 1;
+            while (end < len && registers[end] == register)
+                end++;
+            if (end - i == 1)
+                offer(register, ts[tsOffset + i], Rs[i]);
+            else
+                offerRun(register, Rs, ts, tsOffset, i, end);
+            i = end;
+        }
+    }
+
+    // Expires and prunes the register's entries once for the whole run, against its newest timestamp and largest
+    // R, then appends the entries of the run no later entry's R is as large as
+    private void offerRun(int register, int[] Rs, long[] ts, int tsOffset, int from, int to) {
+
+        // The run's own survivors, counted back from its newest entry, which always survives
+        long tMin = ts[tsOffset + to - 1] - _windowSize;
+        int kept = 0;
+        int maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; i >= from && ts[tsOffset + i] >= tMin; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                kept++;
+            }
+        }
+
+        int offset = _offset[register];
+        int start = _start[register] & 0xFF;
+        int size = _size[register] & 0xFF;
+
+        while (size > 0 && _rs[offset + start + size - 1] <= maxR)
+            size--;
+        while (size > 0 && _ts[offset + start] < tMin) {
+            start++;
+            size--;
+        }
+        if (size == 0)
+            start = 0;
+
+        int capacity = capacity(register);
+        if (start + size + kept > capacity) {
+            if (size + kept <= capacity) {
+                // Slide the entries back to the start of the segment
+                System.arraycopy(_ts, offset + start, _ts, offset, size);
+                System.arraycopy(_rs, offset + start, _rs, offset, size);
+            }
+            else {
+                _start[register] = (byte) start;
+                _size[register] = (byte) size;
+                relocate(register, size + kept);
+                offset = _offset[register];
+            }
+            start = 0;
+        }
+
+        // Written newest first, from the end of where they go
+        int dest = size + kept;
+        maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; dest > size; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                dest--;
+                _ts[offset + start + dest] = ts[tsOffset + i];
+                _rs[offset + start + dest] = (byte) Rs[i];
+            }
+        }
+
+        _start[register] = (byte) start;
+        _size[register] = (byte) (size + kept);
+    }
+
+    // Moves a register's entries into a new segment, at least twice the size and of at least minCapacity, at the end
+    // of the arenas
+    private void relocate(int register, int minCapacity) {
+
+        int oldCapacity = capacity(register);
+        int newCapacity = Math.max(oldCapacity == 0 ? 1 : oldCapacity << 1, EntryList.ceilingPowerOf2(minCapacity));
+
+        if (_arenaEnd + newCapacity > _ts.length) {
+            if (_garbage > _arenaEnd >> 1)
+                compact();
+            if (_arenaEnd + newCapacity > _ts.length) {
+                int newLen = Math.max(_arenaEnd + newCapacity, _ts.length + (_ts.length >> 1));
+                _ts = Arrays.copyOf(_ts, newLen);
+                _rs = Arrays.copyOf(_rs, newLen);
+            }
+        }
+
+        int oldOffset = _offset[register];
+        int start = _start[register] & 0xFF;
+        int size = _size[register] & 0xFF;
+
+        System.arraycopy(_ts, oldOffset + start, _ts, _arenaEnd, size);
+        System.arraycopy(_rs, oldOffset + start, _rs, _arenaEnd, size);
+
+        _offset[register] = _arenaEnd;
+        _capacityCode[register] = (byte) (Integer.numberOfTrailingZeros(newCapacity) + 1);
+        _start[register] = 0;
+        _arenaEnd += newCapacity;
+        _garbage += oldCapacity;
+    }
+
+    // Rewrites the arenas with only the live segments, in register order
+    private void compact() {
+
+        int liveCapacity = 0;
+        for (int register = 0; register < _offset.length; register++)
+            liveCapacity += capacity(register);
+        int newLen = Math.max(INITIAL_ARENA_SIZE, liveCapacity + (liveCapacity >> 1));
+        long[] newTs = new long[newLen];
+        byte[] newRs = new byte[newLen];
+
+        int destPos = 0;
+        for (int register = 0; register < _offset.length; register++) {
+            int capacity = capacity(register);
+            if (capacity == 0) {
+                // Registers with no segment have no entries, but their offset must still be inside the arenas
+                _offset[register] = 0;
+                _start[register] = 0;
+                continue;
+            }
+
+            int sourcePos = _offset[register] + (_start[register] & 0xFF);
+            int size = _size[register] & 0xFF;
+            System.arraycopy(_ts, sourcePos, newTs, destPos, size);
+            System.arraycopy(_rs, sourcePos, newRs, destPos, size);
+
+            _offset[register] = destPos;
+            _start[register] = 0;
+            destPos += capacity;
+        }
+
+        _ts = newTs;
+        _rs = newRs;
+        _arenaEnd = destPos;
+        _garbage = 0;
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+
+        // Find the first entry with timestamp >= tMin. Being the oldest in range it has the largest R
+        int first = _offset[register] + (_start[register] & 0xFF);
+        int end = first + (_size[register] & 0xFF);
+
+        int lo = first;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_ts[mid] < tMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo == end ? 0 : _rs[lo];
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+        for (int register = from; register < to; register++)
+            histogram[getMaxSince(register, tMin)]++;
+    }
+
+    @Override
+    public int registerCount() {
+        return _offset.length;
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+
+        int first = _offset[register] + (_start[register] & 0xFF);
+        int end = first + (_size[register] & 0xFF);
+        for (int i = first; i < end; i++)
+            consumer.accept(_ts[i], _rs[i]);
+    }
+
+    @Override
+    public void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+        for (int register = from; register < to; register++) {
+            int first = _offset[register] + (_start[register] & 0xFF);
+            int end = first + (_size[register] & 0xFF);
+
+            // The first entry at or after each tMin, being the oldest in range, has the largest R
+            for (int i = 0; i < sortedTMins.length; i++) {
+                while (first < end && _ts[first] < sortedTMins[i])
+                    first++;
+                histograms[i][first == end ? 0 : _rs[first]]++;
+            }
+        }
+    }
+
+    /**
+     * Drops expired entries from every register, and shrinks segments to the smallest power of 2 holding what is
+     * left once that is at most a quarter of their capacity. The arenas are then compacted if anything shrank or
+     * more than half of them is abandoned segments.
+     */
+    @Override
+    public int expire(long now) {
+
+        long tMin = now - _windowSize;
+        int expired = 0;
+        boolean shrunk = false;
+
+        for (int register = 0; register < _offset.length; register++) {
+            int offset = _offset[register];
+            int start = _start[register] & 0xFF;
+            int size = _size[register] & 0xFF;
+
+            int live = size;
+            while (live > 0 && _ts[offset + start] < tMin) {
+                start++;
+                live--;
+            }
+            expired += size - live;
+            _start[register] = (byte) (live == 0 ? 0 : start);
+            _size[register] = (byte) live;
+
+            int capacity = capacity(register);
+            if (capacity > 0 && live <= capacity >> 2) {
+                _capacityCode[register] = (byte) (live == 0 ? 0 : Integer.numberOfTrailingZeros(EntryList.ceilingPowerOf2(live)) + 1);
+                shrunk = true;
+            }
+        }
+
+        if (shrunk || _garbage > _arenaEnd >> 1)
+            compact();
+        return expired;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, six array references, arena end and garbage
+        return HeapSize.object(Long.BYTES + 6 * HeapSize.REFERENCE + 2 * Integer.BYTES)
+                + HeapSize.of(_offset) + HeapSize.of(_capacityCode) + HeapSize.of(_start) + HeapSize.of(_size)
+                + HeapSize.of(_ts) + HeapSize.of(_rs);
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+
+        EntryList own = new EntryList();
+        EntryList theirs = new EntryList();
+        EntryList union = new EntryList();
+
+        for (int register = 0; register < _offset.length; register++) {
+            theirs.clear();
+            other.forEachEntry(register, theirs);
+            if (theirs._size == 0)
+                continue;
+
+            own.clear();
+            forEachEntry(register, own);
+            union.setToUnion(own, theirs, _windowSize);
+
+            // Empty the register and offer the union back in order. None of it is pruned, and the segment only
+            // moves if it is too small.
+            _start[register] = 0;
+            _size[register] = 0;
+            for (int i = 0; i < union._size; i++)
+                offer(register, union._ts[i], union._rs[i]);
+        }
+    }
+
+}
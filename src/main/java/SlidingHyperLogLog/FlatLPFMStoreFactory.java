@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class FlatLPFMStoreFactory implements LPFMStoreFactory<FlatLPFMStore> {
+
+    @Override
+    public FlatLPFMStore buildStore(int registerCount, long windowSize) {
+        return new FlatLPFMStore(registerCount, windowSize);
+    }
+}
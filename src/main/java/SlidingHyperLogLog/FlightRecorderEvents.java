@@ -0,0 +1,26 @@
+package SlidingHyperLogLog;
+
+/**
+ * Where a MetricsRecorder sends JDK Flight Recorder events. The one implementation, JdkFlightRecorderEvents, is
+ * built from src/main/java11, as jdk.jfr is not part of the Java 8 API this library is compiled against.
+ */
+interface FlightRecorderEvents {
+
+    void offered(int register, long timestamp, long latencyNanos);
+
+    void queried(int horizons, long latencyNanos);
+
+    void expired(long now, int expiredEntries, long reclaimedBytes);
+
+    /**
+     * The events, or null on a JVM without Java 11 and the jdk.jfr module
+     */
+    static FlightRecorderEvents load() {
+        try {
+            return (FlightRecorderEvents) Class.forName("SlidingHyperLogLog.JdkFlightRecorderEvents").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package SlidingHyperLogLog;
+
+/**
+ * Estimates of retained heap, for a 64-bit JVM with compressed references (the default for heaps under 32GB):
+ * 12-byte object headers, 16-byte array headers, 4-byte references, and everything aligned to 8 bytes
+ */
+final class HeapSize {
+
+    static final int REFERENCE = 4;
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+
+    private HeapSize() {
+    }
+
+    /**
+     * An object with this many bytes of fields, not counting what they refer to
+     */
+    static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    // Of an array which may be null
+    static long of(long[] array) {
+        return array == null ? 0 : array(array.length, Long.BYTES);
+    }
+
+    static long of(int[] array) {
+        return array == null ? 0 : array(array.length, Integer.BYTES);
+    }
+
+    static long of(byte[] array) {
+        return array == null ? 0 : array(array.length, Byte.BYTES);
+    }
+
+    static long of(boolean[] array) {
+        return array == null ? 0 : array(array.length, Byte.BYTES);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+}
@@ -0,0 +1,304 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * List of possible future maxima holding up to two entries in fields, and only allocating an array when a third
+ * arrives. Most registers of a sketch hold a few entries, and the busiest hold none or one, so a sketch warms up
+ * without allocating for its shortest lists, and holds them in one 40 byte object.
+ *
+ * Entries are encoded as in CompactLPFM, the low 32 bits of each timestamp relative to the newest timestamp offered,
+ * so the window must be less than 2^31, and offers more than a window older than the newest are ignored. Inline, the
+ * older entry is in _low0 and _r0. Spilled, every entry is in _entries, laid out and updated by CompactLPFM's static
+ * helpers, until expire(now) leaves two or fewer, which are moved back inline. Offers keep the array however few
+ * entries they leave, so a list going between one entry and three allocates once, not every time.
+ *
+ * Rs are stored as bytes, so must be at most 127. Rank values from a sketch always are.
+ *
+ * Not thread safe
+ */
+public class InlineLPFM implements LPFM {
+
+    private final int _windowSize;
+
+    // Newest timestamp offered, which every entry is within the window of
+    private long _newest;
+
+    // Entries while there are no more than two, oldest first
+    private int _low0;
+    private int _low1;
+    private byte _r0;
+    private byte _r1;
+
+    // Low 32 bits of each timestamp, big-endian, for capacity entries, then their Rs. Null while inline.
+    private byte[] _entries = null;
+
+    // Position of the oldest entry in _entries, and number of live entries. Unsigned.
+    private byte _start;
+    private byte _size;
+
+    InlineLPFM(long windowSize) {
+        _windowSize = (int) windowSize;
+    }
+
+    private long timestamp(int low) {
+        return CompactLPFM.timestamp(_newest, low);
+    }
+
+    @Override
+    public void offer(long timestamp, int R) {
+
+        int size = _size & 0xFF;
+        if (size > 0 && timestamp < _newest - _windowSize)
+            return;
+
+        if (_entries != null) {
+            offerSpilled(timestamp, R, size);
+            return;
+        }
+
+        // Drop entries from the tail which are no longer a PFM (possible future maximum)
+        if (size == 2 && _r1 <= R)
+            size = 1;
+        if (size == 1 && _r0 <= R)
+            size = 0;
+
+        // Drop entries from the head which are outside the window
+        long tMin = timestamp - _windowSize;
+        if (size > 0 && timestamp(_low0) < tMin) {
+            _low0 = _low1;
+            _r0 = _r1;
+            size--;
+            if (size > 0 && timestamp(_low0) < tMin)
+                size--;
+        }
+
+        _newest = size == 0 ? timestamp : Math.max(_newest, timestamp);
+
+        if (size == 2) {
+            // Spill to an array, with room for a fourth
+            _entries = new byte[4 * 5];
+            CompactLPFM.set(_entries, 0, _low0, _r0);
+            CompactLPFM.set(_entries, 1, _low1, _r1);
+            CompactLPFM.set(_entries, 2, timestamp, R);
+            _start = 0;
+        }
+        else if (size == 1) {
+            _low1 = (int) timestamp;
+            _r1 = (byte) R;
+        }
+        else {
+            _low0 = (int) timestamp;
+            _r0 = (byte) R;
+        }
+        _size = (byte) (size + 1);
+    }
+
+    // As CompactLPFM.offer, on the spilled entries
+    private void offerSpilled(long timestamp, int R, int size) {
+
+        int start = _start & 0xFF;
+        size = CompactLPFM.pruneTail(_entries, start, size, R);
+        int expired = CompactLPFM.countExpired(_entries, _newest, start, size, timestamp - _windowSize);
+        start += expired;
+        size -= expired;
+
+        if (size == 0) {
+            start = 0;
+            _newest = timestamp;
+        }
+        else {
+            _newest = Math.max(_newest, timestamp);
+        }
+
+        if (start + size == CompactLPFM.capacity(_entries)) {
+            _entries = CompactLPFM.makeRoom(_entries, start, size);
+            start = 0;
+        }
+
+        CompactLPFM.set(_entries, start + size, timestamp, R);
+        _start = (byte) start;
+        _size = (byte) (size + 1);
+    }
+
+    /**
+     * Inserts an entry older than the newest in place, as CompactLPFM does. An inline list spills to take it, unless it
+     * is dominated, as it may then hold three entries. Offers no older than the newest are offers.
+     */
+    @Override
+    public void offerLate(long timestamp, int R) {
+
+        int size = _size & 0xFF;
+        if (size == 0 || timestamp >= _newest) {
+            offer(timestamp, R);
+            return;
+        }
+        if (timestamp < _newest - _windowSize)
+            return;
+
+        if (_entries == null) {
+            // The first entry at or after the timestamp, which the newest always is, has their largest R
+            int nextR = size == 2 && timestamp(_low0) < timestamp ? _r1 : _r0;
+            if (nextR >= R)
+                return;
+
+            _entries = new byte[4 * 5];
+            CompactLPFM.set(_entries, 0, _low0, _r0);
+            if (size == 2)
+                CompactLPFM.set(_entries, 1, _low1, _r1);
+            _start = 0;
+        }
+        else if (CompactLPFM.dominated(_entries, _newest, _start & 0xFF, size, timestamp, R)) {
+            return;
+        }
+
+        int start = _start & 0xFF;
+        if (start + size == CompactLPFM.capacity(_entries)) {
+            _entries = CompactLPFM.makeRoom(_entries, start, size);
+            start = 0;
+        }
+        _start = (byte) start;
+        _size = (byte) CompactLPFM.insert(_entries, _newest, start, size, timestamp, R);
+    }
+
+    @Override
+    public int getMaxSince(long tMin) {
+
+        int size = _size & 0xFF;
+        if (_entries == null) {
+            // The oldest entry in range has the largest R
+            if (size > 0 && timestamp(_low0) >= tMin)
+                return _r0;
+            if (size > 1 && timestamp(_low1) >= tMin)
+                return _r1;
+            return 0;
+        }
+
+        return CompactLPFM.maxSince(_entries, _newest, _start & 0xFF, size, tMin);
+    }
+
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+
+        int size = _size & 0xFF;
+        if (_entries == null) {
+            if (size > 0)
+                consumer.accept(timestamp(_low0), _r0);
+            if (size > 1)
+                consumer.accept(timestamp(_low1), _r1);
+            return;
+        }
+
+        CompactLPFM.forEachEntry(_entries, _newest, _start & 0xFF, size, consumer);
+    }
+
+    @Override
+    public void merge(LPFMEntries other) {
+
+        EntryList theirs = new EntryList();
+        other.forEachEntry(theirs);
+        if (theirs._size == 0)
+            return;
+
+        EntryList own = new EntryList();
+        forEachEntry(own);
+        EntryList union = new EntryList();
+        union.setToUnion(own, theirs, _windowSize);
+
+        long newest = union._ts[union._size - 1];
+        _newest = own._size == 0 ? newest : Math.max(_newest, newest);
+        setEntries(union);
+    }
+
+    // Replaces the entries with these, inline if they fit
+    private void setEntries(EntryList entries) {
+        if (entries._size <= 2) {
+            _entries = null;
+            if (entries._size > 0) {
+                _low0 = (int) entries._ts[0];
+                _r0 = (byte) entries._rs[0];
+            }
+            if (entries._size > 1) {
+                _low1 = (int) entries._ts[1];
+                _r1 = (byte) entries._rs[1];
+            }
+        }
+        else {
+            _entries = CompactLPFM.encode(entries);
+        }
+        _start = 0;
+        _size = (byte) entries._size;
+    }
+
+    @Override
+    public int expire(long now) {
+
+        int size = _size & 0xFF;
+        long tMin = now - _windowSize;
+        int expired = 0;
+
+        if (_entries == null) {
+            if (size > 0 && timestamp(_low0) < tMin) {
+                _low0 = _low1;
+                _r0 = _r1;
+                expired++;
+                if (size > 1 && timestamp(_low0) < tMin)
+                    expired++;
+            }
+            _size = (byte) (size - expired);
+            return expired;
+        }
+
+        int start = _start & 0xFF;
+        expired = CompactLPFM.countExpired(_entries, _newest, start, size, tMin);
+
+        int live = size - expired;
+        if (live <= 2) {
+            // Back inline
+            if (live > 0) {
+                _low0 = CompactLPFM.low(_entries, start + expired);
+                _r0 = (byte) CompactLPFM.r(_entries, start + expired);
+            }
+            if (live > 1) {
+                _low1 = CompactLPFM.low(_entries, start + expired + 1);
+                _r1 = (byte) CompactLPFM.r(_entries, start + expired + 1);
+            }
+            _entries = null;
+            _start = 0;
+        }
+        else if (live <= CompactLPFM.capacity(_entries) >> 2) {
+            _entries = CompactLPFM.moveTo(_entries, start + expired, live, EntryList.ceilingPowerOf2(live));
+            _start = 0;
+        }
+        else {
+            _start = (byte) (start + expired);
+        }
+        _size = (byte) live;
+        return expired;
+    }
+
+    @Override
+    public int entryCount() {
+        return _size & 0xFF;
+    }
+
+    @Override
+    public int entryCapacity() {
+        return _entries == null ? 2 : CompactLPFM.capacity(_entries);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, newest timestamp, two inline entries, array reference, start and size
+        return HeapSize.object(Integer.BYTES + Long.BYTES + 2 * Integer.BYTES + 2 + HeapSize.REFERENCE + 2) + HeapSize.of(_entries);
+    }
+
+    @Override
+    public String toString() {
+        EntryList entries = new EntryList();
+        forEachEntry(entries);
+        return String.format("_ts=%s, _rs=%s, _newest=%d, spilled=%b", Arrays.toString(Arrays.copyOf(entries._ts, entries._size)),
+                Arrays.toString(Arrays.copyOf(entries._rs, entries._size)), _newest, _entries != null);
+    }
+
+}
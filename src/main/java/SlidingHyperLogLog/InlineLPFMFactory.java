@@ -0,0 +1,15 @@
+package SlidingHyperLogLog;
+
+public class InlineLPFMFactory implements LPFMFactory<InlineLPFM> {
+
+    /**
+     * Windows must be less than 2^31, as InlineLPFM keeps only the low 32 bits of each timestamp
+     */
+    @Override
+    public InlineLPFM buildLPFM(long windowSize) {
+        if (windowSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("windowSize is " + windowSize + ". It must be < 2^31 for InlineLPFM.");
+
+        return new InlineLPFM(windowSize);
+    }
+}
@@ -0,0 +1,502 @@
+package SlidingHyperLogLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A sketch which survives a crash. Every offer is appended to a journal of (timestamp, hash) records, in a file
+ * mapped into memory, before it reaches the sketch. The journal is forced to disk every syncInterval records, so a
+ * crash loses at most the offers since the last sync. Every checkpointInterval records the sketch is written to a
+ * checkpoint file and the journal starts again, so recovery reads the checkpoint and replays only the journal since.
+ *
+ * A journaled sketch is a directory of two files: journal.shll, with a header and the records, and checkpoint.shll,
+ * a sketch serialized as in SketchFormat after a short header. A checkpoint is written to a temporary file and moved
+ * over the last, so there is always a whole one. Each journal record ends with a check of its timestamp, hash and the
+ * journal's generation, which goes up each time the journal starts again. Replay stops at the first record whose
+ * check fails: one torn by a crash, or one left from an earlier generation. Records more than a window older than
+ * the newest are not replayed, as they could not change any estimate.
+ *
+ * Merges and expiry are not journaled. A merge writes a checkpoint straight after. Entries dropped by expire(now)
+ * may come back on recovery, but estimates since now - windowSize or later are unchanged.
+ *
+ * Not thread safe
+ */
+public class JournaledSketch implements Closeable {
+
+    static final int JOURNAL_MAGIC = 0x53484C4A;
+    static final int CHECKPOINT_MAGIC = 0x53484C43;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int CHECKPOINT_HEADER_SIZE = 16;
+
+    static final String JOURNAL_FILE = "journal.shll";
+    static final String CHECKPOINT_FILE = "checkpoint.shll";
+    static final String CHECKPOINT_TEMP_FILE = "checkpoint.shll.tmp";
+
+    private static final int FLAG_HASH64 = 1;
+
+    // Journal header layout, big-endian. The generation changes each time the journal starts again.
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 4;
+    private static final int FLAGS_POS = 5;
+    private static final int B_POS = 6;
+    private static final int HASH_SEED_POS = 8;
+    private static final int WINDOW_SIZE_POS = 12;
+    private static final int CHUNK_SIZE_POS = 20;
+    private static final int GENERATION_POS = 24;
+
+    // Checkpoint header layout, big-endian: magic, version, then the journal generation it covers
+    private static final int CHECKPOINT_GENERATION_POS = 8;
+
+    private final Path _directory;
+    private final FileChannel _channel;
+    private final MappedByteBuffer _header;
+    private final ChunkedBuffer _records;
+    private final int _recordSize;
+    private final boolean _hash64;
+    private final int _syncInterval;
+    private final int _checkpointInterval;
+
+    private final SlidingHyperLogLog _sketch;
+
+    private long _generation;
+    // Records in this generation, and how many of them have been forced to disk
+    private int _length;
+    private int _synced;
+    // Records replayed when opened
+    private final int _replayed;
+
+    private boolean _closed = false;
+
+    private JournaledSketch(Path directory, SlidingHyperLogLog.Builder sketchBuilder, int syncInterval, int checkpointInterval, int chunkSize, FileChannel channel) throws IOException {
+
+        sketchBuilder.checkSettings();
+        int b = sketchBuilder.b();
+        long windowSize = sketchBuilder.windowSize();
+        _hash64 = sketchBuilder.use64BitHash();
+
+        _directory = directory;
+        _channel = channel;
+        _syncInterval = syncInterval;
+        _checkpointInterval = checkpointInterval;
+
+        // Timestamp, hash and check
+        _recordSize = Long.BYTES + (_hash64 ? Long.BYTES : Integer.BYTES) + Integer.BYTES;
+
+        boolean existing = channel.size() > 0;
+        _header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (existing) {
+            checkHeader(b, windowSize, _hash64);
+        }
+        else {
+            _header.putInt(MAGIC_POS, JOURNAL_MAGIC)
+                    .put(VERSION_POS, VERSION)
+                    .put(FLAGS_POS, (byte) (_hash64 ? FLAG_HASH64 : 0))
+                    .put(B_POS, (byte) b)
+                    .putInt(HASH_SEED_POS, SlidingHyperLogLog.HASH_SEED)
+                    .putLong(WINDOW_SIZE_POS, windowSize)
+                    .putInt(CHUNK_SIZE_POS, chunkSize)
+                    .putLong(GENERATION_POS, 1);
+            _header.force();
+        }
+
+        // An existing journal keeps the chunk size it was created with
+        chunkSize = _header.getInt(CHUNK_SIZE_POS);
+        _generation = _header.getLong(GENERATION_POS);
+        _records = new ChunkedBuffer(_recordSize, chunkSize, channel, HEADER_SIZE);
+
+        // The checkpoint, if there is one, then the journal since
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        long checkpointGeneration = 0;
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            checkpointGeneration = readCheckpointHeader(buffer, b, windowSize, _hash64);
+            _sketch = SlidingHyperLogLog.readFrom(buffer, sketchBuilder);
+        }
+        else {
+            _sketch = sketchBuilder.build();
+        }
+
+        _replayed = _generation > checkpointGeneration ? replay(windowSize) : 0;
+
+        // Start a new generation, so that records after a torn one, left by the crash, are never taken for new ones.
+        // Records replayed are checkpointed first.
+        if (_replayed > 0)
+            checkpoint();
+        else
+            startGeneration(Math.max(_generation, checkpointGeneration) + 1);
+    }
+
+    private void checkHeader(int b, long windowSize, boolean hash64) {
+
+        if (_header.getInt(MAGIC_POS) != JOURNAL_MAGIC)
+            throw new IllegalArgumentException("Not a sketch journal");
+        if (_header.get(VERSION_POS) != VERSION)
+            throw new IllegalArgumentException("Unsupported sketch journal version " + _header.get(VERSION_POS));
+        if (_header.getInt(HASH_SEED_POS) != SlidingHyperLogLog.HASH_SEED)
+            throw new IllegalArgumentException("Journal hashes with seed " + _header.getInt(HASH_SEED_POS) + ", expected " + SlidingHyperLogLog.HASH_SEED);
+
+        checkSettings("Journal", _header.get(B_POS), _header.getLong(WINDOW_SIZE_POS), (_header.get(FLAGS_POS) & FLAG_HASH64) != 0, b, windowSize, hash64);
+
+        if (_header.getInt(CHUNK_SIZE_POS) <= 0 || _header.getLong(GENERATION_POS) <= 0)
+            throw new IllegalArgumentException("Corrupt sketch journal");
+    }
+
+    // Reads the checkpoint header and checks the sketch after it, leaving the buffer at the sketch. Returns the
+    // generation covered.
+    private static long readCheckpointHeader(ByteBuffer buffer, int b, long windowSize, boolean hash64) {
+
+        if (buffer.remaining() < CHECKPOINT_HEADER_SIZE || buffer.getInt(0) != CHECKPOINT_MAGIC)
+            throw new IllegalArgumentException("Not a sketch checkpoint");
+        if (buffer.get(VERSION_POS) != VERSION)
+            throw new IllegalArgumentException("Unsupported sketch checkpoint version " + buffer.get(VERSION_POS));
+        long generation = buffer.getLong(CHECKPOINT_GENERATION_POS);
+
+        buffer.position(CHECKPOINT_HEADER_SIZE);
+        SketchFormat.Header header = SketchFormat.readHeader(buffer.duplicate(), SlidingHyperLogLog.HASH_SEED);
+        checkSettings("Checkpoint", header._b, header._windowSize, header._hash64, b, windowSize, hash64);
+        return generation;
+    }
+
+    private static void checkSettings(String what, int fileB, long fileWindowSize, boolean fileHash64, int b, long windowSize, boolean hash64) {
+        if (fileB != b || fileWindowSize != windowSize || fileHash64 != hash64)
+            throw new IllegalArgumentException(what + " holds a sketch with b=" + fileB + ", windowSize=" + fileWindowSize + ", use64BitHash=" + fileHash64
+                    + ", but the builder has b=" + b + ", windowSize=" + windowSize + ", use64BitHash=" + hash64);
+    }
+
+    // Offers the valid records of this generation to the sketch, skipping those more than a window older than the
+    // newest. Returns the number of valid records.
+    private int replay(long windowSize) {
+
+        int length = 0;
+        long newest = Long.MIN_VALUE;
+        for (;; length++) {
+            _records.ensureCapacity(length + 1);
+            ByteBuffer chunk = _records.chunk(length);
+            int pos = _records.offset(length);
+            long t = chunk.getLong(pos);
+            long hash = hash(chunk, pos);
+            if (chunk.getInt(pos + _recordSize - Integer.BYTES) != check(t, hash, _generation))
+                break;
+            newest = Math.max(newest, t);
+        }
+
+        long tMin = newest - windowSize;
+        for (int i = 0; i < length; i++) {
+            ByteBuffer chunk = _records.chunk(i);
+            int pos = _records.offset(i);
+            long t = chunk.getLong(pos);
+            if (t < tMin)
+                continue;
+            if (_hash64)
+                _sketch.offerHashed(t, chunk.getLong(pos + Long.BYTES));
+            else
+                _sketch.offerHashed(t, chunk.getInt(pos + Long.BYTES));
+        }
+        if (length > 0)
+            _sketch.expire(newest);
+        return length;
+    }
+
+    private long hash(ByteBuffer chunk, int pos) {
+        return _hash64 ? chunk.getLong(pos + Long.BYTES) : chunk.getInt(pos + Long.BYTES);
+    }
+
+    // Mixes the record with the generation, so that a record torn by a crash or left from an earlier generation
+    // almost certainly fails. Never 0, so neither does a record never written.
+    static int check(long t, long hash, long generation) {
+        long h = (t ^ (generation * 0x9E3779B97F4A7C15L)) * 0xff51afd7ed558ccdL;
+        h ^= hash;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32)) | 1;
+    }
+
+    private void startGeneration(long generation) {
+        _generation = generation;
+        _header.putLong(GENERATION_POS, generation);
+        _header.force();
+        _length = 0;
+        _synced = 0;
+    }
+
+    private void append(long t, long hash) {
+        if (_closed)
+            throw new IllegalStateException("Sketch is closed");
+
+        _records.ensureCapacity(_length + 1);
+        ByteBuffer chunk = _records.chunk(_length);
+        int pos = _records.offset(_length);
+        chunk.putLong(pos, t);
+        if (_hash64)
+            chunk.putLong(pos + Long.BYTES, hash);
+        else
+            chunk.putInt(pos + Long.BYTES, (int) hash);
+        chunk.putInt(pos + _recordSize - Integer.BYTES, check(t, hash, _generation));
+        _length++;
+
+        if (_length - _synced >= _syncInterval)
+            sync();
+    }
+
+    // After the offer has reached the sketch, so that the checkpoint includes it
+    private void checkpointIfDue() {
+        if (_length >= _checkpointInterval) {
+            try {
+                checkpoint();
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    public void offer(long t, int i) {
+        if (_hash64)
+            offerHashed(t, Murmur3.hash64Int(i, SlidingHyperLogLog.HASH_SEED));
+        else
+            offerHashed(t, Murmur3.hashInt(i, SlidingHyperLogLog.HASH_SEED));
+    }
+
+    public void offer(long t, long l) {
+        if (_hash64)
+            offerHashed(t, Murmur3.hash64Long(l, SlidingHyperLogLog.HASH_SEED));
+        else
+            offerHashed(t, Murmur3.hashLong(l, SlidingHyperLogLog.HASH_SEED));
+    }
+
+    /**
+     * Same hash as SlidingHyperLogLog.offer(long, CharSequence)
+     */
+    public void offer(long t, CharSequence s) {
+        if (_hash64)
+            offerHashed(t, SlidingHyperLogLog.hash64DefaultCharset(s));
+        else
+            offerHashed(t, SlidingHyperLogLog.hashDefaultCharset(s));
+    }
+
+    public void offer(long t, byte[] bytes) {
+        if (_hash64)
+            offerHashed(t, Murmur3.hash64Bytes(bytes, 0, bytes.length, SlidingHyperLogLog.HASH_SEED));
+        else
+            offerHashed(t, Murmur3.hashBytes(bytes, 0, bytes.length, SlidingHyperLogLog.HASH_SEED));
+    }
+
+    /**
+     * Offers a 32-bit hash. Only for sketches built without setUse64BitHash.
+     */
+    public void offerHashed(long t, int hashedValue) {
+        if (_hash64)
+            throw new IllegalStateException("Sketch uses 64-bit hashes");
+        append(t, hashedValue);
+        _sketch.offerHashed(t, hashedValue);
+        checkpointIfDue();
+    }
+
+    /**
+     * Offers a 64-bit hash. Only for sketches built with setUse64BitHash.
+     */
+    public void offerHashed(long t, long hashedValue) {
+        if (!_hash64)
+            throw new IllegalStateException("Sketch uses 32-bit hashes");
+        append(t, hashedValue);
+        _sketch.offerHashed(t, hashedValue);
+        checkpointIfDue();
+    }
+
+    /**
+     * Merges a sketch with the same b, window size and hash size into this one, and writes a checkpoint, as merges
+     * are not journaled
+     */
+    public void merge(SlidingHyperLogLog other) throws IOException {
+        if (_closed)
+            throw new IllegalStateException("Sketch is closed");
+        _sketch.merge(other);
+        checkpoint();
+    }
+
+    public long cardinalitySince(long tMin) {
+        return _sketch.cardinalitySince(tMin);
+    }
+
+    public long[] cardinalitiesSince(long[] tMins) {
+        return _sketch.cardinalitiesSince(tMins);
+    }
+
+    /**
+     * See SlidingHyperLogLog.expire(long)
+     */
+    public long expire(long now) {
+        return _sketch.expire(now);
+    }
+
+    /**
+     * A copy of the sketch on the heap, built by the given builder
+     */
+    public SlidingHyperLogLog copy(SlidingHyperLogLog.Builder builder) {
+        SlidingHyperLogLog copy = builder.build();
+        copy.merge(_sketch);
+        return copy;
+    }
+
+    /**
+     * Records in the journal since the last checkpoint
+     */
+    public int journalLength() {
+        return _length;
+    }
+
+    /**
+     * Records replayed from the journal when the sketch was opened
+     */
+    public int replayed() {
+        return _replayed;
+    }
+
+    /**
+     * Approximate bytes of heap retained by the sketch. The journal is mapped, not on the heap.
+     */
+    public long sizeInBytes() {
+        return _sketch.sizeInBytes();
+    }
+
+    /**
+     * Forces the journal records not yet synced to disk. Called every syncInterval records.
+     */
+    public void sync() {
+        _records.force(_synced, _length);
+        _synced = _length;
+    }
+
+    /**
+     * Writes the sketch to the checkpoint file and starts the journal again. Called every checkpointInterval records.
+     */
+    public void checkpoint() throws IOException {
+        if (_closed)
+            throw new IllegalStateException("Sketch is closed");
+
+        // Until the checkpoint is in place the journal is still needed, so it must be on disk
+        sync();
+
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKPOINT_HEADER_SIZE + _sketch.serializedSize());
+        buffer.putInt(CHECKPOINT_MAGIC).put(VERSION).putLong(CHECKPOINT_GENERATION_POS, _generation);
+        buffer.position(CHECKPOINT_HEADER_SIZE);
+        _sketch.writeTo(buffer);
+        buffer.flip();
+
+        Path temp = _directory.resolve(CHECKPOINT_TEMP_FILE);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(temp, _directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        forceDirectory();
+
+        // The checkpoint covers this generation, so its records will not be replayed
+        startGeneration(_generation + 1);
+    }
+
+    // Makes the move of the checkpoint durable, where the platform allows a directory to be forced
+    private void forceDirectory() {
+        try (FileChannel directory = FileChannel.open(_directory, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+        catch (IOException e) {
+            // Not possible on every platform. The move is then as durable as the file system makes it.
+        }
+    }
+
+    /**
+     * Syncs the journal and closes it. The journal is replayed when the sketch is opened again, unless checkpoint()
+     * is called first.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed)
+            return;
+        sync();
+        _closed = true;
+        _channel.close();
+    }
+
+
+    public static class Builder
+    {
+        private SlidingHyperLogLog.Builder _sketchBuilder;
+        private int _syncInterval = 1 << 14;
+        private int _checkpointInterval = 1 << 22;
+        private int _chunkSize = 1 << 26;
+
+        /**
+         * Settings of the sketch: rsd, window size, hash size, estimator and storage
+         */
+        public JournaledSketch.Builder setSketchBuilder(SlidingHyperLogLog.Builder sketchBuilder) {
+            _sketchBuilder = sketchBuilder;
+            return this;
+        }
+
+        /**
+         * Records appended between forcing the journal to disk. A crash loses at most this many offers. Fewer makes
+         * offers slower.
+         */
+        public JournaledSketch.Builder setSyncInterval(int syncInterval) {
+            if (syncInterval <= 0)
+                throw new IllegalArgumentException("syncInterval must be > 0");
+
+            _syncInterval = syncInterval;
+            return this;
+        }
+
+        /**
+         * Records appended between checkpoints. Recovery replays at most this many. Fewer makes recovery faster, but
+         * writes the whole sketch more often.
+         */
+        public JournaledSketch.Builder setCheckpointInterval(int checkpointInterval) {
+            if (checkpointInterval <= 0)
+                throw new IllegalArgumentException("checkpointInterval must be > 0");
+
+            _checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        /**
+         * Bytes of journal mapped at a time. Only used when a journal is created.
+         */
+        public JournaledSketch.Builder setChunkSize(int chunkSize) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException("chunkSize must be > 0");
+
+            _chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Opens the sketch in a directory, creating it if there is none, or recovering it from its checkpoint and
+         * journal. An existing sketch must have the sketch builder's b, window size and hash size.
+         */
+        public JournaledSketch open(Path directory) throws IOException {
+            if (_sketchBuilder == null)
+                throw new IllegalArgumentException("Please set a sketch builder");
+            Files.createDirectories(directory);
+
+            FileChannel channel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                return new JournaledSketch(directory, _sketchBuilder, _syncInterval, _checkpointInterval, _chunkSize, channel);
+            }
+            catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+    }
+}
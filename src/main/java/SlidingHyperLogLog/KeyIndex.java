@@ -0,0 +1,108 @@
+package SlidingHyperLogLog;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Map from long keys to non-negative ints, in two primitive arrays with open addressing and linear probing, so that
+ * millions of keys are two objects for the garbage collector rather than millions of entries.
+ *
+ * Not thread safe
+ */
+final class KeyIndex {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] _keys = new long[MIN_CAPACITY];
+    // Value + 1 at each position, so 0 marks an empty position whatever the key
+    private int[] _values = new int[MIN_CAPACITY];
+    private int _size;
+
+    int size() {
+        return _size;
+    }
+
+    /**
+     * The key's value, or -1 if it has none
+     */
+    int get(long key) {
+        int mask = _keys.length - 1;
+        for (int pos = position(key, mask); _values[pos] != 0; pos = (pos + 1) & mask) {
+            if (_keys[pos] == key)
+                return _values[pos] - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a key, which must not already have a value
+     */
+    void put(long key, int value) {
+        // Keep at most 3/4 full, so probe sequences stay short
+        if ((_size + 1) * 4L > _keys.length * 3L)
+            resize(_keys.length << 1);
+        insert(key, value + 1);
+        _size++;
+    }
+
+    /**
+     * Removes a key, returning its value, or -1 if it had none
+     */
+    int remove(long key) {
+        int mask = _keys.length - 1;
+        int pos = position(key, mask);
+        while (_keys[pos] != key || _values[pos] == 0) {
+            if (_values[pos] == 0)
+                return -1;
+            pos = (pos + 1) & mask;
+        }
+        int value = _values[pos] - 1;
+
+        // Move later keys of the same run back into the gap, where that keeps them reachable from their position
+        int gap = pos;
+        for (int next = (gap + 1) & mask; _values[next] != 0; next = (next + 1) & mask) {
+            int home = position(_keys[next], mask);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                _keys[gap] = _keys[next];
+                _values[gap] = _values[next];
+                gap = next;
+            }
+        }
+        _values[gap] = 0;
+        _size--;
+        return value;
+    }
+
+    void forEachKey(LongConsumer consumer) {
+        for (int pos = 0; pos < _keys.length; pos++) {
+            if (_values[pos] != 0)
+                consumer.accept(_keys[pos]);
+        }
+    }
+
+    private void insert(long key, int storedValue) {
+        int mask = _keys.length - 1;
+        int pos = position(key, mask);
+        while (_values[pos] != 0)
+            pos = (pos + 1) & mask;
+        _keys[pos] = key;
+        _values[pos] = storedValue;
+    }
+
+    private void resize(int capacity) {
+        long[] keys = _keys;
+        int[] values = _values;
+        _keys = new long[capacity];
+        _values = new int[capacity];
+        for (int pos = 0; pos < keys.length; pos++) {
+            if (values[pos] != 0)
+                insert(keys[pos], values[pos]);
+        }
+    }
+
+    // Keys are often sequential ids, so spread them with a multiplicative hash before taking the low bits
+    private static int position(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+}
@@ -2,10 +2,108 @@ package SlidingHyperLogLog;
 
 import org.apache.commons.lang3.tuple.Pair;
 
-public interface LPFM {
+/**
+ * List of possible future maxima of one register. Only offer and getMaxSince must be implemented. The rest have
+ * defaults, so LPFMs written against the first version of this interface still compile: those which cannot be done
+ * without knowing the list's layout throw UnsupportedOperationException, and the builder refuses options which need
+ * them with an IllegalArgumentException.
+ */
+public interface LPFM extends LPFMEntries {
 
+    /**
+     * Offers an entry no older than any already offered
+     */
     void offer(long timestamp, int R);
 
+    /**
+     * Offers an entry which may be older than entries already offered, leaving the list as though the offers had
+     * arrived in timestamp order. Entries more than a window older than the newest are dropped. The default merges
+     * in a list of just this entry, which suits any LPFM but rebuilds it; lists kept in timestamp order insert in
+     * place.
+     */
+    default void offerLate(long timestamp, int R) {
+        EntryList entry = new EntryList();
+        entry.accept(timestamp, R);
+        merge(entry);
+    }
+
+    /**
+     * Offers entries from to to - 1 of a run in timestamp order, the i-th with timestamp ts[tsOffset + i] and R
+     * Rs[i], leaving the list as though each had been offered in turn. The default does just that; lists kept in
+     * timestamp order apply the run in one pass, expiring and pruning once for the whole run.
+     */
+    default void offerRun(int[] Rs, long[] ts, int tsOffset, int from, int to) {
+        for (int i = from; i < to; i++)
+            offer(ts[tsOffset + i], Rs[i]);
+    }
+
     int getMaxSince(long tMin);
 
+    /**
+     * See LPFMEntries.forEachEntry. Needed by merging, serializing, the cardinality cache and sketch metrics. The
+     * default throws UnsupportedOperationException.
+     */
+    @Override
+    default void forEachEntry(EntryConsumer consumer) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not list its entries");
+    }
+
+    /**
+     * Adds one to histograms[i][getMaxSince(sortedTMins[i])] for each i, the tMins ascending. The default looks each
+     * up; lists override it with one pass over their entries, a cursor moving forward through them as the tMins do.
+     */
+    default void countMaxSince(long[] sortedTMins, int[][] histograms) {
+        for (int i = 0; i < sortedTMins.length; i++)
+            histograms[i][getMaxSince(sortedTMins[i])]++;
+    }
+
+    /**
+     * Merges in the entries of another list with the same window size, leaving this as though it had also seen
+     * every offer made to the other. The default throws UnsupportedOperationException.
+     */
+    default void merge(LPFMEntries other) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not merge");
+    }
+
+    /**
+     * Drops every entry outside the window ending at now, and shrinks buffers sized for many more entries than
+     * remain. Returns the number of entries dropped. The default drops nothing, which leaves every answer the same
+     * but keeps the memory.
+     */
+    default int expire(long now) {
+        return 0;
+    }
+
+    /**
+     * Approximate bytes of heap retained. See HeapSize. The default is 0, so LPFMs which do not say are left out
+     * of a sketch's sizeInBytes and a registry's memory budget.
+     */
+    default long sizeInBytes() {
+        return 0;
+    }
+
+    /**
+     * Number of entries held, including any expired but not yet removed. The default counts them.
+     */
+    default int entryCount() {
+        int[] count = new int[1];
+        forEachEntry((timestamp, R) -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Entries there is room for before the list must grow. The default is entryCount(), for lists which grow an
+     * entry at a time.
+     */
+    default int entryCapacity() {
+        return entryCount();
+    }
+
+    /**
+     * Times the list has grown its buffers to take an offer, for lists which count them, or 0
+     */
+    default int resizes() {
+        return 0;
+    }
+
 }
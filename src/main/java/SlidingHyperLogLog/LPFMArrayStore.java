@@ -0,0 +1,123 @@
+package SlidingHyperLogLog;
+
+/**
+ * One LPFM object per register
+ *
+ * Not thread safe, unless the LPFMs are
+ */
+public class LPFMArrayStore implements LateOfferStore {
+
+    private final LPFM[] _lpfms;
+
+    LPFMArrayStore(int registerCount, long windowSize, LPFMFactory<?> lpfmFactory) {
+        _lpfms = new LPFM[registerCount];
+
+        for (int i = 0; i < registerCount; i++) {
+            _lpfms[i] = lpfmFactory.buildLPFM(windowSize);
+        }
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+        _lpfms[register].offer(timestamp, R);
+    }
+
+    @Override
+    public void offerLate(int register, long timestamp, int R) {
+        _lpfms[register].offerLate(timestamp, R);
+    }
+
+    /**
+     * Hands each run of entries to the same register to its LPFM's offerRun
+     */
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        int i = 0;
+        while (i < len) {
+            int register = registers[i];
+            int end = i + 1;
+            while (end < len && registers[end] == register)
+                end++;
+            _lpfms[register].offerRun(Rs, ts, tsOffset, i, end);
+            i = end;
+        }
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+        return _lpfms[register].getMaxSince(tMin);
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+        LPFM[] lpfms = _lpfms;
+        for (int register = from; register < to; register++)
+            histogram[lpfms[register].getMaxSince(tMin)]++;
+    }
+
+    @Override
+    public void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+        LPFM[] lpfms = _lpfms;
+        for (int register = from; register < to; register++)
+            lpfms[register].countMaxSince(sortedTMins, histograms);
+    }
+
+    @Override
+    public int registerCount() {
+        return _lpfms.length;
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+        _lpfms[register].forEachEntry(consumer);
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+
+        if (other instanceof LPFMArrayStore) {
+            LPFM[] otherLpfms = ((LPFMArrayStore) other)._lpfms;
+            for (int i = 0; i < _lpfms.length; i++)
+                _lpfms[i].merge(otherLpfms[i]);
+            return;
+        }
+
+        EntryList entries = new EntryList();
+        for (int i = 0; i < _lpfms.length; i++) {
+            entries.clear();
+            other.forEachEntry(i, entries);
+            _lpfms[i].merge(entries);
+        }
+    }
+
+    @Override
+    public int expire(long now) {
+        int expired = 0;
+        for (LPFM lpfm : _lpfms)
+            expired += lpfm.expire(now);
+        return expired;
+    }
+
+    @Override
+    public int entryCount(int register) {
+        return _lpfms[register].entryCount();
+    }
+
+    @Override
+    public int entryCapacity(int register) {
+        return _lpfms[register].entryCapacity();
+    }
+
+    @Override
+    public int resizes(int register) {
+        return _lpfms[register].resizes();
+    }
+
+    @Override
+    public long sizeInBytes() {
+        long size = HeapSize.object(HeapSize.REFERENCE) + HeapSize.array(_lpfms.length, HeapSize.REFERENCE);
+        for (LPFM lpfm : _lpfms)
+            size += lpfm.sizeInBytes();
+        return size;
+    }
+}
@@ -0,0 +1,19 @@
+package SlidingHyperLogLog;
+
+public class LPFMArrayStoreFactory implements LPFMStoreFactory<LPFMArrayStore> {
+
+    private final LPFMFactory<?> _lpfmFactory;
+
+    public LPFMArrayStoreFactory(LPFMFactory<?> lpfmFactory) {
+        _lpfmFactory = lpfmFactory;
+    }
+
+    LPFMFactory<?> lpfmFactory() {
+        return _lpfmFactory;
+    }
+
+    @Override
+    public LPFMArrayStore buildStore(int registerCount, long windowSize) {
+        return new LPFMArrayStore(registerCount, windowSize, _lpfmFactory);
+    }
+}
@@ -0,0 +1,18 @@
+package SlidingHyperLogLog;
+
+/**
+ * Anything holding a list of possible future maxima, in ascending timestamp order with strictly descending Rs
+ */
+public interface LPFMEntries {
+
+    /**
+     * Calls the consumer with every entry, oldest first. May include entries which have expired but not yet been
+     * removed.
+     */
+    void forEachEntry(EntryConsumer consumer);
+
+    interface EntryConsumer {
+        void accept(long timestamp, int R);
+    }
+
+}
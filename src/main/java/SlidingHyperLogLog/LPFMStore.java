@@ -0,0 +1,86 @@
+package SlidingHyperLogLog;
+
+/**
+ * Storage for the lists of possible future maxima of every register in a sketch
+ */
+public interface LPFMStore {
+
+    void offer(int register, long timestamp, int R);
+
+    int getMaxSince(int register, long tMin);
+
+    /**
+     * Adds one to histogram[getMaxSince(register, tMin)] for every register from from to to - 1, which is what a query
+     * estimates from. Stores override this with a loop over their own layout, which the JIT can inline whole.
+     * Parallel queries call it from several threads at once for separate ranges, so it must not change the store.
+     */
+    default void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+        for (int register = from; register < to; register++)
+            histogram[getMaxSince(register, tMin)]++;
+    }
+
+    /**
+     * Adds one to histograms[i][getMaxSince(register, sortedTMins[i])] for each i, the tMins ascending, and every
+     * register from from to to - 1, which is what a query for several tMins estimates from. Stores override this with
+     * one pass over each register's entries, as LPFM.countMaxSince does. It must not change the store.
+     */
+    default void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+        for (int register = from; register < to; register++) {
+            for (int i = 0; i < sortedTMins.length; i++)
+                histograms[i][getMaxSince(register, sortedTMins[i])]++;
+        }
+    }
+
+    /**
+     * Offers len entries, the i-th to registers[i] with timestamp ts[tsOffset + i] and R Rs[i], in order
+     */
+    void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len);
+
+    int registerCount();
+
+    /**
+     * Calls the consumer with every entry of a register, oldest first
+     */
+    void forEachEntry(int register, LPFMEntries.EntryConsumer consumer);
+
+    /**
+     * Merges in every register of another store with the same register count and window size, leaving this as
+     * though it had also seen every offer made to the other
+     */
+    void merge(LPFMStore other);
+
+    /**
+     * Drops every register's entries outside the window ending at now, and shrinks buffers sized for many more
+     * entries than remain. Returns the number of entries dropped.
+     */
+    int expire(long now);
+
+    /**
+     * Approximate bytes of heap retained, including every register's entries. See HeapSize.
+     */
+    long sizeInBytes();
+
+    /**
+     * Number of entries a register holds. See LPFM.entryCount(). The default counts them.
+     */
+    default int entryCount(int register) {
+        int[] count = new int[1];
+        forEachEntry(register, (timestamp, R) -> count[0]++);
+        return count[0];
+    }
+
+    /**
+     * Entries a register has room for. See LPFM.entryCapacity(). The default is entryCount(register).
+     */
+    default int entryCapacity(int register) {
+        return entryCount(register);
+    }
+
+    /**
+     * Times a register's buffers have grown, for stores whose LPFMs count them, or 0. See LPFM.resizes().
+     */
+    default int resizes(int register) {
+        return 0;
+    }
+
+}
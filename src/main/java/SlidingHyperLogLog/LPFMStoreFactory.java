@@ -0,0 +1,6 @@
+package SlidingHyperLogLog;
+
+public interface LPFMStoreFactory<T extends LPFMStore>
+{
+    T buildStore(int registerCount, long windowSize);
+}
@@ -0,0 +1,14 @@
+package SlidingHyperLogLog;
+
+/**
+ * Storage which takes offers older than some already offered to their register, which a sketch allowing lateness
+ * needs for the offers its reorder buffer could not put in order
+ */
+interface LateOfferStore extends LPFMStore {
+
+    /**
+     * Offers an entry which may be older than entries already offered to the register. See LPFM.offerLate.
+     */
+    void offerLate(int register, long timestamp, int R);
+
+}
@@ -0,0 +1,82 @@
+package SlidingHyperLogLog;
+
+/**
+ * Latencies recorded by a sketch with metrics, in buckets of powers of 2 nanoseconds: bucket i counts latencies from
+ * 2^i up to 2^(i+1) - 1, and bucket 0 also 0. Percentiles are the upper bound of the bucket they fall in, so are at
+ * most twice the true value.
+ */
+public final class LatencyHistogram {
+
+    static final int BUCKETS = Long.SIZE;
+
+    private final long[] _buckets;
+    private final long _count;
+    private final long _totalNanos;
+    private final long _maxNanos;
+
+    LatencyHistogram(long[] buckets, long count, long totalNanos, long maxNanos) {
+        _buckets = buckets;
+        _count = count;
+        _totalNanos = totalNanos;
+        _maxNanos = maxNanos;
+    }
+
+    static int bucket(long nanos) {
+        return nanos <= 0 ? 0 : Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Latencies recorded
+     */
+    public long count() {
+        return _count;
+    }
+
+    public long totalNanos() {
+        return _totalNanos;
+    }
+
+    public long maxNanos() {
+        return _maxNanos;
+    }
+
+    /**
+     * Mean latency, or 0 if none were recorded
+     */
+    public double meanNanos() {
+        return _count == 0 ? 0 : (double) _totalNanos / _count;
+    }
+
+    /**
+     * Upper bound of the bucket holding the latency at this fraction of those recorded, from 0 to 1, and at most
+     * maxNanos(). 0 if none were recorded.
+     */
+    public long percentileNanos(double fraction) {
+        if (fraction < 0 || fraction > 1)
+            throw new IllegalArgumentException("fraction must be between 0 and 1");
+        if (_count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * _count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += _buckets[i];
+            if (seen >= rank)
+                return Math.min(_maxNanos, i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+        }
+        return _maxNanos;
+    }
+
+    /**
+     * Latencies recorded in each bucket
+     */
+    public long[] buckets() {
+        return _buckets.clone();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns", _count, meanNanos(), percentileNanos(0.5), percentileNanos(0.99), _maxNanos);
+    }
+
+}
@@ -0,0 +1,279 @@
+package SlidingHyperLogLog;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The registers of one sketch of a MappedSketchStore, in its slot of the store's register buffer. The store moves
+ * it from sketch to sketch with moveTo.
+ *
+ * Each register has a count byte followed by room for inlineEntries entries: their timestamps, then their Rs. A
+ * register with more entries keeps them in an overflow block instead, and the block's index takes the place of the
+ * inline entries. Blocks have room for one entry per possible R, so for the longest possible list. Either way the
+ * entries are as in MonotonicDequeLPFM: ascending timestamps, strictly descending Rs, oldest first.
+ *
+ * Not thread safe
+ */
+final class MappedLPFMStore implements LPFMStore {
+
+    private final MappedSketchStore _owner;
+    private final ChunkedBuffer _blocks;
+    private final int _registerCount;
+    private final long _windowSize;
+    private final int _inlineEntries;
+    private final int _blockEntries;
+    private final int _registerSize;
+
+    // The current sketch's slot
+    private ByteBuffer _buffer;
+    private int _base;
+
+    // Where the entries of the register being offered to are, from locate()
+    private ByteBuffer _entries;
+    private int _tsPos;
+    private int _rsPos;
+
+    MappedLPFMStore(MappedSketchStore owner, ChunkedBuffer blocks, int registerCount, long windowSize, int inlineEntries, int blockEntries) {
+        _owner = owner;
+        _blocks = blocks;
+        _registerCount = registerCount;
+        _windowSize = windowSize;
+        _inlineEntries = inlineEntries;
+        _blockEntries = blockEntries;
+        _registerSize = registerSize(inlineEntries);
+    }
+
+    static int registerSize(int inlineEntries) {
+        return 1 + inlineEntries * (Long.BYTES + 1);
+    }
+
+    static int blockSize(int blockEntries) {
+        return blockEntries * (Long.BYTES + 1);
+    }
+
+    void moveTo(ByteBuffer buffer, int base) {
+        _buffer = buffer;
+        _base = base;
+    }
+
+    private int position(int register) {
+        return _base + register * _registerSize;
+    }
+
+    // Points _entries, _tsPos and _rsPos at the entries of the register at pos, which has count entries
+    private void locate(int pos, int count) {
+        if (count <= _inlineEntries) {
+            _entries = _buffer;
+            _tsPos = pos + 1;
+            _rsPos = _tsPos + _inlineEntries * Long.BYTES;
+        }
+        else {
+            int block = _buffer.getInt(pos + 1);
+            _entries = _blocks.chunk(block);
+            _tsPos = _blocks.offset(block);
+            _rsPos = _tsPos + _blockEntries * Long.BYTES;
+        }
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+
+        int pos = position(register);
+        int oldCount = _buffer.get(pos) & 0xFF;
+        locate(pos, oldCount);
+        int count = oldCount;
+
+        // Drop entries from the tail which are no longer a PFM (possible future maximum)
+        while (count > 0 && _entries.get(_rsPos + count - 1) <= R)
+            count--;
+
+        // Drop entries from the head which are outside the window
+        long tMin = timestamp - _windowSize;
+        int expired = 0;
+        while (expired < count && _entries.getLong(_tsPos + expired * Long.BYTES) < tMin)
+            expired++;
+        if (expired > 0) {
+            count -= expired;
+            for (int i = 0; i < count; i++) {
+                _entries.putLong(_tsPos + i * Long.BYTES, _entries.getLong(_tsPos + (i + expired) * Long.BYTES));
+                _entries.put(_rsPos + i, _entries.get(_rsPos + i + expired));
+            }
+        }
+
+        boolean inline = oldCount <= _inlineEntries;
+        if (inline && count + 1 > _inlineEntries)
+            moveToBlock(pos, count);
+        else if (!inline && count + 1 <= _inlineEntries)
+            moveInline(pos, count);
+
+        _entries.putLong(_tsPos + count * Long.BYTES, timestamp);
+        _entries.put(_rsPos + count, (byte) R);
+        _buffer.put(pos, (byte) (count + 1));
+    }
+
+    // Copies a register's inline entries to a new overflow block, and points at them there
+    private void moveToBlock(int pos, int count) {
+        int block = _owner.allocateBlock();
+        ByteBuffer blockBuffer = _blocks.chunk(block);
+        int blockTsPos = _blocks.offset(block);
+        int blockRsPos = blockTsPos + _blockEntries * Long.BYTES;
+
+        for (int i = 0; i < count; i++) {
+            blockBuffer.putLong(blockTsPos + i * Long.BYTES, _buffer.getLong(_tsPos + i * Long.BYTES));
+            blockBuffer.put(blockRsPos + i, _buffer.get(_rsPos + i));
+        }
+        _buffer.putInt(pos + 1, block);
+
+        _entries = blockBuffer;
+        _tsPos = blockTsPos;
+        _rsPos = blockRsPos;
+    }
+
+    // Copies a register's entries back from its overflow block, which is freed, and points at them inline
+    private void moveInline(int pos, int count) {
+        int block = _buffer.getInt(pos + 1);
+        int inlineTsPos = pos + 1;
+        int inlineRsPos = inlineTsPos + _inlineEntries * Long.BYTES;
+
+        for (int i = 0; i < count; i++) {
+            _buffer.putLong(inlineTsPos + i * Long.BYTES, _entries.getLong(_tsPos + i * Long.BYTES));
+            _buffer.put(inlineRsPos + i, _entries.get(_rsPos + i));
+        }
+        _owner.freeBlock(block);
+
+        _entries = _buffer;
+        _tsPos = inlineTsPos;
+        _rsPos = inlineRsPos;
+    }
+
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        for (int i = 0; i < len; i++)
+            offer(registers[i], ts[tsOffset + i], Rs[i]);
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+
+        int pos = position(register);
+        int count = _buffer.get(pos) & 0xFF;
+        locate(pos, count);
+        ByteBuffer entries = _entries;
+        int tsPos = _tsPos;
+
+        // Find the first entry with timestamp >= tMin. Being the oldest in range it has the largest R
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (entries.getLong(tsPos + mid * Long.BYTES) < tMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo == count ? 0 : entries.get(_rsPos + lo);
+    }
+
+    @Override
+    public int registerCount() {
+        return _registerCount;
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+
+        int pos = position(register);
+        int count = _buffer.get(pos) & 0xFF;
+        locate(pos, count);
+        ByteBuffer entries = _entries;
+        int tsPos = _tsPos;
+        int rsPos = _rsPos;
+
+        for (int i = 0; i < count; i++)
+            consumer.accept(entries.getLong(tsPos + i * Long.BYTES), entries.get(rsPos + i));
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+
+        EntryList own = new EntryList();
+        EntryList theirs = new EntryList();
+        EntryList union = new EntryList();
+
+        for (int register = 0; register < _registerCount; register++) {
+            theirs.clear();
+            other.forEachEntry(register, theirs);
+            if (theirs._size == 0)
+                continue;
+
+            own.clear();
+            forEachEntry(register, own);
+            union.setToUnion(own, theirs, _windowSize);
+
+            // Empty the register and offer the union back in order, none of which is pruned
+            clear(register);
+            for (int i = 0; i < union._size; i++)
+                offer(register, union._ts[i], union._rs[i]);
+        }
+    }
+
+    /**
+     * Drops expired entries from every register of the current sketch, moving registers back inline, and freeing
+     * their overflow blocks, once what is left fits.
+     */
+    @Override
+    public int expire(long now) {
+
+        long tMin = now - _windowSize;
+        int expired = 0;
+        for (int register = 0; register < _registerCount; register++) {
+            int pos = position(register);
+            int count = _buffer.get(pos) & 0xFF;
+            if (count == 0)
+                continue;
+            locate(pos, count);
+
+            int registerExpired = 0;
+            while (registerExpired < count && _entries.getLong(_tsPos + registerExpired * Long.BYTES) < tMin)
+                registerExpired++;
+            if (registerExpired == 0)
+                continue;
+
+            int live = count - registerExpired;
+            for (int i = 0; i < live; i++) {
+                _entries.putLong(_tsPos + i * Long.BYTES, _entries.getLong(_tsPos + (i + registerExpired) * Long.BYTES));
+                _entries.put(_rsPos + i, _entries.get(_rsPos + i + registerExpired));
+            }
+            if (count > _inlineEntries && live <= _inlineEntries)
+                moveInline(pos, live);
+            _buffer.put(pos, (byte) live);
+            expired += registerExpired;
+        }
+        return expired;
+    }
+
+    /**
+     * Just the view itself. Its entries are off the heap, and counted by MappedSketchStore.capacityBytes().
+     */
+    @Override
+    public long sizeInBytes() {
+        return HeapSize.object(4 * HeapSize.REFERENCE + Long.BYTES + 7 * Integer.BYTES);
+    }
+
+    /**
+     * Empties every register, freeing their overflow blocks
+     */
+    void clear() {
+        for (int register = 0; register < _registerCount; register++)
+            clear(register);
+    }
+
+    private void clear(int register) {
+        int pos = position(register);
+        int count = _buffer.get(pos) & 0xFF;
+        if (count > _inlineEntries)
+            _owner.freeBlock(_buffer.getInt(pos + 1));
+        _buffer.put(pos, (byte) 0);
+    }
+
+}
@@ -0,0 +1,465 @@
+package SlidingHyperLogLog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Many sliding sketches, one per long key, with their registers off the Java heap: in direct ByteBuffers, or in files
+ * mapped into memory so that the sketches survive a restart. Millions of keys then cost a few primitive arrays of
+ * heap for the key index, rather than millions of sketch and LPFM objects for the garbage collector to trace.
+ *
+ * Every sketch has the same settings, so takes a fixed-size slot. Each register has room in its slot for a few
+ * entries, and moves them to a block of an overflow area when it has more. See MappedLPFMStore. Slots and blocks
+ * are allocated in chunks as the store grows, and those of removed keys are reused.
+ *
+ * A mapped store is a directory of three files: keys.shll, with a header and each slot's key, registers.shll and
+ * overflow.shll. Changes reach the files as the operating system writes back the mapped pages, and all of them
+ * by flush() or close(). A store that was not closed cleanly may be inconsistent. Reopening maps the files again and
+ * rebuilds the key index from the keys file alone.
+ *
+ * Not thread safe
+ */
+public class MappedSketchStore implements Closeable {
+
+    static final int MAGIC = 0x53484C4D;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    static final String KEYS_FILE = "keys.shll";
+    static final String REGISTERS_FILE = "registers.shll";
+    static final String OVERFLOW_FILE = "overflow.shll";
+
+    private static final int FLAG_HASH64 = 1;
+
+    // Header layout, big-endian. The counts change as the store grows.
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 4;
+    private static final int FLAGS_POS = 5;
+    private static final int B_POS = 6;
+    private static final int INLINE_ENTRIES_POS = 7;
+    private static final int HASH_SEED_POS = 8;
+    private static final int WINDOW_SIZE_POS = 12;
+    private static final int CHUNK_SIZE_POS = 20;
+    private static final int SLOT_COUNT_POS = 24;
+    private static final int BLOCK_COUNT_POS = 28;
+    private static final int FREE_BLOCK_POS = 32;
+
+    // A key slot is an in-use flag followed by the key
+    private static final int KEY_SLOT_SIZE = 1 + Long.BYTES;
+    private static final byte IN_USE = 1;
+
+    private final SlidingHyperLogLog.Builder _sketchBuilder;
+    private final FileChannel[] _channels;
+    private final ByteBuffer _header;
+    private final ChunkedBuffer _keySlots;
+    private final ChunkedBuffer _registerSlots;
+    private final ChunkedBuffer _blocks;
+
+    private final KeyIndex _index = new KeyIndex();
+
+    // Slots in use or freed, and the slots freed
+    private int _slotCount;
+    private int[] _freeSlots = new int[16];
+    private int _freeSlotCount;
+
+    // Blocks in use or freed, and the first freed block, whose first 4 bytes link to the next. -1 for none.
+    private int _blockCount;
+    private int _freeBlock;
+
+    // One sketch over one slot at a time, moved to each key's slot to use it
+    private final MappedLPFMStore _slotStore;
+    private final SlidingHyperLogLog _slotSketch;
+
+    private boolean _closed = false;
+
+    private MappedSketchStore(SlidingHyperLogLog.Builder sketchBuilder, int inlineEntries, int chunkSize, FileChannel[] channels) throws IOException {
+
+        sketchBuilder.checkSettings();
+        int b = sketchBuilder.b();
+        long windowSize = sketchBuilder.windowSize();
+        boolean hash64 = sketchBuilder.use64BitHash();
+
+        _sketchBuilder = sketchBuilder;
+        _channels = channels;
+
+        // One entry per possible R, from 0 to q + 1
+        int blockEntries = (hash64 ? Long.SIZE : Integer.SIZE) - b + 2;
+
+        FileChannel keys = channels.length > 0 ? channels[0] : null;
+        boolean existing = keys != null && keys.size() > 0;
+        _header = keys == null ? ByteBuffer.allocate(HEADER_SIZE) : keys.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+        if (existing) {
+            checkHeader(b, windowSize, hash64);
+        }
+        else {
+            checkInlineEntries(inlineEntries, blockEntries);
+            _header.putInt(MAGIC_POS, MAGIC)
+                    .put(VERSION_POS, VERSION)
+                    .put(FLAGS_POS, (byte) (hash64 ? FLAG_HASH64 : 0))
+                    .put(B_POS, (byte) b)
+                    .put(INLINE_ENTRIES_POS, (byte) inlineEntries)
+                    .putInt(HASH_SEED_POS, SlidingHyperLogLog.HASH_SEED)
+                    .putLong(WINDOW_SIZE_POS, windowSize)
+                    .putInt(CHUNK_SIZE_POS, chunkSize)
+                    .putInt(SLOT_COUNT_POS, 0)
+                    .putInt(BLOCK_COUNT_POS, 0)
+                    .putInt(FREE_BLOCK_POS, -1);
+        }
+
+        // An existing store keeps the inline entries and chunk size it was created with
+        inlineEntries = _header.get(INLINE_ENTRIES_POS);
+        chunkSize = _header.getInt(CHUNK_SIZE_POS);
+        _slotCount = _header.getInt(SLOT_COUNT_POS);
+        _blockCount = _header.getInt(BLOCK_COUNT_POS);
+        _freeBlock = _header.getInt(FREE_BLOCK_POS);
+
+        checkInlineEntries(inlineEntries, blockEntries);
+
+        int registerCount = 1 << b;
+        long slotSize = (long) registerCount * MappedLPFMStore.registerSize(inlineEntries);
+        if (slotSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Sketches are too large for a MappedSketchStore. Increase rsd or decrease inlineEntries.");
+
+        _keySlots = new ChunkedBuffer(KEY_SLOT_SIZE, chunkSize, keys, HEADER_SIZE);
+        _registerSlots = new ChunkedBuffer((int) slotSize, chunkSize, keys == null ? null : channels[1], 0);
+        _blocks = new ChunkedBuffer(MappedLPFMStore.blockSize(blockEntries), chunkSize, keys == null ? null : channels[2], 0);
+        _keySlots.ensureCapacity(_slotCount);
+        _registerSlots.ensureCapacity(_slotCount);
+        _blocks.ensureCapacity(_blockCount);
+
+        _slotStore = new MappedLPFMStore(this, _blocks, registerCount, windowSize, inlineEntries, blockEntries);
+        _slotSketch = sketchBuilder.build((count, window) -> _slotStore);
+
+        for (int slot = 0; slot < _slotCount; slot++) {
+            ByteBuffer chunk = _keySlots.chunk(slot);
+            int pos = _keySlots.offset(slot);
+            if (chunk.get(pos) == IN_USE)
+                _index.put(chunk.getLong(pos + 1), slot);
+            else
+                pushFreeSlot(slot);
+        }
+    }
+
+    private static void checkInlineEntries(int inlineEntries, int blockEntries) {
+        if (inlineEntries < 1 || inlineEntries > blockEntries)
+            throw new IllegalArgumentException("inlineEntries is " + inlineEntries + ". It must be between 1 and " + blockEntries + ".");
+    }
+
+    private void checkHeader(int b, long windowSize, boolean hash64) {
+
+        if (_header.getInt(MAGIC_POS) != MAGIC)
+            throw new IllegalArgumentException("Not a sketch store");
+        if (_header.get(VERSION_POS) != VERSION)
+            throw new IllegalArgumentException("Unsupported sketch store version " + _header.get(VERSION_POS));
+        if (_header.getInt(HASH_SEED_POS) != SlidingHyperLogLog.HASH_SEED)
+            throw new IllegalArgumentException("Store hashes with seed " + _header.getInt(HASH_SEED_POS) + ", expected " + SlidingHyperLogLog.HASH_SEED);
+
+        int storeB = _header.get(B_POS);
+        long storeWindowSize = _header.getLong(WINDOW_SIZE_POS);
+        boolean storeHash64 = (_header.get(FLAGS_POS) & FLAG_HASH64) != 0;
+        if (storeB != b || storeWindowSize != windowSize || storeHash64 != hash64)
+            throw new IllegalArgumentException("Store holds sketches with b=" + storeB + ", windowSize=" + storeWindowSize + ", use64BitHash=" + storeHash64
+                    + ", but the builder has b=" + b + ", windowSize=" + windowSize + ", use64BitHash=" + hash64);
+
+        if (_header.getInt(CHUNK_SIZE_POS) <= 0 || _header.getInt(SLOT_COUNT_POS) < 0 || _header.getInt(BLOCK_COUNT_POS) < 0)
+            throw new IllegalArgumentException("Corrupt sketch store");
+    }
+
+    // The key's sketch, moved to its slot, or null if it has none and create is false
+    private SlidingHyperLogLog sketch(long key, boolean create) {
+        if (_closed)
+            throw new IllegalStateException("Store is closed");
+
+        int slot = _index.get(key);
+        if (slot < 0) {
+            if (!create)
+                return null;
+            slot = allocateSlot(key);
+        }
+        _slotStore.moveTo(_registerSlots.chunk(slot), _registerSlots.offset(slot));
+        return _slotSketch;
+    }
+
+    private int allocateSlot(long key) {
+        int slot;
+        if (_freeSlotCount > 0) {
+            slot = _freeSlots[--_freeSlotCount];
+        }
+        else {
+            slot = _slotCount;
+            _keySlots.ensureCapacity(slot + 1);
+            _registerSlots.ensureCapacity(slot + 1);
+            _slotCount++;
+            _header.putInt(SLOT_COUNT_POS, _slotCount);
+        }
+
+        _keySlots.chunk(slot)
+                .put(_keySlots.offset(slot), IN_USE)
+                .putLong(_keySlots.offset(slot) + 1, key);
+        _index.put(key, slot);
+        return slot;
+    }
+
+    private void pushFreeSlot(int slot) {
+        if (_freeSlotCount == _freeSlots.length)
+            _freeSlots = Arrays.copyOf(_freeSlots, _freeSlots.length << 1);
+        _freeSlots[_freeSlotCount++] = slot;
+    }
+
+    int allocateBlock() {
+        int block;
+        if (_freeBlock >= 0) {
+            block = _freeBlock;
+            _freeBlock = _blocks.chunk(block).getInt(_blocks.offset(block));
+            _header.putInt(FREE_BLOCK_POS, _freeBlock);
+        }
+        else {
+            block = _blockCount;
+            _blocks.ensureCapacity(block + 1);
+            _blockCount++;
+            _header.putInt(BLOCK_COUNT_POS, _blockCount);
+        }
+        return block;
+    }
+
+    void freeBlock(int block) {
+        _blocks.chunk(block).putInt(_blocks.offset(block), _freeBlock);
+        _freeBlock = block;
+        _header.putInt(FREE_BLOCK_POS, _freeBlock);
+    }
+
+    // Overflow blocks allocated, in use or not
+    int blockCount() {
+        return _blockCount;
+    }
+
+    public void offer(long key, long t, int i) {
+        sketch(key, true).offer(t, i);
+    }
+
+    public void offer(long key, long t, long l) {
+        sketch(key, true).offer(t, l);
+    }
+
+    public void offer(long key, long t, CharSequence s) {
+        sketch(key, true).offer(t, s);
+    }
+
+    public void offer(long key, long t, byte[] bytes) {
+        sketch(key, true).offer(t, bytes);
+    }
+
+    public void offerHashed(long key, long t, int hashedValue) {
+        sketch(key, true).offerHashed(t, hashedValue);
+    }
+
+    public void offerHashed(long key, long t, long hashedValue) {
+        sketch(key, true).offerHashed(t, hashedValue);
+    }
+
+    /**
+     * Merges a sketch with the store's b, window size and hash size into the key's sketch
+     */
+    public void merge(long key, SlidingHyperLogLog sketch) {
+        sketch(key, true).merge(sketch);
+    }
+
+    /**
+     * The key's cardinality since tMin, or 0 if it has no sketch
+     */
+    public long cardinalitySince(long key, long tMin) {
+        SlidingHyperLogLog sketch = sketch(key, false);
+        return sketch == null ? 0 : sketch.cardinalitySince(tMin);
+    }
+
+    public long[] cardinalitiesSince(long key, long[] tMins) {
+        SlidingHyperLogLog sketch = sketch(key, false);
+        return sketch == null ? new long[tMins.length] : sketch.cardinalitiesSince(tMins);
+    }
+
+    /**
+     * A copy of the key's sketch on the heap, built by the store's sketch builder, or null if it has none
+     */
+    public SlidingHyperLogLog copy(long key) {
+        SlidingHyperLogLog sketch = sketch(key, false);
+        if (sketch == null)
+            return null;
+        SlidingHyperLogLog copy = _sketchBuilder.build();
+        copy.merge(sketch);
+        return copy;
+    }
+
+    public boolean contains(long key) {
+        return _index.get(key) >= 0;
+    }
+
+    /**
+     * Removes the key's sketch, freeing its slot and overflow blocks for reuse. True if it had one.
+     */
+    public boolean remove(long key) {
+        if (sketch(key, false) == null)
+            return false;
+
+        _slotStore.clear();
+        int slot = _index.remove(key);
+        _keySlots.chunk(slot).put(_keySlots.offset(slot), (byte) 0);
+        pushFreeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Drops every sketch's entries outside the window ending at now, freeing overflow blocks no longer needed. Keys
+     * keep their slots, even if their sketch is now empty. Returns the number of entries dropped.
+     */
+    public int expire(long now) {
+        if (_closed)
+            throw new IllegalStateException("Store is closed");
+
+        int expired = 0;
+        for (int slot = 0; slot < _slotCount; slot++) {
+            if (_keySlots.chunk(slot).get(_keySlots.offset(slot)) != IN_USE)
+                continue;
+            _slotStore.moveTo(_registerSlots.chunk(slot), _registerSlots.offset(slot));
+            expired += _slotStore.expire(now);
+        }
+        return expired;
+    }
+
+    /**
+     * Number of keys with a sketch
+     */
+    public int size() {
+        return _index.size();
+    }
+
+    public void forEachKey(LongConsumer consumer) {
+        _index.forEachKey(consumer);
+    }
+
+    /**
+     * Bytes of memory or file mapped for slots and overflow blocks
+     */
+    public long capacityBytes() {
+        return _keySlots.capacityBytes() + _registerSlots.capacityBytes() + _blocks.capacityBytes();
+    }
+
+    /**
+     * Writes every change to a mapped store back to its files
+     */
+    public void flush() {
+        if (_header instanceof MappedByteBuffer)
+            ((MappedByteBuffer) _header).force();
+        _keySlots.force();
+        _registerSlots.force();
+        _blocks.force();
+    }
+
+    /**
+     * Flushes a mapped store and closes its files. The memory is released once the store is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed)
+            return;
+        flush();
+        _closed = true;
+        for (FileChannel channel : _channels)
+            channel.close();
+    }
+
+
+    public static class Builder
+    {
+        private SlidingHyperLogLog.Builder _sketchBuilder;
+        private int _inlineEntries = 2;
+        private int _chunkSize = 1 << 26;
+
+        /**
+         * Settings of every sketch: rsd, window size, hash size and estimator. Copies from copy() also take its
+         * storage options.
+         */
+        public MappedSketchStore.Builder setSketchBuilder(SlidingHyperLogLog.Builder sketchBuilder) {
+            _sketchBuilder = sketchBuilder;
+            return this;
+        }
+
+        /**
+         * Entries each register has room for in its sketch's slot before moving them to an overflow block. More makes
+         * slots larger but overflow rarer. Each entry takes 9 bytes. Only used when a store is created.
+         */
+        public MappedSketchStore.Builder setInlineEntries(int inlineEntries) {
+            if (inlineEntries <= 0 || inlineEntries > Byte.MAX_VALUE)
+                throw new IllegalArgumentException("inlineEntries must be between 1 and " + Byte.MAX_VALUE);
+
+            _inlineEntries = inlineEntries;
+            return this;
+        }
+
+        /**
+         * Bytes of memory, or of file mapping, that slots and overflow blocks are allocated in at a time. Only used
+         * when a store is created.
+         */
+        public MappedSketchStore.Builder setChunkSize(int chunkSize) {
+            if (chunkSize <= 0)
+                throw new IllegalArgumentException("chunkSize must be > 0");
+
+            _chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * A new, empty store in direct ByteBuffers, for when the sketches need not survive a restart
+         */
+        public MappedSketchStore allocateDirect() {
+            checkSettings();
+            try {
+                return new MappedSketchStore(_sketchBuilder, _inlineEntries, _chunkSize, new FileChannel[0]);
+            }
+            catch (IOException e) {
+                throw new AssertionError("No files to fail", e);
+            }
+        }
+
+        /**
+         * Opens the store in a directory, creating it if there is none. An existing store must hold sketches with the
+         * sketch builder's b, window size and hash size.
+         */
+        public MappedSketchStore open(Path directory) throws IOException {
+            checkSettings();
+            Files.createDirectories(directory);
+
+            FileChannel[] channels = new FileChannel[3];
+            try {
+                channels[0] = openFile(directory.resolve(KEYS_FILE));
+                channels[1] = openFile(directory.resolve(REGISTERS_FILE));
+                channels[2] = openFile(directory.resolve(OVERFLOW_FILE));
+                return new MappedSketchStore(_sketchBuilder, _inlineEntries, _chunkSize, channels);
+            }
+            catch (IOException | RuntimeException e) {
+                for (FileChannel channel : channels) {
+                    if (channel != null)
+                        channel.close();
+                }
+                throw e;
+            }
+        }
+
+        private static FileChannel openFile(Path file) throws IOException {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        private void checkSettings() {
+            if (_sketchBuilder == null)
+                throw new IllegalArgumentException("Please set a sketch builder");
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package SlidingHyperLogLog;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counts recorded by a sketch built with a metrics sample interval. A sketch without one has no
+ * recorder, and checks for it only once per offer or query.
+ *
+ * Thread safe, as sketches with a concurrency level take offers from several threads. The countdown to the next
+ * sampled offer is not, so races between threads only make the sampling a little irregular.
+ */
+final class MetricsRecorder {
+
+    private final int _sampleInterval;
+    // Null without flight recorder events
+    private final FlightRecorderEvents _flightRecorderEvents;
+    private int _untilSample;
+
+    private final Latencies _offers = new Latencies();
+    private final Latencies _queries = new Latencies();
+    private final LongAdder _expiredEntries = new LongAdder();
+
+    MetricsRecorder(int sampleInterval, boolean flightRecorderEvents) {
+        _sampleInterval = sampleInterval;
+        _flightRecorderEvents = flightRecorderEvents ? FlightRecorderEvents.load() : null;
+        _untilSample = sampleInterval;
+    }
+
+    int sampleInterval() {
+        return _sampleInterval;
+    }
+
+    boolean flightRecorderEvents() {
+        return _flightRecorderEvents != null;
+    }
+
+    /**
+     * True for one offer in every sample interval
+     */
+    boolean sampleOffer() {
+        if (--_untilSample > 0)
+            return false;
+        _untilSample = _sampleInterval;
+        return true;
+    }
+
+    void offered(int register, long timestamp, long latencyNanos) {
+        _offers.record(latencyNanos);
+        if (_flightRecorderEvents != null)
+            _flightRecorderEvents.offered(register, timestamp, latencyNanos);
+    }
+
+    void queried(int horizons, long latencyNanos) {
+        _queries.record(latencyNanos);
+        if (_flightRecorderEvents != null)
+            _flightRecorderEvents.queried(horizons, latencyNanos);
+    }
+
+    void expired(long now, int expiredEntries, long reclaimedBytes) {
+        _expiredEntries.add(expiredEntries);
+        if (_flightRecorderEvents != null)
+            _flightRecorderEvents.expired(now, expiredEntries, reclaimedBytes);
+    }
+
+    LatencyHistogram offerLatency() {
+        return _offers.snapshot();
+    }
+
+    LatencyHistogram queryLatency() {
+        return _queries.snapshot();
+    }
+
+    long expiredEntries() {
+        return _expiredEntries.sum();
+    }
+
+    long sizeInBytes() {
+        // Sample interval, countdown and four references, then two sets of latencies and an adder with no contention.
+        // The flight recorder events have no fields.
+        return HeapSize.object(2 * Integer.BYTES + 4 * HeapSize.REFERENCE) + 2 * Latencies.sizeInBytes() + HeapSize.object(Long.BYTES + HeapSize.REFERENCE);
+    }
+
+    private static final class Latencies {
+
+        private final AtomicLongArray _buckets = new AtomicLongArray(LatencyHistogram.BUCKETS);
+        private final LongAdder _totalNanos = new LongAdder();
+        private final AtomicLong _maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            _buckets.incrementAndGet(LatencyHistogram.bucket(nanos));
+            _totalNanos.add(nanos);
+            long max = _maxNanos.get();
+            while (nanos > max && !_maxNanos.compareAndSet(max, nanos))
+                max = _maxNanos.get();
+        }
+
+        LatencyHistogram snapshot() {
+            long[] buckets = new long[LatencyHistogram.BUCKETS];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = _buckets.get(i);
+                count += buckets[i];
+            }
+            return new LatencyHistogram(buckets, count, _totalNanos.sum(), _maxNanos.get());
+        }
+
+        static long sizeInBytes() {
+            // Three references, the buckets, an adder with no contention and the maximum
+            return HeapSize.object(3 * HeapSize.REFERENCE) + HeapSize.object(HeapSize.REFERENCE) + HeapSize.array(LatencyHistogram.BUCKETS, Long.BYTES)
+                    + HeapSize.object(Long.BYTES + HeapSize.REFERENCE) + HeapSize.object(Long.BYTES);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * List of possible future maxima kept as a monotonic deque.
+ *
+ * Surviving entries always have ascending timestamps and strictly descending Rs, so offer only ever pops from the
+ * tail (dominated entries) and the head (expired entries), giving O(1) amortised offers. getMaxSince binary-searches
+ * for the first timestamp >= tMin, whose R is the maximum.
+ *
+ * Not thread safe
+ */
+public class MonotonicDequeLPFM implements LPFM {
+
+    private final long _windowSize;
+
+    // Circular buffers of timestamps and Rs. Length is always a power of 2, so positions wrap with _mask
+    private long[] _ts = null;
+    private int[]  _rs = null;
+    private int _mask;
+
+    // Position of the oldest entry, and number of live entries
+    private int _head;
+    private int _size;
+
+    MonotonicDequeLPFM(long windowSize) {
+        _windowSize = windowSize;
+    }
+
+    private void grow() {
+        growTo(_ts.length << 1);
+    }
+
+    private void growTo(int newLen) {
+
+        int oldLen = _ts.length;
+        long[] newTs = new long[newLen];
+        int[]  newRs = new  int[newLen];
+
+        int firstPart = Math.min(_size, oldLen - _head);
+        System.arraycopy(_ts, _head, newTs, 0, firstPart);
+        System.arraycopy(_rs, _head, newRs, 0, firstPart);
+        System.arraycopy(_ts, 0, newTs, firstPart, _size - firstPart);
+        System.arraycopy(_rs, 0, newRs, firstPart, _size - firstPart);
+
+        _ts = newTs;
+        _rs = newRs;
+        _mask = newLen - 1;
+        _head = 0;
+    }
+
+    @Override
+    public void offer(long timestamp, int R) {
+
+        // Special-case lazy initialization on first offer
+        if (null == _ts) {
+            _ts = new long[1];
+            _rs = new  int[1];
+            _mask = 0;
+        }
+
+        // Pop entries from the tail which are no longer a PFM (possible future maximum)
+        while (_size > 0 && _rs[(_head + _size - 1) & _mask] <= R)
+            _size--;
+
+        // Pop entries from the head which are outside the window
+        long tMin = timestamp - _windowSize;
+        while (_size > 0 && _ts[_head] < tMin) {
+            _head = (_head + 1) & _mask;
+            _size--;
+        }
+
+        if (_size == _ts.length)
+            grow();
+
+        int tail = (_head + _size) & _mask;
+        _ts[tail] = timestamp;
+        _rs[tail] = R;
+        _size++;
+    }
+
+    /**
+     * Pops the tail and head once for the whole run, against its largest R and newest timestamp, then appends the
+     * entries of the run no later entry's R is as large as, growing the buffers at most once
+     */
+    @Override
+    public void offerRun(int[] Rs, long[] ts, int tsOffset, int from, int to) {
+
+        if (to - from == 1) {
+            offer(ts[tsOffset + from], Rs[from]);
+            return;
+        }
+
+        // The run's own survivors, counted back from its newest entry, which always survives
+        long tMin = ts[tsOffset + to - 1] - _windowSize;
+        int kept = 0;
+        int maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; i >= from && ts[tsOffset + i] >= tMin; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                kept++;
+            }
+        }
+
+        if (null == _ts) {
+            _ts = new long[EntryList.ceilingPowerOf2(kept)];
+            _rs = new  int[_ts.length];
+            _mask = _ts.length - 1;
+        }
+
+        while (_size > 0 && _rs[(_head + _size - 1) & _mask] <= maxR)
+            _size--;
+        while (_size > 0 && _ts[_head] < tMin) {
+            _head = (_head + 1) & _mask;
+            _size--;
+        }
+
+        if (_size + kept > _ts.length)
+            growTo(EntryList.ceilingPowerOf2(_size + kept));
+
+        // Written newest first, from the end of where they go
+        int dest = _size + kept;
+        maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; dest > _size; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                dest--;
+                _ts[(_head + dest) & _mask] = ts[tsOffset + i];
+                _rs[(_head + dest) & _mask] = Rs[i];
+            }
+        }
+        _size += kept;
+    }
+
+    /**
+     * Inserts the entry in timestamp order, unless a newer entry has an R as large, and drops older entries with an
+     * R no larger. Walks back from the tail, so an entry only a little late costs little more than offer.
+     */
+    @Override
+    public void offerLate(long timestamp, int R) {
+
+        long newest = _size == 0 ? 0 : _ts[(_head + _size - 1) & _mask];
+        if (_size == 0 || timestamp >= newest) {
+            offer(timestamp, R);
+            return;
+        }
+        if (timestamp < newest - _windowSize)
+            return;
+
+        // First entry at or after the timestamp. Being the oldest of those it has their largest R.
+        int next = _size - 1;
+        while (next > 0 && _ts[(_head + next - 1) & _mask] >= timestamp)
+            next--;
+        if (_rs[(_head + next) & _mask] >= R)
+            return;
+
+        // Keep the entries before keepTo and from keepFrom. One at the same time has a smaller R, so goes.
+        int keepFrom = _ts[(_head + next) & _mask] == timestamp ? next + 1 : next;
+        int keepTo = next;
+        while (keepTo > 0 && _rs[(_head + keepTo - 1) & _mask] <= R)
+            keepTo--;
+
+        int newSize = keepTo + 1 + _size - keepFrom;
+        if (newSize > _ts.length)
+            grow();
+
+        // Move the newer entries to just after the new one
+        int shift = keepTo + 1 - keepFrom;
+        if (shift > 0) {
+            for (int i = _size - 1; i >= keepFrom; i--) {
+                _ts[(_head + i + shift) & _mask] = _ts[(_head + i) & _mask];
+                _rs[(_head + i + shift) & _mask] = _rs[(_head + i) & _mask];
+            }
+        }
+        else if (shift < 0) {
+            for (int i = keepFrom; i < _size; i++) {
+                _ts[(_head + i + shift) & _mask] = _ts[(_head + i) & _mask];
+                _rs[(_head + i + shift) & _mask] = _rs[(_head + i) & _mask];
+            }
+        }
+
+        _ts[(_head + keepTo) & _mask] = timestamp;
+        _rs[(_head + keepTo) & _mask] = R;
+        _size = newSize;
+    }
+
+    @Override
+    public int getMaxSince(long tMin) {
+
+        // Find the first entry with timestamp >= tMin. Being the oldest in range it has the largest R
+        int lo = 0;
+        int hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_ts[(_head + mid) & _mask] < tMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo == _size ? 0 : _rs[(_head + lo) & _mask];
+    }
+
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+        for (int i = 0; i < _size; i++)
+            consumer.accept(_ts[(_head + i) & _mask], _rs[(_head + i) & _mask]);
+    }
+
+    @Override
+    public void countMaxSince(long[] sortedTMins, int[][] histograms) {
+
+        // The first entry at or after each tMin, being the oldest in range, has the largest R
+        int first = 0;
+        for (int i = 0; i < sortedTMins.length; i++) {
+            while (first < _size && _ts[(_head + first) & _mask] < sortedTMins[i])
+                first++;
+            histograms[i][first == _size ? 0 : _rs[(_head + first) & _mask]]++;
+        }
+    }
+
+    @Override
+    public void merge(LPFMEntries other) {
+
+        long[] otherTs;
+        int[]  otherRs;
+        int otherHead;
+        int otherSize;
+        if (other instanceof MonotonicDequeLPFM) {
+            MonotonicDequeLPFM deque = (MonotonicDequeLPFM) other;
+            otherTs = deque._ts;
+            otherRs = deque._rs;
+            otherHead = deque._head;
+            otherSize = deque._size;
+        }
+        else {
+            EntryList entries;
+            if (other instanceof EntryList) {
+                entries = (EntryList) other;
+            }
+            else {
+                entries = new EntryList();
+                other.forEachEntry(entries);
+            }
+            otherTs = entries._ts;
+            otherRs = entries._rs;
+            otherHead = 0;
+            otherSize = entries._size;
+        }
+
+        if (otherSize == 0)
+            return;
+
+        int newLen = EntryList.ceilingPowerOf2(_size + otherSize);
+        long[] newTs = new long[newLen];
+        int[]  newRs = new  int[newLen];
+        int count = EntryList.union(_ts, _rs, _head, _size, otherTs, otherRs, otherHead, otherSize, _windowSize, newTs, newRs);
+
+        _ts = newTs;
+        _rs = newRs;
+        _mask = newLen - 1;
+        _head = newLen - count;
+        _size = count;
+    }
+
+    @Override
+    public int expire(long now) {
+
+        long tMin = now - _windowSize;
+        int expired = 0;
+        while (_size > 0 && _ts[_head] < tMin) {
+            _head = (_head + 1) & _mask;
+            _size--;
+            expired++;
+        }
+
+        if (_size == 0) {
+            // Back to the state before the first offer
+            _ts = null;
+            _rs = null;
+            _mask = 0;
+            _head = 0;
+        }
+        else if (_size <= _ts.length >> 2) {
+            int newLen = EntryList.ceilingPowerOf2(_size);
+            long[] newTs = new long[newLen];
+            int[]  newRs = new  int[newLen];
+            for (int i = 0; i < _size; i++) {
+                newTs[i] = _ts[(_head + i) & _mask];
+                newRs[i] = _rs[(_head + i) & _mask];
+            }
+            _ts = newTs;
+            _rs = newRs;
+            _mask = newLen - 1;
+            _head = 0;
+        }
+        return expired;
+    }
+
+    @Override
+    public int entryCount() {
+        return _size;
+    }
+
+    @Override
+    public int entryCapacity() {
+        return _ts == null ? 0 : _ts.length;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, two array references, mask, head and size
+        return HeapSize.object(Long.BYTES + 2 * HeapSize.REFERENCE + 3 * Integer.BYTES) + HeapSize.of(_ts) + HeapSize.of(_rs);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("_ts=%s, _rs=%s, _head=%d, _size=%d", Arrays.toString(_ts), Arrays.toString(_rs), _head, _size);
+    }
+
+}
@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class MonotonicDequeLPFMFactory implements LPFMFactory<MonotonicDequeLPFM> {
+
+    @Override
+    public MonotonicDequeLPFM buildLPFM(long windowSize) {
+        return new MonotonicDequeLPFM(windowSize);
+    }
+}
@@ -0,0 +1,451 @@
+package SlidingHyperLogLog;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Allocation-free MurmurHash3, both x86_32 and the first 64 bits of x64_128.
+ *
+ * Output is bit-identical to Guava's Hashing.murmur3_32(seed), and to asLong() of Hashing.murmur3_128(seed), for
+ * the same input: hashInt and hashLong match hashInt/hashLong, the byte methods match hashBytes, and the character
+ * methods match hashString.
+ */
+public final class Murmur3 {
+
+    private static final int C1 = 0xcc9e2d51;
+    private static final int C2 = 0x1b873593;
+
+    private static final long C1_64 = 0x87c37b91114253d5L;
+    private static final long C2_64 = 0x4cf5ad432745937fL;
+
+    private Murmur3() {
+    }
+
+    public static int hashInt(int input, int seed) {
+        int h1 = mixH1(seed, mixK1(input));
+        return fmix(h1, Integer.BYTES);
+    }
+
+    public static int hashLong(long input, int seed) {
+        int h1 = mixH1(seed, mixK1((int) input));
+        h1 = mixH1(h1, mixK1((int) (input >>> 32)));
+        return fmix(h1, Long.BYTES);
+    }
+
+    public static int hashBytes(byte[] input, int off, int len, int seed) {
+
+        int h1 = seed;
+        int i;
+        for (i = 0; i + 4 <= len; i += 4) {
+            int k1 = (input[off + i] & 0xFF)
+                    | (input[off + i + 1] & 0xFF) << 8
+                    | (input[off + i + 2] & 0xFF) << 16
+                    | (input[off + i + 3] & 0xFF) << 24;
+            h1 = mixH1(h1, mixK1(k1));
+        }
+
+        int k1 = 0;
+        for (int shift = 0; i < len; i++, shift += 8)
+            k1 ^= (input[off + i] & 0xFF) << shift;
+        h1 ^= mixK1(k1);
+
+        return fmix(h1, len);
+    }
+
+    /**
+     * Hashes the bytes between the buffer's position and limit, without changing its position
+     */
+    public static int hashBytes(ByteBuffer input, int seed) {
+        return hashBytes(input, input.position(), input.remaining(), seed);
+    }
+
+    /**
+     * Hashes len bytes of the buffer starting at absolute index off, without changing its position
+     */
+    public static int hashBytes(ByteBuffer input, int off, int len, int seed) {
+
+        boolean littleEndian = input.order() == ByteOrder.LITTLE_ENDIAN;
+
+        int h1 = seed;
+        int i;
+        for (i = 0; i + 4 <= len; i += 4) {
+            int k1 = input.getInt(off + i);
+            if (!littleEndian)
+                k1 = Integer.reverseBytes(k1);
+            h1 = mixH1(h1, mixK1(k1));
+        }
+
+        int k1 = 0;
+        for (int shift = 0; i < len; i++, shift += 8)
+            k1 ^= (input.get(off + i) & 0xFF) << shift;
+        h1 ^= mixK1(k1);
+
+        return fmix(h1, len);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of the characters, encoding on the fly. Unpaired surrogates are encoded as '?',
+     * as String.getBytes does.
+     *
+     * Matches Guava's murmur3_32 hashString, which mis-buffers 4-byte sequences, so for text outside the Basic
+     * Multilingual Plane this differs from hashBytes of the UTF-8 bytes.
+     */
+    public static int hashUtf8(CharSequence input, int seed) {
+        Block block = new Block(seed, true);
+        if (encodeUtf8(input, block))
+            return block.finish();
+
+        // Guava hashes text with unpaired surrogates via String.getBytes, so without the 4-byte quirk
+        block = new Block(seed, false);
+        encodeUtf8(input, block);
+        return block.finish();
+    }
+
+    /**
+     * Hashes the characters encoded in a single-byte charset whose code points are 0..maxChar, such as US-ASCII
+     * (0x7F) or ISO-8859-1 (0xFF). Unmappable characters, and whole surrogate pairs, are encoded as '?', as
+     * String.getBytes does.
+     */
+    public static int hashSingleByte(CharSequence input, char maxChar, int seed) {
+        Block block = new Block(seed, false);
+        encodeSingleByte(input, maxChar, block);
+        return block.finish();
+    }
+
+    public static long hash64Int(int input, int seed) {
+        long h1 = seed;
+        long h2 = seed;
+        h1 ^= mix64K1(input & 0xFFFFFFFFL);
+        return finish64(h1, h2, Integer.BYTES);
+    }
+
+    public static long hash64Long(long input, int seed) {
+        long h1 = seed;
+        long h2 = seed;
+        h1 ^= mix64K1(input);
+        return finish64(h1, h2, Long.BYTES);
+    }
+
+    public static long hash64Bytes(byte[] input, int off, int len, int seed) {
+
+        long h1 = seed;
+        long h2 = seed;
+        int i;
+        for (i = 0; i + 16 <= len; i += 16) {
+            long k1 = 0;
+            long k2 = 0;
+            for (int shift = 0, j = off + i; shift < 64; shift += 8, j++) {
+                k1 |= (input[j] & 0xFFL) << shift;
+                k2 |= (input[j + 8] & 0xFFL) << shift;
+            }
+            h1 = mix64H1(h1, h2, k1);
+            h2 = mix64H2(h1, h2, k2);
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        for (int shift = 0; i < len; i++, shift += 8) {
+            if (shift < 64)
+                k1 ^= (input[off + i] & 0xFFL) << shift;
+            else
+                k2 ^= (input[off + i] & 0xFFL) << (shift - 64);
+        }
+        h1 ^= mix64K1(k1);
+        h2 ^= mix64K2(k2);
+
+        return finish64(h1, h2, len);
+    }
+
+    /**
+     * Hashes the bytes between the buffer's position and limit, without changing its position
+     */
+    public static long hash64Bytes(ByteBuffer input, int seed) {
+        return hash64Bytes(input, input.position(), input.remaining(), seed);
+    }
+
+    /**
+     * Hashes len bytes of the buffer starting at absolute index off, without changing its position
+     */
+    public static long hash64Bytes(ByteBuffer input, int off, int len, int seed) {
+
+        boolean littleEndian = input.order() == ByteOrder.LITTLE_ENDIAN;
+
+        long h1 = seed;
+        long h2 = seed;
+        int i;
+        for (i = 0; i + 16 <= len; i += 16) {
+            long k1 = input.getLong(off + i);
+            long k2 = input.getLong(off + i + 8);
+            if (!littleEndian) {
+                k1 = Long.reverseBytes(k1);
+                k2 = Long.reverseBytes(k2);
+            }
+            h1 = mix64H1(h1, h2, k1);
+            h2 = mix64H2(h1, h2, k2);
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        for (int shift = 0; i < len; i++, shift += 8) {
+            if (shift < 64)
+                k1 ^= (input.get(off + i) & 0xFFL) << shift;
+            else
+                k2 ^= (input.get(off + i) & 0xFFL) << (shift - 64);
+        }
+        h1 ^= mix64K1(k1);
+        h2 ^= mix64K2(k2);
+
+        return finish64(h1, h2, len);
+    }
+
+    /**
+     * 64-bit version of hashUtf8
+     */
+    public static long hash64Utf8(CharSequence input, int seed) {
+        Block64 block = new Block64(seed);
+        encodeUtf8(input, block);
+        return block.finish();
+    }
+
+    /**
+     * 64-bit version of hashSingleByte
+     */
+    public static long hash64SingleByte(CharSequence input, char maxChar, int seed) {
+        Block64 block = new Block64(seed);
+        encodeSingleByte(input, maxChar, block);
+        return block.finish();
+    }
+
+    // Returns false if there were unpaired surrogates
+    private static boolean encodeUtf8(CharSequence input, ByteSink sink) {
+
+        boolean wellFormed = true;
+        int len = input.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = input.charAt(i);
+
+            if (c < 0x80) {
+                sink.add(c, 1);
+            }
+            else if (c < 0x800) {
+                sink.add((0xC0 | (c >>> 6))
+                        | (0x80 | (c & 0x3F)) << 8, 2);
+            }
+            else if (!Character.isSurrogate(c)) {
+                sink.add((0xE0 | (c >>> 12))
+                        | (0x80 | ((c >>> 6) & 0x3F)) << 8
+                        | (0x80 | (c & 0x3F)) << 16, 3);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(input.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, input.charAt(++i));
+                sink.addFourBytes((0xF0 | (codePoint >>> 18))
+                        | (0x80 | ((codePoint >>> 12) & 0x3F)) << 8
+                        | (0x80 | ((codePoint >>> 6) & 0x3F)) << 16
+                        | (0x80L | (codePoint & 0x3F)) << 24);
+            }
+            else {
+                sink.add('?', 1);
+                wellFormed = false;
+            }
+        }
+
+        return wellFormed;
+    }
+
+    private static void encodeSingleByte(CharSequence input, char maxChar, ByteSink sink) {
+
+        int len = input.length();
+
+        for (int i = 0; i < len; i++) {
+            char c = input.charAt(i);
+
+            if (c <= maxChar) {
+                sink.add(c, 1);
+            }
+            else {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(input.charAt(i + 1)))
+                    i++;
+                sink.add('?', 1);
+            }
+        }
+    }
+
+    private interface ByteSink {
+
+        // Adds count (at most 3) bytes, packed little-endian
+        void add(long bytes, int count);
+
+        // Adds the 4 bytes of a supplementary code point, packed little-endian
+        void addFourBytes(long bytes);
+    }
+
+    // Accumulates bytes into 4-byte little-endian blocks, optionally with the quirk of Guava's murmur3_32 hashString.
+    // Small and short-lived enough to be scalar-replaced.
+    private static final class Block implements ByteSink {
+
+        private final boolean _guavaQuirk;
+        private int _h1;
+        private long _buffer;
+        private int _shift;
+        private int _length;
+
+        Block(int seed, boolean guavaQuirk) {
+            _guavaQuirk = guavaQuirk;
+            _h1 = seed;
+        }
+
+        @Override
+        public void add(long bytes, int count) {
+            _buffer |= bytes << _shift;
+            _shift += count << 3;
+            _length += count;
+            flush();
+        }
+
+        @Override
+        public void addFourBytes(long bytes) {
+            if (!_guavaQuirk) {
+                add(bytes & 0xFFFFFF, 3);
+                add(bytes >>> 24, 1);
+                return;
+            }
+
+            // Guava does not advance the shift here, so the next bytes overlap these. Kept for identical output.
+            _buffer |= bytes << _shift;
+            _length += 4;
+            flush();
+        }
+
+        private void flush() {
+            if (_shift >= 32) {
+                _h1 = mixH1(_h1, mixK1((int) _buffer));
+                _buffer >>>= 32;
+                _shift -= 32;
+            }
+        }
+
+        int finish() {
+            return fmix(_h1 ^ mixK1((int) _buffer), _length);
+        }
+    }
+
+    // As Block, for 16-byte x64_128 blocks
+    private static final class Block64 implements ByteSink {
+
+        private long _h1;
+        private long _h2;
+        private long _k1;
+        private long _k2;
+        private int _shift;
+        private int _length;
+
+        Block64(int seed) {
+            _h1 = seed;
+            _h2 = seed;
+        }
+
+        @Override
+        public void add(long bytes, int count) {
+            for (int i = 0; i < count; i++, bytes >>>= 8)
+                add((int) bytes);
+        }
+
+        @Override
+        public void addFourBytes(long bytes) {
+            add(bytes, 4);
+        }
+
+        private void add(int b) {
+            if (_shift < 64)
+                _k1 |= (b & 0xFFL) << _shift;
+            else
+                _k2 |= (b & 0xFFL) << (_shift - 64);
+            _shift += 8;
+            _length++;
+            if (_shift == 128) {
+                _h1 = mix64H1(_h1, _h2, _k1);
+                _h2 = mix64H2(_h1, _h2, _k2);
+                _k1 = 0;
+                _k2 = 0;
+                _shift = 0;
+            }
+        }
+
+        long finish() {
+            return finish64(_h1 ^ mix64K1(_k1), _h2 ^ mix64K2(_k2), _length);
+        }
+    }
+
+    private static int mixK1(int k1) {
+        k1 *= C1;
+        k1 = Integer.rotateLeft(k1, 15);
+        k1 *= C2;
+        return k1;
+    }
+
+    private static int mixH1(int h1, int k1) {
+        h1 ^= k1;
+        h1 = Integer.rotateLeft(h1, 13);
+        h1 = h1 * 5 + 0xe6546b64;
+        return h1;
+    }
+
+    private static int fmix(int h1, int length) {
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static long mix64K1(long k1) {
+        k1 *= C1_64;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2_64;
+        return k1;
+    }
+
+    private static long mix64K2(long k2) {
+        k2 *= C2_64;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1_64;
+        return k2;
+    }
+
+    private static long mix64H1(long h1, long h2, long k1) {
+        h1 ^= mix64K1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        return h1 * 5 + 0x52dce729;
+    }
+
+    private static long mix64H2(long h1, long h2, long k2) {
+        h2 ^= mix64K2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        return h2 * 5 + 0x38495ab5;
+    }
+
+    // Returns the first 64 bits of the 128-bit hash
+    private static long finish64(long h1, long h2, int length) {
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,85 @@
+package SlidingHyperLogLog;
+
+/**
+ * Offers held back from a sketch's registers and kept sorted by timestamp, so that offers arriving a little out of
+ * order mostly reach the registers in order. Offers arrive in order or only a little late, so an insertion sort from
+ * the newest end costs little more than appending.
+ *
+ * Not thread safe
+ */
+final class ReorderBuffer {
+
+    private final LateOfferStore _store;
+    private final long[] _ts;
+    private final int[] _registers;
+    private final byte[] _ranks;
+    private int _size;
+
+    ReorderBuffer(int capacity, LateOfferStore store) {
+        _store = store;
+        _ts = new long[capacity];
+        _registers = new int[capacity];
+        _ranks = new byte[capacity];
+    }
+
+    int size() {
+        return _size;
+    }
+
+    boolean isFull() {
+        return _size == _ts.length;
+    }
+
+    /**
+     * Adds an offer after every held offer with the same or an earlier timestamp. There must be room.
+     */
+    void add(int register, long timestamp, int R) {
+        int pos = _size;
+        while (pos > 0 && _ts[pos - 1] > timestamp) {
+            _ts[pos] = _ts[pos - 1];
+            _registers[pos] = _registers[pos - 1];
+            _ranks[pos] = _ranks[pos - 1];
+            pos--;
+        }
+        _ts[pos] = timestamp;
+        _registers[pos] = register;
+        _ranks[pos] = (byte) R;
+        _size++;
+    }
+
+    /**
+     * Number of held offers with timestamps before tMax
+     */
+    int countBefore(long tMax) {
+        int lo = 0;
+        int hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_ts[mid] < tMax)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Offers the oldest count held offers to the store, oldest first, and drops them. Each goes to offerLate, which
+     * for an offer no older than its register's newest is just an offer.
+     */
+    void drain(int count) {
+        for (int i = 0; i < count; i++)
+            _store.offerLate(_registers[i], _ts[i], _ranks[i]);
+
+        _size -= count;
+        System.arraycopy(_ts, count, _ts, 0, _size);
+        System.arraycopy(_registers, count, _registers, 0, _size);
+        System.arraycopy(_ranks, count, _ranks, 0, _size);
+    }
+
+    long sizeInBytes() {
+        // Store and three array references, and size
+        return HeapSize.object(4 * HeapSize.REFERENCE + Integer.BYTES) + HeapSize.of(_ts) + HeapSize.of(_registers) + HeapSize.of(_ranks);
+    }
+
+}
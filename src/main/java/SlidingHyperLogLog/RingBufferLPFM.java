@@ -22,13 +22,17 @@ public class RingBufferLPFM implements LPFM {
     private int _start;
     private int _end;
 
+    // Times setArraysToSize has grown the buffers. Fits in the object's alignment padding, so costs no heap.
+    private int _resizes;
+
     RingBufferLPFM(long windowSize){
         _windowSize = windowSize;
         _start = 0;
         _end = 0;
     }
 
-    private void setArraysToSize(int newLen) {
+    // Moves the size entries from _start to the beginning of new buffers of newLen
+    private void setArraysToSize(int newLen, int size) {
 
         int oldLen = _ts.length;
         long[] newTs = new long[newLen];
@@ -36,7 +40,7 @@ public class RingBufferLPFM implements LPFM {
 
         int sourcePos = _start;
 
-        for(int destPos = 0; destPos < oldLen;)
+        for(int destPos = 0; destPos < size;)
         {
             newTs[destPos] = _ts[sourcePos];
             newRs[destPos] = _rs[sourcePos];
@@ -51,7 +55,8 @@ public class RingBufferLPFM implements LPFM {
         _rs = newRs;
 
         _start = 0;
-        _end = oldLen;
+        _end = size;
+        _resizes++;
 
     }
 
@@ -65,7 +70,7 @@ public class RingBufferLPFM implements LPFM {
                 _rs = new  int[1];
             }
             else
-                setArraysToSize(_ts.length << 1); // Use powers of 2
+                setArraysToSize(_ts.length << 1, _ts.length); // Use powers of 2
         }
 
         long tMin = timestamp - _windowSize;
@@ -112,6 +117,118 @@ public class RingBufferLPFM implements LPFM {
 
     }
 
+    /**
+     * Expires and prunes the entries held once for the whole run, against its newest timestamp and largest R, then
+     * appends the entries of the run no later entry's R is as large as, growing the buffers at most once
+     */
+    @Override
+    public void offerRun(int[] Rs, long[] ts, int tsOffset, int from, int to) {
+
+        if (to - from == 1) {
+            offer(ts[tsOffset + from], Rs[from]);
+            return;
+        }
+
+        // The run's own survivors, counted back from its newest entry, which always survives
+        long tMin = ts[tsOffset + to - 1] - _windowSize;
+        int kept = 0;
+        int maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; i >= from && ts[tsOffset + i] >= tMin; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                kept++;
+            }
+        }
+
+        int size = size();
+        if (_ts == null) {
+            _ts = new long[EntryList.ceilingPowerOf2(kept)];
+            _rs = new  int[_ts.length];
+        }
+        else {
+            int mask = _ts.length - 1;
+            while (size > 0 && _ts[_start] < tMin) {
+                _start = (_start + 1) & mask;
+                size--;
+            }
+            while (size > 0 && _rs[(_start + size - 1) & mask] <= maxR)
+                size--;
+            if (size + kept > _ts.length)
+                setArraysToSize(EntryList.ceilingPowerOf2(size + kept), size);
+        }
+
+        // Written newest first, from the end of where they go
+        int mask = _ts.length - 1;
+        int dest = size + kept;
+        maxR = Integer.MIN_VALUE;
+        for (int i = to - 1; dest > size; i--) {
+            if (Rs[i] > maxR) {
+                maxR = Rs[i];
+                dest--;
+                _ts[(_start + dest) & mask] = ts[tsOffset + i];
+                _rs[(_start + dest) & mask] = Rs[i];
+            }
+        }
+        _end = (_start + size + kept) & mask;
+    }
+
+    /**
+     * Inserts the entry in timestamp order, unless a newer entry has an R as large, and drops older entries with an
+     * R no larger. Walks back from the newest entry, so an entry only a little late costs little more than offer.
+     */
+    @Override
+    public void offerLate(long timestamp, int R) {
+
+        int size = size();
+        int mask = size == 0 ? 0 : _ts.length - 1;
+        long newest = size == 0 ? 0 : _ts[(_start + size - 1) & mask];
+        if (size == 0 || timestamp >= newest) {
+            offer(timestamp, R);
+            return;
+        }
+        if (timestamp < newest - _windowSize)
+            return;
+
+        // First entry at or after the timestamp. Being the oldest of those it has their largest R.
+        int next = size - 1;
+        while (next > 0 && _ts[(_start + next - 1) & mask] >= timestamp)
+            next--;
+        if (_rs[(_start + next) & mask] >= R)
+            return;
+
+        // Keep the entries before keepTo and from keepFrom. One at the same time has a smaller R, so goes.
+        int keepFrom = _ts[(_start + next) & mask] == timestamp ? next + 1 : next;
+        int keepTo = next;
+        while (keepTo > 0 && _rs[(_start + keepTo - 1) & mask] <= R)
+            keepTo--;
+
+        int newSize = keepTo + 1 + size - keepFrom;
+        if (newSize > _ts.length) {
+            // Only when full
+            setArraysToSize(_ts.length << 1, size);
+            mask = _ts.length - 1;
+        }
+
+        // Move the newer entries to just after the new one
+        int shift = keepTo + 1 - keepFrom;
+        if (shift > 0) {
+            for (int i = size - 1; i >= keepFrom; i--) {
+                _ts[(_start + i + shift) & mask] = _ts[(_start + i) & mask];
+                _rs[(_start + i + shift) & mask] = _rs[(_start + i) & mask];
+            }
+        }
+        else if (shift < 0) {
+            for (int i = keepFrom; i < size; i++) {
+                _ts[(_start + i + shift) & mask] = _ts[(_start + i) & mask];
+                _rs[(_start + i + shift) & mask] = _rs[(_start + i) & mask];
+            }
+        }
+
+        _ts[(_start + keepTo) & mask] = timestamp;
+        _rs[(_start + keepTo) & mask] = R;
+        _end = (_start + newSize) & mask;
+    }
+
     @Override
     public int getMaxSince(long tMin) {
 
@@ -155,6 +272,161 @@ public class RingBufferLPFM implements LPFM {
         return maxSoFar;
     }
 
+    // Number of entries between _start and _end. Once anything is offered the buffer is never empty, so
+    // _start == _end means it is full
+    private int size() {
+        if (_ts == null)
+            return 0;
+        int size = _end - _start;
+        return size <= 0 ? size + _ts.length : size;
+    }
+
+    @Override
+    public void forEachEntry(EntryConsumer consumer) {
+
+        int len = size();
+        int pos = _start;
+        for (int i = 0; i < len; i++) {
+            consumer.accept(_ts[pos], _rs[pos]);
+            pos++;
+            if (pos == _ts.length)
+                pos = 0;
+        }
+    }
+
+    @Override
+    public void countMaxSince(long[] sortedTMins, int[][] histograms) {
+
+        // The first entry at or after each tMin, being the oldest in range, has the largest R
+        int len = size();
+        int passed = 0;
+        int pos = _start;
+        for (int i = 0; i < sortedTMins.length; i++) {
+            while (passed < len && _ts[pos] < sortedTMins[i]) {
+                passed++;
+                pos++;
+                if (pos == _ts.length)
+                    pos = 0;
+            }
+            histograms[i][passed == len ? 0 : _rs[pos]]++;
+        }
+    }
+
+    @Override
+    public void merge(LPFMEntries other) {
+
+        // Merge straight from the other ring buffer where possible, rather than copying its entries out first
+        long[] otherTs;
+        int[]  otherRs;
+        int otherStart;
+        int otherSize;
+        if (other instanceof RingBufferLPFM) {
+            RingBufferLPFM ringBuffer = (RingBufferLPFM) other;
+            otherTs = ringBuffer._ts;
+            otherRs = ringBuffer._rs;
+            otherStart = ringBuffer._start;
+            otherSize = ringBuffer.size();
+        }
+        else {
+            EntryList entries;
+            if (other instanceof EntryList) {
+                entries = (EntryList) other;
+            }
+            else {
+                entries = new EntryList();
+                other.forEachEntry(entries);
+            }
+            otherTs = entries._ts;
+            otherRs = entries._rs;
+            otherStart = 0;
+            otherSize = entries._size;
+        }
+
+        if (otherSize == 0)
+            return;
+
+        // The merged entries fill the end of the new buffer, so the next offer wraps round to the start
+        int size = size();
+        int newLen = EntryList.ceilingPowerOf2(size + otherSize);
+        long[] newTs = new long[newLen];
+        int[]  newRs = new  int[newLen];
+        int count = EntryList.union(_ts, _rs, _start, size, otherTs, otherRs, otherStart, otherSize, _windowSize, newTs, newRs);
+
+        _ts = newTs;
+        _rs = newRs;
+        _start = newLen - count;
+        _end = 0;
+    }
+
+    @Override
+    public int expire(long now) {
+
+        int size = size();
+        if (size == 0)
+            return 0;
+
+        long tMin = now - _windowSize;
+        int len = _ts.length;
+        int pos = _start;
+        int expired = 0;
+        while (expired < size && _ts[pos] < tMin) {
+            expired++;
+            pos++;
+            if (pos == len)
+                pos = 0;
+        }
+
+        int live = size - expired;
+        if (live == 0) {
+            // Back to the state before the first offer
+            _ts = null;
+            _rs = null;
+            _start = 0;
+            _end = 0;
+        }
+        else if (live <= len >> 2) {
+            int newLen = EntryList.ceilingPowerOf2(live);
+            long[] newTs = new long[newLen];
+            int[]  newRs = new  int[newLen];
+            for (int destPos = 0; destPos < live; destPos++) {
+                newTs[destPos] = _ts[pos];
+                newRs[destPos] = _rs[pos];
+                pos++;
+                if (pos == len)
+                    pos = 0;
+            }
+            _ts = newTs;
+            _rs = newRs;
+            _start = 0;
+            _end = live == newLen ? 0 : live;
+        }
+        else {
+            _start = pos;
+        }
+        return expired;
+    }
+
+    @Override
+    public int entryCount() {
+        return size();
+    }
+
+    @Override
+    public int entryCapacity() {
+        return _ts == null ? 0 : _ts.length;
+    }
+
+    @Override
+    public int resizes() {
+        return _resizes;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Window size, two array references, start, end and resizes
+        return HeapSize.object(Long.BYTES + 2 * HeapSize.REFERENCE + 3 * Integer.BYTES) + HeapSize.of(_ts) + HeapSize.of(_rs);
+    }
+
     @Override
     public String toString(){
         return String.format("_ts=%s, _rs=%s, _start=%d, _end=%d", Arrays.toString(_ts), Arrays.toString(_rs), _start, _end);
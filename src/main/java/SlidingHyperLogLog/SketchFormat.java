@@ -0,0 +1,341 @@
+package SlidingHyperLogLog;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Binary format of a serialized sketch.
+ *
+ * A fixed size, big-endian header:
+ *   int   magic, "SHLL"
+ *   byte  format version
+ *   byte  flags, bit 0 set for 64-bit hashes
+ *   byte  b
+ *   int   hash seed
+ *   long  window size
+ *   int   body length in bytes
+ *
+ * Then the body:
+ *   varint total entry count
+ *   every entry's R, in register then timestamp order, packed into rankBits() bits each, least significant first
+ *   for each register, a varint entry count followed by its timestamps. The first is a zigzag varint delta from the
+ *   first timestamp of the previous non-empty register, and the rest varint deltas from the one before.
+ *
+ * Entries are copied out of the store once, so a concurrent store is serialized consistently register by register,
+ * and no objects are allocated per entry.
+ */
+final class SketchFormat {
+
+    static final int MAGIC = 0x53484C4C;
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 1 + 1 + 4 + 8 + 4;
+
+    private static final int FLAG_HASH64 = 1;
+    private static final int MAX_VAR_LONG_SIZE = 10;
+
+    private SketchFormat() {
+    }
+
+    /**
+     * Settings of a serialized sketch, from its header
+     */
+    static final class Header {
+        final int _b;
+        final long _windowSize;
+        final boolean _hash64;
+        final int _bodyLength;
+
+        private Header(int b, long windowSize, boolean hash64, int bodyLength) {
+            _b = b;
+            _windowSize = windowSize;
+            _hash64 = hash64;
+            _bodyLength = bodyLength;
+        }
+    }
+
+    // Bits needed for the largest possible R: 5 for 32-bit hashes and 6 for 64-bit hashes, unless b is 1
+    static int rankBits(int b, boolean hash64) {
+        int maxRank = (hash64 ? Long.SIZE : Integer.SIZE) - b + 1;
+        return Integer.SIZE - Integer.numberOfLeadingZeros(maxRank);
+    }
+
+    // Largest body a sketch with this b and hash size can have. Each register's Rs strictly descend from at most the
+    // largest possible R, so it has no more entries than that, and each timestamp takes at most a 10 byte varint.
+    static long maxBodySize(int b, boolean hash64) {
+        long registers = 1L << b;
+        int maxRank = (hash64 ? Long.SIZE : Integer.SIZE) - b + 1;
+        long maxEntries = registers * maxRank;
+        return varLongSize(maxEntries) + ((maxEntries * rankBits(b, hash64) + 7) >>> 3)
+                + registers * varLongSize(maxRank) + maxEntries * MAX_VAR_LONG_SIZE;
+    }
+
+    // Every register's entries, copied out of a store
+    private static final class Snapshot {
+        final EntryList _entries = new EntryList();
+        final int[] _counts;
+        int _timestampBytes;
+
+        Snapshot(LPFMStore store) {
+            _counts = new int[store.registerCount()];
+
+            long previousFirst = 0;
+            for (int register = 0; register < _counts.length; register++) {
+                int first = _entries._size;
+                store.forEachEntry(register, _entries);
+                int count = _entries._size - first;
+                _counts[register] = count;
+
+                _timestampBytes += varLongSize(count);
+                if (count == 0)
+                    continue;
+
+                long[] ts = _entries._ts;
+                _timestampBytes += varLongSize(zigzag(ts[first] - previousFirst));
+                for (int i = first + 1; i < first + count; i++)
+                    _timestampBytes += varLongSize(ts[i] - ts[i - 1]);
+                previousFirst = ts[first];
+            }
+        }
+
+        int bodySize(int rankBits) {
+            long rankBytes = ((long) _entries._size * rankBits + 7) >>> 3;
+            return Math.toIntExact(varLongSize(_entries._size) + rankBytes + _timestampBytes);
+        }
+    }
+
+    static int serializedSize(int b, boolean hash64, LPFMStore store) {
+        return HEADER_SIZE + new Snapshot(store).bodySize(rankBits(b, hash64));
+    }
+
+    /**
+     * Writes a sketch at the buffer's position, advancing it. Throws BufferOverflowException, writing nothing, if
+     * there is not enough room.
+     */
+    static void write(ByteBuffer buffer, int b, long windowSize, boolean hash64, int hashSeed, LPFMStore store) {
+        Snapshot snapshot = new Snapshot(store);
+        int rankBits = rankBits(b, hash64);
+        if (buffer.remaining() < HEADER_SIZE + snapshot.bodySize(rankBits))
+            throw new BufferOverflowException();
+        write(buffer, b, windowSize, hash64, hashSeed, snapshot, rankBits);
+    }
+
+    static byte[] toBytes(int b, long windowSize, boolean hash64, int hashSeed, LPFMStore store) {
+        Snapshot snapshot = new Snapshot(store);
+        int rankBits = rankBits(b, hash64);
+        byte[] bytes = new byte[HEADER_SIZE + snapshot.bodySize(rankBits)];
+        write(ByteBuffer.wrap(bytes), b, windowSize, hash64, hashSeed, snapshot, rankBits);
+        return bytes;
+    }
+
+    private static void write(ByteBuffer buffer, int b, long windowSize, boolean hash64, int hashSeed, Snapshot snapshot, int rankBits) {
+
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        buffer.putInt(MAGIC)
+                .put(VERSION)
+                .put((byte) (hash64 ? FLAG_HASH64 : 0))
+                .put((byte) b)
+                .putInt(hashSeed)
+                .putLong(windowSize)
+                .putInt(snapshot.bodySize(rankBits));
+        buffer.order(order);
+
+        long[] ts = snapshot._entries._ts;
+        int[] rs = snapshot._entries._rs;
+        int total = snapshot._entries._size;
+        putVarLong(buffer, total);
+
+        long bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < total; i++) {
+            bits |= (long) rs[i] << bitCount;
+            bitCount += rankBits;
+            while (bitCount >= 8) {
+                buffer.put((byte) bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+        if (bitCount > 0)
+            buffer.put((byte) bits);
+
+        int i = 0;
+        long previousFirst = 0;
+        for (int count : snapshot._counts) {
+            putVarLong(buffer, count);
+            if (count == 0)
+                continue;
+
+            putVarLong(buffer, zigzag(ts[i] - previousFirst));
+            previousFirst = ts[i];
+            for (int end = i + count, j = i + 1; j < end; j++)
+                putVarLong(buffer, ts[j] - ts[j - 1]);
+            i += count;
+        }
+    }
+
+    /**
+     * Reads and checks a header at the buffer's position, advancing past it
+     */
+    static Header readHeader(ByteBuffer buffer, int hashSeed) {
+
+        if (buffer.remaining() < HEADER_SIZE)
+            throw new IllegalArgumentException("Truncated serialized sketch");
+
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int magic = buffer.getInt();
+        int version = buffer.get();
+        int flags = buffer.get();
+        int b = buffer.get();
+        int seed = buffer.getInt();
+        long windowSize = buffer.getLong();
+        int bodyLength = buffer.getInt();
+        buffer.order(order);
+
+        if (magic != MAGIC)
+            throw new IllegalArgumentException("Not a serialized sketch");
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported serialization version " + version);
+        if (seed != hashSeed)
+            throw new IllegalArgumentException("Serialized with hash seed " + seed + ", expected " + hashSeed);
+        if (b < 1 || b > 30 || windowSize <= 0 || bodyLength < 0 || bodyLength > maxBodySize(b, (flags & FLAG_HASH64) != 0))
+            throw new IllegalArgumentException("Corrupt serialized sketch");
+        if (buffer.remaining() < bodyLength)
+            throw new IllegalArgumentException("Truncated serialized sketch");
+
+        return new Header(b, windowSize, (flags & FLAG_HASH64) != 0, bodyLength);
+    }
+
+    /**
+     * Reads the body that follows a header, offering every entry to an empty store, and advances past it
+     */
+    static void readBody(ByteBuffer buffer, Header header, LPFMStore store) {
+
+        int end = buffer.position() + header._bodyLength;
+        int limit = buffer.limit();
+        buffer.limit(end);
+        try {
+            readBody(buffer, end, header, store);
+        }
+        catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Corrupt serialized sketch", e);
+        }
+        finally {
+            buffer.limit(limit);
+        }
+    }
+
+    private static void readBody(ByteBuffer buffer, int end, Header header, LPFMStore store) {
+
+        int rankBits = rankBits(header._b, header._hash64);
+        int rankMask = (1 << rankBits) - 1;
+
+        long total = getVarLong(buffer);
+        int rankPos = buffer.position();
+        long rankBytes = (total * rankBits + 7) >>> 3;
+        if (total < 0 || rankBytes > end - rankPos)
+            throw new IllegalArgumentException("Corrupt serialized sketch");
+        buffer.position(rankPos + (int) rankBytes);
+
+        long bits = 0;
+        int bitCount = 0;
+        long read = 0;
+        long previousFirst = 0;
+
+        int registerCount = store.registerCount();
+        for (int register = 0; register < registerCount; register++) {
+            long count = getVarLong(buffer);
+            if (count < 0 || count > total - read)
+                throw new IllegalArgumentException("Corrupt serialized sketch");
+            read += count;
+
+            long timestamp = 0;
+            for (long k = 0; k < count; k++) {
+                if (k == 0) {
+                    timestamp = previousFirst + unzigzag(getVarLong(buffer));
+                    previousFirst = timestamp;
+                }
+                else {
+                    timestamp += getVarLong(buffer);
+                }
+
+                while (bitCount < rankBits) {
+                    bits |= (long) (buffer.get(rankPos++) & 0xFF) << bitCount;
+                    bitCount += 8;
+                }
+                int R = (int) bits & rankMask;
+                bits >>>= rankBits;
+                bitCount -= rankBits;
+
+                store.offer(register, timestamp, R);
+            }
+        }
+
+        if (read != total || buffer.position() != end)
+            throw new IllegalArgumentException("Corrupt serialized sketch");
+    }
+
+    /**
+     * Reads exactly one serialized sketch, header and body, from a stream. The body length is checked against the
+     * largest body the header's b and hash size allow before anything is allocated for it, so a corrupt header
+     * cannot ask for more.
+     */
+    static byte[] readBytes(InputStream in) throws IOException {
+
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[HEADER_SIZE];
+        data.readFully(header);
+
+        // Past the magic and version, as in readHeader
+        ByteBuffer fields = ByteBuffer.wrap(header);
+        int flags = fields.get(5);
+        int b = fields.get(6);
+        int bodyLength = fields.getInt(HEADER_SIZE - 4);
+        if (b < 1 || b > 30 || bodyLength < 0 || bodyLength > maxBodySize(b, (flags & FLAG_HASH64) != 0))
+            throw new IllegalArgumentException("Corrupt serialized sketch");
+
+        byte[] bytes = new byte[HEADER_SIZE + bodyLength];
+        System.arraycopy(header, 0, bytes, 0, HEADER_SIZE);
+        data.readFully(bytes, HEADER_SIZE, bodyLength);
+        return bytes;
+    }
+
+    private static long zigzag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unzigzag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static int varLongSize(long n) {
+        // 7 bits per byte, and at least one byte
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(n) + 6) / 7);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long n) {
+        while ((n & ~0x7FL) != 0) {
+            buffer.put((byte) ((n & 0x7F) | 0x80));
+            n >>>= 7;
+        }
+        buffer.put((byte) n);
+    }
+
+    private static long getVarLong(ByteBuffer buffer) {
+        long n = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            n |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return n;
+        }
+        throw new IllegalArgumentException("Corrupt serialized sketch");
+    }
+
+}
@@ -0,0 +1,104 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * What a sketch holds and costs, as returned by SlidingHyperLogLog.metrics(). The entry counts, capacity, resizes and
+ * retained bytes are read from the registers when asked for, so are there for any sketch. Latencies and expired
+ * entries are only recorded by a sketch built with a metrics sample interval, and are otherwise empty or 0.
+ */
+public final class SketchMetrics {
+
+    private final long[] _entryCountHistogram;
+    private final long _entries;
+    private final long _entryCapacity;
+    private final long _resizes;
+    private final long _retainedBytes;
+    private final long _expiredEntries;
+    private final long _lateOffersDropped;
+    private final LatencyHistogram _offerLatency;
+    private final LatencyHistogram _queryLatency;
+
+    SketchMetrics(long[] entryCountHistogram, long entries, long entryCapacity, long resizes, long retainedBytes, long expiredEntries,
+                  long lateOffersDropped, LatencyHistogram offerLatency, LatencyHistogram queryLatency) {
+        _entryCountHistogram = entryCountHistogram;
+        _entries = entries;
+        _entryCapacity = entryCapacity;
+        _resizes = resizes;
+        _retainedBytes = retainedBytes;
+        _expiredEntries = expiredEntries;
+        _lateOffersDropped = lateOffersDropped;
+        _offerLatency = offerLatency;
+        _queryLatency = queryLatency;
+    }
+
+    /**
+     * Element n is the number of registers holding n entries. As long as the most any register holds, plus one.
+     */
+    public long[] entryCountHistogram() {
+        return _entryCountHistogram.clone();
+    }
+
+    /**
+     * Entries held by every register together
+     */
+    public long entries() {
+        return _entries;
+    }
+
+    /**
+     * Entries the registers' buffers have room for. See LPFM.entryCapacity().
+     */
+    public long entryCapacity() {
+        return _entryCapacity;
+    }
+
+    /**
+     * Times registers' buffers have grown, for LPFMs which count them. See LPFM.resizes().
+     */
+    public long resizes() {
+        return _resizes;
+    }
+
+    /**
+     * Approximate bytes of heap retained. See SlidingHyperLogLog.sizeInBytes().
+     */
+    public long retainedBytes() {
+        return _retainedBytes;
+    }
+
+    /**
+     * Entries dropped by expire(now) since the sketch was built
+     */
+    public long expiredEntries() {
+        return _expiredEntries;
+    }
+
+    /**
+     * See SlidingHyperLogLog.lateOffersDropped()
+     */
+    public long lateOffersDropped() {
+        return _lateOffersDropped;
+    }
+
+    /**
+     * Latencies of the offers sampled, one in every sample interval. Offers in batches are not sampled.
+     */
+    public LatencyHistogram offerLatency() {
+        return _offerLatency;
+    }
+
+    /**
+     * Latencies of every query, by cardinalitySince or cardinalitiesSince
+     */
+    public LatencyHistogram queryLatency() {
+        return _queryLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("entryCountHistogram=%s, entries=%d, entryCapacity=%d, resizes=%d, retainedBytes=%d, expiredEntries=%d, lateOffersDropped=%d, offerLatency=[%s], queryLatency=[%s]",
+                Arrays.toString(_entryCountHistogram), _entries, _entryCapacity, _resizes, _retainedBytes, _expiredEntries, _lateOffersDropped, _offerLatency, _queryLatency);
+    }
+
+}
@@ -1,9 +1,17 @@
 package SlidingHyperLogLog;
 
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.IntSupplier;
 
 /**
  * Implementation of Sliding HyperLogLog, as described at:
@@ -12,26 +20,74 @@ import java.nio.charset.Charset;
  * Significantly based on stream-lib implementation of HyperLogLog at:
  * https://github.com/addthis/stream-lib/blob/master/src/main/java/com/clearspring/analytics/stream/cardinality/HyperLogLog.java
  *
+ * Not thread safe, unless built with a concurrency level
  */
 public class SlidingHyperLogLog {
 
+    static final int HASH_SEED = 1729;
+
+    // Strings are hashed as their bytes in the default charset. Encoding on the fly avoids allocating the bytes.
+    private static final Charset DEFAULT_CHARSET = Charset.defaultCharset();
+    private static final char DEFAULT_CHARSET_MAX_CHAR = singleByteMaxChar(DEFAULT_CHARSET);
+
+    private static final double TWO_TO_THE_32 = Math.pow(2, 32);
+
+    // Registers per task of a parallel query, and the fewest registers worth splitting. Smaller queries take less
+    // time than handing tasks to other threads, and on a single processor splitting only adds thread switches.
+    private static final int PARALLEL_QUERY_CHUNK = 1 << 13;
+    private static final int PARALLEL_QUERY_MIN_REGISTERS = 1 << 15;
+
+    // Offers held back by a sketch allowing late offers. Enough to sort a burst of out of order offers, while small
+    // enough to cost little beside the registers.
+    private static final int REORDER_BUFFER_SIZE = 256;
+
+    // 1 / 2^R for every possible R
+    private static final double[] INVERSE_POWERS_OF_2 = new double[Long.SIZE + 1];
+    static {
+        for (int r = 0; r < INVERSE_POWERS_OF_2.length; r++)
+            INVERSE_POWERS_OF_2[r] = Math.scalb(1.0, -r);
+    }
+
     private final int _b;
+    private final long _windowSize;
     private final double _alphaMM;
-    private final HashFunction hashFunction = Hashing.murmur3_32(1729);
-    private final LPFM[] _lpfms;
+    private final LPFMStoreFactory<?> _lpfmStoreFactory;
+    private final LPFMStore _store;
+    private final CardinalityCache _cardinalityCache;
+    private final ExpiryListener _expiryListener;
+    private final Executor _queryExecutor;
+    private final IntSupplier _availableProcessors;
+    private final long _allowedLateness;
+    private final ReorderBuffer _reorderBuffer;
+    private final MetricsRecorder _metrics;
+    private final boolean _hash64;
+    private final boolean _biasCorrection;
     private final short _hashedValueShiftSize;
 
-    private SlidingHyperLogLog(int b, long windowSize, LPFMFactory lpfmFactory) {
+    // With allowed lateness, the oldest timestamp still taken, and the number of offers dropped for being older
+    private long _oldestAllowed = Long.MIN_VALUE;
+    private long _lateOffersDropped;
+
+    private SlidingHyperLogLog(int b, long windowSize, LPFMStoreFactory<?> lpfmStoreFactory, boolean hash64, boolean biasCorrection, boolean cardinalityCache, ExpiryListener expiryListener, Executor queryExecutor, IntSupplier availableProcessors, long allowedLateness, int metricsSampleInterval, boolean flightRecorderEvents) {
         _b = b;
+        _windowSize = windowSize;
         int m = 1 << _b;
-        _hashedValueShiftSize = (short)(Integer.SIZE - _b);
+        _hash64 = hash64;
+        _biasCorrection = biasCorrection;
+        _hashedValueShiftSize = (short)((hash64 ? Long.SIZE : Integer.SIZE) - _b);
 
-        _lpfms = new LPFM[m];
+        _lpfmStoreFactory = lpfmStoreFactory;
+        _store = lpfmStoreFactory.buildStore(m, windowSize);
+        _cardinalityCache = cardinalityCache ? new CardinalityCache(_store, windowSize, histogramLength()) : null;
+        _expiryListener = expiryListener;
+        _queryExecutor = queryExecutor;
+        _availableProcessors = availableProcessors;
+        _allowedLateness = allowedLateness;
+        if (allowedLateness > 0 && !(_store instanceof LateOfferStore))
+            throw new IllegalArgumentException("Allowed lateness needs storage which takes late offers.");
+        _reorderBuffer = allowedLateness > 0 ? new ReorderBuffer(REORDER_BUFFER_SIZE, (LateOfferStore) _store) : null;
+        _metrics = metricsSampleInterval > 0 ? new MetricsRecorder(metricsSampleInterval, flightRecorderEvents) : null;
         _alphaMM = getAlphaMM(_b, m);
-
-        for (int i = 0; i < m; i++) {
-            _lpfms[i] = lpfmFactory.buildLPFM(windowSize);
-        }
     }
 
     private static double getAlphaMM(final int p, final int m) {
@@ -49,88 +105,881 @@ public class SlidingHyperLogLog {
         }
     }
 
+    /**
+     * Offers a 32-bit hash. Only for sketches built without setUse64BitHash.
+     */
     public void offerHashed(long t, int hashedValue) {
+        if (_hash64)
+            throw new IllegalStateException("Sketch uses 64-bit hashes");
+        offerHashed32(t, hashedValue);
+    }
+
+    /**
+     * Offers a 64-bit hash. Only for sketches built with setUse64BitHash.
+     */
+    public void offerHashed(long t, long hashedValue) {
+        if (!_hash64)
+            throw new IllegalStateException("Sketch uses 32-bit hashes");
+        offerHashed64(t, hashedValue);
+    }
+
+    private void offerHashed32(long t, int hashedValue) {
+        offerRegister(register32(hashedValue), t, rank32(hashedValue));
+    }
+
+    private void offerHashed64(long t, long hashedValue) {
+        offerRegister(register64(hashedValue), t, rank64(hashedValue));
+    }
+
+    private void offerRegister(int j, long t, int r) {
+        if (_metrics != null && _metrics.sampleOffer()) {
+            long start = System.nanoTime();
+            offerUnsampled(j, t, r);
+            _metrics.offered(j, t, System.nanoTime() - start);
+            return;
+        }
+        offerUnsampled(j, t, r);
+    }
+
+    private void offerUnsampled(int j, long t, int r) {
+        if (_reorderBuffer != null) {
+            offerReordered(j, t, r);
+            return;
+        }
+        _store.offer(j, t, r);
+        if (_cardinalityCache != null)
+            _cardinalityCache.offered(j, t, r);
+    }
+
+    // Holds the offer in the reorder buffer, unless it is later than allowed
+    private void offerReordered(int j, long t, int r) {
+        if (t < _oldestAllowed) {
+            _lateOffersDropped++;
+            return;
+        }
+        long oldestAllowed = t - _allowedLateness;
+        if (oldestAllowed > _oldestAllowed && oldestAllowed <= t)
+            _oldestAllowed = oldestAllowed;
+
+        if (_reorderBuffer.isFull()) {
+            // Offers before the oldest still allowed can never be overtaken, so go to the registers first, along
+            // with enough of the oldest others to free half the buffer
+            int count = Math.max(_reorderBuffer.countBefore(_oldestAllowed), REORDER_BUFFER_SIZE / 2);
+            _reorderBuffer.drain(count);
+        }
+        _reorderBuffer.add(j, t, r);
+    }
+
+    // Applies every offer held in the reorder buffer, before anything reads the registers
+    private void flushReorderBuffer() {
+        if (_reorderBuffer != null)
+            _reorderBuffer.drain(_reorderBuffer.size());
+    }
 
-        final int j = hashedValue >>> _hashedValueShiftSize;
-        final int r = Integer.numberOfLeadingZeros((hashedValue << _b) | (1 << (_b - 1)) + 1) + 1;
-        _lpfms[j].offer(t, r);
+    /**
+     * Offers dropped for being more than the allowed lateness older than the newest offer. Always 0 for a sketch
+     * built without allowed lateness.
+     */
+    public long lateOffersDropped() {
+        return _lateOffersDropped;
+    }
+
+    private int register32(int hashedValue) {
+        return hashedValue >>> _hashedValueShiftSize;
+    }
+
+    private int rank32(int hashedValue) {
+        return Integer.numberOfLeadingZeros((hashedValue << _b) | (1 << (_b - 1)) + 1) + 1;
+    }
+
+    private int register64(long hashedValue) {
+        return (int) (hashedValue >>> _hashedValueShiftSize);
+    }
+
+    private int rank64(long hashedValue) {
+        return Long.numberOfLeadingZeros((hashedValue << _b) | (1L << (_b - 1))) + 1;
     }
 
     public void offer(long t, int i) {
-        final int x = hashFunction.hashInt(i).asInt();
-        offerHashed(t, x);
+        if (_hash64)
+            offerHashed64(t, Murmur3.hash64Int(i, HASH_SEED));
+        else
+            offerHashed32(t, Murmur3.hashInt(i, HASH_SEED));
     }
 
 
     public void offer(long t, double d) {
-        final int x = hashFunction.hashLong(Double.doubleToRawLongBits(d)).asInt();
-        offerHashed(t, x);
+        offer(t, Double.doubleToRawLongBits(d));
     }
 
 
     public void offer(long t, long l) {
-        final int x = hashFunction.hashLong(l).asInt();
-        offerHashed(t, x);
+        if (_hash64)
+            offerHashed64(t, Murmur3.hash64Long(l, HASH_SEED));
+        else
+            offerHashed32(t, Murmur3.hashLong(l, HASH_SEED));
     }
 
     public void offer(long t, String s) {
-        final int x = hashFunction.hashString(s, Charset.defaultCharset()).asInt();
-        offerHashed(t, x);
+        offer(t, (CharSequence) s);
     }
 
+    /**
+     * Same hash as offer(long, String) of the equivalent String, without copying the characters
+     */
+    public void offer(long t, CharSequence s) {
+        if (_hash64)
+            offerHashed64(t, hash64DefaultCharset(s));
+        else
+            offerHashed32(t, hashDefaultCharset(s));
+    }
 
-    public long cardinalitySince(long tMin) {
+    public void offer(long t, byte[] bytes) {
+        offer(t, bytes, 0, bytes.length);
+    }
 
-        double lpfmSum = 0;
+    public void offer(long t, byte[] bytes, int off, int len) {
+        if (_hash64)
+            offerHashed64(t, Murmur3.hash64Bytes(bytes, off, len, HASH_SEED));
+        else
+            offerHashed32(t, Murmur3.hashBytes(bytes, off, len, HASH_SEED));
+    }
 
-        double zeros = 0.0;
+    /**
+     * Offers the bytes between the buffer's position and limit. The position is left unchanged.
+     */
+    public void offer(long t, ByteBuffer bytes) {
+        if (_hash64)
+            offerHashed64(t, Murmur3.hash64Bytes(bytes, HASH_SEED));
+        else
+            offerHashed32(t, Murmur3.hashBytes(bytes, HASH_SEED));
+    }
 
-        int count = _lpfms.length;
+    static int hashDefaultCharset(CharSequence s) {
+        if (DEFAULT_CHARSET.equals(StandardCharsets.UTF_8))
+            return Murmur3.hashUtf8(s, HASH_SEED);
+        if (DEFAULT_CHARSET_MAX_CHAR != 0)
+            return Murmur3.hashSingleByte(s, DEFAULT_CHARSET_MAX_CHAR, HASH_SEED);
 
-        for (int i = 0; i < count; i++) {
-            LPFM lpfm = _lpfms[i];
-            int val = lpfm.getMaxSince(tMin);
+        byte[] bytes = s.toString().getBytes(DEFAULT_CHARSET);
+        return Murmur3.hashBytes(bytes, 0, bytes.length, HASH_SEED);
+    }
+
+    static long hash64DefaultCharset(CharSequence s) {
+        if (DEFAULT_CHARSET.equals(StandardCharsets.UTF_8))
+            return Murmur3.hash64Utf8(s, HASH_SEED);
+        if (DEFAULT_CHARSET_MAX_CHAR != 0)
+            return Murmur3.hash64SingleByte(s, DEFAULT_CHARSET_MAX_CHAR, HASH_SEED);
+
+        byte[] bytes = s.toString().getBytes(DEFAULT_CHARSET);
+        return Murmur3.hash64Bytes(bytes, 0, bytes.length, HASH_SEED);
+    }
+
+    private static char singleByteMaxChar(Charset charset) {
+        if (charset.equals(StandardCharsets.US_ASCII))
+            return 0x7F;
+        if (charset.equals(StandardCharsets.ISO_8859_1))
+            return 0xFF;
+        return 0;
+    }
+
+
+    /**
+     * Offers values[off] to values[off + len - 1], with the timestamps at the same positions of ts. The same as
+     * offering each in turn, but hashes in one tight loop, and applies the entries to the registers in one pass,
+     * grouped by register when the batch is large enough for registers to repeat.
+     */
+    public void offerBatch(long[] ts, long[] values, int off, int len) {
+        checkBatch(ts, values.length, off, len);
+        BatchScratch scratch = BatchScratch.forBatch(len);
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+
+        if (_hash64) {
+            for (int i = 0; i < len; i++) {
+                long hashedValue = Murmur3.hash64Long(values[off + i], HASH_SEED);
+                registers[i] = register64(hashedValue);
+                ranks[i] = rank64(hashedValue);
+            }
+        }
+        else {
+            for (int i = 0; i < len; i++) {
+                int hashedValue = Murmur3.hashLong(values[off + i], HASH_SEED);
+                registers[i] = register32(hashedValue);
+                ranks[i] = rank32(hashedValue);
+            }
+        }
+        offerBatch(scratch, ts, off, len);
+    }
+
+    public void offerBatch(long[] ts, int[] values, int off, int len) {
+        checkBatch(ts, values.length, off, len);
+        BatchScratch scratch = BatchScratch.forBatch(len);
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
 
-            lpfmSum += 1.0 / (1 << val);
-            if (val == 0) {
-                zeros++;
+        if (_hash64) {
+            for (int i = 0; i < len; i++) {
+                long hashedValue = Murmur3.hash64Int(values[off + i], HASH_SEED);
+                registers[i] = register64(hashedValue);
+                ranks[i] = rank64(hashedValue);
             }
         }
+        else {
+            for (int i = 0; i < len; i++) {
+                int hashedValue = Murmur3.hashInt(values[off + i], HASH_SEED);
+                registers[i] = register32(hashedValue);
+                ranks[i] = rank32(hashedValue);
+            }
+        }
+        offerBatch(scratch, ts, off, len);
+    }
+
+    /**
+     * Same hashes as offer(long, String), so takes String[] as well as other CharSequences
+     */
+    public void offerBatch(long[] ts, CharSequence[] values, int off, int len) {
+        checkBatch(ts, values.length, off, len);
+        BatchScratch scratch = BatchScratch.forBatch(len);
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+
+        if (_hash64) {
+            for (int i = 0; i < len; i++) {
+                long hashedValue = hash64DefaultCharset(values[off + i]);
+                registers[i] = register64(hashedValue);
+                ranks[i] = rank64(hashedValue);
+            }
+        }
+        else {
+            for (int i = 0; i < len; i++) {
+                int hashedValue = hashDefaultCharset(values[off + i]);
+                registers[i] = register32(hashedValue);
+                ranks[i] = rank32(hashedValue);
+            }
+        }
+        offerBatch(scratch, ts, off, len);
+    }
+
+    /**
+     * Batch of 32-bit hashes. Only for sketches built without setUse64BitHash.
+     */
+    public void offerHashedBatch(long[] ts, int[] hashedValues, int off, int len) {
+        if (_hash64)
+            throw new IllegalStateException("Sketch uses 64-bit hashes");
+        checkBatch(ts, hashedValues.length, off, len);
+        BatchScratch scratch = BatchScratch.forBatch(len);
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+
+        for (int i = 0; i < len; i++) {
+            registers[i] = register32(hashedValues[off + i]);
+            ranks[i] = rank32(hashedValues[off + i]);
+        }
+        offerBatch(scratch, ts, off, len);
+    }
+
+    /**
+     * Batch of 64-bit hashes. Only for sketches built with setUse64BitHash.
+     */
+    public void offerHashedBatch(long[] ts, long[] hashedValues, int off, int len) {
+        if (!_hash64)
+            throw new IllegalStateException("Sketch uses 32-bit hashes");
+        checkBatch(ts, hashedValues.length, off, len);
+        BatchScratch scratch = BatchScratch.forBatch(len);
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+
+        for (int i = 0; i < len; i++) {
+            registers[i] = register64(hashedValues[off + i]);
+            ranks[i] = rank64(hashedValues[off + i]);
+        }
+        offerBatch(scratch, ts, off, len);
+    }
+
+    private static void checkBatch(long[] ts, int valuesLength, int off, int len) {
+        if (off < 0 || len < 0 || off + len > ts.length || off + len > valuesLength)
+            throw new IndexOutOfBoundsException("off=" + off + ", len=" + len + ", ts.length=" + ts.length + ", values.length=" + valuesLength);
+    }
+
+    // Offers the batch hashed into the scratch's registers and ranks
+    private void offerBatch(BatchScratch scratch, long[] ts, int tsOffset, int len) {
+
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+        if (_reorderBuffer != null) {
+            for (int i = 0; i < len; i++)
+                offerReordered(registers[i], ts[tsOffset + i], ranks[i]);
+            return;
+        }
+
+        applyBatch(scratch, ts, tsOffset, len);
+
+        // The cache only needs each register's entries in order, which arrival order is
+        if (_cardinalityCache != null) {
+            for (int i = 0; i < len; i++)
+                _cardinalityCache.offered(registers[i], ts[tsOffset + i], ranks[i]);
+        }
+    }
+
+    private void applyBatch(BatchScratch scratch, long[] ts, int tsOffset, int len) {
+
+        int[] registers = scratch._registers;
+        int[] ranks = scratch._ranks;
+        int registerCount = _store.registerCount();
+        if (len < registerCount) {
+            // Few registers will see more than one entry, so grouping would gain nothing
+            _store.offerBatch(registers, ranks, ts, tsOffset, len);
+            return;
+        }
+
+        // Counting sort by register. Being stable, each register's entries stay in timestamp order, and the store
+        // gets one run per register.
+        scratch.ensureGrouping(len, registerCount);
+        int[] starts = scratch._starts;
+        for (int i = 0; i < len; i++)
+            starts[registers[i] + 1]++;
+        for (int register = 0; register < registerCount; register++)
+            starts[register + 1] += starts[register];
+
+        int[] groupedRegisters = scratch._groupedRegisters;
+        int[] groupedRanks = scratch._groupedRanks;
+        long[] groupedTs = scratch._groupedTs;
+        for (int i = 0; i < len; i++) {
+            int dest = starts[registers[i]]++;
+            groupedRegisters[dest] = registers[i];
+            groupedRanks[dest] = ranks[i];
+            groupedTs[dest] = ts[tsOffset + i];
+        }
+        _store.offerBatch(groupedRegisters, groupedRanks, groupedTs, 0, len);
+    }
+
+    /**
+     * Merges another sketch into this one, leaving this as though it had also seen every offer made to the other.
+     * Both sketches must have the same b, window size and hash size.
+     */
+    public void merge(SlidingHyperLogLog other) {
+        if (other._b != _b || other._windowSize != _windowSize || other._hash64 != _hash64)
+            throw new IllegalArgumentException("Only sketches with the same b, window size and hash size can be merged");
+        if (other == this)
+            return;
+        flushReorderBuffer();
+        other.flushReorderBuffer();
+        _store.merge(other._store);
+        if (_cardinalityCache != null)
+            _cardinalityCache.invalidate();
+    }
+
+    /**
+     * A new sketch which has seen every offer made to any of the given sketches, which must all have the same b,
+     * window size and hash size. It is configured as the first sketch.
+     */
+    public static SlidingHyperLogLog union(SlidingHyperLogLog... sketches) {
+        if (sketches.length == 0)
+            throw new IllegalArgumentException("At least one sketch is needed for a union");
+
+        SlidingHyperLogLog first = sketches[0];
+        SlidingHyperLogLog union = new SlidingHyperLogLog(first._b, first._windowSize, first._lpfmStoreFactory, first._hash64, first._biasCorrection, first._cardinalityCache != null, first._expiryListener, first._queryExecutor, first._availableProcessors, first._allowedLateness,
+                first._metrics == null ? 0 : first._metrics.sampleInterval(), first._metrics != null && first._metrics.flightRecorderEvents());
+        for (SlidingHyperLogLog sketch : sketches)
+            union.merge(sketch);
+        return union;
+    }
+
+    /**
+     * Drops every entry outside the window ending at now, and shrinks buffers left oversized by a burst of offers,
+     * without waiting for offers to the registers concerned. Worth calling periodically on sketches whose offers have
+     * slowed or stopped. Estimates since now - windowSize or later are unchanged. Returns the bytes of heap reclaimed
+     * (see sizeInBytes()), which are also reported to the expiry listener, if there is one.
+     */
+    public long expire(long now) {
+        flushReorderBuffer();
+        long sizeBefore = _store.sizeInBytes();
+        int expired = _store.expire(now);
+        if (_cardinalityCache != null)
+            _cardinalityCache.expired(now - _windowSize);
+        long reclaimed = sizeBefore - _store.sizeInBytes();
+
+        if (_expiryListener != null)
+            _expiryListener.expired(expired, reclaimed);
+        if (_metrics != null)
+            _metrics.expired(now, expired, reclaimed);
+        return reclaimed;
+    }
+
+    /**
+     * Approximate bytes of heap retained by this sketch, for accounting many sketches against a memory budget
+     */
+    public long sizeInBytes() {
+        // b, window size, alphaMM, factory, store, cache, listener, executor, processor count, reorder buffer and
+        // metrics references, allowed lateness, flags, shift, oldest allowed and late offers dropped
+        long size = HeapSize.object(Integer.BYTES + Long.BYTES + Double.BYTES + 8 * HeapSize.REFERENCE + Long.BYTES + 2 + Short.BYTES + 2 * Long.BYTES);
+        size += _store.sizeInBytes();
+        if (_cardinalityCache != null)
+            size += _cardinalityCache.sizeInBytes();
+        if (_reorderBuffer != null)
+            size += _reorderBuffer.sizeInBytes();
+        if (_metrics != null)
+            size += _metrics.sizeInBytes();
+        return size;
+    }
+
+    /**
+     * What this sketch holds and costs: its registers' entry counts, capacity and resizes, read from the registers
+     * now, and, for a sketch built with a metrics sample interval, the latencies and expired entries recorded. While
+     * a sketch with a concurrency level takes offers, the counts may be a little out of date.
+     */
+    public SketchMetrics metrics() {
+        flushReorderBuffer();
+
+        long[] histogram = new long[8];
+        int most = 0;
+        long entries = 0;
+        long entryCapacity = 0;
+        long resizes = 0;
+        int count = _store.registerCount();
+        for (int i = 0; i < count; i++) {
+            int n = _store.entryCount(i);
+            if (n >= histogram.length)
+                histogram = Arrays.copyOf(histogram, Math.max(n + 1, histogram.length << 1));
+            histogram[n]++;
+            most = Math.max(most, n);
+            entries += n;
+            entryCapacity += _store.entryCapacity(i);
+            resizes += _store.resizes(i);
+        }
+
+        LatencyHistogram none = new LatencyHistogram(new long[LatencyHistogram.BUCKETS], 0, 0, 0);
+        return new SketchMetrics(Arrays.copyOf(histogram, most + 1), entries, entryCapacity, resizes, sizeInBytes(),
+                _metrics == null ? 0 : _metrics.expiredEntries(), _lateOffersDropped,
+                _metrics == null ? none : _metrics.offerLatency(), _metrics == null ? none : _metrics.queryLatency());
+    }
+
+    /**
+     * Bytes needed to serialize this sketch as it is now
+     */
+    public int serializedSize() {
+        flushReorderBuffer();
+        return SketchFormat.serializedSize(_b, _hash64, _store);
+    }
+
+    /**
+     * Serializes this sketch at the buffer's position, advancing it. See SketchFormat for the format. Throws
+     * BufferOverflowException, writing nothing, if there are fewer than serializedSize() bytes remaining.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        flushReorderBuffer();
+        SketchFormat.write(buffer, _b, _windowSize, _hash64, HASH_SEED, _store);
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        flushReorderBuffer();
+        out.write(SketchFormat.toBytes(_b, _windowSize, _hash64, HASH_SEED, _store));
+    }
+
+    /**
+     * Reads a serialized sketch into the default storage. Throws IllegalArgumentException if the bytes are not a
+     * sketch serialized by a compatible version.
+     */
+    public static SlidingHyperLogLog readFrom(ByteBuffer buffer) {
+        return readFrom(buffer, new Builder());
+    }
+
+    /**
+     * Reads a serialized sketch into the storage configured by the builder. The b, window size and hash size are
+     * those serialized, whatever the builder's.
+     */
+    public static SlidingHyperLogLog readFrom(ByteBuffer buffer, Builder builder) {
+        SketchFormat.Header header = SketchFormat.readHeader(buffer, HASH_SEED);
+        SlidingHyperLogLog sketch = new SlidingHyperLogLog(header._b, header._windowSize, builder.lpfmStoreFactory(), header._hash64, builder._biasCorrection, builder._cardinalityCache, builder._expiryListener, builder._queryExecutor, builder._availableProcessors, builder._allowedLateness, builder._metricsSampleInterval, builder._flightRecorderEvents);
+        SketchFormat.readBody(buffer, header, sketch._store);
+        return sketch;
+    }
+
+    /**
+     * Reads exactly one serialized sketch from the stream, leaving anything after it unread
+     */
+    public static SlidingHyperLogLog readFrom(InputStream in) throws IOException {
+        return readFrom(in, new Builder());
+    }
+
+    public static SlidingHyperLogLog readFrom(InputStream in, Builder builder) throws IOException {
+        return readFrom(ByteBuffer.wrap(SketchFormat.readBytes(in)), builder);
+    }
+
+    public long cardinalitySince(long tMin) {
+        if (_metrics == null)
+            return estimateSince(tMin);
+
+        long start = System.nanoTime();
+        long estimate = estimateSince(tMin);
+        _metrics.queried(1, System.nanoTime() - start);
+        return estimate;
+    }
+
+    private long estimateSince(long tMin) {
+
+        flushReorderBuffer();
+        if (_cardinalityCache != null && _cardinalityCache.answers(tMin))
+            return estimate(_cardinalityCache.histogramSince(tMin));
+        return storeEstimateSince(tMin);
+    }
+
+    // Estimate read from the store, without the cardinality cache
+    private long storeEstimateSince(long tMin) {
+
+        int count = _store.registerCount();
+        if (_queryExecutor != null && count >= PARALLEL_QUERY_MIN_REGISTERS && _availableProcessors.getAsInt() > 1)
+            return estimate(histogramInParallel(tMin, count));
+        return estimate(histogram(tMin, 0, count));
+    }
+
+    // Histogram of the maximum Rs since tMin of the registers from from to to - 1, looking each up in one pass
+    private int[] histogram(long tMin, int from, int to) {
+        int[] histogram = new int[histogramLength()];
+        _store.countMaxRanksSince(tMin, histogram, from, to);
+        return histogram;
+    }
+
+    // The same histogram, a chunk of registers at a time, the calling thread taking the first chunk and the query
+    // executor the rest. Counts add up exactly, so the estimate does not depend on the split.
+    private int[] histogramInParallel(long tMin, int count) {
+
+        int chunks = count / PARALLEL_QUERY_CHUNK;
+        List<CompletableFuture<int[]>> futures = new ArrayList<>(chunks - 1);
+        for (int chunk = 1; chunk < chunks; chunk++) {
+            int from = chunk * PARALLEL_QUERY_CHUNK;
+            futures.add(CompletableFuture.supplyAsync(() -> histogram(tMin, from, from + PARALLEL_QUERY_CHUNK), _queryExecutor));
+        }
+
+        int[] histogram = histogram(tMin, 0, PARALLEL_QUERY_CHUNK);
+        for (CompletableFuture<int[]> future : futures) {
+            int[] chunkHistogram = future.join();
+            for (int R = 0; R < histogram.length; R++)
+                histogram[R] += chunkHistogram[R];
+        }
+        return histogram;
+    }
+
+    /**
+     * Cardinalities since each of the tMins, in the same order, as cardinalitySince would give for each. Each
+     * register is visited once for all of the tMins, so this costs less than a query each.
+     */
+    public long[] cardinalitiesSince(long[] tMins) {
+        if (_metrics == null)
+            return estimatesSince(tMins);
+
+        long start = System.nanoTime();
+        long[] estimates = estimatesSince(tMins);
+        _metrics.queried(tMins.length, System.nanoTime() - start);
+        return estimates;
+    }
+
+    private long[] estimatesSince(long[] tMins) {
+
+        flushReorderBuffer();
+
+        long[] cardinalities = new long[tMins.length];
+        if (tMins.length == 1) {
+            cardinalities[0] = storeEstimateSince(tMins[0]);
+            return cardinalities;
+        }
+
+        // Duplicates share a histogram, so any match from binarySearch will do
+        long[] sortedTMins = tMins.clone();
+        Arrays.sort(sortedTMins);
+
+        int[][] histograms = new int[sortedTMins.length][histogramLength()];
+        _store.countMaxRanksSince(sortedTMins, histograms, 0, _store.registerCount());
+
+        for (int i = 0; i < tMins.length; i++)
+            cardinalities[i] = estimate(histograms[Arrays.binarySearch(sortedTMins, tMins[i])]);
+        return cardinalities;
+    }
+
+    // Estimated cardinality from the histogram of register values
+    private long estimate(int[] histogram) {
+
+        if (_biasCorrection)
+            return Math.round(improvedEstimate(histogram));
+
+        // Sum 1 / 2^R over the registers, a whole histogram bucket at a time
+        double lpfmSum = 0;
+        for (int val = histogram.length - 1; val >= 0; val--)
+            lpfmSum += histogram[val] * INVERSE_POWERS_OF_2[val];
+
+        return estimate(lpfmSum, histogram[0]);
+    }
+
+    // Estimated cardinality from the sum of 1 / 2^R over the registers, and how many are empty
+    private long estimate(double lpfmSum, double zeros) {
+
+        int count = _store.registerCount();
 
         double estimate = _alphaMM * (1 / lpfmSum);
 
         if (estimate <= (5.0 / 2.0) * count) {
-            // Small Range Estimate
-            // http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf . Page 140
-            return Math.round(linearCounting(count, zeros));
+            return smallRangeEstimate(count, estimate, zeros);
+        } else if (!_hash64 && estimate > TWO_TO_THE_32 / 30) {
+            return largeRangeEstimate(estimate);
         } else {
             return Math.round(estimate);
         }
-        // Possibly also add large range correction from paper?
 
     }
 
+    // Small Range Estimate, by linear counting of the empty registers
+    // http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf . Page 140
+    // With no register empty, linear counting would be m log(m / 0), which rounds to Long.MAX_VALUE, so the raw
+    // estimate stands, as the paper has it.
+    static long smallRangeEstimate(int m, double estimate, double zeros) {
+        if (zeros == 0)
+            return Math.round(estimate);
+        return Math.round(linearCounting(m, zeros));
+    }
+
+    // Large Range Estimate, for when 32-bit hashes start to collide. 64-bit hashes never need this.
+    // http://algo.inria.fr/flajolet/Publications/FlFuGaMe07.pdf . Page 140
+    // A saturated sketch's raw estimate reaches 2^32 and beyond, where the correction has no value: as many
+    // distinct values as 32-bit hashes can tell apart, or more. That is Long.MAX_VALUE, as the correction tends to
+    // it on the way up, rather than the NaN of the log of a negative number, which rounds to 0.
+    static long largeRangeEstimate(double estimate) {
+        if (estimate >= TWO_TO_THE_32)
+            return Long.MAX_VALUE;
+        return Math.round(-TWO_TO_THE_32 * Math.log(1 - estimate / TWO_TO_THE_32));
+    }
+
+    // Rs run from 0, for an empty register, to q + 1, where q is the number of hash bits not used for the register
+    private int histogramLength() {
+        int q = (_hash64 ? Long.SIZE : Integer.SIZE) - _b;
+        return q + 2;
+    }
+
     private static double linearCounting(int m, double V) {
         return m * Math.log(m / V);
     }
 
+    // The improved raw estimator of Ertl, "New cardinality estimation algorithms for HyperLogLog sketches" (2017),
+    // https://arxiv.org/abs/1702.01284 . Unbiased across the whole range, without empirical bias tables or a
+    // switch to linear counting, using only the histogram of register values.
+    private double improvedEstimate(int[] histogram) {
+
+        int count = _store.registerCount();
+        int q = histogram.length - 2;
+
+        double z = count * tau(1.0 - (double) histogram[q + 1] / count);
+        for (int k = q; k >= 1; k--)
+            z = 0.5 * (z + histogram[k]);
+        z += count * sigma((double) histogram[0] / count);
+
+        return count * (count / (2 * Math.log(2) * z));
+    }
+
+    private static double sigma(double x) {
+        if (x == 1.0)
+            return Double.POSITIVE_INFINITY;
+
+        double y = 1;
+        double z = x;
+        double zPrev;
+        do {
+            x *= x;
+            zPrev = z;
+            z += x * y;
+            y += y;
+        } while (z != zPrev);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0.0 || x == 1.0)
+            return 0.0;
+
+        double y = 1.0;
+        double z = 1 - x;
+        double zPrev;
+        do {
+            x = Math.sqrt(x);
+            zPrev = z;
+            y *= 0.5;
+            z -= (1 - x) * (1 - x) * y;
+        } while (z != zPrev);
+        return z / 3;
+    }
+
 
     public static class Builder
     {
         private int _b;
-        private LPFMFactory _lpfmFactory = new RingBufferLPFMFactory();
+        private LPFMFactory<?> _lpfmFactory = new RingBufferLPFMFactory();
+        private LPFMStoreFactory<?> _lpfmStoreFactory = null;
         private long _windowSize;
+        private boolean _use64BitHash = false;
+        private boolean _biasCorrection = false;
+        private boolean _sparse = false;
+        private int _concurrencyLevel = 0;
+        private boolean _cardinalityCache = false;
+        private ExpiryListener _expiryListener = null;
+        private int _timeBuckets = 0;
+        private Executor _queryExecutor = null;
+        private IntSupplier _availableProcessors = () -> Runtime.getRuntime().availableProcessors();
+        private long _allowedLateness = 0;
+        private int _metricsSampleInterval = 0;
+        private boolean _flightRecorderEvents = false;
 
         public SlidingHyperLogLog.Builder setWindowSize(long windowSize) {
             _windowSize = windowSize;
             return this;
         }
 
-        public SlidingHyperLogLog.Builder setLpfmFactory(LPFMFactory lpfmFactory) {
+        public SlidingHyperLogLog.Builder setLpfmFactory(LPFMFactory<?> lpfmFactory) {
             _lpfmFactory = lpfmFactory;
             return this;
         }
 
+        /**
+         * Overrides how registers are stored. When set, the LPFMFactory is not used.
+         */
+        public SlidingHyperLogLog.Builder setLpfmStoreFactory(LPFMStoreFactory<?> lpfmStoreFactory) {
+            _lpfmStoreFactory = lpfmStoreFactory;
+            return this;
+        }
+
+        /**
+         * Hash values to 64 bits rather than 32, so estimates stay unbiased into the billions and beyond.
+         * Offers then hash differently, so a 64-bit sketch's registers are not comparable with a 32-bit one's.
+         */
+        public SlidingHyperLogLog.Builder setUse64BitHash(boolean use64BitHash) {
+            _use64BitHash = use64BitHash;
+            return this;
+        }
+
+        /**
+         * Estimate with Ertl's improved estimator, which removes the bias the classic estimator shows in the
+         * mid range (around 2.5 to 5 times the register count)
+         */
+        public SlidingHyperLogLog.Builder setBiasCorrection(boolean biasCorrection) {
+            _biasCorrection = biasCorrection;
+            return this;
+        }
+
+        /**
+         * Start with sparse storage, costing memory per entry rather than per register, and move to the configured
+         * storage only once the sketch fills up. See SparseLPFMStore.
+         */
+        public SlidingHyperLogLog.Builder setSparse(boolean sparse) {
+            _sparse = sparse;
+            return this;
+        }
+
+        /**
+         * Make the sketch thread safe, for this many threads offering at once. Registers are one LPFM each, from
+         * the LPFMFactory, under striped locks. See ConcurrentLPFMStore.
+         */
+        public SlidingHyperLogLog.Builder setConcurrencyLevel(int concurrencyLevel) {
+            if (concurrencyLevel <= 0)
+                throw new IllegalArgumentException("concurrencyLevel must be > 0");
+
+            _concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /**
+         * Keeps the estimate's inputs up to date as offers arrive and entries expire, so that repeated queries for
+         * the same or an advancing tMin, such as the current window every second, cost O(registers changed) rather
+         * than O(registers). Queries for an earlier tMin than the last are answered as without the cache, and leave
+         * it as it is. Costs about 30 bytes per register, and cannot be combined with a concurrency level or a
+         * BoundedLPFMFactory, whose lists drop entries the cache cannot see go.
+         */
+        public SlidingHyperLogLog.Builder setCardinalityCache(boolean cardinalityCache) {
+            _cardinalityCache = cardinalityCache;
+            return this;
+        }
+
+        /**
+         * Approximate the window with this many buckets of time, keeping only the largest R per bucket per register,
+         * for a fixed timeBuckets bytes per register and O(1) offers. Queries round tMin down to the start of its
+         * bucket, each windowSize / (timeBuckets - 1) long, so more buckets give finer horizons for more memory. See
+         * BucketedLPFMStore. The timeBuckets * 2^b bytes must fit in one array, so at most 2^31 - 1. Cannot be
+         * combined with other storage options or a cardinality cache.
+         */
+        public SlidingHyperLogLog.Builder setTimeBuckets(int timeBuckets) {
+            if (timeBuckets < 2)
+                throw new IllegalArgumentException("timeBuckets must be >= 2");
+
+            _timeBuckets = timeBuckets;
+            return this;
+        }
+
+        /**
+         * Told the entries dropped and bytes reclaimed by every call to expire(now)
+         */
+        public SlidingHyperLogLog.Builder setExpiryListener(ExpiryListener expiryListener) {
+            _expiryListener = expiryListener;
+            return this;
+        }
+
+        /**
+         * Split queries over 2^15 registers or more (b of 15 and up) into chunks of 2^13 registers, and run all but
+         * the first on this executor, such as ForkJoinPool.commonPool(), while the calling thread runs the first.
+         * Queries stay on the calling thread when there is only one processor. Estimates are the same as from a query
+         * on one thread. Queries must still not overlap offers, unless the sketch has a concurrency level. Cannot be
+         * combined with sparse storage or a cardinality cache, and an LPFMStoreFactory's stores must allow
+         * countMaxRanksSince from several threads at once.
+         */
+        public SlidingHyperLogLog.Builder setQueryExecutor(Executor queryExecutor) {
+            _queryExecutor = queryExecutor;
+            return this;
+        }
+
+        /**
+         * Where a query executor asks how many processors there are, so tests can split queries on one processor
+         */
+        SlidingHyperLogLog.Builder setAvailableProcessors(IntSupplier availableProcessors) {
+            _availableProcessors = availableProcessors;
+            return this;
+        }
+
+        /**
+         * Take offers up to this much older than the newest offered, leaving the sketch as though they had arrived in
+         * timestamp order. Offers are held in a reorder buffer of 256, kept sorted by timestamp, and reach the
+         * registers when it fills, oldest first, or before anything reads the registers, so most arrive in order and
+         * the rest are inserted in place by LPFM.offerLate. Offers any later are dropped, and counted by
+         * lateOffersDropped(). 0, the default, takes offers as they come, which must then be in timestamp order.
+         * Must be at most the window size. Needs one LPFM per register, so cannot be combined with other storage
+         * options or a cardinality cache.
+         */
+        public SlidingHyperLogLog.Builder setAllowedLateness(long allowedLateness) {
+            if (allowedLateness < 0)
+                throw new IllegalArgumentException("allowedLateness must be >= 0");
+
+            _allowedLateness = allowedLateness;
+            return this;
+        }
+
+        /**
+         * Time one offer in this many, and every query, into the latency histograms of metrics(), and count the
+         * entries dropped by expire(now). 0, the default, records nothing, leaving one null check per offer and
+         * query; the register counts and retained bytes of metrics() are there either way.
+         */
+        public SlidingHyperLogLog.Builder setMetricsSampleInterval(int metricsSampleInterval) {
+            if (metricsSampleInterval < 0)
+                throw new IllegalArgumentException("metricsSampleInterval must be >= 0");
+
+            _metricsSampleInterval = metricsSampleInterval;
+            return this;
+        }
+
+        /**
+         * Also commit a JDK Flight Recorder event for every sampled offer, query and expiry, when a recording has
+         * them enabled: SlidingHyperLogLog.Offer, SlidingHyperLogLog.Query and SlidingHyperLogLog.Expire. Needs a
+         * metrics sample interval, and Java 11 or later with the jdk.jfr module.
+         */
+        public SlidingHyperLogLog.Builder setFlightRecorderEvents(boolean flightRecorderEvents) {
+            _flightRecorderEvents = flightRecorderEvents;
+            return this;
+        }
+
         public SlidingHyperLogLog.Builder setRsd(double rsd) {
             if (rsd <= 0 || rsd >= 1)
                 throw new IllegalArgumentException("rsd must between 0 and 1");
@@ -148,12 +997,100 @@ public class SlidingHyperLogLog {
         }
 
         public SlidingHyperLogLog build() {
+            checkSettings();
+            return new SlidingHyperLogLog(this._b, this._windowSize, lpfmStoreFactory(), this._use64BitHash, this._biasCorrection, this._cardinalityCache, this._expiryListener, this._queryExecutor, this._availableProcessors, this._allowedLateness, this._metricsSampleInterval, this._flightRecorderEvents);
+        }
+
+        // A sketch with these settings over storage managed elsewhere, such as a MappedSketchStore. The storage
+        // options are not used.
+        SlidingHyperLogLog build(LPFMStoreFactory<?> lpfmStoreFactory) {
+            checkSettings();
+            return new SlidingHyperLogLog(this._b, this._windowSize, lpfmStoreFactory, this._use64BitHash, this._biasCorrection, false, null, null, this._availableProcessors, 0, 0, false);
+        }
+
+        void checkSettings() {
             if(_b == 0)
                 throw new IllegalArgumentException("Please set rsd");
             if(_windowSize <= 0)
                 throw new IllegalArgumentException("windowSize is " + _windowSize + ". It must be > 0.");
+            if(_timeBuckets > 0 && !BucketedLPFMStore.fits(1 << _b, _timeBuckets))
+                throw new IllegalArgumentException(BucketedLPFMStore.tooManyBuckets(1 << _b, _timeBuckets));
+            if(_allowedLateness > _windowSize)
+                throw new IllegalArgumentException("allowedLateness is " + _allowedLateness + ". It must be <= windowSize.");
+            if(_flightRecorderEvents && _metricsSampleInterval == 0)
+                throw new IllegalArgumentException("Flight recorder events need a metrics sample interval.");
+            if(_flightRecorderEvents && FlightRecorderEvents.load() == null)
+                throw new IllegalArgumentException("Flight recorder events need Java 11 or later, with the jdk.jfr module.");
+        }
+
+        int b() {
+            return _b;
+        }
+
+        long windowSize() {
+            return _windowSize;
+        }
+
+        boolean use64BitHash() {
+            return _use64BitHash;
+        }
+
+        // How registers are stored, from the storage options
+        private LPFMStoreFactory<?> lpfmStoreFactory() {
+            if(_concurrencyLevel > 0 && (_lpfmStoreFactory != null || _sparse))
+                throw new IllegalArgumentException("A concurrency level cannot be combined with an LPFMStoreFactory or sparse storage.");
+            if(_concurrencyLevel > 0 && _cardinalityCache)
+                throw new IllegalArgumentException("A cardinality cache cannot be combined with a concurrency level.");
+            if(_cardinalityCache && lpfmFactory() instanceof BoundedLPFMFactory)
+                throw new IllegalArgumentException("A cardinality cache cannot be combined with a BoundedLPFMFactory.");
+            if(_cardinalityCache && !lpfmsImplement("forEachEntry", LPFMEntries.EntryConsumer.class))
+                throw new IllegalArgumentException("A cardinality cache needs LPFMs which implement forEachEntry.");
+            if(_queryExecutor != null && (_sparse || _cardinalityCache))
+                throw new IllegalArgumentException("A query executor cannot be combined with sparse storage or a cardinality cache.");
+            if(_timeBuckets > 0 && (_lpfmStoreFactory != null || _sparse || _concurrencyLevel > 0 || _cardinalityCache))
+                throw new IllegalArgumentException("Time buckets cannot be combined with an LPFMStoreFactory, sparse storage, a concurrency level or a cardinality cache.");
+            if(_allowedLateness > 0 && (_lpfmStoreFactory != null || _sparse || _concurrencyLevel > 0 || _cardinalityCache || _timeBuckets > 0))
+                throw new IllegalArgumentException("Allowed lateness cannot be combined with an LPFMStoreFactory, sparse storage, a concurrency level, a cardinality cache or time buckets.");
+            if(_allowedLateness > 0 && !lpfmsImplement("offerLate", long.class, int.class) && !lpfmsImplement("merge", LPFMEntries.class))
+                throw new IllegalArgumentException("Allowed lateness needs LPFMs which implement offerLate or merge.");
+
+            LPFMStoreFactory<?> lpfmStoreFactory;
+            if (_timeBuckets > 0)
+                lpfmStoreFactory = new BucketedLPFMStoreFactory(_timeBuckets);
+            else if (_lpfmStoreFactory != null)
+                lpfmStoreFactory = _lpfmStoreFactory;
+            else if (_concurrencyLevel > 0)
+                lpfmStoreFactory = new ConcurrentLPFMStoreFactory(_lpfmFactory, _concurrencyLevel);
+            else
+                lpfmStoreFactory = new LPFMArrayStoreFactory(_lpfmFactory);
+
+            if (_sparse)
+                lpfmStoreFactory = new SparseLPFMStoreFactory(lpfmStoreFactory);
+            return lpfmStoreFactory;
+        }
+
+        // Whether the LPFMs registers are built by, if known, implement this method of LPFM rather than taking its
+        // default, for the methods added to LPFM since its first version. A window size of 1 stands in for one not
+        // yet set, as when reading a serialized sketch.
+        private boolean lpfmsImplement(String name, Class<?>... parameterTypes) {
+            LPFMFactory<?> lpfmFactory = lpfmFactory();
+            if (lpfmFactory == null)
+                return true;
+            try {
+                return !lpfmFactory.buildLPFM(Math.max(_windowSize, 1)).getClass().getMethod(name, parameterTypes).isDefault();
+            }
+            catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
 
-            return new SlidingHyperLogLog(this._b, this._windowSize, this._lpfmFactory);
+        // The LPFMFactory registers are built by, if known
+        private LPFMFactory<?> lpfmFactory() {
+            if (_lpfmStoreFactory == null)
+                return _lpfmFactory;
+            if (_lpfmStoreFactory instanceof LPFMArrayStoreFactory)
+                return ((LPFMArrayStoreFactory) _lpfmStoreFactory).lpfmFactory();
+            return null;
         }
     }
 }
@@ -0,0 +1,474 @@
+package SlidingHyperLogLog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sliding sketches by key, created on demand from a shared sketch builder.
+ *
+ * Keys are looked up in a ConcurrentHashMap, so threads using different keys never contend, and each sketch is used
+ * under its own lock. A sketch is evicted once its newest offer has left the window, as it can then only estimate 0.
+ * When the sketches' estimated heap (see SlidingHyperLogLog.sizeInBytes()) exceeds the memory budget, the least
+ * recently or least frequently used are evicted until it is back under 7/8 of the budget.
+ *
+ * Each sketch's size is re-estimated after every register count offers to it, so that re-estimating costs about one
+ * register per offer, and the budget can be exceeded by at most that many offers' growth per sketch. A new key or a
+ * re-estimate that takes the total over the budget runs eviction, unless another thread already is, with the newest
+ * timestamp offered so far as now. evict(now) should also be called periodically, for instance from a scheduled
+ * executor, to evict idle sketches and trim every sketch's expired entries (see SlidingHyperLogLog.expire).
+ *
+ * Thread safe
+ */
+public class SlidingHyperLogLogRegistry<K> {
+
+    public enum EvictionPolicy {
+        LEAST_RECENTLY_USED,
+        /**
+         * Fewest uses since the last eviction, plus half of those before that, and so on. Ties go by recency.
+         */
+        LEAST_FREQUENTLY_USED
+    }
+
+    // A sketch and its usage, guarded by the entry's lock. Removed entries are never used again.
+    private static final class Entry {
+        final ReentrantLock _lock = new ReentrantLock();
+        final SlidingHyperLogLog _sketch;
+        long _newest = Long.MIN_VALUE;
+        boolean _removed = false;
+        int _offersSinceSized = 0;
+
+        // Read without the lock when choosing what to evict
+        volatile long _lastUsed;
+        volatile int _uses;
+        volatile long _sizeInBytes;
+
+        Entry(SlidingHyperLogLog sketch) {
+            _sketch = sketch;
+            _lastUsed = System.nanoTime();
+            _sizeInBytes = sketch.sizeInBytes();
+        }
+
+        void used() {
+            _lastUsed = System.nanoTime();
+            _uses++;
+        }
+    }
+
+    // An entry's usage, fixed while sorting
+    private static final class Candidate<K> {
+        final K _key;
+        final Entry _entry;
+        final long _lastUsed;
+        final int _uses;
+
+        Candidate(K key, Entry entry) {
+            _key = key;
+            _entry = entry;
+            _lastUsed = entry._lastUsed;
+            _uses = entry._uses;
+        }
+    }
+
+    private final SlidingHyperLogLog.Builder _sketchBuilder;
+    private final long _windowSize;
+    private final long _memoryBudget;
+    private final EvictionPolicy _evictionPolicy;
+    private final int _offersPerSizing;
+
+    private final ConcurrentHashMap<K, Entry> _sketches = new ConcurrentHashMap<>();
+    private final AtomicLong _sizeInBytes = new AtomicLong();
+    private final AtomicLong _newest = new AtomicLong(Long.MIN_VALUE);
+    private final ReentrantLock _evictionLock = new ReentrantLock();
+
+    private SlidingHyperLogLogRegistry(SlidingHyperLogLog.Builder sketchBuilder, long memoryBudget, EvictionPolicy evictionPolicy) {
+        _sketchBuilder = sketchBuilder;
+        _windowSize = sketchBuilder.windowSize();
+        _memoryBudget = memoryBudget;
+        _evictionPolicy = evictionPolicy;
+        _offersPerSizing = 1 << sketchBuilder.b();
+    }
+
+    public void offer(K key, long t, int i) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, i);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offer(K key, long t, long l) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, l);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offer(K key, long t, double d) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, d);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offer(K key, long t, CharSequence s) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, s);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offer(K key, long t, byte[] bytes) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, bytes);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    /**
+     * Offers the bytes between the buffer's position and limit. The position is left unchanged.
+     */
+    public void offer(K key, long t, ByteBuffer bytes) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offer(t, bytes);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offerHashed(K key, long t, int hashedValue) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offerHashed(t, hashedValue);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    public void offerHashed(K key, long t, long hashedValue) {
+        Entry entry = lockedEntry(key, t);
+        try {
+            entry._sketch.offerHashed(t, hashedValue);
+        }
+        finally {
+            offered(entry);
+        }
+    }
+
+    /**
+     * The key's cardinality since tMin, or 0 if it has no sketch
+     */
+    public long cardinalitySince(K key, long tMin) {
+        Entry entry = _sketches.get(key);
+        if (entry == null)
+            return 0;
+
+        entry._lock.lock();
+        try {
+            if (entry._removed)
+                return 0;
+            entry.used();
+            return entry._sketch.cardinalitySince(tMin);
+        }
+        finally {
+            entry._lock.unlock();
+        }
+    }
+
+    public long[] cardinalitiesSince(K key, long[] tMins) {
+        Entry entry = _sketches.get(key);
+        if (entry == null)
+            return new long[tMins.length];
+
+        entry._lock.lock();
+        try {
+            if (entry._removed)
+                return new long[tMins.length];
+            entry.used();
+            return entry._sketch.cardinalitiesSince(tMins);
+        }
+        finally {
+            entry._lock.unlock();
+        }
+    }
+
+    // The key's entry, created if need be, locked and marked as used for an offer at t
+    private Entry lockedEntry(K key, long t) {
+
+        if (t > _newest.get())
+            _newest.accumulateAndGet(t, Math::max);
+
+        while (true) {
+            Entry entry = _sketches.get(key);
+            if (entry == null)
+                entry = create(key, t);
+
+            entry._lock.lock();
+            if (!entry._removed) {
+                entry.used();
+                if (t > entry._newest)
+                    entry._newest = t;
+                return entry;
+            }
+            // Evicted since it was looked up
+            entry._lock.unlock();
+        }
+    }
+
+    // Unlocks the entry after an offer, re-estimating its size every so many offers and evicting if that takes the
+    // total over the budget
+    private void offered(Entry entry) {
+        boolean overBudget = false;
+        try {
+            if (++entry._offersSinceSized >= _offersPerSizing) {
+                entry._offersSinceSized = 0;
+                long size = entry._sketch.sizeInBytes();
+                overBudget = _sizeInBytes.addAndGet(size - entry._sizeInBytes) > _memoryBudget;
+                entry._sizeInBytes = size;
+            }
+        }
+        finally {
+            entry._lock.unlock();
+        }
+
+        if (overBudget)
+            evictFor(entry);
+    }
+
+    // Marked as used for the offer at t before it is published, and spared by the eviction it runs, so that a new key
+    // is never evicted before its first offer
+    private Entry create(K key, long t) {
+        Entry created = new Entry(_sketchBuilder.build());
+        created._newest = t;
+        created.used();
+        Entry existing = _sketches.putIfAbsent(key, created);
+        if (existing != null)
+            return existing;
+
+        if (_sizeInBytes.addAndGet(created._sizeInBytes) > _memoryBudget)
+            evictFor(created);
+        return created;
+    }
+
+    // Evicts back under the budget, sparing the entry just created or offered to, unless another thread is evicting
+    private void evictFor(Entry spared) {
+        if (_evictionLock.tryLock()) {
+            try {
+                evictIdle(_newest.get(), spared);
+                evictOverBudget(spared);
+            }
+            finally {
+                _evictionLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Evicts every sketch whose newest offer is outside the window ending at now, re-estimates the size of the rest,
+     * and evicts more if they are over the memory budget. Returns the number evicted.
+     */
+    public int evict(long now) {
+        _evictionLock.lock();
+        try {
+            return evictIdle(now, null) + evictOverBudget(null);
+        }
+        finally {
+            _evictionLock.unlock();
+        }
+    }
+
+    // Never evicts the spared entry, if any
+    private int evictIdle(long now, Entry spared) {
+        int evicted = 0;
+        long tMin = now - _windowSize;
+
+        for (Map.Entry<K, Entry> mapEntry : _sketches.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            entry._lock.lock();
+            try {
+                if (entry._removed)
+                    continue;
+
+                if (entry._newest < tMin && entry != spared) {
+                    remove(mapEntry.getKey(), entry);
+                    evicted++;
+                    continue;
+                }
+
+                // Trim what has expired first, so the re-estimate is of what the sketch still needs
+                entry._sketch.expire(now);
+                long size = entry._sketch.sizeInBytes();
+                _sizeInBytes.addAndGet(size - entry._sizeInBytes);
+                entry._sizeInBytes = size;
+                entry._offersSinceSized = 0;
+
+                // Age the use counts, so that least frequently used favours recent use
+                entry._uses >>>= 1;
+            }
+            finally {
+                entry._lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    private int evictOverBudget(Entry spared) {
+        if (_sizeInBytes.get() <= _memoryBudget)
+            return 0;
+
+        List<Candidate<K>> candidates = new ArrayList<>(_sketches.size());
+        for (Map.Entry<K, Entry> mapEntry : _sketches.entrySet())
+            candidates.add(new Candidate<>(mapEntry.getKey(), mapEntry.getValue()));
+
+        Comparator<Candidate<K>> byLastUsed = Comparator.comparingLong(candidate -> candidate._lastUsed);
+        candidates.sort(_evictionPolicy == EvictionPolicy.LEAST_FREQUENTLY_USED
+                ? Comparator.<Candidate<K>>comparingInt(candidate -> candidate._uses).thenComparing(byLastUsed)
+                : byLastUsed);
+
+        // Evict to below the budget, so that the next few new keys don't each evict again
+        long target = _memoryBudget - (_memoryBudget >>> 3);
+        int evicted = 0;
+        for (Candidate<K> candidate : candidates) {
+            if (_sizeInBytes.get() <= target)
+                break;
+            if (candidate._entry == spared)
+                continue;
+
+            candidate._entry._lock.lock();
+            try {
+                if (!candidate._entry._removed) {
+                    remove(candidate._key, candidate._entry);
+                    evicted++;
+                }
+            }
+            finally {
+                candidate._entry._lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    // Called with the entry locked
+    private void remove(K key, Entry entry) {
+        entry._removed = true;
+        _sketches.remove(key, entry);
+        _sizeInBytes.addAndGet(-entry._sizeInBytes);
+    }
+
+    /**
+     * Removes the key's sketch. True if it had one.
+     */
+    public boolean remove(K key) {
+        Entry entry = _sketches.get(key);
+        if (entry == null)
+            return false;
+
+        entry._lock.lock();
+        try {
+            if (entry._removed)
+                return false;
+            remove(key, entry);
+            return true;
+        }
+        finally {
+            entry._lock.unlock();
+        }
+    }
+
+    public boolean contains(K key) {
+        return _sketches.containsKey(key);
+    }
+
+    /**
+     * Number of keys with a sketch
+     */
+    public int size() {
+        return _sketches.size();
+    }
+
+    /**
+     * Live, unmodifiable view of the keys with a sketch
+     */
+    public Set<K> keys() {
+        return Collections.unmodifiableSet(_sketches.keySet());
+    }
+
+    /**
+     * Estimated heap of every sketch, as of when each was last re-estimated
+     */
+    public long sizeInBytes() {
+        return _sizeInBytes.get();
+    }
+
+
+    public static class Builder<K>
+    {
+        private SlidingHyperLogLog.Builder _sketchBuilder;
+        private long _memoryBudget = Long.MAX_VALUE;
+        private EvictionPolicy _evictionPolicy = EvictionPolicy.LEAST_RECENTLY_USED;
+
+        /**
+         * Settings of every sketch. Must not be changed once the registry is built.
+         */
+        public SlidingHyperLogLogRegistry.Builder<K> setSketchBuilder(SlidingHyperLogLog.Builder sketchBuilder) {
+            _sketchBuilder = sketchBuilder;
+            return this;
+        }
+
+        /**
+         * Bytes of heap the sketches may take before the least used are evicted. Unlimited by default. Must be at least
+         * the size of an empty sketch, which build() checks.
+         */
+        public SlidingHyperLogLogRegistry.Builder<K> setMemoryBudget(long memoryBudget) {
+            if (memoryBudget <= 0)
+                throw new IllegalArgumentException("memoryBudget must be > 0");
+
+            _memoryBudget = memoryBudget;
+            return this;
+        }
+
+        public SlidingHyperLogLogRegistry.Builder<K> setEvictionPolicy(EvictionPolicy evictionPolicy) {
+            if (evictionPolicy == null)
+                throw new IllegalArgumentException("evictionPolicy must not be null");
+
+            _evictionPolicy = evictionPolicy;
+            return this;
+        }
+
+        public SlidingHyperLogLogRegistry<K> build() {
+            if (_sketchBuilder == null)
+                throw new IllegalArgumentException("Please set a sketch builder");
+            _sketchBuilder.checkSettings();
+
+            long sketchSize = _sketchBuilder.build().sizeInBytes();
+            if (_memoryBudget < sketchSize)
+                throw new IllegalArgumentException("memoryBudget must be at least the " + sketchSize + " bytes of an empty sketch");
+
+            return new SlidingHyperLogLogRegistry<>(_sketchBuilder, _memoryBudget, _evictionPolicy);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package SlidingHyperLogLog;
+
+import java.util.Arrays;
+
+/**
+ * Sparse storage for sketches where most registers are empty, in the manner of HyperLogLog++.
+ *
+ * Entries are kept as (register, timestamp, R) triples in one list sorted by register and then timestamp, so memory
+ * is proportional to the number of entries rather than registers. Offers are appended to a small unsorted buffer,
+ * which is sorted and merged into the list once it fills, or before a query. Once the list holds more than
+ * maxEntries entries, they are replayed into a dense store from the given factory, which is used from then on.
+ *
+ * Rs are stored as bytes, so must be at most 127. Rank values from a sketch always are.
+ *
+ * Not thread safe
+ */
+public class SparseLPFMStore implements LPFMStore {
+
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private final int _registerCount;
+    private final long _windowSize;
+    private final int _maxEntries;
+    private final LPFMStoreFactory<?> _denseStoreFactory;
+
+    // Sorted list of entries. For each register, ascending timestamps and strictly descending Rs.
+    private int[]  _registers = new int[MIN_BUFFER_SIZE];
+    private long[] _ts = new long[MIN_BUFFER_SIZE];
+    private byte[] _rs = new byte[MIN_BUFFER_SIZE];
+    private int _size;
+
+    // Offers not yet merged into the list, in arrival order
+    private int[]  _bufferRegisters = new int[MIN_BUFFER_SIZE];
+    private long[] _bufferTs = new long[MIN_BUFFER_SIZE];
+    private byte[] _bufferRs = new byte[MIN_BUFFER_SIZE];
+    private int _bufferSize;
+
+    // Scratch for sorting the buffer, as long as it
+    private long[] _order = new long[MIN_BUFFER_SIZE];
+
+    private LPFMStore _dense = null;
+
+    SparseLPFMStore(int registerCount, long windowSize, int maxEntries, LPFMStoreFactory<?> denseStoreFactory) {
+        _registerCount = registerCount;
+        _windowSize = windowSize;
+        _maxEntries = maxEntries;
+        _denseStoreFactory = denseStoreFactory;
+    }
+
+    /**
+     * True once the entries have moved to the dense store
+     */
+    public boolean isDense() {
+        return _dense != null;
+    }
+
+    @Override
+    public void offer(int register, long timestamp, int R) {
+
+        if (_dense != null) {
+            _dense.offer(register, timestamp, R);
+            return;
+        }
+
+        if (_bufferSize == _bufferRegisters.length) {
+            mergeBuffer();
+            if (_dense != null) {
+                _dense.offer(register, timestamp, R);
+                return;
+            }
+        }
+
+        _bufferRegisters[_bufferSize] = register;
+        _bufferTs[_bufferSize] = timestamp;
+        _bufferRs[_bufferSize] = (byte) R;
+        _bufferSize++;
+    }
+
+    @Override
+    public void offerBatch(int[] registers, int[] Rs, long[] ts, int tsOffset, int len) {
+        if (_dense != null) {
+            _dense.offerBatch(registers, Rs, ts, tsOffset, len);
+            return;
+        }
+        for (int i = 0; i < len; i++)
+            offer(registers[i], ts[tsOffset + i], Rs[i]);
+    }
+
+    @Override
+    public int getMaxSince(int register, long tMin) {
+
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null)
+            return _dense.getMaxSince(register, tMin);
+
+        // This register's first entry with timestamp >= tMin. Being the oldest in range it has the largest R
+        int pos = search(register, tMin);
+        return pos == _size || _registers[pos] != register ? 0 : _rs[pos];
+    }
+
+    @Override
+    public void countMaxRanksSince(long tMin, int[] histogram, int from, int to) {
+
+        // Merging the buffer changes the store, so sketches with sparse storage cannot have parallel queries
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null) {
+            _dense.countMaxRanksSince(tMin, histogram, from, to);
+            return;
+        }
+
+        for (int register = from; register < to; register++) {
+            int pos = search(register, tMin);
+            histogram[pos == _size || _registers[pos] != register ? 0 : _rs[pos]]++;
+        }
+    }
+
+    // Position of the first entry after all those of earlier registers, or of this register with timestamps < tMin
+    private int search(int register, long tMin) {
+
+        int lo = 0;
+        int hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_registers[mid] < register || (_registers[mid] == register && _ts[mid] < tMin))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    @Override
+    public int registerCount() {
+        return _registerCount;
+    }
+
+    @Override
+    public void countMaxRanksSince(long[] sortedTMins, int[][] histograms, int from, int to) {
+
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null) {
+            _dense.countMaxRanksSince(sortedTMins, histograms, from, to);
+            return;
+        }
+
+        // The first entry at or after each tMin, being the oldest in range, has the largest R
+        int first = search(from, Long.MIN_VALUE);
+        for (int register = from; register < to; register++) {
+            for (int i = 0; i < sortedTMins.length; i++) {
+                while (first < _size && _registers[first] == register && _ts[first] < sortedTMins[i])
+                    first++;
+                histograms[i][first == _size || _registers[first] != register ? 0 : _rs[first]]++;
+            }
+            while (first < _size && _registers[first] == register)
+                first++;
+        }
+    }
+
+    @Override
+    public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null) {
+            _dense.forEachEntry(register, consumer);
+            return;
+        }
+
+        for (int i = search(register, Long.MIN_VALUE); i < _size && _registers[i] == register; i++)
+            consumer.accept(_ts[i], _rs[i]);
+    }
+
+    @Override
+    public long sizeInBytes() {
+        // Register count, window size, max entries, the factory, eight array and store references, and two sizes
+        long size = HeapSize.object(Integer.BYTES + Long.BYTES + Integer.BYTES + 9 * HeapSize.REFERENCE + 2 * Integer.BYTES);
+        if (_dense != null)
+            return size + _dense.sizeInBytes();
+        return size + HeapSize.of(_registers) + HeapSize.of(_ts) + HeapSize.of(_rs)
+                + HeapSize.of(_bufferRegisters) + HeapSize.of(_bufferTs) + HeapSize.of(_bufferRs) + HeapSize.of(_order);
+    }
+
+    @Override
+    public void merge(LPFMStore other) {
+
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null) {
+            _dense.merge(other);
+            return;
+        }
+
+        EntryList own = new EntryList();
+        EntryList theirs = new EntryList();
+        EntryList union = new EntryList();
+
+        int[]  newRegisters = new int[Math.max(MIN_BUFFER_SIZE, _size)];
+        long[] newTs = new long[newRegisters.length];
+        byte[] newRs = new byte[newRegisters.length];
+        int destPos = 0;
+
+        int listPos = 0;
+        for (int register = 0; register < _registerCount; register++) {
+
+            own.clear();
+            while (listPos < _size && _registers[listPos] == register) {
+                own.accept(_ts[listPos], _rs[listPos]);
+                listPos++;
+            }
+            theirs.clear();
+            other.forEachEntry(register, theirs);
+            union.setToUnion(own, theirs, _windowSize);
+
+            if (destPos + union._size > newRegisters.length) {
+                int newLen = Math.max(destPos + union._size, newRegisters.length << 1);
+                newRegisters = Arrays.copyOf(newRegisters, newLen);
+                newTs = Arrays.copyOf(newTs, newLen);
+                newRs = Arrays.copyOf(newRs, newLen);
+            }
+            for (int i = 0; i < union._size; i++) {
+                newRegisters[destPos] = register;
+                newTs[destPos] = union._ts[i];
+                newRs[destPos] = (byte) union._rs[i];
+                destPos++;
+            }
+        }
+
+        _registers = newRegisters;
+        _ts = newTs;
+        _rs = newRs;
+        _size = destPos;
+
+        if (_size > _maxEntries)
+            toDense();
+        else
+            resizeBuffer();
+    }
+
+    /**
+     * Merges the buffer, drops expired entries from the list, and shrinks the list once it is at most a quarter full.
+     * A store which has moved to dense stays dense.
+     */
+    @Override
+    public int expire(long now) {
+
+        if (_bufferSize > 0)
+            mergeBuffer();
+        if (_dense != null)
+            return _dense.expire(now);
+
+        long tMin = now - _windowSize;
+        int destPos = 0;
+        for (int i = 0; i < _size; i++) {
+            if (_ts[i] < tMin)
+                continue;
+            _registers[destPos] = _registers[i];
+            _ts[destPos] = _ts[i];
+            _rs[destPos] = _rs[i];
+            destPos++;
+        }
+        int expired = _size - destPos;
+        _size = destPos;
+
+        if (_size <= _registers.length >> 2 && _registers.length > MIN_BUFFER_SIZE) {
+            int newLen = Math.max(MIN_BUFFER_SIZE, EntryList.ceilingPowerOf2(_size));
+            _registers = Arrays.copyOf(_registers, newLen);
+            _ts = Arrays.copyOf(_ts, newLen);
+            _rs = Arrays.copyOf(_rs, newLen);
+        }
+        resizeBuffer();
+        return expired;
+    }
+
+    // Sorts the buffer by register (stably, so each register's offers stay in arrival order) and merges it into the
+    // list, pruning each register's entries as its offers are applied.
+    //
+    // The list is merged in place, from its last register with offers back to its first. Each register's entries are
+    // at most its old entries and offers, so the list grows by at most the buffer, and working back from that far past
+    // the end, each register has room to take its offers where it is before moving to where it ends up. Registers
+    // before the first with offers do not move.
+    private void mergeBuffer() {
+
+        long[] order = _order;
+        for (int i = 0; i < _bufferSize; i++)
+            order[i] = ((long) _bufferRegisters[i] << 32) | i;
+        Arrays.sort(order, 0, _bufferSize);
+
+        int maxSize = _size + _bufferSize;
+        if (maxSize > _registers.length) {
+            int newLen = EntryList.ceilingPowerOf2(maxSize);
+            _registers = Arrays.copyOf(_registers, newLen);
+            _ts = Arrays.copyOf(_ts, newLen);
+            _rs = Arrays.copyOf(_rs, newLen);
+        }
+
+        // Old entries before listEnd are where they were, and merged ones from destPos on are where they end up
+        int listEnd = _size;
+        int destPos = maxSize;
+        int bufferEnd = _bufferSize;
+
+        while (bufferEnd > 0) {
+            int register = (int) (order[bufferEnd - 1] >>> 32);
+            int bufferStart = bufferEnd - 1;
+            while (bufferStart > 0 && (int) (order[bufferStart - 1] >>> 32) == register)
+                bufferStart--;
+
+            // Later registers with no offers move unchanged
+            int runEnd = firstOf(register + 1, listEnd);
+            destPos -= listEnd - runEnd;
+            move(runEnd, destPos, listEnd - runEnd);
+
+            int runStart = firstOf(register, runEnd);
+            int end = applyOffers(register, runStart, runEnd, bufferStart, bufferEnd);
+            destPos -= end - runStart;
+            move(runStart, destPos, end - runStart);
+
+            listEnd = runStart;
+            bufferEnd = bufferStart;
+        }
+
+        // Close any gap left by pruning
+        move(destPos, listEnd, maxSize - destPos);
+        _size = listEnd + maxSize - destPos;
+        _bufferSize = 0;
+
+        if (_size > _maxEntries) {
+            toDense();
+            return;
+        }
+
+        resizeBuffer();
+    }
+
+    // Position of the first entry of this register or a later one, before end
+    private int firstOf(int register, int end) {
+        int lo = 0;
+        int hi = end;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_registers[mid] < register)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Applies the register's sorted buffered offers from bufferStart to bufferEnd - 1 to its entries from runStart to
+    // runEnd - 1, as MonotonicDequeLPFM would, in place. Returns the end of its entries, at most runEnd plus the
+    // number of offers.
+    private int applyOffers(int register, int runStart, int runEnd, int bufferStart, int bufferEnd) {
+
+        int end = runEnd;
+        for (int pos = bufferStart; pos < bufferEnd; pos++) {
+            int i = (int) _order[pos];
+            long timestamp = _bufferTs[i];
+            byte R = _bufferRs[i];
+
+            while (end > runStart && _rs[end - 1] <= R)
+                end--;
+
+            long tMin = timestamp - _windowSize;
+            int expired = 0;
+            while (runStart + expired < end && _ts[runStart + expired] < tMin)
+                expired++;
+            if (expired > 0) {
+                System.arraycopy(_ts, runStart + expired, _ts, runStart, end - runStart - expired);
+                System.arraycopy(_rs, runStart + expired, _rs, runStart, end - runStart - expired);
+                end -= expired;
+            }
+
+            _registers[end] = register;
+            _ts[end] = timestamp;
+            _rs[end] = R;
+            end++;
+        }
+        return end;
+    }
+
+    private void move(int from, int to, int count) {
+        if (from == to || count == 0)
+            return;
+        System.arraycopy(_registers, from, _registers, to, count);
+        System.arraycopy(_ts, from, _ts, to, count);
+        System.arraycopy(_rs, from, _rs, to, count);
+    }
+
+    // Keep merges amortised O(1) per offer by letting the buffer grow with the list
+    private void resizeBuffer() {
+        int bufferLength = Math.max(MIN_BUFFER_SIZE, Integer.highestOneBit(_size) >> 3);
+        if (bufferLength != _bufferRegisters.length) {
+            _bufferRegisters = new int[bufferLength];
+            _bufferTs = new long[bufferLength];
+            _bufferRs = new byte[bufferLength];
+            _order = new long[bufferLength];
+        }
+    }
+
+    private void toDense() {
+
+        LPFMStore dense = _denseStoreFactory.buildStore(_registerCount, _windowSize);
+        for (int i = 0; i < _size; i++)
+            dense.offer(_registers[i], _ts[i], _rs[i]);
+
+        _dense = dense;
+        _registers = null;
+        _ts = null;
+        _rs = null;
+        _bufferRegisters = null;
+        _bufferTs = null;
+        _bufferRs = null;
+        _order = null;
+        _size = 0;
+    }
+
+}
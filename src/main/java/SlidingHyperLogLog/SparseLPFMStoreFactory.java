@@ -0,0 +1,24 @@
+package SlidingHyperLogLog;
+
+public class SparseLPFMStoreFactory implements LPFMStoreFactory<SparseLPFMStore> {
+
+    private final LPFMStoreFactory<?> _denseStoreFactory;
+    private final double _maxEntriesPerRegister;
+
+    /**
+     * Goes dense once there are more entries than registers
+     */
+    public SparseLPFMStoreFactory(LPFMStoreFactory<?> denseStoreFactory) {
+        this(denseStoreFactory, 1.0);
+    }
+
+    public SparseLPFMStoreFactory(LPFMStoreFactory<?> denseStoreFactory, double maxEntriesPerRegister) {
+        _denseStoreFactory = denseStoreFactory;
+        _maxEntriesPerRegister = maxEntriesPerRegister;
+    }
+
+    @Override
+    public SparseLPFMStore buildStore(int registerCount, long windowSize) {
+        return new SparseLPFMStore(registerCount, windowSize, (int) (registerCount * _maxEntriesPerRegister), _denseStoreFactory);
+    }
+}
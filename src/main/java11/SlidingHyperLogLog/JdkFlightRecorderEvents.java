@@ -0,0 +1,104 @@
+package SlidingHyperLogLog;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of sketches built with setFlightRecorderEvents. Only this class refers to jdk.jfr. It
+ * is compiled for Java 11 apart from the rest of the library, which is compiled for Java 8, and loaded by name by
+ * FlightRecorderEvents.load(), so the library builds with --release 8 and runs on JVMs without JFR. Events are only
+ * built when a recording has them enabled.
+ */
+final class JdkFlightRecorderEvents implements FlightRecorderEvents {
+
+    JdkFlightRecorderEvents() {
+    }
+
+    @Override
+    public void offered(int register, long timestamp, long latencyNanos) {
+        OfferEvent event = new OfferEvent();
+        if (!event.isEnabled())
+            return;
+        event.register = register;
+        event.timestamp = timestamp;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+
+    @Override
+    public void queried(int horizons, long latencyNanos) {
+        QueryEvent event = new QueryEvent();
+        if (!event.isEnabled())
+            return;
+        event.horizons = horizons;
+        event.latency = latencyNanos;
+        event.commit();
+    }
+
+    @Override
+    public void expired(long now, int expiredEntries, long reclaimedBytes) {
+        ExpireEvent event = new ExpireEvent();
+        if (!event.isEnabled())
+            return;
+        event.now = now;
+        event.expiredEntries = expiredEntries;
+        event.reclaimedBytes = reclaimedBytes;
+        event.commit();
+    }
+
+    @Name("SlidingHyperLogLog.Offer")
+    @Label("Sketch Offer")
+    @Category("SlidingHyperLogLog")
+    @Description("A sampled offer to a sketch")
+    @StackTrace(false)
+    static final class OfferEvent extends Event {
+
+        @Label("Register")
+        int register;
+
+        @Label("Timestamp")
+        long timestamp;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("SlidingHyperLogLog.Query")
+    @Label("Sketch Query")
+    @Category("SlidingHyperLogLog")
+    @Description("A cardinality estimate, since one or several horizons")
+    static final class QueryEvent extends Event {
+
+        @Label("Horizons")
+        int horizons;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("SlidingHyperLogLog.Expire")
+    @Label("Sketch Expire")
+    @Category("SlidingHyperLogLog")
+    @Description("Entries outside the window dropped by expire(now)")
+    static final class ExpireEvent extends Event {
+
+        @Label("Now")
+        long now;
+
+        @Label("Expired Entries")
+        int expiredEntries;
+
+        @Label("Reclaimed")
+        @DataAmount
+        long reclaimedBytes;
+    }
+
+}
@@ -0,0 +1,201 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class BackfillLoaderTests {
+
+    private static final long WINDOW = 100_000;
+    private static final long START = 1_500_000_000_000L;
+
+    private static SlidingHyperLogLog.Builder sketchBuilder(boolean hash64) {
+        return new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setUse64BitHash(hash64);
+    }
+
+    private static void assertSameEstimates(SlidingHyperLogLog actual, SlidingHyperLogLog expected, long t) {
+        for (long tMin = t - WINDOW; tMin <= t + 1; tMin += WINDOW / 20)
+            Assert.assertEquals(actual.cardinalitySince(tMin), expected.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    private static Path write(String contents) throws IOException {
+        Path file = Files.createTempFile("backfill", ".csv");
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @DataProvider
+    public Object[][] settings() {
+        // Hash size, parallelism and whether there is an executor
+        return new Object[][]{
+                {false, 1, false},
+                {true, 1, false},
+                {false, 7, false},
+                {false, 7, true},
+                {true, 3, true},
+        };
+    }
+
+    @Test(dataProvider = "settings")
+    public void delimitedTest(boolean hash64, int parallelism, boolean executor) throws IOException {
+
+        // A header, the key before the timestamp, a field after, CRLF line endings and an empty line
+        StringBuilder contents = new StringBuilder("user;time;page\r\n");
+        SlidingHyperLogLog expected = sketchBuilder(hash64).build();
+        Random r = new Random(1);
+        long t = START;
+        for (int i = 0; i < 50_000; i++, t += r.nextInt(5)) {
+            String key = "user-" + r.nextInt(20_000);
+            contents.append(key).append(';').append(t).append(";/page/").append(i % 10).append("\r\n");
+            expected.offer(t, key.getBytes(StandardCharsets.UTF_8));
+            if (i == 1_000)
+                contents.append("\r\n");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Path file = write(contents.toString());
+        try {
+            BackfillLoader loader = new BackfillLoader.Builder()
+                    .setSketchBuilder(sketchBuilder(hash64))
+                    .setDelimiter(';')
+                    .setFields(1, 0)
+                    .setHeaderLines(1)
+                    .setParallelism(parallelism)
+                    .setExecutor(executor ? pool : null)
+                    .build();
+            assertSameEstimates(loader.load(file), expected, t);
+        }
+        finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void sameHashAsStringTest() throws IOException {
+        // Same as offer(long, String) where the default charset is UTF-8, which it is for offer(long, byte[])
+        SlidingHyperLogLog expected = sketchBuilder(false).build();
+        Path file = write("1,alpha\n2,beta\n3,\u00e9t\u00e9");
+        try {
+            for (String line : new String[]{"1,alpha", "2,beta", "3,\u00e9t\u00e9"})
+                expected.offer(Long.parseLong(line.split(",")[0]), line.split(",")[1].getBytes(StandardCharsets.UTF_8));
+            SlidingHyperLogLog loaded = new BackfillLoader.Builder().setSketchBuilder(sketchBuilder(false)).build().load(file);
+            assertSameEstimates(loaded, expected, 3);
+            Assert.assertEquals(loaded.cardinalitySince(0), 3);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(dataProvider = "settings")
+    public void binaryTest(boolean hash64, int parallelism, boolean executor) throws IOException {
+
+        // Records of a 4-byte flag, the timestamp and a 12-byte key
+        int records = 30_000;
+        ByteBuffer contents = ByteBuffer.allocate(records * 24).order(ByteOrder.LITTLE_ENDIAN);
+        SlidingHyperLogLog expected = sketchBuilder(hash64).build();
+        Random r = new Random(2);
+        long t = START;
+        for (int i = 0; i < records; i++, t += r.nextInt(10)) {
+            byte[] key = new byte[12];
+            r.nextBytes(key);
+            key[0] = (byte) r.nextInt(4);
+            contents.putInt(i).putLong(t).put(key);
+            expected.offer(t, key);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        Path file = Files.createTempFile("backfill", ".bin");
+        Files.write(file, contents.array());
+        try {
+            BackfillLoader loader = new BackfillLoader.Builder()
+                    .setSketchBuilder(sketchBuilder(hash64))
+                    .setFormat(BackfillLoader.Format.BINARY)
+                    .setRecordLayout(24, 4, 12, 12)
+                    .setByteOrder(ByteOrder.LITTLE_ENDIAN)
+                    .setParallelism(parallelism)
+                    .setExecutor(executor ? pool : null)
+                    .build();
+            assertSameEstimates(loader.load(file), expected, t);
+        }
+        finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void moreRangesThanLinesTest() throws IOException {
+        Path file = write("10,a\n20,b\n");
+        try {
+            SlidingHyperLogLog loaded = new BackfillLoader.Builder().setSketchBuilder(sketchBuilder(false)).setParallelism(16).build().load(file);
+            Assert.assertEquals(loaded.cardinalitySince(0), 2);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void load(String contents) throws IOException {
+        Path file = write(contents);
+        try {
+            new BackfillLoader.Builder().setSketchBuilder(sketchBuilder(false)).build().load(file);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Malformed timestamp at byte 7")
+    public void malformedTimestampTest() throws IOException {
+        load("12,abc\n1x3,def\n");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Line at byte 7 has too few fields")
+    public void missingFieldTest() throws IOException {
+        load("12,abc\n13\n");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "File size 50 is not a multiple of the record size 16")
+    public void partialRecordTest() throws IOException {
+        Path file = Files.createTempFile("backfill", ".bin");
+        Files.write(file, new byte[50]);
+        try {
+            new BackfillLoader.Builder()
+                    .setSketchBuilder(sketchBuilder(false))
+                    .setFormat(BackfillLoader.Format.BINARY)
+                    .setRecordLayout(16, 0, 8, 8)
+                    .build()
+                    .load(file);
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Please set a record layout for a binary file")
+    public void noRecordLayoutTest() {
+        new BackfillLoader.Builder().setSketchBuilder(sketchBuilder(false)).setFormat(BackfillLoader.Format.BINARY).build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Timestamp and key must lie within the record")
+    public void keyOutsideRecordTest() {
+        new BackfillLoader.Builder().setRecordLayout(16, 0, 8, 9);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Fields must be >= 0 and different")
+    public void sameFieldsTest() {
+        new BackfillLoader.Builder().setFields(1, 1);
+    }
+}
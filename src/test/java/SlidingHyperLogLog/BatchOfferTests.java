@@ -0,0 +1,135 @@
+package SlidingHyperLogLog;
+
+import com.google.common.hash.Hashing;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class BatchOfferTests {
+
+    private static final long WINDOW = 10_000;
+    private static final int EVENTS = 40_000;
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(4)},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true)},
+        };
+    }
+
+    private static SlidingHyperLogLog build(SlidingHyperLogLog.Builder builder) {
+        return builder.setWindowSize(WINDOW).setRsd(0.05).build();
+    }
+
+    private static void assertSameSketch(SlidingHyperLogLog actual, SlidingHyperLogLog expected) {
+        for (long tMin = EVENTS - WINDOW - 100; tMin <= EVENTS; tMin += WINDOW / 50)
+            Assert.assertEquals(actual.cardinalitySince(tMin), expected.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    // Batches both smaller and larger than the register count, so offered both in order and grouped by register
+    private static int[] batchSizes() {
+        return new int[]{1, 7, 100, 1000, 5000};
+    }
+
+    @Test(dataProvider = "builders")
+    public void longBatchTest(SlidingHyperLogLog.Builder builder) {
+        Random r = new Random(1);
+        long[] ts = new long[EVENTS];
+        long[] values = new long[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            ts[i] = i;
+            values[i] = r.nextInt(10_000);
+        }
+
+        SlidingHyperLogLog expected = build(builder);
+        for (int i = 0; i < EVENTS; i++)
+            expected.offer(ts[i], values[i]);
+
+        for (int batchSize : batchSizes()) {
+            SlidingHyperLogLog batched = build(builder);
+            for (int off = 0; off < EVENTS; off += batchSize)
+                batched.offerBatch(ts, values, off, Math.min(batchSize, EVENTS - off));
+            assertSameSketch(batched, expected);
+        }
+    }
+
+    @Test(dataProvider = "builders")
+    public void intAndStringBatchTest(SlidingHyperLogLog.Builder builder) {
+        Random r = new Random(2);
+        long[] ts = new long[EVENTS];
+        int[] ints = new int[EVENTS];
+        String[] strings = new String[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            ts[i] = i;
+            ints[i] = r.nextInt(10_000);
+            strings[i] = "user-" + ints[i];
+        }
+
+        SlidingHyperLogLog expectedInts = build(builder);
+        SlidingHyperLogLog expectedStrings = build(builder);
+        for (int i = 0; i < EVENTS; i++) {
+            expectedInts.offer(ts[i], ints[i]);
+            expectedStrings.offer(ts[i], strings[i]);
+        }
+
+        for (int batchSize : batchSizes()) {
+            SlidingHyperLogLog batchedInts = build(builder);
+            SlidingHyperLogLog batchedStrings = build(builder);
+            for (int off = 0; off < EVENTS; off += batchSize) {
+                batchedInts.offerBatch(ts, ints, off, Math.min(batchSize, EVENTS - off));
+                batchedStrings.offerBatch(ts, strings, off, Math.min(batchSize, EVENTS - off));
+            }
+            assertSameSketch(batchedInts, expectedInts);
+            assertSameSketch(batchedStrings, expectedStrings);
+        }
+    }
+
+    @Test
+    public void hashedBatchTest() {
+        Random r = new Random(3);
+        long[] ts = new long[EVENTS];
+        int[] hashes = new int[EVENTS];
+        long[] hashes64 = new long[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            ts[i] = i;
+            int value = r.nextInt(10_000);
+            hashes[i] = Hashing.murmur3_32(1729).hashInt(value).asInt();
+            hashes64[i] = Hashing.murmur3_128(1729).hashInt(value).asLong();
+        }
+
+        SlidingHyperLogLog expected = build(new SlidingHyperLogLog.Builder());
+        SlidingHyperLogLog expected64 = build(new SlidingHyperLogLog.Builder().setUse64BitHash(true));
+        for (int i = 0; i < EVENTS; i++) {
+            expected.offerHashed(ts[i], hashes[i]);
+            expected64.offerHashed(ts[i], hashes64[i]);
+        }
+
+        for (int batchSize : batchSizes()) {
+            SlidingHyperLogLog batched = build(new SlidingHyperLogLog.Builder());
+            SlidingHyperLogLog batched64 = build(new SlidingHyperLogLog.Builder().setUse64BitHash(true));
+            for (int off = 0; off < EVENTS; off += batchSize) {
+                batched.offerHashedBatch(ts, hashes, off, Math.min(batchSize, EVENTS - off));
+                batched64.offerHashedBatch(ts, hashes64, off, Math.min(batchSize, EVENTS - off));
+            }
+            assertSameSketch(batched, expected);
+            assertSameSketch(batched64, expected64);
+        }
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void batchBeyondArrayTest() {
+        build(new SlidingHyperLogLog.Builder()).offerBatch(new long[10], new long[8], 2, 7);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Sketch uses 32-bit hashes")
+    public void hashSizeMismatchTest() {
+        build(new SlidingHyperLogLog.Builder()).offerHashedBatch(new long[1], new long[1], 0, 1);
+    }
+}
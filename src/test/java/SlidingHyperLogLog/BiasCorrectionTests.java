@@ -0,0 +1,66 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BiasCorrectionTests {
+
+    private static SlidingHyperLogLog build(boolean biasCorrection) {
+        return new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1_000_000).setBiasCorrection(biasCorrection).build();
+    }
+
+    // Across the mid range, where the classic estimator switches from linear counting, the corrected estimator
+    // should be less biased
+    @Test
+    public void midRangeBiasTest() {
+        int trials = 40;
+        int m = 512;
+        double classicBias = 0;
+        double correctedBias = 0;
+
+        for (int trial = 0; trial < trials; trial++) {
+            SlidingHyperLogLog classic = build(false);
+            SlidingHyperLogLog corrected = build(true);
+
+            long t = 0;
+            for (int n = 1; n <= 6 * m; n++, t++) {
+                long value = ((long) trial << 32) + n;
+                classic.offer(t, value);
+                corrected.offer(t, value);
+
+                if (n % (m / 4) == 0 && n >= 2 * m) {
+                    classicBias += (classic.cardinalitySince(0) - n) / (double) n;
+                    correctedBias += (corrected.cardinalitySince(0) - n) / (double) n;
+                }
+            }
+        }
+
+        Assert.assertTrue(Math.abs(correctedBias) < Math.abs(classicBias), "corrected " + correctedBias + ", classic " + classicBias);
+    }
+
+    @Test
+    public void accuracyTest() {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setBiasCorrection(true).build();
+
+        for (long t = 0; t < 1_000_000; t++)
+            shll.offer(t, t);
+
+        Assert.assertEquals(shll.cardinalitySince(900_000), 100_000, 3_000);
+        Assert.assertEquals(shll.cardinalitySince(995_000), 5_000, 150);
+        Assert.assertEquals(shll.cardinalitySince(999_900), 100, 3);
+        Assert.assertEquals(shll.cardinalitySince(999_999), 1);
+        Assert.assertEquals(shll.cardinalitySince(1_000_000), 0);
+    }
+
+    @Test
+    public void sixtyFourBitAccuracyTest() {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setBiasCorrection(true).setUse64BitHash(true).build();
+
+        for (long t = 0; t < 200_000; t++)
+            shll.offer(t, t);
+
+        Assert.assertEquals(shll.cardinalitySince(100_000), 100_000, 3_000);
+        Assert.assertEquals(shll.cardinalitySince(199_000), 1_000, 30);
+        Assert.assertEquals(shll.cardinalitySince(200_000), 0);
+    }
+}
@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class BoundedLPFMCardinalityTests extends CardinalityTests {
+
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new BoundedLPFMFactory(8);
+    }
+}
@@ -0,0 +1,152 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class BoundedLPFMTests {
+
+    // Rs distributed as a sketch's are, 1 + the number of leading zeros of a random hash
+    private static int randomR(Random r, int maxR) {
+        return Math.min(Integer.numberOfLeadingZeros(r.nextInt()) + 1, maxR);
+    }
+
+    @Test
+    public void matchesUnboundedTest() {
+        // No list can hold more entries than there are possible Rs, so this capacity never drops any
+        int maxR = 27;
+        LPFM bounded = new BoundedLPFMFactory(maxR).buildLPFM(1000);
+        LPFM unbounded = new MonotonicDequeLPFM(1000);
+        Random r = new Random(17);
+
+        long t = 0;
+        for (int i = 0; i < 200_000; i++) {
+            t += r.nextInt(3);
+            int R = randomR(r, maxR);
+            bounded.offer(t, R);
+            unbounded.offer(t, R);
+
+            if (i % 1_000 == 0)
+                for (long tMin = t - 1100; tMin <= t + 1; tMin += 13)
+                    Assert.assertEquals(bounded.getMaxSince(tMin), unbounded.getMaxSince(tMin), "i=" + i + ", tMin=" + tMin);
+        }
+    }
+
+    @Test
+    public void dropsShortestIntervalTest() {
+        LPFM lpfm = new BoundedLPFMFactory(3).buildLPFM(1000);
+
+        lpfm.offer(0, 50);
+        lpfm.offer(10, 40);
+        lpfm.offer(11, 30);
+
+        // Full, so the entry at 11 goes: it alone answered tMins in (10, 11]
+        lpfm.offer(20, 20);
+        Assert.assertEquals(lpfm.getMaxSince(0), 50);
+        Assert.assertEquals(lpfm.getMaxSince(10), 40);
+        Assert.assertEquals(lpfm.getMaxSince(11), 20);
+        Assert.assertEquals(lpfm.getMaxSince(20), 20);
+
+        // Late in the window, the oldest entry answers the fewest tMins
+        lpfm.offer(995, 10);
+        Assert.assertEquals(lpfm.getMaxSince(0), 40);
+        Assert.assertEquals(lpfm.getMaxSince(11), 20);
+        Assert.assertEquals(lpfm.getMaxSince(995), 10);
+
+        // Pruning still frees room as usual
+        lpfm.offer(996, 45);
+        Assert.assertEquals(lpfm.getMaxSince(0), 45);
+        Assert.assertEquals(lpfm.getMaxSince(997), 0);
+    }
+
+    @Test
+    public void onlyUnderestimatesTest() {
+        for (int capacity = 1; capacity <= 8; capacity++) {
+            LPFM bounded = new BoundedLPFMFactory(capacity).buildLPFM(1000);
+            LPFM unbounded = new MonotonicDequeLPFM(1000);
+            Random r = new Random(capacity);
+
+            long t = 0;
+            for (int i = 0; i < 20_000; i++) {
+                t += r.nextInt(3);
+                int R = randomR(r, 27);
+                bounded.offer(t, R);
+                unbounded.offer(t, R);
+
+                // The newest entry is always kept, so the current maximum is always right
+                Assert.assertEquals(bounded.getMaxSince(t), unbounded.getMaxSince(t));
+                if (i % 100 == 0)
+                    for (long tMin = t - 1100; tMin <= t + 1; tMin += 13)
+                        Assert.assertTrue(bounded.getMaxSince(tMin) <= unbounded.getMaxSince(tMin), "capacity=" + capacity + ", i=" + i + ", tMin=" + tMin);
+            }
+        }
+    }
+
+    @Test
+    public void worstCaseSizeTest() {
+        BoundedLPFMFactory factory = new BoundedLPFMFactory(4);
+        LPFM lpfm = factory.buildLPFM(100_000);
+        long emptySize = lpfm.sizeInBytes();
+
+        // Strictly descending Rs would each be kept by an unbounded list
+        for (int i = 0; i < 127; i++) {
+            lpfm.offer(i, 127 - i);
+            Assert.assertTrue(lpfm.sizeInBytes() <= factory.maxSizeInBytes());
+        }
+        Assert.assertEquals(lpfm.sizeInBytes(), factory.maxSizeInBytes());
+
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(factory).setRsd(0.1).setWindowSize(100_000).build();
+        long maxSketchSize = shll.sizeInBytes() + 64 * (factory.maxSizeInBytes() - emptySize);
+        for (long t = 0; t < 100_000; t++) {
+            shll.offer(t, t);
+            Assert.assertTrue(shll.sizeInBytes() <= maxSketchSize);
+        }
+    }
+
+    // Mean error from bounding lists, against unbounded lists over the same offers, for horizons from 100 to the
+    // whole window. Capacity 8 also passes CardinalityTests unchanged; see BoundedLPFMCardinalityTests.
+    @Test
+    public void accuracyTest() {
+        int[] capacities = {6, 8};
+        double[] maxMeanErrors = {0.08, 0.01};
+        long[] horizons = {100, 300, 1_000, 3_000, 10_000, 30_000, 100_000, 300_000, 500_000};
+
+        double[] errorSums = new double[capacities.length];
+        int estimates = 0;
+        for (double rsd : new double[]{0.1, 0.05, 0.01}) {
+            for (boolean sawtooth : new boolean[]{true, false}) {
+                SlidingHyperLogLog unbounded = new SlidingHyperLogLog.Builder().setRsd(rsd).setWindowSize(500_000).build();
+                SlidingHyperLogLog[] bounded = new SlidingHyperLogLog[capacities.length];
+                for (int i = 0; i < capacities.length; i++)
+                    bounded[i] = new SlidingHyperLogLog.Builder().setLpfmFactory(new BoundedLPFMFactory(capacities[i])).setRsd(rsd).setWindowSize(500_000).build();
+
+                Random r = new Random(1);
+                for (long t = 0; t < 1_000_000; t++) {
+                    long value = sawtooth ? t % 200_000 : r.nextInt(1_000_000);
+                    unbounded.offer(t, value);
+                    for (SlidingHyperLogLog shll : bounded)
+                        shll.offer(t, value);
+                }
+
+                for (long horizon : horizons) {
+                    long expected = unbounded.cardinalitySince(1_000_000 - horizon);
+                    for (int i = 0; i < capacities.length; i++) {
+                        long estimate = bounded[i].cardinalitySince(1_000_000 - horizon);
+                        Assert.assertTrue(estimate <= expected, "rsd=" + rsd + ", capacity=" + capacities[i] + ", horizon=" + horizon);
+                        errorSums[i] += 1 - (double) estimate / expected;
+                    }
+                    estimates++;
+                }
+            }
+        }
+
+        for (int i = 0; i < capacities.length; i++)
+            Assert.assertTrue(errorSums[i] / estimates < maxMeanErrors[i], "capacity=" + capacities[i] + ": mean error " + errorSums[i] / estimates);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "capacity must be > 0")
+    public void zeroCapacityTest() {
+        new BoundedLPFMFactory(0);
+    }
+}
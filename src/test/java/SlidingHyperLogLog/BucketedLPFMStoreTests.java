@@ -0,0 +1,128 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class BucketedLPFMStoreTests {
+
+    private static final long WINDOW = 60_000;
+    private static final long START = 1_500_000_000_000L;
+
+    private static SlidingHyperLogLog.Builder builder() {
+        return new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05);
+    }
+
+    // Start of the bucket holding t
+    private static long roundDown(long t, long bucketWidth) {
+        return Math.floorDiv(t, bucketWidth) * bucketWidth;
+    }
+
+    @Test
+    public void matchesExactAtBucketBoundariesTest() {
+        for (int buckets : new int[]{2, 7, 61}) {
+            SlidingHyperLogLog bucketed = builder().setTimeBuckets(buckets).build();
+            SlidingHyperLogLog exact = builder().build();
+            long bucketWidth = new BucketedLPFMStore(1, WINDOW, buckets).bucketWidth();
+            Random r = new Random(buckets);
+
+            long t = START;
+            for (int i = 0; i < 300_000; i++) {
+                // Quiet spells, and timestamps slightly out of order
+                t += r.nextInt(1_000) == 0 ? r.nextInt((int) WINDOW) : r.nextInt(2);
+                long jitteredT = t - r.nextInt(3);
+                long value = r.nextInt(50_000);
+                bucketed.offer(jitteredT, value);
+                exact.offer(jitteredT, value);
+
+                if (i % 1_009 == 0) {
+                    // Any tMin in the window answers as the start of its bucket would exactly
+                    for (long tMin = t - WINDOW + bucketWidth; tMin <= t + 1; tMin += 997) {
+                        Assert.assertEquals(bucketed.cardinalitySince(tMin), exact.cardinalitySince(roundDown(tMin, bucketWidth)), "buckets=" + buckets + ", i=" + i + ", tMin=" + tMin);
+                    }
+                    long[] tMins = {t - WINDOW / 2, t};
+                    Assert.assertEquals(bucketed.cardinalitiesSince(tMins), new long[]{bucketed.cardinalitySince(tMins[0]), bucketed.cardinalitySince(tMins[1])});
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fixedMemoryTest() {
+        SlidingHyperLogLog.Builder builder = builder().setTimeBuckets(60);
+        SlidingHyperLogLog shll = builder.build();
+        long size = shll.sizeInBytes();
+        int registers = 1 << builder.b();
+        Assert.assertTrue(size >= 60 * registers, size + " bytes");
+        Assert.assertTrue(size < 60 * registers + 1_024, size + " bytes");
+
+        for (long t = START; t < START + 3 * WINDOW; t++)
+            shll.offer(t, t);
+        Assert.assertEquals(shll.sizeInBytes(), size);
+    }
+
+    @Test
+    public void oldBucketsClearedTest() {
+        SlidingHyperLogLog shll = builder().setTimeBuckets(10).build();
+
+        shll.offer(START, 1);
+        shll.offer(START, 2);
+        Assert.assertEquals(shll.cardinalitySince(START), 2);
+
+        // Older than the oldest bucket, so ignored
+        shll.offer(START - 2 * WINDOW, 3);
+        Assert.assertEquals(shll.cardinalitySince(START - 3 * WINDOW), 2);
+
+        // A window later, the first offers' bucket has been reused
+        shll.offer(START + 2 * WINDOW, 4);
+        Assert.assertEquals(shll.cardinalitySince(START - WINDOW), 1);
+
+        // Expiring moves time on without an offer
+        shll.expire(START + 4 * WINDOW);
+        Assert.assertEquals(shll.cardinalitySince(START - WINDOW), 0);
+    }
+
+    @Test
+    public void mergeAndSerializeTest() {
+        SlidingHyperLogLog a = builder().setTimeBuckets(30).build();
+        SlidingHyperLogLog b = builder().setTimeBuckets(30).build();
+        SlidingHyperLogLog both = builder().setTimeBuckets(30).build();
+        Random r = new Random(3);
+
+        long t = START;
+        for (int i = 0; i < 100_000; i++, t++) {
+            long value = r.nextInt(20_000);
+            (r.nextBoolean() ? a : b).offer(t, value);
+            both.offer(t, value);
+        }
+        a.merge(b);
+
+        ByteBuffer buffer = ByteBuffer.allocate(a.serializedSize());
+        a.writeTo(buffer);
+        buffer.flip();
+        SlidingHyperLogLog copy = SlidingHyperLogLog.readFrom(buffer, builder().setTimeBuckets(30));
+
+        for (long tMin = t - WINDOW; tMin <= t; tMin += 1_234) {
+            Assert.assertEquals(a.cardinalitySince(tMin), both.cardinalitySince(tMin), "tMin=" + tMin);
+            Assert.assertEquals(copy.cardinalitySince(tMin), both.cardinalitySince(tMin), "tMin=" + tMin);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "bucketCount is 1. It must be >= 2.")
+    public void oneBucketTest() {
+        new BucketedLPFMStoreFactory(1);
+    }
+
+    // 2^18 registers of 2^13 buckets is 2^31 bytes, one more than an array holds
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "timeBuckets is 8192. With 262144 registers it must be <= 8191, .*")
+    public void tooManyBucketsTest() {
+        new SlidingHyperLogLog.Builder().setRsd(0.002).setWindowSize(WINDOW).setTimeBuckets(8192).build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "timeBuckets is 8192. .*")
+    public void tooManyBucketsForStoreTest() {
+        new BucketedLPFMStoreFactory(8192).buildStore(1 << 18, WINDOW);
+    }
+}
@@ -0,0 +1,189 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class CardinalityCacheTests {
+
+    private static final long WINDOW = 5_000;
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true).setBiasCorrection(true)},
+        };
+    }
+
+    private static SlidingHyperLogLog build(SlidingHyperLogLog.Builder builder, boolean cached) {
+        return builder.setWindowSize(WINDOW).setRsd(0.05).setCardinalityCache(cached).build();
+    }
+
+    // Dashboard style queries for the current window, between ad-hoc ones for any tMin
+    @Test(dataProvider = "builders")
+    public void matchesUncachedTest(SlidingHyperLogLog.Builder builder) {
+        SlidingHyperLogLog cached = build(builder, true);
+        SlidingHyperLogLog uncached = build(builder, false);
+        Random r = new Random(11);
+
+        long t = 0;
+        for (int i = 0; i < 200_000; i++) {
+            // Bursts of values, quiet spells, and timestamps slightly out of order
+            t += r.nextInt(100) == 0 ? r.nextInt(3_000) : r.nextInt(2);
+            long jitteredT = t - r.nextInt(3);
+            long value = r.nextInt(i % 50_000 < 25_000 ? 100 : 20_000);
+            cached.offer(jitteredT, value);
+            uncached.offer(jitteredT, value);
+
+            if (i % 101 == 0)
+                Assert.assertEquals(cached.cardinalitySince(t - WINDOW), uncached.cardinalitySince(t - WINDOW), "i=" + i);
+            if (i % 1_009 == 0) {
+                long tMin = t - r.nextInt((int) (2 * WINDOW));
+                Assert.assertEquals(cached.cardinalitySince(tMin), uncached.cardinalitySince(tMin), "i=" + i + ", tMin=" + tMin);
+            }
+        }
+
+        // Entries keep expiring without offers
+        for (long tMin = t - WINDOW; tMin <= t + 1; tMin += 37)
+            Assert.assertEquals(cached.cardinalitySince(tMin), uncached.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    @Test
+    public void batchesAndMergesTest() {
+        SlidingHyperLogLog cached = build(new SlidingHyperLogLog.Builder(), true);
+        SlidingHyperLogLog uncached = build(new SlidingHyperLogLog.Builder(), false);
+        Random r = new Random(12);
+
+        long[] ts = new long[1000];
+        long[] values = new long[1000];
+        long t = 0;
+        for (int batch = 0; batch < 100; batch++) {
+            for (int i = 0; i < ts.length; i++) {
+                ts[i] = t++;
+                values[i] = r.nextInt(30_000);
+            }
+            cached.offerBatch(ts, values, 0, ts.length);
+            uncached.offerBatch(ts, values, 0, ts.length);
+
+            if (batch % 10 == 0) {
+                SlidingHyperLogLog other = build(new SlidingHyperLogLog.Builder(), false);
+                for (int i = 0; i < 1000; i++)
+                    other.offer(t - r.nextInt(1000), r.nextLong());
+                cached.merge(other);
+                uncached.merge(other);
+            }
+
+            Assert.assertEquals(cached.cardinalitySince(t - WINDOW), uncached.cardinalitySince(t - WINDOW), "batch=" + batch);
+        }
+    }
+
+    // Flat storage counting the registers walked by forEachEntry, which only the cache uses
+    private static final class CountingStore extends FlatLPFMStore {
+
+        int _walks;
+
+        CountingStore(int registerCount, long windowSize) {
+            super(registerCount, windowSize);
+        }
+
+        @Override
+        public void forEachEntry(int register, LPFMEntries.EntryConsumer consumer) {
+            _walks++;
+            super.forEachEntry(register, consumer);
+        }
+    }
+
+    @Test
+    public void survivesEarlierQueryTest() {
+        CountingStore[] store = new CountingStore[1];
+        SlidingHyperLogLog cached = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setCardinalityCache(true)
+                .setLpfmStoreFactory((registerCount, windowSize) -> store[0] = new CountingStore(registerCount, windowSize)).build();
+        SlidingHyperLogLog uncached = build(new SlidingHyperLogLog.Builder(), false);
+        Random r = new Random(13);
+
+        long t = 0;
+        for (; t < 3 * WINDOW; t++) {
+            long value = r.nextInt(20_000);
+            cached.offer(t, value);
+            uncached.offer(t, value);
+        }
+
+        // Building the cache walks every register once
+        Assert.assertEquals(cached.cardinalitySince(t - WINDOW / 2), uncached.cardinalitySince(t - WINDOW / 2));
+        int walks = store[0]._walks;
+
+        // An ad-hoc query for an earlier tMin goes to the store, and the cache still answers the current window
+        Assert.assertEquals(cached.cardinalitySince(t - WINDOW), uncached.cardinalitySince(t - WINDOW));
+        Assert.assertEquals(cached.cardinalitySince(t - WINDOW / 2), uncached.cardinalitySince(t - WINDOW / 2));
+        Assert.assertEquals(store[0]._walks, walks);
+    }
+
+    @Test
+    public void expireLooksUpOnlyExpiredMaximaTest() {
+        CountingStore[] store = new CountingStore[1];
+        SlidingHyperLogLog cached = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setCardinalityCache(true)
+                .setLpfmStoreFactory((registerCount, windowSize) -> store[0] = new CountingStore(registerCount, windowSize)).build();
+        SlidingHyperLogLog uncached = build(new SlidingHyperLogLog.Builder(), false);
+        Random r = new Random(14);
+
+        long t = 0;
+        for (; t < 3 * WINDOW; t++) {
+            long value = r.nextInt(20_000);
+            cached.offer(t, value);
+            uncached.offer(t, value);
+        }
+        Assert.assertEquals(cached.cardinalitySince(t - WINDOW), uncached.cardinalitySince(t - WINDOW));
+
+        // A tenth of the window expires, and with it the maxima of about a tenth of the registers
+        for (long now = t + WINDOW / 10; now <= t + WINDOW / 2; now += WINDOW / 10) {
+            int walks = store[0]._walks;
+            cached.expire(now);
+            uncached.expire(now);
+            Assert.assertEquals(cached.cardinalitySince(now - WINDOW), uncached.cardinalitySince(now - WINDOW), "now=" + now);
+            Assert.assertTrue(store[0]._walks - walks < store[0].registerCount() / 2, "now=" + now + ", walks=" + (store[0]._walks - walks));
+
+            // Horizons between the last query's and the expiry's come to the cache too
+            Assert.assertEquals(cached.cardinalitySince(now - WINDOW - WINDOW / 20), uncached.cardinalitySince(now - WINDOW - WINDOW / 20), "now=" + now);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "A cardinality cache cannot be combined with a concurrency level.")
+    public void concurrencyLevelTest() {
+        new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setCardinalityCache(true).setConcurrencyLevel(2).build();
+    }
+
+    // A full BoundedLPFM drops the oldest entry, the register's maximum since 0, to keep the newest. The cache would
+    // keep 20 for every register, and estimate 11,291,066 rather than 11,026.
+    @Test
+    public void boundedLpfmDropsMaximumTest() {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setWindowSize(100).setRsd(0.25)
+                .setLpfmFactory(new BoundedLPFMFactory(2)).build();
+        int m = 1 << 4;
+        for (int register = 0; register < m; register++) {
+            shll.offerHashed(0, register << 28 | 1 << 28 - 20);
+            shll.offerHashed(50, register << 28 | 1 << 28 - 10);
+            shll.offerHashed(99, register << 28 | 1 << 28 - 5);
+        }
+        Assert.assertEquals(shll.cardinalitySince(0), 11_026);
+
+        for (SlidingHyperLogLog.Builder builder : new SlidingHyperLogLog.Builder[]{
+                new SlidingHyperLogLog.Builder().setLpfmFactory(new BoundedLPFMFactory(2)),
+                new SlidingHyperLogLog.Builder().setLpfmFactory(new BoundedLPFMFactory(2)).setSparse(true),
+                new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new LPFMArrayStoreFactory(new BoundedLPFMFactory(2))),
+        }) {
+            try {
+                builder.setWindowSize(100).setRsd(0.25).setCardinalityCache(true).build();
+                Assert.fail("Built a cardinality cache over bounded lists");
+            }
+            catch (IllegalArgumentException e) {
+                Assert.assertEquals(e.getMessage(), "A cardinality cache cannot be combined with a BoundedLPFMFactory.");
+            }
+        }
+    }
+}
@@ -8,9 +8,13 @@ public abstract class CardinalityTests {
 
     public abstract LPFMFactory getLpfmFactory();
 
+    SlidingHyperLogLog.Builder newBuilder() {
+        return new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory());
+    }
+
     @Test
     public void mediumCardinalitySawWaveTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.01).setWindowSize(750_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, t % 132_000L);
@@ -24,7 +28,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void mediumCardinalitySawWaveTestLowRsdTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.002).setWindowSize(750_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.002).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, t % 132_000L);
@@ -40,7 +44,7 @@ public abstract class CardinalityTests {
 
     @Test(enabled = false)
     public void mediumCardinalitySawWaveTestVeryLowRsdTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.0005).setWindowSize(7500).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.0005).setWindowSize(7500).build();
 
         for (long t = 0; t < 10_000; t++)
             shll.offer(t, t % 945);
@@ -55,7 +59,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void mediumCardinalitySawWaveTestHighRsdTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.1).setWindowSize(750_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.1).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, t % 132_000L);
@@ -70,10 +74,10 @@ public abstract class CardinalityTests {
     // To test the different approximations because of rsd
     @Test
     public void approxBecauseOfMTest() {
-        SlidingHyperLogLog pOf7 = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.08).setWindowSize(6000).build();
-        SlidingHyperLogLog pOf6 = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.10).setWindowSize(6000).build();
-        SlidingHyperLogLog pOf5 = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.15).setWindowSize(6000).build();
-        SlidingHyperLogLog pOf4 = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.20).setWindowSize(6000).build();
+        SlidingHyperLogLog pOf7 = newBuilder().setRsd(0.08).setWindowSize(6000).build();
+        SlidingHyperLogLog pOf6 = newBuilder().setRsd(0.10).setWindowSize(6000).build();
+        SlidingHyperLogLog pOf5 = newBuilder().setRsd(0.15).setWindowSize(6000).build();
+        SlidingHyperLogLog pOf4 = newBuilder().setRsd(0.20).setWindowSize(6000).build();
 
         for (long t = 0; t < 9000; t++) {
             pOf7.offer(t, t);
@@ -91,7 +95,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void mediumCardinalitySawWaveSkewedTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.01).setWindowSize(750_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, (long)Math.sqrt((t % 132_000L)));
@@ -105,7 +109,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void allUniqueTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.01).setWindowSize(100_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
 
         for (long t = 0; t < 100_000; t++)
             shll.offer(t, t);
@@ -119,7 +123,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void blockedTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setLpfmFactory(getLpfmFactory()).setRsd(0.01).setWindowSize(750_000).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, (long)(t / 10));
@@ -134,7 +138,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void skewedAndBlockedTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(750_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(750_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, (long)Math.sqrt(t));
@@ -148,7 +152,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void bigUniqueWithDoublesTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
 
         for (long t = 0; t < 1_000_000; t++)
             shll.offer(t, (double)t);
@@ -162,7 +166,7 @@ public abstract class CardinalityTests {
 
     @Test(enabled = false)
     public void bigUniquePerfTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(50_000_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(50_000_000).build();
 
         for (long t = 0; t < 100_000_000; t++)
             shll.offer(t, t);
@@ -170,7 +174,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void lowCardinalityTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
 
         for (long t = 0; t < 100_000; t++)
             shll.offer(t, (int)(t % 100));
@@ -183,7 +187,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void lowCardinalityDoublesTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
 
         for (long t = 0; t < 100_000; t++)
             shll.offer(t, (double)(t % 100));
@@ -196,7 +200,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void veryLowCardinalityTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(100_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
 
         for (long t = 0; t < 100_000; t++)
             shll.offer(t, t % 10);
@@ -210,7 +214,7 @@ public abstract class CardinalityTests {
 
     @Test
     public void oneCardinalityTest() {
-        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(50_000).setLpfmFactory(getLpfmFactory()).build();
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(50_000).build();
 
         for (long t = 0; t < 100_000; t++)
             shll.offer(t, "hello");
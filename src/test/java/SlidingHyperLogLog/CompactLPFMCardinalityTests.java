@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class CompactLPFMCardinalityTests extends CardinalityTests {
+
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new CompactLPFMFactory();
+    }
+}
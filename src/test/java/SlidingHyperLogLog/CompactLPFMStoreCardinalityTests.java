@@ -0,0 +1,15 @@
+package SlidingHyperLogLog;
+
+public class CompactLPFMStoreCardinalityTests extends CardinalityTests {
+
+    // Not used once a store factory is set
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new RingBufferLPFMFactory();
+    }
+
+    @Override
+    SlidingHyperLogLog.Builder newBuilder() {
+        return super.newBuilder().setLpfmStoreFactory(new CompactLPFMStoreFactory());
+    }
+}
@@ -0,0 +1,212 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class CompactLPFMTests {
+
+    // Rs distributed as a sketch's are, 1 + the number of leading zeros of a random hash
+    private static int randomR(Random r) {
+        return Integer.numberOfLeadingZeros(r.nextInt()) + 1;
+    }
+
+    private static void assertSameEntries(LPFM actual, LPFM expected) {
+        EntryList actualEntries = new EntryList();
+        EntryList expectedEntries = new EntryList();
+        actual.forEachEntry(actualEntries);
+        expected.forEachEntry(expectedEntries);
+        Assert.assertEquals(actualEntries._size, expectedEntries._size);
+        for (int i = 0; i < expectedEntries._size; i++) {
+            Assert.assertEquals(actualEntries._ts[i], expectedEntries._ts[i]);
+            Assert.assertEquals(actualEntries._rs[i], expectedEntries._rs[i]);
+        }
+    }
+
+    @Test
+    public void matchesMonotonicDequeTest() {
+        // Starting either side of zero, and where the low 32 bits of the timestamps wrap round
+        for (long t0 : new long[]{0, -5_000, (1L << 32) - 300_000, Long.MAX_VALUE / 2}) {
+            LPFM compact = new CompactLPFMFactory().buildLPFM(100_000);
+            LPFM deque = new MonotonicDequeLPFM(100_000);
+            Random r = new Random(29);
+
+            long t = t0;
+            for (int i = 0; i < 200_000; i++) {
+                t += r.nextInt(200) == 0 ? r.nextInt(200_000) : r.nextInt(5);
+                int R = randomR(r);
+                compact.offer(t, R);
+                deque.offer(t, R);
+
+                if (i % 1_000 == 0) {
+                    assertSameEntries(compact, deque);
+                    for (long tMin = t - 110_000; tMin <= t + 1; tMin += 997)
+                        Assert.assertEquals(compact.getMaxSince(tMin), deque.getMaxSince(tMin), "t0=" + t0 + ", i=" + i + ", tMin=" + tMin);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void largestWindowTest() {
+        LPFM lpfm = new CompactLPFMFactory().buildLPFM(Integer.MAX_VALUE);
+
+        lpfm.offer(0, 20);
+        lpfm.offer(1L << 30, 10);
+        lpfm.offer(Integer.MAX_VALUE, 5);
+        Assert.assertEquals(lpfm.getMaxSince(Long.MIN_VALUE), 20);
+        Assert.assertEquals(lpfm.getMaxSince(1), 10);
+        Assert.assertEquals(lpfm.getMaxSince(Integer.MAX_VALUE), 5);
+
+        lpfm.offer(Integer.MAX_VALUE + 1L, 1);
+        Assert.assertEquals(lpfm.getMaxSince(Long.MIN_VALUE), 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "windowSize is 2147483648. It must be < 2\\^31 for CompactLPFM.")
+    public void windowTooLargeTest() {
+        new CompactLPFMFactory().buildLPFM(1L << 31);
+    }
+
+    @Test
+    public void lateOffersTest() {
+        LPFM lpfm = new CompactLPFMFactory().buildLPFM(1000);
+
+        lpfm.offer(5_000, 3);
+
+        // Within the window of the newest, so kept as any offer is
+        lpfm.offer(4_500, 7);
+        Assert.assertEquals(lpfm.getMaxSince(4_000), 7);
+
+        // More than a window older than the newest, so ignored
+        lpfm.offer(3_000, 20);
+        Assert.assertEquals(lpfm.getMaxSince(Long.MIN_VALUE), 7);
+    }
+
+    @Test
+    public void mergeAndExpireTest() {
+        LPFM a = new CompactLPFMFactory().buildLPFM(10_000);
+        LPFM b = new CompactLPFMFactory().buildLPFM(10_000);
+        LPFM expected = new MonotonicDequeLPFM(10_000);
+        Random r = new Random(31);
+
+        for (long t = 0; t < 50_000; t++) {
+            int R = randomR(r);
+            (t % 3 == 0 ? a : b).offer(t, R);
+            expected.offer(t, R);
+        }
+        a.merge(b);
+        assertSameEntries(a, expected);
+
+        long before = a.sizeInBytes();
+        Assert.assertEquals(a.expire(55_000), expected.expire(55_000));
+        assertSameEntries(a, expected);
+        Assert.assertTrue(a.sizeInBytes() <= before);
+
+        a.expire(70_000);
+        Assert.assertEquals(a.sizeInBytes(), new CompactLPFMFactory().buildLPFM(10_000).sizeInBytes());
+        Assert.assertEquals(a.getMaxSince(Long.MIN_VALUE), 0);
+    }
+
+    // Short of half on CardinalityTests' stream at rsd 0.01: 642,056 bytes against 1,271,912, 1.98x. Each register's
+    // object and array headers stay, and they are a larger share of the 5-byte entries than of the 12-byte ones.
+    @Test
+    public void nearlyHalfTheHeapTest() {
+        SlidingHyperLogLog ringBuffer = new SlidingHyperLogLog.Builder().setLpfmFactory(new RingBufferLPFMFactory()).setRsd(0.01).setWindowSize(750_000).build();
+        SlidingHyperLogLog compact = new SlidingHyperLogLog.Builder().setLpfmFactory(new CompactLPFMFactory()).setRsd(0.01).setWindowSize(750_000).build();
+        for (long t = 0; t < 1_000_000; t++) {
+            ringBuffer.offer(t, t % 132_000L);
+            compact.offer(t, t % 132_000L);
+        }
+
+        Assert.assertTrue(compact.sizeInBytes() * 1.95 < ringBuffer.sizeInBytes(), compact.sizeInBytes() + " vs " + ringBuffer.sizeInBytes());
+        for (long tMin = 0; tMin <= 1_000_000; tMin += 50_000)
+            Assert.assertEquals(compact.cardinalitySince(tMin), ringBuffer.cardinalitySince(tMin));
+    }
+
+    // On CardinalityTests' stream at b = 6, 13 and 18, where most registers hold no more than one entry
+    @Test
+    public void storeHalvesTheHeapTest() {
+        for (double rsd : new double[]{0.1, 0.01, 0.002}) {
+            SlidingHyperLogLog ringBuffer = new SlidingHyperLogLog.Builder().setLpfmFactory(new RingBufferLPFMFactory()).setRsd(rsd).setWindowSize(750_000).build();
+            SlidingHyperLogLog compact = new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new CompactLPFMStoreFactory()).setRsd(rsd).setWindowSize(750_000).build();
+            for (long t = 0; t < 1_000_000; t++) {
+                ringBuffer.offer(t, t % 132_000L);
+                compact.offer(t, t % 132_000L);
+            }
+
+            Assert.assertTrue(compact.sizeInBytes() * 2 <= ringBuffer.sizeInBytes(), "rsd " + rsd + ": " + compact.sizeInBytes() + " vs " + ringBuffer.sizeInBytes());
+            for (long tMin = 0; tMin <= 1_000_000; tMin += 50_000)
+                Assert.assertEquals(compact.cardinalitySince(tMin), ringBuffer.cardinalitySince(tMin));
+        }
+    }
+
+    @Test
+    public void storeMatchesMonotonicDequeTest() {
+        // Starting either side of zero, and where the low 32 bits of the timestamps wrap round
+        for (long t0 : new long[]{0, -5_000, (1L << 32) - 300_000, Long.MAX_VALUE / 2}) {
+            CompactLPFMStore store = new CompactLPFMStoreFactory().buildStore(16, 100_000);
+            LPFM[] deques = new LPFM[16];
+            for (int register = 0; register < 16; register++)
+                deques[register] = new MonotonicDequeLPFM(100_000);
+            Random r = new Random(29);
+
+            long t = t0;
+            for (int i = 0; i < 200_000; i++) {
+                t += r.nextInt(200) == 0 ? r.nextInt(200_000) : r.nextInt(5);
+                int register = r.nextInt(16);
+                int R = randomR(r);
+                store.offer(register, t, R);
+                deques[register].offer(t, R);
+
+                if (i % 1_000 == 0) {
+                    for (int checked = 0; checked < 16; checked++) {
+                        EntryList entries = new EntryList();
+                        store.forEachEntry(checked, entries);
+                        EntryList expected = new EntryList();
+                        deques[checked].forEachEntry(expected);
+                        Assert.assertEquals(entries._size, expected._size);
+                        for (int e = 0; e < expected._size; e++) {
+                            Assert.assertEquals(entries._ts[e], expected._ts[e]);
+                            Assert.assertEquals(entries._rs[e], expected._rs[e]);
+                        }
+                        for (long tMin = t - 110_000; tMin <= t + 1; tMin += 997)
+                            Assert.assertEquals(store.getMaxSince(checked, tMin), deques[checked].getMaxSince(tMin), "t0=" + t0 + ", i=" + i + ", tMin=" + tMin);
+                    }
+                }
+            }
+        }
+    }
+
+    // A register left alone for longer than its low 32 bits can span is swept, not decoded as recent
+    @Test
+    public void storeSweepsAncientEntriesTest() {
+        CompactLPFMStore store = new CompactLPFMStoreFactory().buildStore(4, 1000);
+
+        store.offer(0, 0, 20);
+        store.offer(1, 3L << 30, 10);
+        store.offer(1, 5L << 30, 5);
+        Assert.assertEquals(store.getMaxSince(0, Long.MIN_VALUE), 0);
+        Assert.assertEquals(store.getMaxSince(1, Long.MIN_VALUE), 5);
+
+        // More than 2^31 older than the newest, so ignored
+        store.offer(2, (5L << 30) - (1L << 31) - 1, 7);
+        Assert.assertEquals(store.getMaxSince(2, Long.MIN_VALUE), 0);
+        store.offer(2, (5L << 30) - 5_000, 7);
+        Assert.assertEquals(store.getMaxSince(2, Long.MIN_VALUE), 7);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "windowSize is 2147483648. It must be < 2\\^31 for CompactLPFMStore.")
+    public void storeWindowTooLargeTest() {
+        new CompactLPFMStoreFactory().buildStore(16, 1L << 31);
+    }
+
+    @Test
+    public void toStringTest() {
+        LPFM lpfm = new CompactLPFMFactory().buildLPFM(100);
+
+        for (int t = 0; t < 10000; t++)
+            lpfm.offer(t, t % 100 + 1);
+        Assert.assertEquals(lpfm.toString(), "_ts=[9999], _rs=[100], _newest=9999");
+    }
+}
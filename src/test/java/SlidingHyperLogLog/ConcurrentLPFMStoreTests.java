@@ -0,0 +1,59 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrentLPFMStoreTests {
+
+    @Test
+    public void stripeCountTest() {
+        Assert.assertEquals(new ConcurrentLPFMStoreFactory(new RingBufferLPFMFactory(), 1).buildStore(1024, 10).stripeCount(), 16);
+        Assert.assertEquals(new ConcurrentLPFMStoreFactory(new RingBufferLPFMFactory(), 3).buildStore(1024, 10).stripeCount(), 64);
+        Assert.assertEquals(new ConcurrentLPFMStoreFactory(new RingBufferLPFMFactory(), 8).buildStore(64, 10).stripeCount(), 64);
+    }
+
+    // Each thread offers a disjoint set of values, all at the same timestamp, so the result must match a single
+    // threaded sketch that saw every value
+    @Test
+    public void concurrentOffersTest() throws Exception {
+        int threads = 8;
+        int valuesPerThread = 50_000;
+
+        SlidingHyperLogLog concurrent = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(1000).setConcurrencyLevel(threads).build();
+        SlidingHyperLogLog expected = new SlidingHyperLogLog.Builder().setRsd(0.01).setWindowSize(1000).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?>[] futures = new Future<?>[threads];
+        for (int thread = 0; thread < threads; thread++) {
+            int first = thread * valuesPerThread;
+            futures[thread] = executor.submit(() -> {
+                start.await();
+                for (int v = first; v < first + valuesPerThread; v++)
+                    concurrent.offer(5, (long) v);
+                return null;
+            });
+        }
+        start.countDown();
+
+        // Query while offers are in flight
+        while (!futures[threads - 1].isDone())
+            Assert.assertTrue(concurrent.cardinalitySince(0) >= 0);
+
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (long v = 0; v < threads * valuesPerThread; v++)
+            expected.offer(5, v);
+
+        Assert.assertEquals(concurrent.cardinalitySince(0), expected.cardinalitySince(0));
+    }
+}
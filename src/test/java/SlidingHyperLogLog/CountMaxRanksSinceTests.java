@@ -0,0 +1,94 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class CountMaxRanksSinceTests {
+
+    private static final long WINDOW = 10_000;
+    private static final int REGISTERS = 1 << 10;
+
+    @DataProvider
+    public Object[][] stores() {
+        LPFMStoreFactory[] factories = {
+                new LPFMArrayStoreFactory(new RingBufferLPFMFactory()),
+                new LPFMArrayStoreFactory(new BoundedLPFMFactory(4)),
+                new FlatLPFMStoreFactory(),
+                new CompactLPFMStoreFactory(),
+                new SparseLPFMStoreFactory(new FlatLPFMStoreFactory()),
+                new ConcurrentLPFMStoreFactory(new MonotonicDequeLPFMFactory(), 4),
+                new BucketedLPFMStoreFactory(7),
+        };
+
+        // Few offers, which leave sparse storage sparse, and many
+        Object[][] stores = new Object[factories.length * 2][];
+        for (int i = 0; i < factories.length; i++) {
+            stores[2 * i] = new Object[]{factories[i], 200};
+            stores[2 * i + 1] = new Object[]{factories[i], 200_000};
+        }
+        return stores;
+    }
+
+    @Test(dataProvider = "stores")
+    public void matchesGetMaxSinceTest(LPFMStoreFactory factory, int offers) {
+        LPFMStore store = factory.buildStore(REGISTERS, WINDOW);
+        Random r = new Random(11);
+
+        int[] empty = new int[64];
+        store.countMaxRanksSince(0, empty, 0, REGISTERS);
+        Assert.assertEquals(empty[0], REGISTERS);
+
+        long t = 0;
+        for (int i = 0; i < offers; i++) {
+            t += r.nextInt(3);
+            store.offer(r.nextInt(REGISTERS), t, 1 + Integer.numberOfLeadingZeros(r.nextInt()));
+        }
+
+        for (long tMin : new long[]{Long.MIN_VALUE, t - WINDOW, t - WINDOW / 3, t - 10, t, t + 1}) {
+            int[] expected = new int[64];
+            for (int register = 100; register < 700; register++)
+                expected[store.getMaxSince(register, tMin)]++;
+
+            // Counted over a range, on top of what the histogram already holds
+            int[] histogram = new int[64];
+            histogram[0] = 1;
+            expected[0]++;
+            store.countMaxRanksSince(tMin, histogram, 100, 700);
+            Assert.assertEquals(histogram, expected, "tMin=" + tMin);
+        }
+    }
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true)},
+                {new SlidingHyperLogLog.Builder().setBiasCorrection(true)},
+                {new SlidingHyperLogLog.Builder().setTimeBuckets(16)},
+        };
+    }
+
+    // Estimates from the one-pass count must be the same as from the histograms cardinalitiesSince builds
+    @Test(dataProvider = "builders")
+    public void matchesHistogramEstimateTest(SlidingHyperLogLog.Builder builder) {
+        for (double rsd : new double[]{0.2, 0.02, 0.005}) {
+            SlidingHyperLogLog shll = builder.setWindowSize(WINDOW).setRsd(rsd).build();
+            Random r = new Random(3);
+
+            long t = 0;
+            for (int i = 0; i < 300_000; i++) {
+                t += r.nextInt(2);
+                shll.offer(t, r.nextInt(i < 150_000 ? 1_000_000 : 1_000));
+            }
+
+            long[] tMins = {Long.MIN_VALUE, t - WINDOW, t - WINDOW / 2, t - 100, t - 1, t, t + 1};
+            long[] cardinalities = shll.cardinalitiesSince(tMins);
+            for (int i = 0; i < tMins.length; i++)
+                Assert.assertEquals(shll.cardinalitySince(tMins[i]), cardinalities[i], "rsd=" + rsd + ", tMin=" + tMins[i]);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class ExpireTests {
+
+    private static final long WINDOW = 10_000;
+
+    // Builders, and whether an emptied sketch is as small as a new one. Sparse storage stays dense once it has moved.
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder(), true},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory()), true},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new BasicListLPFMFactory()), true},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new CompactLPFMFactory()), true},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new InlineLPFMFactory()), true},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory()), true},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new CompactLPFMStoreFactory()), true},
+                {new SlidingHyperLogLog.Builder().setSparse(true), false},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(2), true},
+                {new SlidingHyperLogLog.Builder().setCardinalityCache(true), true},
+        };
+    }
+
+    private static SlidingHyperLogLog build(SlidingHyperLogLog.Builder builder) {
+        return builder.setWindowSize(WINDOW).setRsd(0.05).build();
+    }
+
+    // Expiring as it goes must not change any estimate within the window
+    @Test(dataProvider = "builders")
+    public void matchesUnexpiredTest(SlidingHyperLogLog.Builder builder, boolean emptiesFully) {
+        SlidingHyperLogLog expiring = build(builder);
+        SlidingHyperLogLog twin = build(builder);
+        Random r = new Random(5);
+
+        long t = 0;
+        for (int i = 0; i < 100_000; i++) {
+            // Bursts of values and quiet spells
+            t += r.nextInt(200) == 0 ? r.nextInt(2 * (int) WINDOW) : r.nextInt(2);
+            long value = r.nextInt(i % 40_000 < 20_000 ? 100 : 50_000);
+            expiring.offer(t, value);
+            twin.offer(t, value);
+
+            if (i % 997 == 0) {
+                expiring.expire(t);
+                for (long tMin = t - WINDOW; tMin <= t; tMin += WINDOW / 8)
+                    Assert.assertEquals(expiring.cardinalitySince(tMin), twin.cardinalitySince(tMin), "i=" + i + ", tMin=" + tMin);
+            }
+        }
+
+        long later = t + WINDOW / 2;
+        expiring.expire(later);
+        for (long tMin = later - WINDOW; tMin <= later; tMin += WINDOW / 16)
+            Assert.assertEquals(expiring.cardinalitySince(tMin), twin.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    @Test(dataProvider = "builders")
+    public void reclaimsTest(SlidingHyperLogLog.Builder builder, boolean emptiesFully) {
+        SlidingHyperLogLog shll = build(builder);
+        long emptySize = shll.sizeInBytes();
+
+        // A burst of distinct values in one instant fills every register's list, then all of it leaves the window
+        for (int value = 0; value < 200_000; value++)
+            shll.offer(0, value);
+        shll.offer(WINDOW, 0);
+        long burstSize = shll.sizeInBytes();
+
+        long reclaimed = shll.expire(WINDOW + 1);
+        Assert.assertTrue(reclaimed > 0, "reclaimed " + reclaimed);
+        Assert.assertEquals(shll.sizeInBytes(), burstSize - reclaimed);
+        Assert.assertTrue(shll.sizeInBytes() < burstSize);
+        Assert.assertEquals(shll.cardinalitySince(1), 1);
+
+        // Once nothing is left, the sketch is back to the size of a new one
+        shll.expire(2 * WINDOW + 1);
+        Assert.assertEquals(shll.cardinalitySince(Long.MIN_VALUE), 0);
+        if (emptiesFully)
+            Assert.assertEquals(shll.sizeInBytes(), emptySize);
+
+        // And carries on as normal
+        shll.offer(3 * WINDOW, 1);
+        shll.offer(3 * WINDOW, 2);
+        Assert.assertEquals(shll.cardinalitySince(3 * WINDOW), 2);
+    }
+
+    @Test
+    public void shrinksPartlyTest() {
+        SlidingHyperLogLog shll = build(new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory()));
+
+        // Long lists from a burst, then a trickle of offers which keeps a few entries per register in the window
+        for (int value = 0; value < 200_000; value++)
+            shll.offer(0, value);
+        for (int value = 0; value < 2_000; value++)
+            shll.offer(WINDOW + value, -value);
+        long before = shll.sizeInBytes();
+        long expected = shll.cardinalitySince(WINDOW);
+
+        Assert.assertTrue(shll.expire(2 * WINDOW) > 0);
+        Assert.assertTrue(shll.sizeInBytes() < before);
+        Assert.assertEquals(shll.cardinalitySince(WINDOW), expected);
+    }
+
+    @Test
+    public void listenerTest() {
+        long[] calls = new long[3];
+        FlatLPFMStore[] store = new FlatLPFMStore[1];
+        SlidingHyperLogLog shll = build(new SlidingHyperLogLog.Builder()
+                .setLpfmStoreFactory((registerCount, windowSize) -> store[0] = new FlatLPFMStore(registerCount, windowSize))
+                .setExpiryListener((entries, bytesReclaimed) -> {
+                    calls[0]++;
+                    calls[1] += entries;
+                    calls[2] += bytesReclaimed;
+                }));
+
+        for (int value = 0; value < 1_000; value++)
+            shll.offer(0, value);
+        EntryList entries = new EntryList();
+        for (int register = 0; register < store[0].registerCount(); register++)
+            store[0].forEachEntry(register, entries);
+
+        long reclaimed = shll.expire(WINDOW + 1);
+        Assert.assertEquals(calls[0], 1);
+        Assert.assertEquals(calls[1], entries._size);
+        Assert.assertEquals(calls[2], reclaimed);
+
+        // Nothing left to expire, but still reported
+        Assert.assertEquals(shll.expire(WINDOW + 2), 0);
+        Assert.assertEquals(calls[0], 2);
+        Assert.assertEquals(calls[1], entries._size);
+
+        // Unions keep the listener
+        SlidingHyperLogLog.union(shll).expire(0);
+        Assert.assertEquals(calls[0], 3);
+    }
+}
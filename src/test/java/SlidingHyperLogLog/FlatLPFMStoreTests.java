@@ -0,0 +1,90 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class FlatLPFMStoreTests {
+
+    @Test
+    public void matchesPerRegisterLPFMsTest() {
+        int registerCount = 64;
+        FlatLPFMStore store = new FlatLPFMStoreFactory().buildStore(registerCount, 500);
+        LPFMArrayStore expected = new LPFMArrayStoreFactory(new RingBufferLPFMFactory()).buildStore(registerCount, 500);
+        Random r = new Random(1729);
+
+        for (long t = 0; t < 20_000; t++) {
+            int register = r.nextInt(registerCount);
+            int R = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+            store.offer(register, t, R);
+            expected.offer(register, t, R);
+
+            if (t % 997 == 0) {
+                for (int i = 0; i < registerCount; i++) {
+                    for (long tMin = t - 600; tMin <= t + 1; tMin += 50)
+                        Assert.assertEquals(store.getMaxSince(i, tMin), expected.getMaxSince(i, tMin), "Failed at t=" + t + ", register=" + i);
+                }
+            }
+        }
+    }
+
+    // Batches grouped by register, as a sketch groups them, with runs long enough to relocate segments
+    @Test
+    public void offerBatchTest() {
+        int registerCount = 16;
+        FlatLPFMStore store = new FlatLPFMStoreFactory().buildStore(registerCount, 500);
+        FlatLPFMStore expected = new FlatLPFMStoreFactory().buildStore(registerCount, 500);
+        Random r = new Random(7);
+
+        int[] registers = new int[1000];
+        int[] Rs = new int[1000];
+        long[] ts = new long[1000];
+        long t = 0;
+        for (int batch = 0; batch < 200; batch++) {
+            int len = 0;
+            for (int register = 0; register < registerCount; register++) {
+                long runT = t;
+                for (int i = r.nextInt(batch % 5 == 0 ? 60 : 4); i > 0; i--, len++) {
+                    runT += r.nextInt(3);
+                    registers[len] = register;
+                    Rs[len] = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+                    ts[len] = runT;
+                    expected.offer(register, runT, Rs[len]);
+                }
+            }
+            store.offerBatch(registers, Rs, ts, 0, len);
+            t += 200;
+
+            for (int register = 0; register < registerCount; register++) {
+                int j = register;
+                Assert.assertEquals(LPFMTests.entries(consumer -> store.forEachEntry(j, consumer)),
+                        LPFMTests.entries(consumer -> expected.forEachEntry(j, consumer)), "batch=" + batch);
+            }
+        }
+    }
+
+    // Long lists force segments to be relocated many times, and the arenas to be compacted
+    @Test
+    public void longListsTest() {
+        FlatLPFMStore store = new FlatLPFMStoreFactory().buildStore(8, 10_000);
+
+        for (int t = 0; t <= 20_000; t++)
+            for (int register = 0; register < 8; register++)
+                store.offer(register, t, 127 - ((t / 200) + register) % 127);
+
+        for (int register = 0; register < 8; register++) {
+            Assert.assertEquals(store.getMaxSince(register, 20_000), 127 - (100 + register) % 127);
+            Assert.assertEquals(store.getMaxSince(register, 20_001), 0);
+        }
+        Assert.assertEquals(store.getMaxSince(0, 10_000), 127 - 50);
+    }
+
+    @Test
+    public void emptyTest() {
+        FlatLPFMStore store = new FlatLPFMStoreFactory().buildStore(4, 100);
+
+        Assert.assertEquals(store.registerCount(), 4);
+        Assert.assertEquals(store.getMaxSince(3, Long.MIN_VALUE), 0);
+    }
+}
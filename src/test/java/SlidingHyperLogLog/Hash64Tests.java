@@ -0,0 +1,82 @@
+package SlidingHyperLogLog;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class Hash64Tests {
+
+    private SlidingHyperLogLog.Builder newBuilder() {
+        return new SlidingHyperLogLog.Builder().setUse64BitHash(true);
+    }
+
+    @Test
+    public void allUniqueTest() {
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(100_000).build();
+
+        for (long t = 0; t < 1_000_000; t++)
+            shll.offer(t, t);
+
+        Assert.assertEquals(shll.cardinalitySince(900_000), 100_000, 3_000);
+        Assert.assertEquals(shll.cardinalitySince(990_000), 10_000, 300);
+        Assert.assertEquals(shll.cardinalitySince(999_900), 100, 3);
+        Assert.assertEquals(shll.cardinalitySince(1_000_000), 0);
+    }
+
+    // Estimates far beyond what 32-bit hashes can count
+    @Test
+    public void beyondThirtyTwoBitsTest() {
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.01).setWindowSize(1000).build();
+        Random r = new Random(1729);
+
+        // Pretend 2^40 distinct values were offered, by sampling each register's maximum rank over its share of them
+        int b = 14;
+        double perRegister = Math.pow(2, 40 - b);
+        for (int j = 0; j < (1 << b); j++) {
+            double x = -Math.expm1(Math.log(r.nextDouble()) / perRegister);
+            int rank = (int) Math.ceil(-Math.log(x) / Math.log(2));
+            long hash = ((long) j << (64 - b)) | (1L << (64 - b - rank));
+            shll.offerHashed(0, hash);
+        }
+
+        Assert.assertEquals(shll.cardinalitySince(0) / (double) (1L << 40), 1.0, 0.1);
+    }
+
+    @Test
+    public void maximumRankTest() {
+        SlidingHyperLogLog shll = newBuilder().setRsd(0.2).setWindowSize(1000).build();
+
+        shll.offerHashed(0, 0L);
+
+        Assert.assertTrue(shll.cardinalitySince(0) > 0);
+    }
+
+    @Test
+    public void offersMatchGuavaTest() {
+        HashFunction guava128 = Hashing.murmur3_128(1729);
+        SlidingHyperLogLog offered = newBuilder().setRsd(0.02).setWindowSize(1000).build();
+        SlidingHyperLogLog hashed = newBuilder().setRsd(0.02).setWindowSize(1000).build();
+
+        for (long t = 0; t < 5000; t++) {
+            offered.offer(t, t);
+            hashed.offerHashed(t, guava128.hashLong(t).asLong());
+            offered.offer(t, (int) t);
+            hashed.offerHashed(t, guava128.hashInt((int) t).asLong());
+        }
+
+        Assert.assertEquals(offered.cardinalitySince(4000), hashed.cardinalitySince(4000));
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Sketch uses 64-bit hashes")
+    public void thirtyTwoBitHashRejectedTest() {
+        newBuilder().setRsd(0.1).setWindowSize(10).build().offerHashed(0, 1);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Sketch uses 32-bit hashes")
+    public void sixtyFourBitHashRejectedTest() {
+        new SlidingHyperLogLog.Builder().setRsd(0.1).setWindowSize(10).build().offerHashed(0, 1L);
+    }
+}
@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class InlineLPFMCardinalityTests extends CardinalityTests {
+
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new InlineLPFMFactory();
+    }
+}
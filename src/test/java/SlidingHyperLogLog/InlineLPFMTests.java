@@ -0,0 +1,151 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class InlineLPFMTests {
+
+    // Rs distributed as a sketch's are, 1 + the number of leading zeros of a random hash
+    private static int randomR(Random r) {
+        return Integer.numberOfLeadingZeros(r.nextInt()) + 1;
+    }
+
+    private static void assertSameEntries(LPFM actual, LPFM expected) {
+        EntryList actualEntries = new EntryList();
+        EntryList expectedEntries = new EntryList();
+        actual.forEachEntry(actualEntries);
+        expected.forEachEntry(expectedEntries);
+        Assert.assertEquals(actualEntries._size, expectedEntries._size);
+        for (int i = 0; i < expectedEntries._size; i++) {
+            Assert.assertEquals(actualEntries._ts[i], expectedEntries._ts[i]);
+            Assert.assertEquals(actualEntries._rs[i], expectedEntries._rs[i]);
+        }
+    }
+
+    @Test
+    public void matchesMonotonicDequeTest() {
+        // Starting either side of zero, and where the low 32 bits of the timestamps wrap round
+        for (long t0 : new long[]{0, -5_000, (1L << 32) - 300_000, Long.MAX_VALUE / 2}) {
+            LPFM inline = new InlineLPFMFactory().buildLPFM(1_000);
+            LPFM deque = new MonotonicDequeLPFM(1_000);
+            Random r = new Random(37);
+
+            // Mostly short lists, spilling and moving back inline
+            long t = t0;
+            for (int i = 0; i < 200_000; i++) {
+                t += r.nextInt(50) == 0 ? r.nextInt(2_000) : r.nextInt(100);
+                int R = randomR(r);
+                inline.offer(t, R);
+                deque.offer(t, R);
+
+                if (i % 97 == 0) {
+                    long now = t + r.nextInt(1_000);
+                    Assert.assertEquals(inline.expire(now), deque.expire(now));
+                }
+
+                if (i % 101 == 0) {
+                    assertSameEntries(inline, deque);
+                    for (long tMin = t - 1_100; tMin <= t + 1; tMin += 37)
+                        Assert.assertEquals(inline.getMaxSince(tMin), deque.getMaxSince(tMin), "t0=" + t0 + ", i=" + i + ", tMin=" + tMin);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void spillAndMoveBackTest() {
+        LPFM lpfm = new InlineLPFMFactory().buildLPFM(100);
+        long empty = lpfm.sizeInBytes();
+
+        // Two entries stay inline
+        lpfm.offer(0, 3);
+        lpfm.offer(10, 2);
+        Assert.assertEquals(lpfm.sizeInBytes(), empty);
+        Assert.assertEquals(lpfm.toString(), "_ts=[0, 10], _rs=[3, 2], _newest=10, spilled=false");
+
+        // A third spills
+        lpfm.offer(20, 1);
+        Assert.assertTrue(lpfm.sizeInBytes() > empty);
+        Assert.assertEquals(lpfm.toString(), "_ts=[0, 10, 20], _rs=[3, 2, 1], _newest=20, spilled=true");
+        Assert.assertEquals(lpfm.getMaxSince(5), 2);
+
+        // Expiring down to two moves them back
+        Assert.assertEquals(lpfm.expire(105), 1);
+        Assert.assertEquals(lpfm.sizeInBytes(), empty);
+        Assert.assertEquals(lpfm.toString(), "_ts=[10, 20], _rs=[2, 1], _newest=20, spilled=false");
+
+        // An offer leaving one keeps the array, until expired
+        lpfm.offer(30, 5);
+        lpfm.offer(40, 4);
+        lpfm.offer(50, 3);
+        Assert.assertEquals(lpfm.toString(), "_ts=[30, 40, 50], _rs=[5, 4, 3], _newest=50, spilled=true");
+        lpfm.offer(60, 6);
+        Assert.assertEquals(lpfm.toString(), "_ts=[60], _rs=[6], _newest=60, spilled=true");
+        Assert.assertEquals(lpfm.expire(60), 0);
+        Assert.assertEquals(lpfm.toString(), "_ts=[60], _rs=[6], _newest=60, spilled=false");
+        Assert.assertEquals(lpfm.sizeInBytes(), empty);
+
+        Assert.assertEquals(lpfm.expire(200), 1);
+        Assert.assertEquals(lpfm.getMaxSince(Long.MIN_VALUE), 0);
+    }
+
+    @Test
+    public void mergeTest() {
+        LPFM a = new InlineLPFMFactory().buildLPFM(10_000);
+        LPFM b = new InlineLPFMFactory().buildLPFM(10_000);
+
+        // Small enough to stay inline
+        a.offer(0, 5);
+        b.offer(1, 4);
+        a.merge(b);
+        Assert.assertEquals(a.toString(), "_ts=[0, 1], _rs=[5, 4], _newest=1, spilled=false");
+
+        // Spilled by a merge
+        LPFM expected = new MonotonicDequeLPFM(10_000);
+        expected.offer(0, 5);
+        expected.offer(1, 4);
+        Random r = new Random(41);
+        for (long t = 2; t < 50_000; t++) {
+            int R = randomR(r);
+            b.offer(t, R);
+            expected.offer(t, R);
+        }
+        a.merge(b);
+        assertSameEntries(a, expected);
+
+        // Merging into a spilled list, and nothing to merge
+        LPFM c = new InlineLPFMFactory().buildLPFM(10_000);
+        c.offer(49_999, 40);
+        expected.offer(49_999, 40);
+        a.merge(c);
+        a.merge(new InlineLPFMFactory().buildLPFM(10_000));
+        assertSameEntries(a, expected);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "windowSize is 2147483648. It must be < 2\\^31 for InlineLPFM.")
+    public void windowTooLargeTest() {
+        new InlineLPFMFactory().buildLPFM(1L << 31);
+    }
+
+    @Test
+    public void smallerHeapTest() {
+        SlidingHyperLogLog.Builder builder = new SlidingHyperLogLog.Builder().setWindowSize(750_000);
+        // As in CardinalityTests, at a precision where most registers hold a handful of entries, and one where most
+        // hold none or one
+        for (double rsd : new double[]{0.01, 0.002}) {
+            SlidingHyperLogLog ringBuffer = builder.setLpfmFactory(new RingBufferLPFMFactory()).setRsd(rsd).build();
+            SlidingHyperLogLog inline = builder.setLpfmFactory(new InlineLPFMFactory()).build();
+            for (long t = 0; t < 1_000_000; t++) {
+                ringBuffer.offer(t, t % 132_000L);
+                inline.offer(t, t % 132_000L);
+            }
+
+            Assert.assertTrue(inline.sizeInBytes() * 1.4 < ringBuffer.sizeInBytes(), inline.sizeInBytes() + " vs " + ringBuffer.sizeInBytes());
+            for (long tMin = 0; tMin <= 1_000_000; tMin += 50_000)
+                Assert.assertEquals(inline.cardinalitySince(tMin), ringBuffer.cardinalitySince(tMin));
+        }
+    }
+}
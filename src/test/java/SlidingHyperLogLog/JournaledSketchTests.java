@@ -0,0 +1,297 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+public class JournaledSketchTests {
+
+    private static final long WINDOW = 10_000;
+    private static final long START = 1_500_000_000_000L;
+
+    private static SlidingHyperLogLog.Builder sketchBuilder(boolean hash64) {
+        return new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setUse64BitHash(hash64);
+    }
+
+    // Small chunks, so that the journal spans many of them
+    private static JournaledSketch.Builder journalBuilder(boolean hash64, int checkpointInterval) {
+        return new JournaledSketch.Builder()
+                .setSketchBuilder(sketchBuilder(hash64))
+                .setSyncInterval(100)
+                .setCheckpointInterval(checkpointInterval)
+                .setChunkSize(4096);
+    }
+
+    // Offers a value a millisecond to both, returning the next timestamp
+    private static long offer(JournaledSketch journaled, SlidingHyperLogLog expected, long t, int events, Random r) {
+        for (int i = 0; i < events; i++, t++) {
+            long value = r.nextInt(50_000);
+            journaled.offer(t, value);
+            expected.offer(t, value);
+        }
+        return t;
+    }
+
+    private static void assertSameEstimates(JournaledSketch journaled, SlidingHyperLogLog expected, long t) {
+        for (long tMin = t - WINDOW; tMin <= t + 1; tMin += WINDOW / 20)
+            Assert.assertEquals(journaled.cardinalitySince(tMin), expected.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    @DataProvider
+    public Object[][] hashSizes() {
+        return new Object[][]{{false}, {true}};
+    }
+
+    @Test(dataProvider = "hashSizes")
+    public void recoverAfterCloseTest(boolean hash64) throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(hash64).build();
+            Random r = new Random(1);
+            long t;
+            try (JournaledSketch journaled = journalBuilder(hash64, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 0);
+                t = offer(journaled, expected, START, 5_000, r);
+                Assert.assertEquals(journaled.journalLength(), 5_000);
+            }
+
+            // Nothing checkpointed, so all replayed, then checkpointed
+            try (JournaledSketch journaled = journalBuilder(hash64, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 5_000);
+                Assert.assertEquals(journaled.journalLength(), 0);
+                assertSameEstimates(journaled, expected, t);
+                t = offer(journaled, expected, t, 1_000, r);
+            }
+
+            try (JournaledSketch journaled = journalBuilder(hash64, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 1_000);
+                assertSameEstimates(journaled, expected, t);
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test(dataProvider = "hashSizes")
+    public void checkpointAndTailTest(boolean hash64) throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(hash64).build();
+            Random r = new Random(2);
+
+            // Two checkpoints, then a tail of 500. Not closed, as after a crash, but synced.
+            JournaledSketch crashed = journalBuilder(hash64, 1_000).open(directory);
+            long t = offer(crashed, expected, START, 2_500, r);
+            Assert.assertEquals(crashed.journalLength(), 500);
+            Assert.assertTrue(Files.exists(directory.resolve(JournaledSketch.CHECKPOINT_FILE)));
+            Assert.assertFalse(Files.exists(directory.resolve(JournaledSketch.CHECKPOINT_TEMP_FILE)));
+            crashed.sync();
+
+            try (JournaledSketch journaled = journalBuilder(hash64, 1_000).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 500);
+                assertSameEstimates(journaled, expected, t);
+            }
+            crashed.close();
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void tornRecordTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(false).build();
+            SlidingHyperLogLog all = sketchBuilder(false).build();
+            Random r = new Random(3);
+            long t;
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                t = offer(journaled, expected, START, 300, r);
+                offer(journaled, all, t, 300, r);
+            }
+
+            // Record 300 is torn, so replay stops there, although the records after it are whole
+            int recordSize = Long.BYTES + Integer.BYTES + Integer.BYTES;
+            try (FileChannel channel = FileChannel.open(directory.resolve(JournaledSketch.JOURNAL_FILE), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(new byte[]{0x55}), JournaledSketch.HEADER_SIZE + 300L * recordSize + 9);
+            }
+
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 300);
+                assertSameEstimates(journaled, expected, t);
+            }
+
+            // The records after the torn one are never replayed, even once new records are appended before them
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 0);
+                offer(journaled, expected, t, 10, r);
+            }
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 10);
+                assertSameEstimates(journaled, expected, t + 10);
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void staleRecordsTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(true).build();
+            Random r = new Random(4);
+            long t;
+            try (JournaledSketch journaled = journalBuilder(true, 1 << 20).open(directory)) {
+                t = offer(journaled, expected, START, 1_000, r);
+                journaled.checkpoint();
+                Assert.assertEquals(journaled.journalLength(), 0);
+                t = offer(journaled, expected, t, 10, r);
+            }
+
+            // Only the 10 since the checkpoint, not the 990 of the earlier generation after them
+            try (JournaledSketch journaled = journalBuilder(true, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 10);
+                assertSameEstimates(journaled, expected, t);
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void windowTruncationTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(false).build();
+            Random r = new Random(5);
+            long t;
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                t = offer(journaled, expected, START, 5 * (int) WINDOW, r);
+            }
+
+            // Records older than a window before the newest are skipped, and estimates within the window unchanged
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 5 * (int) WINDOW);
+                assertSameEstimates(journaled, expected, t);
+
+                // Nothing older kept either
+                expected.expire(t - 1);
+                Assert.assertEquals(journaled.cardinalitySince(START), expected.cardinalitySince(START));
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void mergeTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            SlidingHyperLogLog expected = sketchBuilder(false).build();
+            SlidingHyperLogLog other = sketchBuilder(false).build();
+            Random r = new Random(6);
+            long t;
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                t = offer(journaled, expected, START, 1_000, r);
+                for (int i = 0; i < 1_000; i++)
+                    other.offer(t - i, r.nextLong());
+                journaled.merge(other);
+                expected.merge(other);
+                Assert.assertEquals(journaled.journalLength(), 0);
+            }
+
+            try (JournaledSketch journaled = journalBuilder(false, 1 << 20).open(directory)) {
+                Assert.assertEquals(journaled.replayed(), 0);
+                assertSameEstimates(journaled, expected, t);
+                SlidingHyperLogLog copy = journaled.copy(sketchBuilder(false));
+                Assert.assertEquals(copy.cardinalitySince(START), expected.cardinalitySince(START));
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    // Opens a journaled sketch created with the first builder with the second
+    private static void reopen(JournaledSketch.Builder created, JournaledSketch.Builder reopened, boolean checkpoint) throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            try (JournaledSketch journaled = created.open(directory)) {
+                journaled.offer(START, 1);
+                if (checkpoint)
+                    journaled.checkpoint();
+            }
+            if (checkpoint)
+                Files.delete(directory.resolve(JournaledSketch.JOURNAL_FILE));
+            reopened.open(directory).close();
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Journal holds a sketch with b=.*, windowSize=10000, .*")
+    public void otherWindowSizeTest() throws IOException {
+        reopen(journalBuilder(false, 1 << 20), journalBuilder(false, 1 << 20).setSketchBuilder(sketchBuilder(false).setWindowSize(WINDOW * 2)), false);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Checkpoint holds a sketch with .*use64BitHash=false, but the builder has .*use64BitHash=true")
+    public void checkpointOtherHashSizeTest() throws IOException {
+        reopen(journalBuilder(false, 1 << 20), journalBuilder(true, 1 << 20), true);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Not a sketch journal")
+    public void notAJournalTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try {
+            Files.write(directory.resolve(JournaledSketch.JOURNAL_FILE), new byte[JournaledSketch.HEADER_SIZE]);
+            journalBuilder(false, 1 << 20).open(directory).close();
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Please set a sketch builder")
+    public void noSketchBuilderTest() throws IOException {
+        new JournaledSketch.Builder().open(Files.createTempDirectory("journaled-sketch"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "syncInterval must be > 0")
+    public void syncIntervalTest() {
+        new JournaledSketch.Builder().setSyncInterval(0);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void offerWrongHashSizeTest() throws IOException {
+        Path directory = Files.createTempDirectory("journaled-sketch");
+        try (JournaledSketch journaled = journalBuilder(true, 1 << 20).open(directory)) {
+            journaled.offerHashed(START, 1);
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
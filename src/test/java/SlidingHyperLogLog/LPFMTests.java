@@ -3,6 +3,8 @@ package SlidingHyperLogLog;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 
 public abstract class LPFMTests {
@@ -23,6 +25,51 @@ public abstract class LPFMTests {
         Assert.assertEquals(lpfm.getMaxSince(20001), 0);
     }
 
+    @Test
+    public void entryCountTest() {
+        LPFM lpfm = getLPFMFactory().buildLPFM(1000);
+        Assert.assertEquals(lpfm.entryCount(), 0);
+
+        Random r = new Random(7);
+        for(int i = 0; i < 5000; i++) {
+            lpfm.offer(i, r.nextInt(20));
+            int[] entries = new int[1];
+            lpfm.forEachEntry((timestamp, R) -> entries[0]++);
+            Assert.assertEquals(lpfm.entryCount(), entries[0]);
+            Assert.assertTrue(lpfm.entryCapacity() >= lpfm.entryCount());
+        }
+    }
+
+    static List<String> entries(LPFMEntries lpfm) {
+        List<String> entries = new ArrayList<>();
+        lpfm.forEachEntry((timestamp, R) -> entries.add(timestamp + ":" + R));
+        return entries;
+    }
+
+    @Test
+    public void offerRunTest() {
+        LPFM sequential = getLPFMFactory().buildLPFM(100);
+        LPFM runs = getLPFMFactory().buildLPFM(100);
+        Random r = new Random(11);
+
+        // Runs from 1 to 400 entries, some with equal timestamps and some spanning more than a window, at an offset
+        // into the arrays
+        int[] Rs = new int[405];
+        long[] ts = new long[408];
+        long t = 0;
+        for (int run = 0; run < 3000; run++) {
+            int len = 1 + r.nextInt(run % 10 == 0 ? 400 : 8);
+            for (int i = 5; i < 5 + len; i++) {
+                t += r.nextInt(4) == 0 ? 0 : r.nextInt(run % 7 == 0 ? 50 : 3);
+                ts[3 + i] = t;
+                Rs[i] = r.nextInt(20);
+                sequential.offer(t, Rs[i]);
+            }
+            runs.offerRun(Rs, ts, 3, 5, 5 + len);
+            Assert.assertEquals(entries(runs), entries(sequential), "run=" + run);
+        }
+    }
+
     @Test
     public void sawWaveRTest() {
         LPFM lpfm = getLPFMFactory().buildLPFM(1000);
@@ -155,4 +202,62 @@ public abstract class LPFMTests {
         Assert.assertEquals(lpfm.getMaxSince(20000), 10);
         Assert.assertEquals(lpfm.getMaxSince(20001), 0);
     }
+
+    @Test
+    public void mergeMatchesSingleListTest() {
+
+        for (int trial = 0; trial < 50; trial++) {
+            Random r = new Random(trial + 271);
+
+            // Every other trial merges in a different LPFM implementation
+            LPFM lpfm = getLPFMFactory().buildLPFM(1000);
+            LPFM other = trial % 2 == 0 ? getLPFMFactory().buildLPFM(1000) : new BasicListLPFM(1000);
+            LPFM expected = new BasicListLPFM(1000);
+
+            long t = 0;
+            for (int i = 0; i < r.nextInt(3000); i++) {
+                t += r.nextInt(3);
+                int R = r.nextInt(20);
+                (r.nextBoolean() ? lpfm : other).offer(t, R);
+                expected.offer(t, R);
+            }
+
+            lpfm.merge(other);
+
+            for (long tMin = t - 1100; tMin <= t + 1; tMin += 7)
+                Assert.assertEquals(lpfm.getMaxSince(tMin), expected.getMaxSince(tMin), "Failed at trial " + trial);
+
+            // Offers continue as normal after a merge
+            for (int i = 0; i < 500; i++) {
+                t += r.nextInt(3);
+                int R = r.nextInt(20);
+                lpfm.offer(t, R);
+                expected.offer(t, R);
+            }
+
+            for (long tMin = t - 1100; tMin <= t + 1; tMin += 7)
+                Assert.assertEquals(lpfm.getMaxSince(tMin), expected.getMaxSince(tMin), "Failed after offers at trial " + trial);
+        }
+    }
+
+    @Test
+    public void mergeOldEntriesTest() {
+        LPFM lpfm = getLPFMFactory().buildLPFM(1000);
+        LPFM old = getLPFMFactory().buildLPFM(1000);
+
+        old.offer(100, 50);
+        old.offer(2000, 40);
+        lpfm.offer(2800, 5);
+
+        // Only entries within the window of the newest survive
+        lpfm.merge(old);
+        Assert.assertEquals(lpfm.getMaxSince(0), 40);
+        Assert.assertEquals(lpfm.getMaxSince(2001), 5);
+
+        // Merging into an empty list copies it
+        LPFM empty = getLPFMFactory().buildLPFM(1000);
+        empty.merge(lpfm);
+        Assert.assertEquals(empty.getMaxSince(0), 40);
+        Assert.assertEquals(empty.getMaxSince(2001), 5);
+    }
 }
@@ -0,0 +1,67 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LargeRangeTests {
+
+    private static final double TWO_TO_THE_32 = Math.pow(2, 32);
+
+    // 16 registers of 32-bit hashes, each with the given rank
+    private static SlidingHyperLogLog withRanks(int rank) {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.25).setWindowSize(1000).build();
+        for (int j = 0; j < 16; j++)
+            shll.offerHashed(0, j << 28 | (rank <= 28 ? 1 << (28 - rank) : 0));
+        return shll;
+    }
+
+    // The raw estimate of 16 registers of one rank, alpha * m^2 / (m * 2^-rank)
+    private static double rawEstimate(int rank) {
+        return 0.673 * 16 * Math.pow(2, rank);
+    }
+
+    @Test
+    public void belowCorrectionTest() {
+        // 9.0e7, below 2^32 / 30 at 1.4e8, so uncorrected
+        Assert.assertTrue(rawEstimate(23) < TWO_TO_THE_32 / 30);
+        Assert.assertEquals(withRanks(23).cardinalitySince(0), Math.round(rawEstimate(23)));
+    }
+
+    @Test
+    public void aboveCorrectionTest() {
+        // 1.8e8, above 2^32 / 30, so corrected upwards for collisions
+        double raw = rawEstimate(24);
+        Assert.assertTrue(raw > TWO_TO_THE_32 / 30);
+        long estimate = withRanks(24).cardinalitySince(0);
+        Assert.assertEquals(estimate, Math.round(-TWO_TO_THE_32 * Math.log(1 - raw / TWO_TO_THE_32)));
+        Assert.assertTrue(estimate > raw);
+    }
+
+    @Test
+    public void correctionThresholdTest() {
+        // Little more than the raw estimate either side of 2^32 / 30
+        double threshold = TWO_TO_THE_32 / 30;
+        Assert.assertEquals(SlidingHyperLogLog.largeRangeEstimate(threshold) / threshold, 1.0, 0.02);
+        Assert.assertEquals(SlidingHyperLogLog.largeRangeEstimate(Math.nextUp(threshold)) / threshold, 1.0, 0.02);
+    }
+
+    @Test
+    public void twoToThe32Test() {
+        Assert.assertTrue(SlidingHyperLogLog.largeRangeEstimate(Math.nextDown(TWO_TO_THE_32)) > 20 * TWO_TO_THE_32);
+        Assert.assertEquals(SlidingHyperLogLog.largeRangeEstimate(TWO_TO_THE_32), Long.MAX_VALUE);
+        Assert.assertEquals(SlidingHyperLogLog.largeRangeEstimate(1.44 * TWO_TO_THE_32), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void saturatedTest() {
+        // Every register at the maximum rank gives a raw estimate of 1.35 * 2^32
+        Assert.assertTrue(rawEstimate(29) > TWO_TO_THE_32);
+        Assert.assertEquals(withRanks(29).cardinalitySince(0), Long.MAX_VALUE);
+
+        // Still past 2^32 with one register a rank short of it, at 1.27 * 2^32
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.25).setWindowSize(1000).build();
+        for (int j = 0; j < 16; j++)
+            shll.offerHashed(0, j << 28 | (j == 0 ? 1 : 0));
+        Assert.assertEquals(shll.cardinalitySince(0), Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,244 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class LateOfferTests {
+
+    private static final long WINDOW = 10_000;
+
+    @DataProvider
+    public Object[][] factories() {
+        return new Object[][]{
+                {new RingBufferLPFMFactory()},
+                {new MonotonicDequeLPFMFactory()},
+                {new BasicListLPFMFactory()},
+                {new CompactLPFMFactory()},
+                {new InlineLPFMFactory()},
+                // Room for every possible R, so never full
+                {new BoundedLPFMFactory(40)},
+        };
+    }
+
+    // Offers to one register, a few of them late by up to lateness, in arrival order
+    private static long[][] offers(int count, long lateness, long seed) {
+        Random r = new Random(seed);
+        long[] ts = new long[count];
+        long[] rs = new long[count];
+        long t = 0;
+        for (int i = 0; i < count; i++) {
+            t += r.nextInt(20);
+            ts[i] = r.nextInt(4) == 0 ? t - r.nextInt((int) lateness + 1) : t;
+            rs[i] = Integer.numberOfLeadingZeros(r.nextInt()) + 1;
+        }
+        return new long[][]{ts, rs};
+    }
+
+    // The largest R of the first count offers since tMin
+    private static int maxSince(long[][] offers, int count, long tMin) {
+        int max = 0;
+        for (int i = 0; i < count; i++) {
+            if (offers[0][i] >= tMin)
+                max = Math.max(max, (int) offers[1][i]);
+        }
+        return max;
+    }
+
+    @Test(dataProvider = "factories")
+    public void matchesAllOffersTest(LPFMFactory factory) {
+        LPFM lpfm = factory.buildLPFM(WINDOW);
+        long[][] offers = offers(20_000, 500, 43);
+
+        long newest = Long.MIN_VALUE;
+        for (int i = 0; i < offers[0].length; i++) {
+            lpfm.offerLate(offers[0][i], (int) offers[1][i]);
+            newest = Math.max(newest, offers[0][i]);
+
+            if (i % 500 == 0) {
+                for (long tMin = newest - WINDOW; tMin <= newest + 1; tMin += 97)
+                    Assert.assertEquals(lpfm.getMaxSince(tMin), maxSince(offers, i + 1, tMin), "i=" + i + ", tMin=" + tMin);
+            }
+        }
+    }
+
+    @Test(dataProvider = "factories")
+    public void keepsEntriesOrderedTest(LPFMFactory factory) {
+        LPFM lpfm = factory.buildLPFM(WINDOW);
+        long[][] offers = offers(5_000, 2_000, 47);
+
+        for (int i = 0; i < offers[0].length; i++) {
+            lpfm.offerLate(offers[0][i], (int) offers[1][i]);
+
+            EntryList entries = new EntryList();
+            lpfm.forEachEntry(entries);
+            for (int j = 1; j < entries._size; j++) {
+                Assert.assertTrue(entries._ts[j - 1] <= entries._ts[j], "i=" + i + ": " + lpfm);
+                Assert.assertTrue(entries._rs[j - 1] > entries._rs[j], "i=" + i + ": " + lpfm);
+            }
+        }
+    }
+
+    @Test(dataProvider = "factories")
+    public void insertsInPlaceTest(LPFMFactory factory) {
+        {
+            LPFM lpfm = factory.buildLPFM(100);
+            lpfm.offer(10, 9);
+            lpfm.offer(20, 7);
+            lpfm.offer(30, 5);
+            lpfm.offer(40, 3);
+
+            // Dominated by the entry at 20
+            lpfm.offerLate(15, 7);
+            // Drops the entry at 20, and the one at 30 with the same timestamp
+            lpfm.offerLate(30, 8);
+            // Fills the gap, growing a full buffer
+            lpfm.offerLate(35, 4);
+            lpfm.offerLate(38, 2);
+            // More than a window older than the newest
+            lpfm.offerLate(-70, 20);
+
+            EntryList entries = new EntryList();
+            lpfm.forEachEntry(entries);
+            Assert.assertEquals(Arrays.copyOf(entries._ts, entries._size), new long[]{10, 30, 35, 40});
+            Assert.assertEquals(Arrays.copyOf(entries._rs, entries._size), new int[]{9, 8, 4, 3});
+
+            // And offers in order carry on as before
+            lpfm.offer(50, 4);
+            Assert.assertEquals(lpfm.getMaxSince(31), 4);
+            Assert.assertEquals(lpfm.getMaxSince(11), 8);
+        }
+    }
+
+    // A full bounded list makes room for a late entry, but never by dropping the newest
+    @Test
+    public void boundedKeepsNewestTest() {
+        LPFM lpfm = new BoundedLPFMFactory(3).buildLPFM(100);
+        lpfm.offer(10, 9);
+        lpfm.offer(20, 7);
+        lpfm.offer(30, 3);
+
+        lpfm.offerLate(25, 5);
+        Assert.assertEquals(lpfm.entryCount(), 3);
+        Assert.assertEquals(lpfm.getMaxSince(30), 3);
+        Assert.assertEquals(lpfm.getMaxSince(21), 5);
+
+        LPFM one = new BoundedLPFMFactory(1).buildLPFM(100);
+        one.offer(10, 3);
+        one.offerLate(5, 9);
+        Assert.assertEquals(one.getMaxSince(0), 3);
+    }
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new CompactLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new InlineLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new BoundedLPFMFactory(40))},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true)},
+        };
+    }
+
+    // With out of order offers, the same estimates as from the same offers in timestamp order
+    @Test(dataProvider = "builders")
+    public void matchesInOrderSketchTest(SlidingHyperLogLog.Builder builder) {
+        long lateness = 3_000;
+        SlidingHyperLogLog inOrder = builder.setWindowSize(WINDOW).setRsd(0.02).setAllowedLateness(0).build();
+        SlidingHyperLogLog late = builder.setAllowedLateness(lateness).build();
+
+        int count = 200_000;
+        long[] ts = new long[count];
+        long[] values = new long[count];
+        Random r = new Random(53);
+        long t = 0;
+        for (int i = 0; i < count; i++) {
+            t += r.nextInt(2);
+            ts[i] = r.nextInt(10) == 0 ? t - r.nextInt((int) lateness + 1) : t;
+            values[i] = r.nextInt(50_000);
+        }
+
+        // A sorted copy for the in order sketch, stable so equal timestamps keep arrival order
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(ts[a], ts[b]));
+
+        int applied = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % 2 == 0)
+                late.offer(ts[i], values[i]);
+            else
+                late.offerBatch(ts, values, i, 1);
+
+            if (i % 20_000 == 19_999) {
+                // Everything up to lateness before the newest is final, so compare as of then
+                long newest = Arrays.stream(ts, 0, i + 1).max().getAsLong();
+                long horizon = newest - lateness;
+                SlidingHyperLogLog expected = builder.setAllowedLateness(0).build();
+                for (int j : order) {
+                    if (j <= i)
+                        expected.offer(ts[j], values[j]);
+                }
+                for (long tMin = horizon - WINDOW + lateness; tMin <= newest; tMin += 1_000)
+                    Assert.assertEquals(late.cardinalitySince(tMin), expected.cardinalitySince(tMin), "i=" + i + ", tMin=" + tMin);
+                applied++;
+            }
+        }
+        Assert.assertEquals(applied, 10);
+        Assert.assertEquals(late.lateOffersDropped(), 0);
+
+        for (int i : order)
+            inOrder.offer(ts[i], values[i]);
+        Assert.assertEquals(late.cardinalitySince(t - WINDOW / 2), inOrder.cardinalitySince(t - WINDOW / 2));
+    }
+
+    @Test
+    public void dropsLaterThanAllowedTest() {
+        SlidingHyperLogLog sketch = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setAllowedLateness(100).build();
+
+        sketch.offer(1_000, 1L);
+        sketch.offer(900, 2L);
+        sketch.offer(899, 3L);
+        sketch.offer(1_500, 4L);
+        sketch.offer(1_399, 5L);
+        sketch.offer(1_400, 6L);
+
+        Assert.assertEquals(sketch.lateOffersDropped(), 2);
+        Assert.assertEquals(sketch.cardinalitySince(0), 4);
+        Assert.assertEquals(sketch.cardinalitySince(1_000), 3);
+    }
+
+    @Test
+    public void flushedBeforeReadsTest() {
+        SlidingHyperLogLog.Builder builder = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05);
+        SlidingHyperLogLog late = builder.setAllowedLateness(1_000).build();
+        SlidingHyperLogLog inOrder = builder.setAllowedLateness(0).build();
+
+        // Fewer offers than the reorder buffer holds, so all still held
+        for (long t = 100; t > 0; t--) {
+            late.offer(t, t);
+            inOrder.offer(101 - t, 101 - t);
+        }
+
+        Assert.assertEquals(late.serializedSize(), inOrder.serializedSize());
+        ByteBuffer buffer = ByteBuffer.allocate(late.serializedSize());
+        late.writeTo(buffer);
+        buffer.flip();
+        Assert.assertEquals(SlidingHyperLogLog.readFrom(buffer).cardinalitySince(0), inOrder.cardinalitySince(0));
+
+        SlidingHyperLogLog other = builder.setAllowedLateness(1_000).build();
+        other.offer(200, 1_000L);
+        other.offer(150, 1_001L);
+        SlidingHyperLogLog union = SlidingHyperLogLog.union(late, other);
+        inOrder.offer(150, 1_001L);
+        inOrder.offer(200, 1_000L);
+        Assert.assertEquals(union.cardinalitySince(0), inOrder.cardinalitySince(0));
+        Assert.assertEquals(union.cardinalitiesSince(new long[]{0, 50}), inOrder.cardinalitiesSince(new long[]{0, 50}));
+    }
+}
@@ -0,0 +1,302 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+
+public class MappedSketchStoreTests {
+
+    private static final long WINDOW = 10_000;
+    private static final long START = 1_500_000_000_000L;
+
+    private static SlidingHyperLogLog.Builder sketchBuilder(boolean hash64) {
+        return new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.1).setUse64BitHash(hash64);
+    }
+
+    // Small chunks, so that slots and blocks span many of them
+    private static MappedSketchStore.Builder storeBuilder(boolean hash64, int inlineEntries) {
+        return new MappedSketchStore.Builder()
+                .setSketchBuilder(sketchBuilder(hash64))
+                .setInlineEntries(inlineEntries)
+                .setChunkSize(4096);
+    }
+
+    // Offers to keys with Zipf-like popularity, so some registers have long lists and others short
+    private static long offer(MappedSketchStore store, Map<Long, SlidingHyperLogLog> expected, boolean hash64, long t, int events, Random r) {
+        for (int i = 0; i < events; i++, t++) {
+            long key = (long) Math.floor(Math.pow(200, r.nextDouble())) * 7919;
+            long value = r.nextInt(100_000);
+            store.offer(key, t, value);
+            expected.computeIfAbsent(key, k -> sketchBuilder(hash64).build()).offer(t, value);
+        }
+        return t;
+    }
+
+    private static void assertSameSketches(MappedSketchStore store, Map<Long, SlidingHyperLogLog> expected, long t) {
+        Assert.assertEquals(store.size(), expected.size());
+        for (Map.Entry<Long, SlidingHyperLogLog> entry : expected.entrySet()) {
+            Assert.assertTrue(store.contains(entry.getKey()));
+            for (long tMin = t - WINDOW - 100; tMin <= t + 1; tMin += WINDOW / 20)
+                Assert.assertEquals(store.cardinalitySince(entry.getKey(), tMin), entry.getValue().cardinalitySince(tMin), "key=" + entry.getKey() + ", tMin=" + tMin);
+        }
+    }
+
+    @DataProvider
+    public Object[][] settings() {
+        return new Object[][]{
+                {false, 1},
+                {false, 2},
+                {false, 5},
+                {true, 2},
+        };
+    }
+
+    @Test(dataProvider = "settings")
+    public void matchesHeapSketchesTest(boolean hash64, int inlineEntries) throws IOException {
+        Map<Long, SlidingHyperLogLog> expected = new HashMap<>();
+        try (MappedSketchStore store = storeBuilder(hash64, inlineEntries).allocateDirect()) {
+            Random r = new Random(1);
+            long t = offer(store, expected, hash64, START, 50_000, r);
+            assertSameSketches(store, expected, t);
+            Assert.assertTrue(store.blockCount() > 0);
+
+            // Carry on long enough for lists to expire and registers to move back inline
+            t = offer(store, expected, hash64, t + 3 * WINDOW, 30_000, r);
+            assertSameSketches(store, expected, t);
+        }
+    }
+
+    @Test
+    public void reopenTest() throws IOException {
+        Path directory = Files.createTempDirectory("mapped-sketch-store");
+        try {
+            Map<Long, SlidingHyperLogLog> expected = new HashMap<>();
+            Random r = new Random(2);
+            long t;
+            try (MappedSketchStore store = storeBuilder(false, 2).open(directory)) {
+                t = offer(store, expected, false, START, 40_000, r);
+                store.remove(7919);
+                expected.remove(7919L);
+            }
+
+            // Settings are those the store was created with, whatever the builder's
+            try (MappedSketchStore store = storeBuilder(false, 3).setChunkSize(1 << 20).open(directory)) {
+                assertSameSketches(store, expected, t);
+
+                Set<Long> keys = new HashSet<>();
+                store.forEachKey(keys::add);
+                Assert.assertEquals(keys, expected.keySet());
+
+                t = offer(store, expected, false, t, 20_000, r);
+                assertSameSketches(store, expected, t);
+            }
+
+            try (MappedSketchStore store = storeBuilder(false, 2).open(directory)) {
+                assertSameSketches(store, expected, t);
+            }
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void expireTest() throws IOException {
+        Map<Long, SlidingHyperLogLog> expected = new HashMap<>();
+        try (MappedSketchStore store = storeBuilder(false, 1).allocateDirect()) {
+            Random r = new Random(4);
+            long t = offer(store, expected, false, START, 20_000, r);
+            int blocks = store.blockCount();
+
+            // Half the window later, the older half of every sketch goes
+            t += WINDOW / 2;
+            int expired = store.expire(t);
+            for (SlidingHyperLogLog sketch : expected.values())
+                sketch.expire(t);
+            Assert.assertTrue(expired > 0);
+            assertSameSketches(store, expected, t);
+
+            // Blocks freed by expiring are reused, so as many offers again need few new ones
+            Assert.assertEquals(store.expire(t), 0);
+            t = offer(store, expected, false, t, 20_000, r);
+            assertSameSketches(store, expected, t);
+            Assert.assertTrue(store.blockCount() < blocks * 5 / 4, store.blockCount() + " blocks after reuse, " + blocks + " before");
+        }
+    }
+
+    @Test
+    public void removeTest() throws IOException {
+        Map<Long, SlidingHyperLogLog> expected = new HashMap<>();
+        try (MappedSketchStore store = storeBuilder(false, 1).allocateDirect()) {
+            Random r = new Random(3);
+            long t = offer(store, expected, false, START, 20_000, r);
+            int blocks = store.blockCount();
+            long capacity = store.capacityBytes();
+
+            for (long key : expected.keySet())
+                Assert.assertTrue(store.remove(key));
+            Assert.assertFalse(store.remove(7919));
+            Assert.assertEquals(store.size(), 0);
+            Assert.assertFalse(store.contains(7919));
+            Assert.assertEquals(store.cardinalitySince(7919, 0), 0);
+            Assert.assertNull(store.copy(7919));
+
+            // Freed slots and blocks are reused, and start empty
+            expected.clear();
+            t = offer(store, expected, false, t, 20_000, r);
+            assertSameSketches(store, expected, t);
+            Assert.assertTrue(store.blockCount() <= blocks * 2, store.blockCount() + " blocks after reuse, " + blocks + " before");
+            Assert.assertEquals(store.capacityBytes(), capacity);
+        }
+    }
+
+    @Test
+    public void mergeAndCopyTest() throws IOException {
+        try (MappedSketchStore store = storeBuilder(true, 2).allocateDirect()) {
+            SlidingHyperLogLog first = sketchBuilder(true).build();
+            SlidingHyperLogLog second = sketchBuilder(true).build();
+            for (long t = START; t < START + 20_000; t++) {
+                first.offer(t, t % 3_000);
+                second.offer(t, (t % 5_000) + 10_000);
+                store.offer(42, t, t % 3_000);
+            }
+
+            store.merge(42, second);
+            store.merge(43, second);
+            SlidingHyperLogLog union = SlidingHyperLogLog.union(first, second);
+
+            SlidingHyperLogLog copy = store.copy(42);
+            long now = START + 20_000;
+            for (long tMin = now - WINDOW - 100; tMin <= now; tMin += WINDOW / 20) {
+                Assert.assertEquals(store.cardinalitySince(42, tMin), union.cardinalitySince(tMin));
+                Assert.assertEquals(copy.cardinalitySince(tMin), union.cardinalitySince(tMin));
+                Assert.assertEquals(store.cardinalitySince(43, tMin), second.cardinalitySince(tMin));
+            }
+
+            long[] tMins = {now - WINDOW, now - WINDOW / 2, now};
+            Assert.assertEquals(store.cardinalitiesSince(42, tMins), union.cardinalitiesSince(tMins));
+            Assert.assertEquals(store.cardinalitiesSince(44, tMins), new long[tMins.length]);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void mergeOtherHashSizeTest() throws IOException {
+        try (MappedSketchStore store = storeBuilder(true, 2).allocateDirect()) {
+            store.merge(42, sketchBuilder(false).build());
+        }
+    }
+
+    // Opens a store created with the first builder with the second
+    private static void reopen(MappedSketchStore.Builder created, MappedSketchStore.Builder reopened) throws IOException {
+        Path directory = Files.createTempDirectory("mapped-sketch-store");
+        try {
+            try (MappedSketchStore store = created.open(directory)) {
+                store.offer(1, START, 1);
+            }
+            reopened.open(directory).close();
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Store holds sketches with b=6, windowSize=10000, .*")
+    public void otherWindowSizeTest() throws IOException {
+        reopen(storeBuilder(false, 2), storeBuilder(false, 2).setSketchBuilder(sketchBuilder(false).setWindowSize(WINDOW * 2)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Store holds sketches with .*")
+    public void otherHashSizeTest() throws IOException {
+        reopen(storeBuilder(false, 2), storeBuilder(true, 2));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Not a sketch store")
+    public void notAStoreTest() throws IOException {
+        Path directory = Files.createTempDirectory("mapped-sketch-store");
+        try {
+            Files.write(directory.resolve(MappedSketchStore.KEYS_FILE), new byte[MappedSketchStore.HEADER_SIZE]);
+            storeBuilder(false, 2).open(directory).close();
+        }
+        finally {
+            delete(directory);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Please set a sketch builder")
+    public void noSketchBuilderTest() {
+        new MappedSketchStore.Builder().allocateDirect();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void noInlineEntriesTest() {
+        new MappedSketchStore.Builder().setInlineEntries(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void noChunkSizeTest() {
+        new MappedSketchStore.Builder().setChunkSize(0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "windowSize is 0. It must be > 0.")
+    public void noWindowSizeTest() {
+        new MappedSketchStore.Builder().setSketchBuilder(new SlidingHyperLogLog.Builder().setRsd(0.1)).allocateDirect();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "inlineEntries is 100. It must be between 1 and 24.")
+    public void moreInlineEntriesThanRanksTest() {
+        // b=10 leaves 22 bits of hash, so Rs from 0 to 23
+        new MappedSketchStore.Builder()
+                .setSketchBuilder(new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.03))
+                .setInlineEntries(100)
+                .allocateDirect();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "Store is closed")
+    public void closedTest() throws IOException {
+        MappedSketchStore store = storeBuilder(false, 2).allocateDirect();
+        store.close();
+        store.offer(1, START, 1);
+    }
+
+    @Test
+    public void keyIndexTest() {
+        KeyIndex index = new KeyIndex();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random r = new Random(4);
+
+        for (int i = 0; i < 100_000; i++) {
+            // Few distinct keys, so that puts and removes interleave on the same runs
+            long key = r.nextInt(2_000) * (r.nextBoolean() ? 1L : 1L << 40);
+            if (expected.containsKey(key)) {
+                Assert.assertEquals(index.remove(key), (int) expected.remove(key));
+            }
+            else {
+                Assert.assertEquals(index.remove(key), -1);
+                index.put(key, i);
+                expected.put(key, i);
+            }
+            Assert.assertEquals(index.size(), expected.size());
+        }
+
+        for (Map.Entry<Long, Integer> entry : expected.entrySet())
+            Assert.assertEquals(index.get(entry.getKey()), (int) entry.getValue());
+        Assert.assertEquals(index.get(-1), -1);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
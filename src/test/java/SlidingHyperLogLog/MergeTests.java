@@ -0,0 +1,118 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class MergeTests {
+
+    private static final long WINDOW = 10_000;
+
+    @DataProvider
+    public Object[][] storages() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new BasicListLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new CompactLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(4)},
+        };
+    }
+
+    // Splits a stream across shards by value, as partitioned ingest would
+    private static SlidingHyperLogLog[] shards(SlidingHyperLogLog.Builder builder, SlidingHyperLogLog all, int shardCount, int events, long seed) {
+
+        SlidingHyperLogLog[] shards = new SlidingHyperLogLog[shardCount];
+        for (int i = 0; i < shardCount; i++)
+            shards[i] = builder.setWindowSize(WINDOW).setRsd(0.05).build();
+
+        Random r = new Random(seed);
+        for (long t = 0; t < events; t++) {
+            long value = r.nextInt(events / 2);
+            shards[(int) Math.floorMod(value, (long) shardCount)].offer(t, value);
+            all.offer(t, value);
+        }
+        return shards;
+    }
+
+    private static void assertSameCardinalities(SlidingHyperLogLog sketch, SlidingHyperLogLog expected, long t) {
+        for (long tMin = t - WINDOW; tMin <= t; tMin += WINDOW / 20)
+            Assert.assertEquals(sketch.cardinalitySince(tMin), expected.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    @Test(dataProvider = "storages")
+    public void mergeMatchesSingleSketchTest(SlidingHyperLogLog.Builder builder) {
+
+        SlidingHyperLogLog all = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog[] shards = shards(builder, all, 4, 30_000, 1);
+
+        SlidingHyperLogLog merged = shards[0];
+        for (int i = 1; i < shards.length; i++)
+            merged.merge(shards[i]);
+
+        assertSameCardinalities(merged, all, 30_000);
+    }
+
+    @Test(dataProvider = "storages")
+    public void unionMatchesSingleSketchTest(SlidingHyperLogLog.Builder builder) {
+
+        SlidingHyperLogLog all = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog[] shards = shards(builder, all, 16, 30_000, 2);
+
+        SlidingHyperLogLog union = SlidingHyperLogLog.union(shards);
+
+        assertSameCardinalities(union, all, 30_000);
+        // The shards are left alone
+        Assert.assertTrue(shards[0].cardinalitySince(0) < union.cardinalitySince(0));
+    }
+
+    @Test
+    public void mergeAcrossStoragesTest() {
+
+        SlidingHyperLogLog all = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog[] sparse = shards(new SlidingHyperLogLog.Builder().setSparse(true), all, 2, 2_000, 3);
+        SlidingHyperLogLog flat = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setLpfmStoreFactory(new FlatLPFMStoreFactory()).build();
+
+        flat.merge(sparse[0]);
+        flat.merge(sparse[1]);
+        assertSameCardinalities(flat, all, 2_000);
+
+        // Merging dense into sparse
+        sparse[0].merge(flat);
+        assertSameCardinalities(sparse[0], all, 2_000);
+    }
+
+    @Test
+    public void mergeSelfTest() {
+        SlidingHyperLogLog all = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog shard = shards(new SlidingHyperLogLog.Builder(), all, 1, 5_000, 4)[0];
+
+        shard.merge(shard);
+        assertSameCardinalities(shard, all, 5_000);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Only sketches with the same b, window size and hash size can be merged")
+    public void mergeDifferentBTest() {
+        SlidingHyperLogLog a = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog b = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.1).build();
+        a.merge(b);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Only sketches with the same b, window size and hash size can be merged")
+    public void mergeDifferentWindowTest() {
+        SlidingHyperLogLog a = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog b = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW + 1).setRsd(0.05).build();
+        SlidingHyperLogLog.union(a, b);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Only sketches with the same b, window size and hash size can be merged")
+    public void mergeDifferentHashSizeTest() {
+        SlidingHyperLogLog a = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog b = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setUse64BitHash(true).build();
+        a.merge(b);
+    }
+}
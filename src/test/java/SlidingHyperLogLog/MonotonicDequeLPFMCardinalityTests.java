@@ -0,0 +1,9 @@
+package SlidingHyperLogLog;
+
+public class MonotonicDequeLPFMCardinalityTests extends CardinalityTests {
+
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new MonotonicDequeLPFMFactory();
+    }
+}
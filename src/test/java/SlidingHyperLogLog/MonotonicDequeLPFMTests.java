@@ -0,0 +1,21 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MonotonicDequeLPFMTests extends LPFMTests {
+
+    @Test
+    public void toStringTest() {
+        MonotonicDequeLPFM monotonicDequeLPFM = new MonotonicDequeLPFM(100);
+
+        for (int t = 0; t < 10000; t++)
+            monotonicDequeLPFM.offer(t, t % 354);
+        Assert.assertEquals(monotonicDequeLPFM.toString(), "_ts=[9999, 9911], _rs=[87, 353], _head=1, _size=2");
+    }
+
+    @Override
+    LPFMFactory getLPFMFactory() {
+        return new MonotonicDequeLPFMFactory();
+    }
+}
@@ -0,0 +1,80 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class MultiHorizonTests {
+
+    private static final long WINDOW = 60_000;
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new BasicListLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new CompactLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new CompactLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setTimeBuckets(16)},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(2)},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true).setBiasCorrection(true)},
+        };
+    }
+
+    @Test(dataProvider = "builders")
+    public void matchesSingleQueriesTest(SlidingHyperLogLog.Builder builder) {
+        SlidingHyperLogLog shll = builder.setWindowSize(WINDOW).setRsd(0.02).build();
+        Random r = new Random(7);
+
+        long t = 0;
+        for (int i = 0; i < 300_000; i++) {
+            t += r.nextInt(2);
+            shll.offer(t, r.nextInt(i < 150_000 ? 100_000 : 1_000));
+        }
+
+        // The last 1, 5, 15 and 60 "minutes", and with 30 as well, a sparkline of many, duplicates, and some before or
+        // after everything
+        long[][] horizonSets = new long[][]{
+                {t - 1_000, t - 5_000, t - 15_000, t - 60_000},
+                {t - 1_000, t - 5_000, t - 15_000, t - 30_000, t - 60_000},
+                new long[60],
+                {t, t, t - 10, t - 10, 0, Long.MIN_VALUE, t + 1, Long.MAX_VALUE},
+                {},
+        };
+        for (int i = 0; i < horizonSets[2].length; i++)
+            horizonSets[2][i] = t - WINDOW + i * 1_000;
+
+        for (long[] tMins : horizonSets) {
+            long[] cardinalities = shll.cardinalitiesSince(tMins);
+            Assert.assertEquals(cardinalities.length, tMins.length);
+            for (int i = 0; i < tMins.length; i++)
+                Assert.assertEquals(cardinalities[i], shll.cardinalitySince(tMins[i]), "tMin=" + tMins[i]);
+        }
+    }
+
+    // Few enough offers that the store never turns dense
+    @Test
+    public void sparseStoreTest() {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setSparse(true).setWindowSize(WINDOW).setRsd(0.02).build();
+        for (long t = 0; t < 300; t++)
+            shll.offer(t * 10, t % 200);
+
+        long[] tMins = {0, 500, 1_000, 2_990, 2_995, 3_000, -1};
+        long[] cardinalities = shll.cardinalitiesSince(tMins);
+        for (int i = 0; i < tMins.length; i++)
+            Assert.assertEquals(cardinalities[i], shll.cardinalitySince(tMins[i]), "tMin=" + tMins[i]);
+    }
+
+    @Test
+    public void leavesTMinsAloneTest() {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        long[] tMins = {30, 10, 20};
+        shll.cardinalitiesSince(tMins);
+        Assert.assertEquals(tMins, new long[]{30, 10, 20});
+    }
+}
@@ -0,0 +1,155 @@
+package SlidingHyperLogLog;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class Murmur3Tests {
+
+    private static final int SEED = 1729;
+    private final HashFunction guava = Hashing.murmur3_32(SEED);
+    private final HashFunction guava128 = Hashing.murmur3_128(SEED);
+
+    @Test
+    public void hashIntMatchesGuavaTest() {
+        Random r = new Random(1);
+        for (int i = 0; i < 10_000; i++) {
+            int input = r.nextInt();
+            Assert.assertEquals(Murmur3.hashInt(input, SEED), guava.hashInt(input).asInt());
+        }
+    }
+
+    @Test
+    public void hashLongMatchesGuavaTest() {
+        Random r = new Random(2);
+        for (int i = 0; i < 10_000; i++) {
+            long input = r.nextLong();
+            Assert.assertEquals(Murmur3.hashLong(input, SEED), guava.hashLong(input).asInt());
+        }
+    }
+
+    @Test
+    public void hashBytesMatchesGuavaTest() {
+        Random r = new Random(3);
+        for (int len = 0; len < 40; len++) {
+            byte[] bytes = new byte[len + 5];
+            r.nextBytes(bytes);
+            int expected = guava.hashBytes(bytes, 3, len).asInt();
+
+            Assert.assertEquals(Murmur3.hashBytes(bytes, 3, len, SEED), expected);
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                ByteBuffer heap = ByteBuffer.wrap(bytes, 3, len).order(order);
+                Assert.assertEquals(Murmur3.hashBytes(heap, SEED), expected);
+                Assert.assertEquals(heap.position(), 3);
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).order(order);
+                direct.put(bytes);
+                Assert.assertEquals(Murmur3.hashBytes(direct, 3, len, SEED), expected);
+            }
+        }
+    }
+
+    @Test
+    public void hashCharsMatchesGuavaTest() {
+        String[] inputs = {
+                "", "a", "ab", "abc", "abcd", "abcde", "user-123456789",
+                "caf\u00e9", "\u00ff\u0100\u07ff\u0800", "\u65e5\u672c\u8a9e", "\ud83d\ude00 emoji",
+                "unpaired \ud83d high", "unpaired \ude00 low", "\ud83d", "ends with \ud83d"
+        };
+
+        for (String input : inputs) {
+            Assert.assertEquals(Murmur3.hashUtf8(input, SEED), guava.hashString(input, StandardCharsets.UTF_8).asInt(), input);
+            Assert.assertEquals(Murmur3.hashUtf8(new StringBuilder(input), SEED), guava.hashString(input, StandardCharsets.UTF_8).asInt(), input);
+            Assert.assertEquals(Murmur3.hashSingleByte(input, (char) 0x7F, SEED), guava.hashString(input, StandardCharsets.US_ASCII).asInt(), input);
+            Assert.assertEquals(Murmur3.hashSingleByte(input, (char) 0xFF, SEED), guava.hashString(input, StandardCharsets.ISO_8859_1).asInt(), input);
+        }
+    }
+
+    // Guava's hashString mis-buffers 4-byte sequences, so outside the Basic Multilingual Plane it differs from
+    // hashBytes of the UTF-8 bytes. Pinned, so that a change to either shows here rather than as moved estimates.
+    @Test
+    public void supplementaryCharsMatchGuavaTest() {
+        String input = "\ud83d\ude00 emoji";
+        Assert.assertEquals(guava.hashString(input, StandardCharsets.UTF_8).asInt(), -760938616);
+        Assert.assertEquals(Murmur3.hashUtf8(input, SEED), -760938616);
+        Assert.assertEquals(guava.hashBytes(input.getBytes(StandardCharsets.UTF_8)).asInt(), -1002483166);
+    }
+
+    @Test
+    public void randomCharsMatchGuavaTest() {
+        Random r = new Random(4);
+        for (int i = 0; i < 2_000; i++) {
+            char[] chars = new char[r.nextInt(20)];
+            for (int j = 0; j < chars.length; j++) {
+                int kind = r.nextInt(4);
+                if (kind == 0 && j + 1 < chars.length) {
+                    chars[j] = (char) (0xD800 + r.nextInt(0x400));
+                    chars[++j] = (char) (0xDC00 + r.nextInt(0x400));
+                }
+                else {
+                    chars[j] = (char) (kind == 1 ? r.nextInt(0x10000) : r.nextInt(0x100));
+                }
+            }
+            String input = new String(chars);
+
+            Assert.assertEquals(Murmur3.hashUtf8(input, SEED), guava.hashString(input, StandardCharsets.UTF_8).asInt());
+            Assert.assertEquals(Murmur3.hash64Utf8(input, SEED), guava128.hashString(input, StandardCharsets.UTF_8).asLong());
+            Assert.assertEquals(Murmur3.hash64SingleByte(input, (char) 0xFF, SEED), guava128.hashString(input, StandardCharsets.ISO_8859_1).asLong());
+        }
+    }
+
+    @Test
+    public void hash64MatchesGuavaTest() {
+        Random r = new Random(5);
+        for (int i = 0; i < 10_000; i++) {
+            int intInput = r.nextInt();
+            long longInput = r.nextLong();
+            Assert.assertEquals(Murmur3.hash64Int(intInput, SEED), guava128.hashInt(intInput).asLong());
+            Assert.assertEquals(Murmur3.hash64Long(longInput, SEED), guava128.hashLong(longInput).asLong());
+        }
+
+        for (int len = 0; len < 70; len++) {
+            byte[] bytes = new byte[len + 5];
+            r.nextBytes(bytes);
+            long expected = guava128.hashBytes(bytes, 3, len).asLong();
+
+            Assert.assertEquals(Murmur3.hash64Bytes(bytes, 3, len, SEED), expected);
+            Assert.assertEquals(Murmur3.hash64Bytes(ByteBuffer.wrap(bytes, 3, len), SEED), expected);
+            Assert.assertEquals(Murmur3.hash64Bytes(ByteBuffer.wrap(bytes, 3, len).order(ByteOrder.LITTLE_ENDIAN), SEED), expected);
+        }
+    }
+
+    @Test
+    public void offerOverloadsAgreeTest() {
+        SlidingHyperLogLog fromStrings = new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1000).build();
+        SlidingHyperLogLog fromChars = new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1000).build();
+        SlidingHyperLogLog fromBytes = new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1000).build();
+        SlidingHyperLogLog fromBuffers = new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1000).build();
+        SlidingHyperLogLog fromGuava = new SlidingHyperLogLog.Builder().setRsd(0.05).setWindowSize(1000).build();
+
+        for (long t = 0; t < 2000; t++) {
+            String s = "key-\u00e9-" + (t % 700);
+            byte[] bytes = s.getBytes(Charset.defaultCharset());
+
+            fromStrings.offer(t, s);
+            fromChars.offer(t, new StringBuilder(s));
+            fromBytes.offer(t, bytes);
+            fromBuffers.offer(t, ByteBuffer.wrap(bytes));
+            fromGuava.offerHashed(t, guava.hashString(s, Charset.defaultCharset()).asInt());
+        }
+
+        long expected = fromGuava.cardinalitySince(1000);
+        Assert.assertEquals(fromStrings.cardinalitySince(1000), expected);
+        Assert.assertEquals(fromChars.cardinalitySince(1000), expected);
+        Assert.assertEquals(fromBytes.cardinalitySince(1000), expected);
+        Assert.assertEquals(fromBuffers.cardinalitySince(1000), expected);
+    }
+}
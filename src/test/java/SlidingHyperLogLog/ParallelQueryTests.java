@@ -0,0 +1,97 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelQueryTests {
+
+    private static final long WINDOW = 10_000;
+
+    // Lands exactly on b = 16, so queries are split into 8 chunks
+    private static final double RSD_B16 = 0.999 * 1.106 / Math.sqrt(1 << 16);
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(4)},
+                {new SlidingHyperLogLog.Builder().setTimeBuckets(16)},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true)},
+                {new SlidingHyperLogLog.Builder().setBiasCorrection(true)},
+        };
+    }
+
+    @Test(dataProvider = "builders")
+    public void matchesSequentialTest(SlidingHyperLogLog.Builder builder) {
+        SlidingHyperLogLog sequential = builder.setWindowSize(WINDOW).setRsd(RSD_B16).build();
+        AtomicInteger tasks = new AtomicInteger();
+        Executor executor = task -> {
+            tasks.incrementAndGet();
+            ForkJoinPool.commonPool().execute(task);
+        };
+        // Split whatever this machine has, so the executor path always runs
+        SlidingHyperLogLog parallel = builder.setQueryExecutor(executor).setAvailableProcessors(() -> 4).build();
+        builder.setQueryExecutor(null);
+        Random r = new Random(17);
+
+        long t = 0;
+        for (int i = 0; i < 500_000; i++) {
+            t += r.nextInt(2);
+            long value = r.nextInt(i < 250_000 ? 10_000_000 : 10_000);
+            sequential.offer(t, value);
+            parallel.offer(t, value);
+        }
+
+        long[] tMins = {Long.MIN_VALUE, t - WINDOW, t - WINDOW / 2, t - 100, t, t + WINDOW};
+        for (long tMin : tMins)
+            Assert.assertEquals(parallel.cardinalitySince(tMin), sequential.cardinalitySince(tMin), "tMin=" + tMin);
+
+        // Unions query on the same executor
+        SlidingHyperLogLog.union(parallel).cardinalitySince(t - WINDOW);
+        Assert.assertEquals(tasks.get(), 7 * (tMins.length + 1));
+    }
+
+    @Test
+    public void oneProcessorStaysSequentialTest() {
+        AtomicInteger tasks = new AtomicInteger();
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder()
+                .setWindowSize(WINDOW)
+                .setRsd(RSD_B16)
+                .setQueryExecutor(task -> {
+                    tasks.incrementAndGet();
+                    task.run();
+                })
+                .setAvailableProcessors(() -> 1)
+                .build();
+
+        for (int value = 0; value < 100_000; value++)
+            shll.offer(value, value);
+        shll.cardinalitySince(0);
+        Assert.assertEquals(tasks.get(), 0);
+    }
+
+    @Test
+    public void smallQueriesStaySequentialTest() {
+        AtomicInteger tasks = new AtomicInteger();
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder()
+                .setWindowSize(WINDOW)
+                .setRsd(0.01)
+                .setQueryExecutor(task -> {
+                    tasks.incrementAndGet();
+                    task.run();
+                })
+                .build();
+
+        for (int value = 0; value < 10_000; value++)
+            shll.offer(value, value);
+        Assert.assertTrue(Math.abs(shll.cardinalitySince(0) - 10_000) < 500);
+        Assert.assertEquals(tasks.get(), 0);
+    }
+}
@@ -14,6 +14,18 @@ public class RingBufferLPFMTests extends LPFMTests {
         Assert.assertEquals(ringBufferLPFM.toString(), "_ts=[9999, 9203, 9557, 9911], _rs=[87, 353, 353, 353], _start=3, _end=1");
     }
 
+    @Test
+    public void resizesTest() {
+        RingBufferLPFM ringBufferLPFM = new RingBufferLPFM(100);
+
+        // Every entry kept, so the buffers grow from 1 to 2, 4 and 8
+        for (int t = 0; t < 8; t++)
+            ringBufferLPFM.offer(t, 8 - t);
+        Assert.assertEquals(ringBufferLPFM.entryCount(), 8);
+        Assert.assertEquals(ringBufferLPFM.entryCapacity(), 8);
+        Assert.assertEquals(ringBufferLPFM.resizes(), 3);
+    }
+
     @Override
     LPFMFactory getLPFMFactory() {
         return new RingBufferLPFMFactory();
@@ -0,0 +1,196 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class SerializationTests {
+
+    private static final long WINDOW = 10_000;
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new CompactLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(2)},
+                {new SlidingHyperLogLog.Builder().setUse64BitHash(true)},
+        };
+    }
+
+    private static SlidingHyperLogLog sketch(SlidingHyperLogLog.Builder builder, long events, long seed) {
+        SlidingHyperLogLog shll = builder.setWindowSize(WINDOW).setRsd(0.05).build();
+        Random r = new Random(seed);
+        for (long t = 1_500_000_000_000L; t < 1_500_000_000_000L + events; t++)
+            shll.offer(t, r.nextInt(5_000));
+        return shll;
+    }
+
+    private static void assertSameSketch(SlidingHyperLogLog actual, SlidingHyperLogLog expected, long t) {
+        for (long tMin = t - WINDOW - 100; tMin <= t + 1; tMin += WINDOW / 50)
+            Assert.assertEquals(actual.cardinalitySince(tMin), expected.cardinalitySince(tMin), "tMin=" + tMin);
+    }
+
+    @Test(dataProvider = "builders")
+    public void byteBufferRoundTripTest(SlidingHyperLogLog.Builder builder) {
+        long now = 1_500_000_000_000L + 30_000;
+
+        for (boolean direct : new boolean[]{false, true}) {
+            SlidingHyperLogLog shll = sketch(builder, 30_000, 1);
+            int size = shll.serializedSize();
+            ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(size + 7).order(ByteOrder.LITTLE_ENDIAN) : ByteBuffer.allocate(size + 7);
+
+            buffer.position(3);
+            shll.writeTo(buffer);
+            Assert.assertEquals(buffer.position(), 3 + size);
+
+            buffer.flip().position(3);
+            SlidingHyperLogLog copy = SlidingHyperLogLog.readFrom(buffer, builder);
+            Assert.assertEquals(buffer.position(), 3 + size);
+            Assert.assertEquals(buffer.order(), direct ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            assertSameSketch(copy, shll, now);
+
+            // The copy carries on as the original would
+            for (long t = now; t < now + 1000; t++) {
+                copy.offer(t, t);
+                shll.offer(t, t);
+            }
+            assertSameSketch(copy, shll, now + 1000);
+        }
+    }
+
+    @Test
+    public void streamRoundTripTest() throws IOException {
+        SlidingHyperLogLog first = sketch(new SlidingHyperLogLog.Builder(), 20_000, 2);
+        SlidingHyperLogLog second = sketch(new SlidingHyperLogLog.Builder().setUse64BitHash(true), 5_000, 3);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        first.writeTo(out);
+        second.writeTo(out);
+        out.write(42);
+        Assert.assertEquals(out.size(), first.serializedSize() + second.serializedSize() + 1);
+
+        // Each read takes exactly one sketch from the stream
+        ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertSameSketch(SlidingHyperLogLog.readFrom(in), first, 1_500_000_000_000L + 20_000);
+        assertSameSketch(SlidingHyperLogLog.readFrom(in), second, 1_500_000_000_000L + 5_000);
+        Assert.assertEquals(in.read(), 42);
+    }
+
+    @Test
+    public void emptySketchTest() {
+        SlidingHyperLogLog empty = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        ByteBuffer buffer = ByteBuffer.allocate(empty.serializedSize());
+        empty.writeTo(buffer);
+        buffer.flip();
+        Assert.assertEquals(SlidingHyperLogLog.readFrom(buffer).cardinalitySince(0), 0);
+    }
+
+    @Test
+    public void compactTest() {
+        // An empty register costs one byte
+        SlidingHyperLogLog empty = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        Assert.assertEquals(empty.serializedSize(), SketchFormat.HEADER_SIZE + 1 + 256);
+
+        // Recent timestamps cost a byte or two as deltas, and each rank 5 bits
+        SlidingHyperLogLog shll = sketch(new SlidingHyperLogLog.Builder(), 100_000, 4);
+        Assert.assertTrue(shll.serializedSize() < 256 * 12, "size=" + shll.serializedSize());
+    }
+
+    @Test
+    public void rankBitsTest() {
+        Assert.assertEquals(SketchFormat.rankBits(4, false), 5);
+        Assert.assertEquals(SketchFormat.rankBits(16, false), 5);
+        Assert.assertEquals(SketchFormat.rankBits(4, true), 6);
+        Assert.assertEquals(SketchFormat.rankBits(1, true), 7);
+    }
+
+    @Test(expectedExceptions = BufferOverflowException.class)
+    public void bufferTooSmallTest() {
+        SlidingHyperLogLog shll = sketch(new SlidingHyperLogLog.Builder(), 1_000, 5);
+        ByteBuffer buffer = ByteBuffer.allocate(shll.serializedSize() - 1);
+        try {
+            shll.writeTo(buffer);
+        }
+        finally {
+            Assert.assertEquals(buffer.position(), 0);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Not a serialized sketch")
+    public void badMagicTest() {
+        SlidingHyperLogLog.readFrom(ByteBuffer.allocate(100));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Unsupported serialization version 2")
+    public void futureVersionTest() {
+        ByteBuffer buffer = serialized();
+        buffer.put(4, (byte) 2);
+        SlidingHyperLogLog.readFrom(buffer);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Serialized with hash seed 1730, expected 1729")
+    public void otherHashSeedTest() {
+        ByteBuffer buffer = serialized();
+        buffer.putInt(7, 1730);
+        SlidingHyperLogLog.readFrom(buffer);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Truncated serialized sketch")
+    public void truncatedBufferTest() {
+        ByteBuffer buffer = serialized();
+        buffer.limit(buffer.limit() - 1);
+        SlidingHyperLogLog.readFrom(buffer);
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void truncatedStreamTest() throws IOException {
+        ByteBuffer buffer = serialized();
+        SlidingHyperLogLog.readFrom(new ByteArrayInputStream(buffer.array(), 0, buffer.limit() - 1));
+    }
+
+    // A body length no sketch of this b could have is refused before the body is allocated, rather than running out of
+    // memory or waiting for 2GB that never come
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Corrupt serialized sketch")
+    public void hugeBodyLengthStreamTest() throws IOException {
+        ByteBuffer buffer = serialized();
+        buffer.putInt(SketchFormat.HEADER_SIZE - 4, Integer.MAX_VALUE);
+        SlidingHyperLogLog.readFrom(new ByteArrayInputStream(buffer.array(), 0, buffer.limit()));
+    }
+
+    @Test
+    public void maxBodySizeTest() {
+        Assert.assertTrue(serialized().limit() - SketchFormat.HEADER_SIZE <= SketchFormat.maxBodySize(8, false));
+        Assert.assertTrue(SketchFormat.maxBodySize(8, false) < 100_000);
+        Assert.assertTrue(SketchFormat.maxBodySize(30, true) > Integer.MAX_VALUE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Corrupt serialized sketch")
+    public void corruptBodyTest() {
+        ByteBuffer buffer = serialized();
+        // An entry count far beyond the total
+        buffer.put(SketchFormat.HEADER_SIZE, (byte) 0x7F);
+        buffer.put(buffer.limit() - 1, (byte) 0xFF);
+        SlidingHyperLogLog.readFrom(buffer);
+    }
+
+    private static ByteBuffer serialized() {
+        SlidingHyperLogLog shll = sketch(new SlidingHyperLogLog.Builder(), 1_000, 6);
+        ByteBuffer buffer = ByteBuffer.allocate(shll.serializedSize());
+        shll.writeTo(buffer);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,163 @@
+package SlidingHyperLogLog;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+public class SketchMetricsTests {
+
+    private static final long WINDOW = 10_000;
+
+    @DataProvider
+    public Object[][] builders() {
+        return new Object[][]{
+                {new SlidingHyperLogLog.Builder()},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new BasicListLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new CompactLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmFactory(new InlineLPFMFactory())},
+                {new SlidingHyperLogLog.Builder().setLpfmStoreFactory(new FlatLPFMStoreFactory())},
+                {new SlidingHyperLogLog.Builder().setSparse(true)},
+                {new SlidingHyperLogLog.Builder().setConcurrencyLevel(2)},
+                {new SlidingHyperLogLog.Builder().setAllowedLateness(100)},
+        };
+    }
+
+    private static long offer(SlidingHyperLogLog sketch, int events, long t, Random r) {
+        for (int i = 0; i < events; i++, t += r.nextInt(3))
+            sketch.offer(t, r.nextInt(50_000));
+        return t;
+    }
+
+    @Test(dataProvider = "builders")
+    public void structureTest(SlidingHyperLogLog.Builder builder) {
+        SlidingHyperLogLog sketch = builder.setWindowSize(WINDOW).setRsd(0.05).build();
+        offer(sketch, 20_000, 0, new Random(1));
+
+        SketchMetrics metrics = sketch.metrics();
+        long registers = 0;
+        long entries = 0;
+        long[] histogram = metrics.entryCountHistogram();
+        for (int n = 0; n < histogram.length; n++) {
+            registers += histogram[n];
+            entries += n * histogram[n];
+        }
+        Assert.assertEquals(registers, 1 << builder.b());
+        Assert.assertTrue(histogram[histogram.length - 1] > 0);
+        Assert.assertEquals(metrics.entries(), entries);
+        Assert.assertTrue(metrics.entries() > 0);
+        Assert.assertTrue(metrics.entryCapacity() >= metrics.entries());
+        Assert.assertEquals(metrics.retainedBytes(), sketch.sizeInBytes());
+
+        // Nothing timed or counted without a sample interval
+        Assert.assertEquals(metrics.offerLatency().count(), 0);
+        Assert.assertEquals(metrics.queryLatency().count(), 0);
+        Assert.assertEquals(metrics.expiredEntries(), 0);
+    }
+
+    @Test
+    public void resizesTest() {
+        SlidingHyperLogLog ringBuffer = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).build();
+        SlidingHyperLogLog deque = new SlidingHyperLogLog.Builder().setLpfmFactory(new MonotonicDequeLPFMFactory()).setWindowSize(WINDOW).setRsd(0.05).build();
+        Random r = new Random(2);
+        for (int i = 0; i < 20_000; i++) {
+            long value = r.nextInt(50_000);
+            ringBuffer.offer(i, value);
+            deque.offer(i, value);
+        }
+
+        // Only ring buffers count their resizes
+        Assert.assertTrue(ringBuffer.metrics().resizes() > 0);
+        Assert.assertEquals(deque.metrics().resizes(), 0);
+    }
+
+    @Test
+    public void sampledTest() {
+        SlidingHyperLogLog sketch = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setMetricsSampleInterval(10).build();
+        long t = offer(sketch, 1_000, 0, new Random(3));
+        sketch.cardinalitySince(t - WINDOW);
+        sketch.cardinalitiesSince(new long[]{t - WINDOW, t - WINDOW / 2});
+
+        SketchMetrics metrics = sketch.metrics();
+        Assert.assertEquals(metrics.offerLatency().count(), 100);
+        Assert.assertEquals(metrics.queryLatency().count(), 2);
+        Assert.assertTrue(metrics.offerLatency().maxNanos() > 0);
+        Assert.assertTrue(metrics.offerLatency().percentileNanos(0.5) <= metrics.offerLatency().percentileNanos(0.99));
+
+        int entries = (int) metrics.entries();
+        long reclaimed = sketch.expire(t + 2 * WINDOW);
+        Assert.assertTrue(reclaimed > 0);
+        Assert.assertEquals(sketch.metrics().expiredEntries(), entries);
+        Assert.assertEquals(sketch.metrics().entries(), 0);
+    }
+
+    @Test
+    public void mergedTest() {
+        SlidingHyperLogLog.Builder builder = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setMetricsSampleInterval(1);
+        SlidingHyperLogLog first = builder.build();
+        SlidingHyperLogLog second = builder.build();
+        offer(first, 100, 0, new Random(4));
+        offer(second, 100, 0, new Random(5));
+
+        // A union records with the first sketch's settings, from nothing
+        SlidingHyperLogLog union = SlidingHyperLogLog.union(first, second);
+        Assert.assertEquals(union.metrics().offerLatency().count(), 0);
+        union.offer(WINDOW, 1);
+        Assert.assertEquals(union.metrics().offerLatency().count(), 1);
+    }
+
+    @Test
+    public void flightRecorderTest() throws IOException {
+        SlidingHyperLogLog sketch = new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05)
+                .setMetricsSampleInterval(100).setFlightRecorderEvents(true).build();
+
+        Path file = Files.createTempFile("sketch", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("SlidingHyperLogLog.Offer").withoutThreshold();
+                recording.enable("SlidingHyperLogLog.Query").withoutThreshold();
+                recording.enable("SlidingHyperLogLog.Expire").withoutThreshold();
+                recording.start();
+                long t = offer(sketch, 1_000, 0, new Random(6));
+                sketch.cardinalitySince(t - WINDOW);
+                sketch.expire(t + 2 * WINDOW);
+                recording.stop();
+                recording.dump(file);
+            }
+
+            Set<String> names = new HashSet<>();
+            int offers = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                names.add(event.getEventType().getName());
+                if (event.getEventType().getName().equals("SlidingHyperLogLog.Offer"))
+                    offers++;
+            }
+            Assert.assertEquals(offers, 10);
+            Assert.assertTrue(names.contains("SlidingHyperLogLog.Query"));
+            Assert.assertTrue(names.contains("SlidingHyperLogLog.Expire"));
+        }
+        finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "metricsSampleInterval must be >= 0")
+    public void negativeSampleIntervalTest() {
+        new SlidingHyperLogLog.Builder().setMetricsSampleInterval(-1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Flight recorder events need a metrics sample interval.")
+    public void flightRecorderWithoutSamplingTest() {
+        new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.05).setFlightRecorderEvents(true).build();
+    }
+}
@@ -1,6 +1,7 @@
 package SlidingHyperLogLog;
 
 
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 public class SlidingHyperLogLogOptionsTests {
@@ -57,4 +58,148 @@ public class SlidingHyperLogLogOptionsTests {
                 .setWindowSize(10)
                 .build();
     }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "concurrencyLevel must be > 0")
+    public void concurrencyLevelNotPositive()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setConcurrencyLevel(0);
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "A concurrency level cannot be combined with an LPFMStoreFactory or sparse storage.")
+    public void concurrencyLevelWithSparse()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setConcurrencyLevel(4)
+                .setSparse(true)
+                .build();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "timeBuckets must be >= 2")
+    public void timeBucketsTooFew()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setTimeBuckets(1);
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Time buckets cannot be combined with .*")
+    public void timeBucketsWithCardinalityCache()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setTimeBuckets(10)
+                .setCardinalityCache(true)
+                .build();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "A query executor cannot be combined with sparse storage or a cardinality cache.")
+    public void queryExecutorWithSparse()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setQueryExecutor(Runnable::run)
+                .setSparse(true)
+                .build();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "allowedLateness must be >= 0")
+    public void allowedLatenessNegative()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setAllowedLateness(-1);
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "allowedLateness is 11. It must be <= windowSize.")
+    public void allowedLatenessBeyondWindow()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setAllowedLateness(11)
+                .build();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Allowed lateness cannot be combined with .*")
+    public void allowedLatenessWithConcurrency()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setAllowedLateness(5)
+                .setConcurrencyLevel(2)
+                .build();
+    }
+
+    // An LPFM written against the first version of the interface, implementing only offer and getMaxSince
+    private static final class FirstVersionLPFM implements LPFM {
+
+        private final LPFM _lpfm;
+
+        FirstVersionLPFM(long windowSize) {
+            _lpfm = new MonotonicDequeLPFMFactory().buildLPFM(windowSize);
+        }
+
+        @Override
+        public void offer(long timestamp, int R) {
+            _lpfm.offer(timestamp, R);
+        }
+
+        @Override
+        public int getMaxSince(long tMin) {
+            return _lpfm.getMaxSince(tMin);
+        }
+    }
+
+    @Test
+    public void firstVersionLPFM()
+    {
+        SlidingHyperLogLog.Builder builder = new SlidingHyperLogLog.Builder().setWindowSize(1000).setRsd(0.05);
+        SlidingHyperLogLog firstVersion = builder.setLpfmFactory(FirstVersionLPFM::new).build();
+        SlidingHyperLogLog expected = builder.setLpfmFactory(new MonotonicDequeLPFMFactory()).build();
+        for (long t = 0; t < 5_000; t++) {
+            firstVersion.offer(t, t % 700);
+            expected.offer(t, t % 700);
+        }
+
+        Assert.assertEquals(firstVersion.expire(5_000), 0);
+        for (long tMin = 3_000; tMin <= 5_000; tMin += 250)
+            Assert.assertEquals(firstVersion.cardinalitySince(tMin), expected.cardinalitySince(tMin));
+    }
+
+    @Test(expectedExceptions =  UnsupportedOperationException.class, expectedExceptionsMessageRegExp = ".*FirstVersionLPFM does not list its entries")
+    public void firstVersionLPFMSerialized()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setLpfmFactory(FirstVersionLPFM::new)
+                .build()
+                .serializedSize();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "A cardinality cache needs LPFMs which implement forEachEntry.")
+    public void cardinalityCacheWithFirstVersionLPFM()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setLpfmFactory(FirstVersionLPFM::new)
+                .setCardinalityCache(true)
+                .build();
+    }
+
+    @Test(expectedExceptions =  IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Allowed lateness needs LPFMs which implement offerLate or merge.")
+    public void allowedLatenessWithFirstVersionLPFM()
+    {
+        new SlidingHyperLogLog.Builder()
+                .setWindowSize(10)
+                .setRsd(0.1)
+                .setLpfmFactory(FirstVersionLPFM::new)
+                .setAllowedLateness(5)
+                .build();
+    }
 }
@@ -0,0 +1,252 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SlidingHyperLogLogRegistryTests {
+
+    private static final long WINDOW = 10_000;
+    private static final long START = 1_500_000_000_000L;
+
+    private static SlidingHyperLogLog.Builder sketchBuilder() {
+        return new SlidingHyperLogLog.Builder().setWindowSize(WINDOW).setRsd(0.1);
+    }
+
+    private static SlidingHyperLogLogRegistry<String> registry(long memoryBudget, SlidingHyperLogLogRegistry.EvictionPolicy evictionPolicy) {
+        return new SlidingHyperLogLogRegistry.Builder<String>()
+                .setSketchBuilder(sketchBuilder())
+                .setMemoryBudget(memoryBudget)
+                .setEvictionPolicy(evictionPolicy)
+                .build();
+    }
+
+    @Test
+    public void matchesSketchesTest() {
+        SlidingHyperLogLogRegistry<String> registry = new SlidingHyperLogLogRegistry.Builder<String>().setSketchBuilder(sketchBuilder()).build();
+        Map<String, SlidingHyperLogLog> expected = new HashMap<>();
+
+        Random r = new Random(1);
+        long t = START;
+        for (int i = 0; i < 50_000; i++, t++) {
+            String key = "page-" + r.nextInt(50);
+            int value = r.nextInt(10_000);
+            registry.offer(key, t, value);
+            expected.computeIfAbsent(key, k -> sketchBuilder().build()).offer(t, value);
+        }
+
+        Assert.assertEquals(registry.size(), expected.size());
+        Assert.assertEquals(registry.keys(), expected.keySet());
+        for (Map.Entry<String, SlidingHyperLogLog> entry : expected.entrySet()) {
+            for (long tMin = t - WINDOW; tMin <= t; tMin += WINDOW / 10)
+                Assert.assertEquals(registry.cardinalitySince(entry.getKey(), tMin), entry.getValue().cardinalitySince(tMin));
+
+            long[] tMins = {t - WINDOW, t - WINDOW / 2};
+            Assert.assertEquals(registry.cardinalitiesSince(entry.getKey(), tMins), entry.getValue().cardinalitiesSince(tMins));
+        }
+
+        Assert.assertEquals(registry.cardinalitySince("absent", START), 0);
+        Assert.assertFalse(registry.contains("absent"));
+        Assert.assertTrue(registry.sizeInBytes() > 0);
+    }
+
+    @Test
+    public void idleEvictionTest() {
+        SlidingHyperLogLogRegistry<String> registry = new SlidingHyperLogLogRegistry.Builder<String>().setSketchBuilder(sketchBuilder()).build();
+
+        registry.offer("idle", START, 1);
+        registry.offer("active", START, 1);
+        registry.offer("active", START + 2 * WINDOW, 2);
+        long size = registry.sizeInBytes();
+
+        Assert.assertEquals(registry.evict(START + WINDOW), 0);
+        Assert.assertEquals(registry.evict(START + 2 * WINDOW), 1);
+
+        Assert.assertFalse(registry.contains("idle"));
+        Assert.assertTrue(registry.contains("active"));
+        Assert.assertEquals(registry.cardinalitySince("idle", START), 0);
+        Assert.assertTrue(registry.sizeInBytes() < size);
+
+        // An evicted key starts again from an empty sketch
+        registry.offer("idle", START + 2 * WINDOW, 5);
+        Assert.assertEquals(registry.cardinalitySince("idle", START), 1);
+    }
+
+    @Test
+    public void leastRecentlyUsedTest() {
+        long sketchSize = sketchBuilder().build().sizeInBytes();
+        SlidingHyperLogLogRegistry<String> registry = registry(sketchSize * 10, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_RECENTLY_USED);
+
+        for (int key = 0; key < 10; key++)
+            registry.offer("key-" + key, START, key);
+        Assert.assertEquals(registry.size(), 10);
+
+        // Touch key-0, so key-1 is now the least recently used
+        registry.cardinalitySince("key-0", START);
+        registry.offer("key-10", START, 10);
+
+        Assert.assertTrue(registry.sizeInBytes() <= sketchSize * 10);
+        Assert.assertTrue(registry.contains("key-0"));
+        Assert.assertFalse(registry.contains("key-1"));
+        Assert.assertTrue(registry.contains("key-10"));
+    }
+
+    @Test
+    public void leastFrequentlyUsedTest() {
+        long sketchSize = sketchBuilder().build().sizeInBytes();
+        SlidingHyperLogLogRegistry<String> registry = registry(sketchSize * 10, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_FREQUENTLY_USED);
+
+        // key-0 is the least recently used, but the most frequently
+        for (int i = 0; i < 100; i++)
+            registry.offer("key-0", START + i, i);
+        for (int key = 1; key < 10; key++)
+            registry.offer("key-" + key, START + 100, key);
+
+        registry.offer("key-10", START + 100, 10);
+
+        Assert.assertTrue(registry.sizeInBytes() <= sketchSize * 10);
+        Assert.assertTrue(registry.contains("key-0"));
+        Assert.assertTrue(registry.contains("key-10"));
+        Assert.assertTrue(registry.size() < 11);
+    }
+
+    @Test(timeOut = 10_000)
+    public void nearBudgetTest() {
+        long sketchSize = sketchBuilder().build().sizeInBytes();
+        SlidingHyperLogLogRegistry<String> registry = registry(sketchSize * 9 / 2, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_RECENTLY_USED);
+
+        for (int key = 0; key < 4; key++) {
+            for (int i = 0; i < 1_000; i++)
+                registry.offer("key-" + key, START + i, i);
+        }
+
+        // Over the budget once the others are re-estimated, but the new key survives the eviction it runs
+        registry.offer("key-4", START + 1_000, 1);
+        Assert.assertTrue(registry.contains("key-4"));
+        Assert.assertEquals(registry.cardinalitySince("key-4", START), 1);
+        Assert.assertFalse(registry.contains("key-0"));
+        Assert.assertTrue(registry.sizeInBytes() <= sketchSize * 9 / 2);
+
+        // Even when its offer is older than the window ending at the newest offer so far
+        registry.offer("late", START - 2 * WINDOW, 1);
+        Assert.assertEquals(registry.cardinalitySince("late", START - 2 * WINDOW), 1);
+    }
+
+    @Test
+    public void growthOverBudgetTest() {
+        long sketchSize = sketchBuilder().build().sizeInBytes();
+        SlidingHyperLogLogRegistry<String> registry = registry(sketchSize * 2, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_RECENTLY_USED);
+        registry.offer("idle", START, 0);
+        registry.offer("growing", START, 0);
+
+        // No call to evict(now), and no new key: growth alone takes the total over the budget
+        for (int i = 1; i < 10_000; i++)
+            registry.offer("growing", START + i, i);
+
+        Assert.assertFalse(registry.contains("idle"));
+        Assert.assertTrue(registry.contains("growing"));
+        Assert.assertEquals(registry.size(), 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "memoryBudget must be at least .*")
+    public void budgetBelowOneSketchTest() {
+        registry(sketchBuilder().build().sizeInBytes() - 1, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_RECENTLY_USED);
+    }
+
+    @Test
+    public void growthTest() {
+        SlidingHyperLogLogRegistry<String> registry = registry(Long.MAX_VALUE, SlidingHyperLogLogRegistry.EvictionPolicy.LEAST_RECENTLY_USED);
+        registry.offer("key", START, 0);
+        long emptySize = registry.sizeInBytes();
+
+        for (int i = 1; i < 10_000; i++)
+            registry.offer("key", START + i, i);
+
+        // Re-estimated as it grows, and again on eviction
+        Assert.assertTrue(registry.sizeInBytes() > emptySize);
+        registry.evict(START + 10_000);
+        Assert.assertTrue(registry.sizeInBytes() > emptySize);
+
+        Assert.assertTrue(registry.remove("key"));
+        Assert.assertFalse(registry.remove("key"));
+        Assert.assertEquals(registry.sizeInBytes(), 0);
+    }
+
+    @Test
+    public void concurrentOffersTest() throws Exception {
+        SlidingHyperLogLogRegistry<Integer> registry = new SlidingHyperLogLogRegistry.Builder<Integer>().setSketchBuilder(sketchBuilder()).build();
+        int threads = 8;
+        int keys = 20;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Every offer has the same timestamp, so the sketches do not depend on the order offers arrive in
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                int first = thread;
+                futures.add(executor.submit(() -> {
+                    for (int value = first; value < 100_000; value += threads) {
+                        registry.offer(value % keys, START, value);
+                        if (value % 10_000 == first)
+                            registry.evict(START);
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        for (int key = 0; key < keys; key++) {
+            SlidingHyperLogLog expected = sketchBuilder().build();
+            for (int value = key; value < 100_000; value += keys)
+                expected.offer(START, value);
+            Assert.assertEquals(registry.cardinalitySince(key, START), expected.cardinalitySince(START));
+        }
+    }
+
+    @Test
+    public void sketchSizeTest() {
+        SlidingHyperLogLog.Builder[] builders = {
+                sketchBuilder(),
+                sketchBuilder().setLpfmFactory(new MonotonicDequeLPFMFactory()),
+                sketchBuilder().setLpfmFactory(new BasicListLPFMFactory()),
+                sketchBuilder().setLpfmStoreFactory(new FlatLPFMStoreFactory()),
+                sketchBuilder().setSparse(true),
+                sketchBuilder().setConcurrencyLevel(2),
+                sketchBuilder().setCardinalityCache(true),
+        };
+
+        for (SlidingHyperLogLog.Builder builder : builders) {
+            SlidingHyperLogLog shll = builder.build();
+            long emptySize = shll.sizeInBytes();
+            for (long t = START; t < START + 10_000; t++)
+                shll.offer(t, t);
+            shll.cardinalitySince(START);
+
+            // 64 registers of about 7 entries each take at least 12 bytes per entry however they are stored
+            Assert.assertTrue(emptySize > 0);
+            Assert.assertTrue(shll.sizeInBytes() > emptySize + 64 * 4 * 12, shll.sizeInBytes() + " bytes, " + emptySize + " empty");
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Please set a sketch builder")
+    public void noSketchBuilderTest() {
+        new SlidingHyperLogLogRegistry.Builder<String>().build();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void noMemoryBudgetTest() {
+        new SlidingHyperLogLogRegistry.Builder<String>().setMemoryBudget(0);
+    }
+}
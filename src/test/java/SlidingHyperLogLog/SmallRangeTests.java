@@ -0,0 +1,37 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SmallRangeTests {
+
+    // 16 registers of 32-bit hashes, the first empty ones empty and the rest with the given rank
+    private static SlidingHyperLogLog withRanks(int empty, int rank) {
+        SlidingHyperLogLog shll = new SlidingHyperLogLog.Builder().setRsd(0.25).setWindowSize(1000).build();
+        for (int j = empty; j < 16; j++)
+            shll.offerHashed(0, j << 28 | 1 << (28 - rank));
+        return shll;
+    }
+
+    @Test
+    public void noEmptyRegistersTest() {
+        // Every register at rank 1 gives a raw estimate of 0.673 * 16 * 2, well under 2.5 * 16, with nothing to count
+        // linearly, so the raw estimate stands
+        double raw = 0.673 * 16 * 2;
+        Assert.assertTrue(raw <= 2.5 * 16);
+        Assert.assertEquals(withRanks(0, 1).cardinalitySince(0), Math.round(raw));
+
+        Assert.assertEquals(SlidingHyperLogLog.smallRangeEstimate(16, raw, 0), Math.round(raw));
+        Assert.assertEquals(SlidingHyperLogLog.smallRangeEstimate(16, 2.5 * 16, 0), 40);
+    }
+
+    @Test
+    public void linearCountingTest() {
+        // 4 of 16 registers empty: 16 log(16 / 4)
+        Assert.assertEquals(withRanks(4, 1).cardinalitySince(0), Math.round(16 * Math.log(4)));
+        Assert.assertEquals(SlidingHyperLogLog.smallRangeEstimate(16, 20, 4), Math.round(16 * Math.log(4)));
+
+        // Nothing offered
+        Assert.assertEquals(withRanks(16, 1).cardinalitySince(0), 0);
+    }
+}
@@ -0,0 +1,14 @@
+package SlidingHyperLogLog;
+
+public class SparseLPFMStoreCardinalityTests extends CardinalityTests {
+
+    @Override
+    public LPFMFactory getLpfmFactory() {
+        return new RingBufferLPFMFactory();
+    }
+
+    @Override
+    SlidingHyperLogLog.Builder newBuilder() {
+        return super.newBuilder().setSparse(true);
+    }
+}
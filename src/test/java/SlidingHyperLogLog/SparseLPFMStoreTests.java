@@ -0,0 +1,107 @@
+package SlidingHyperLogLog;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+public class SparseLPFMStoreTests {
+
+    private static void assertSameMaxima(LPFMStore store, LPFMStore expected, long t) {
+        for (int i = 0; i < store.registerCount(); i++) {
+            for (long tMin = t - 600; tMin <= t + 1; tMin += 50)
+                Assert.assertEquals(store.getMaxSince(i, tMin), expected.getMaxSince(i, tMin), "Failed at t=" + t + ", register=" + i);
+        }
+    }
+
+    @Test
+    public void matchesPerRegisterLPFMsTest() {
+        int registerCount = 1024;
+        SparseLPFMStore store = new SparseLPFMStoreFactory(new FlatLPFMStoreFactory(), 1000).buildStore(registerCount, 500);
+        LPFMArrayStore expected = new LPFMArrayStoreFactory(new RingBufferLPFMFactory()).buildStore(registerCount, 500);
+        Random r = new Random(1729);
+
+        for (long t = 0; t < 20_000; t++) {
+            int register = r.nextInt(registerCount);
+            int R = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+            store.offer(register, t, R);
+            expected.offer(register, t, R);
+
+            if (t % 997 == 0)
+                assertSameMaxima(store, expected, t);
+        }
+
+        Assert.assertFalse(store.isDense());
+    }
+
+    // A query after every few offers merges a few offers at a time, in place, with pruning and expiry on the way
+    @Test
+    public void frequentQueriesTest() {
+        int registerCount = 64;
+        SparseLPFMStore store = new SparseLPFMStoreFactory(new FlatLPFMStoreFactory(), 1000).buildStore(registerCount, 500);
+        LPFMArrayStore expected = new LPFMArrayStoreFactory(new RingBufferLPFMFactory()).buildStore(registerCount, 500);
+        Random r = new Random(1730);
+
+        long steadySize = 0;
+        for (long t = 0; t < 20_000; t++) {
+            int register = r.nextInt(registerCount);
+            int R = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+            store.offer(register, t, R);
+            expected.offer(register, t, R);
+
+            if (t % 7 == 0) {
+                assertSameMaxima(store, expected, t);
+
+                // Once the list has grown to hold the window, merges reuse it
+                if (t == 10_003)
+                    steadySize = store.sizeInBytes();
+                else if (t > 10_003)
+                    Assert.assertEquals(store.sizeInBytes(), steadySize, "t=" + t);
+            }
+        }
+
+        Assert.assertFalse(store.isDense());
+    }
+
+    @Test
+    public void becomesDenseTest() {
+        int registerCount = 256;
+        SparseLPFMStore store = new SparseLPFMStoreFactory(new LPFMArrayStoreFactory(new MonotonicDequeLPFMFactory())).buildStore(registerCount, 100_000);
+        LPFMArrayStore expected = new LPFMArrayStoreFactory(new RingBufferLPFMFactory()).buildStore(registerCount, 100_000);
+        Random r = new Random(42);
+
+        for (long t = 0; t < 100; t++) {
+            int register = r.nextInt(registerCount);
+            int R = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+            store.offer(register, t, R);
+            expected.offer(register, t, R);
+        }
+        assertSameMaxima(store, expected, 100);
+        Assert.assertFalse(store.isDense());
+
+        for (long t = 100; t < 10_000; t++) {
+            int register = r.nextInt(registerCount);
+            int R = 1 + Integer.numberOfLeadingZeros(r.nextInt());
+            store.offer(register, t, R);
+            expected.offer(register, t, R);
+        }
+        assertSameMaxima(store, expected, 10_000);
+        Assert.assertTrue(store.isDense());
+    }
+
+    @Test
+    public void smallCardinalityStaysSparseTest() {
+        SparseLPFMStore store = new SparseLPFMStoreFactory(new FlatLPFMStoreFactory()).buildStore(1 << 16, 1000);
+        SlidingHyperLogLog.Builder builder = new SlidingHyperLogLog.Builder()
+                .setRsd(0.005)
+                .setWindowSize(1000)
+                .setLpfmStoreFactory((registerCount, windowSize) -> store);
+        SlidingHyperLogLog shll = builder.build();
+
+        for (long t = 0; t < 100_000; t++)
+            shll.offer(t, t % 500);
+
+        Assert.assertEquals(shll.cardinalitySince(99_000), 500, 5);
+        Assert.assertFalse(store.isDense());
+    }
+}